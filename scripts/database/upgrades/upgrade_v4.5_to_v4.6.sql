@@ -0,0 +1,7 @@
+-- For ListRecords on the OAI server, which pages through the records of a set
+-- in (lastupdatetime, id) order:
+CREATE INDEX index_oairecord_setname_lastupdatetime_id ON oairecord (setname, lastupdatetime, id);
+-- When the records of an OAI set were last updated, for the incremental updates:
+ALTER TABLE oaiset ADD COLUMN lastUpdateTime TIMESTAMP;
+-- And when they were last updated in full:
+ALTER TABLE oaiset ADD COLUMN lastFullUpdateTime TIMESTAMP;
@@ -0,0 +1,126 @@
+package edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress;
+
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv4Address;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv4Range;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv6Address;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv6Range;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * IP group resolution: {@link IpRangeIndex} lookups, against scanning every
+ * range of every group (which is what the database query amounts to without
+ * a suitable index), for thousands of IPv4 and IPv6 ranges; and the time to
+ * build the index.
+ *
+ * Run with {@code mvn -Pbenchmarks test-compile exec:exec -Dbenchmark=IpRangeIndex}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IpRangeIndexBenchmark {
+
+    /**
+     * Each group has 5 IPv4 and 5 IPv6 ranges.
+     */
+    @Param({"100", "1000"})
+    public int groupCount;
+
+    private static final int RANGES_PER_GROUP = 5;
+
+    private List<IpGroup> groups;
+    private IpRangeIndex index;
+    private final IpAddress[] addresses = new IpAddress[4096];
+    private int next = 0;
+
+    @Setup
+    public void createGroups() {
+        Random random = new Random(42);
+        groups = new ArrayList<>();
+        for (int g = 0; g < groupCount; g++) {
+            IpGroup group = new IpGroup();
+            group.setIpv4Ranges(new HashSet<>());
+            group.setIpv6Ranges(new HashSet<>());
+            for (int r = 0; r < RANGES_PER_GROUP; r++) {
+                IPv4Address bottom = randomIPv4(random);
+                long bottomLong = bottom.toLong() & 0xffffffffL;
+                group.add(new IPv4Range(bottom, new IPv4Address(Math.min(0xffffffffL, bottomLong + random.nextInt(1 << 16)))));
+                IPv6Address bottom6 = randomIPv6(random);
+                group.add(new IPv6Range(bottom6, new IPv6Address(bottom6.get(0), bottom6.get(1), bottom6.get(2), bottom6.get(3),
+                        0xffff, 0xffff, 0xffff, 0xffff)));
+            }
+            groups.add(group);
+        }
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = (i % 2 == 0) ? randomIPv4(random) : randomIPv6(random);
+        }
+        index = IpRangeIndex.build(groups);
+    }
+
+    private IpAddress nextAddress() {
+        return addresses[next++ & (addresses.length - 1)];
+    }
+
+    @Benchmark
+    public Set<IpGroup> indexLookup() {
+        return index.groupsContaining(nextAddress());
+    }
+
+    @Benchmark
+    public Set<IpGroup> scanLookup() {
+        return scan(groups, nextAddress());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public IpRangeIndex buildIndex() {
+        return IpRangeIndex.build(groups);
+    }
+
+    private static Set<IpGroup> scan(List<IpGroup> groups, IpAddress address) {
+        Set<IpGroup> result = new HashSet<>();
+        for (IpGroup group : groups) {
+            for (IPv4Range range : group.getIpv4Ranges()) {
+                if (Boolean.TRUE.equals(range.contains(address))) {
+                    result.add(group);
+                }
+            }
+            for (IPv6Range range : group.getIpv6Ranges()) {
+                if (Boolean.TRUE.equals(range.contains(address))) {
+                    result.add(group);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static IPv4Address randomIPv4(Random random) {
+        return new IPv4Address(random.nextInt(256), random.nextInt(256), random.nextInt(256), random.nextInt(256));
+    }
+
+    private static IPv6Address randomIPv6(Random random) {
+        // a few shared prefixes, so that ranges are found
+        return new IPv6Address(0x2001, 0xdb8, random.nextInt(4), random.nextInt(1 << 16),
+                random.nextInt(1 << 16), random.nextInt(1 << 16), random.nextInt(1 << 16), random.nextInt(1 << 16));
+    }
+
+}
@@ -0,0 +1,126 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Download throughput: the buffered stream copy DownloadInstanceWriter used
+ * for every download, against {@link FileTransfer}, both to a file (which
+ * takes the transferTo() path) and to a plain output stream (which takes the
+ * pooled buffer path). The score is the time to copy the whole file; the
+ * throughput is {@code sizeMB} over it.
+ *
+ * Run with {@code mvn -Pbenchmarks test-compile exec:exec -Dbenchmark=FileTransfer}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FileTransferBenchmark {
+
+    @Param({"16", "256"})
+    public int sizeMB;
+
+    private File source;
+    private File target;
+    private long size;
+
+    @Setup(Level.Trial)
+    public void createSource() throws IOException {
+        source = File.createTempFile("transfer-benchmark", ".bin");
+        target = File.createTempFile("transfer-benchmark", ".out");
+
+        byte[] block = new byte[1024 * 1024];
+        new Random(1).nextBytes(block);
+        try (OutputStream out = new FileOutputStream(source)) {
+            for (int i = 0; i < sizeMB; i++) {
+                out.write(block);
+            }
+        }
+        size = source.length();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        Files.deleteIfExists(source.toPath());
+        Files.deleteIfExists(target.toPath());
+    }
+
+    @Benchmark
+    public void streamCopyToFile() throws IOException {
+        try (InputStream in = new FileInputStream(source); OutputStream out = new FileOutputStream(target)) {
+            streamCopy(in, out);
+        }
+    }
+
+    @Benchmark
+    public long transferToFile() throws IOException {
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ); OutputStream out = new FileOutputStream(target)) {
+            return FileTransfer.transfer(channel, 0, size, out);
+        }
+    }
+
+    @Benchmark
+    public void streamCopyToStream() throws IOException {
+        try (InputStream in = new FileInputStream(source)) {
+            streamCopy(in, new NullOutputStream());
+        }
+    }
+
+    @Benchmark
+    public long pooledBufferToStream() throws IOException {
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            return FileTransfer.transfer(channel, 0, size, new NullOutputStream());
+        }
+    }
+
+    /**
+     * The copy loop of DownloadInstanceWriter, before the fast path.
+     */
+    private static void streamCopy(InputStream instream, OutputStream outstream) throws IOException {
+        int bufsize;
+        byte[] bffr = new byte[4 * 8192];
+        while ((bufsize = instream.read(bffr)) != -1) {
+            outstream.write(bffr, 0, bufsize);
+        }
+    }
+
+    /**
+     * (not a FileOutputStream, so FileTransfer can't take the channel path)
+     */
+    private static class NullOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+}
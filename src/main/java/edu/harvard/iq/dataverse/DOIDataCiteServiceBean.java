@@ -5,6 +5,7 @@
  */
 package edu.harvard.iq.dataverse;
 
+import edu.harvard.iq.dataverse.outbox.StubGlobalIdPublicizer;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import edu.harvard.iq.dataverse.util.SystemConfig;
 import java.net.InetAddress;
@@ -46,6 +47,10 @@ public class DOIDataCiteServiceBean {
     }
     
     public boolean alreadyExists (Dataset dataset){   
+        if (StubGlobalIdPublicizer.isEnabled()) {
+            // (the stub keeps no identifiers of its own)
+            return false;
+        }
         boolean alreadyExists;
         String identifier = getIdentifierFromDataset(dataset);
         try{
@@ -58,6 +63,9 @@ public class DOIDataCiteServiceBean {
     }
 
     public String createIdentifier(Dataset dataset) throws Exception {
+        if (StubGlobalIdPublicizer.isEnabled()) {
+            return StubGlobalIdPublicizer.getInstance().createIdentifier(dataset);
+        }
         String retString = "";
         String identifier = getIdentifierFromDataset(dataset);
         HashMap metadata = getMetadataFromStudyForCreateIndicator(dataset);
@@ -7,6 +7,7 @@
 package edu.harvard.iq.dataverse;
 
 
+import edu.harvard.iq.dataverse.outbox.StubGlobalIdPublicizer;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import edu.harvard.iq.dataverse.util.SystemConfig;
 import edu.ucsb.nceas.ezid.EZIDException;
@@ -62,6 +63,9 @@ public class DOIEZIdServiceBean  {
     }    
     
     public String createIdentifier(Dataset dataset) {
+        if (StubGlobalIdPublicizer.isEnabled()) {
+            return StubGlobalIdPublicizer.getInstance().createIdentifier(dataset);
+        }
         String retString = "";
         String identifier = getIdentifierFromDataset(dataset);
         HashMap<String, String> metadata = getMetadataFromStudyForCreateIndicator(dataset);
@@ -16,6 +16,7 @@ import edu.harvard.iq.dataverse.search.SortBy;
 import edu.harvard.iq.dataverse.util.FileSortFieldAndOrder;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -34,6 +35,7 @@ import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
+import org.apache.commons.lang.StringUtils;
 
 /**
  *
@@ -250,19 +252,79 @@ public class DataFileServiceBean implements java.io.Serializable {
     }
 
     public DataFile findCheapAndEasy(Long id) {
-        DataFile dataFile = null;
+        return findCheapAndEasy(Collections.singleton(id)).get(id);
+    }
+
+    /**
+     * Same as {@link #findCheapAndEasy(java.lang.Long)}, for several files at
+     * once: two queries in all (the second one only if there are tabular
+     * files), rather than up to two per file.
+     * 
+     * @param ids ids of the files.
+     * @return the files found, by id.
+     */
+    public Map<Long, DataFile> findCheapAndEasy(Collection<Long> ids) {
+        Map<Long, DataFile> dataFiles = new HashMap<>();
+        if (ids.isEmpty()) {
+            return dataFiles;
+        }
+        String idList = StringUtils.join(ids, ",");
 
-        Object[] result = null;
+        List<Object[]> results;
 
         try {
-            result = (Object[]) em.createNativeQuery("SELECT t0.ID, t0.CREATEDATE, t0.INDEXTIME, t0.MODIFICATIONTIME, t0.PERMISSIONINDEXTIME, t0.PERMISSIONMODIFICATIONTIME, t0.PUBLICATIONDATE, t0.CREATOR_ID, t0.RELEASEUSER_ID, t0.PREVIEWIMAGEAVAILABLE, t1.CONTENTTYPE, t1.FILESYSTEMNAME, t1.FILESIZE, t1.INGESTSTATUS, t1.MD5, t1.RESTRICTED, t3.ID, t3.AUTHORITY, t3.IDENTIFIER FROM DVOBJECT t0, DATAFILE t1, DVOBJECT t2, DATASET t3 WHERE ((t0.ID = " + id + ") AND (t0.OWNER_ID = t2.ID) AND (t2.ID = t3.ID) AND (t1.ID = t0.ID))").getSingleResult();
+            results = em.createNativeQuery("SELECT t0.ID, t0.CREATEDATE, t0.INDEXTIME, t0.MODIFICATIONTIME, t0.PERMISSIONINDEXTIME, t0.PERMISSIONMODIFICATIONTIME, t0.PUBLICATIONDATE, t0.CREATOR_ID, t0.RELEASEUSER_ID, t0.PREVIEWIMAGEAVAILABLE, t1.CONTENTTYPE, t1.FILESYSTEMNAME, t1.FILESIZE, t1.INGESTSTATUS, t1.MD5, t1.RESTRICTED, t3.ID, t3.AUTHORITY, t3.IDENTIFIER FROM DVOBJECT t0, DATAFILE t1, DVOBJECT t2, DATASET t3 WHERE ((t0.ID IN (" + idList + ")) AND (t0.OWNER_ID = t2.ID) AND (t2.ID = t3.ID) AND (t1.ID = t0.ID))").getResultList();
         } catch (Exception ex) {
-            return null;
+            return dataFiles;
         }
 
-        if (result == null) {
-            return null;
+        Map<Long, DataFile> tabularFiles = new HashMap<>();
+        for (Object[] result : results) {
+            DataFile dataFile = dataFileFromCheapAndEasyResult(result);
+            dataFiles.put(dataFile.getId(), dataFile);
+            if (MIME_TYPE_TAB.equalsIgnoreCase(dataFile.getContentType())) {
+                tabularFiles.put(dataFile.getId(), dataFile);
+            }
+        }
+
+        // look up data tables; but only for the files whose content type 
+        // indicates it's tabular data:
+        
+        if (!tabularFiles.isEmpty()) {
+            List<Object[]> dtResults;
+            try {
+                dtResults = em.createNativeQuery("SELECT ID, UNF, CASEQUANTITY, VARQUANTITY, ORIGINALFILEFORMAT, DATAFILE_ID FROM dataTable WHERE DATAFILE_ID IN (" + StringUtils.join(tabularFiles.keySet(), ",") + ")").getResultList();
+            } catch (Exception ex) {
+                dtResults = Collections.emptyList();
+            }
+        
+            for (Object[] dtResult : dtResults) {
+                DataFile dataFile = tabularFiles.get(((Number) dtResult[5]).longValue());
+                if (dataFile == null) {
+                    continue;
+                }
+                DataTable dataTable = new DataTable(); 
+
+                dataTable.setId(((Integer)dtResult[0]).longValue());
+            
+                dataTable.setUnf((String)dtResult[1]);
+            
+                dataTable.setCaseQuantity((Long)dtResult[2]);
+            
+                dataTable.setVarQuantity((Long)dtResult[3]);
+            
+                dataTable.setOriginalFileFormat((String)dtResult[4]);
+                
+                dataTable.setDataFile(dataFile);
+                dataFile.setDataTable(dataTable);
+            }
         }
+        
+        return dataFiles;
+    }
+
+    private DataFile dataFileFromCheapAndEasyResult(Object[] result) {
+        DataFile dataFile;
 
         Integer file_id = (Integer) result[0];
 
@@ -365,34 +427,6 @@ public class DataFileServiceBean implements java.io.Serializable {
                 
         dataFile.setOwner(owner);
 
-        // look up data table; but only if content type indicates it's tabular data:
-        
-        if (MIME_TYPE_TAB.equalsIgnoreCase(contentType)) {
-            Object[] dtResult = null;
-            try {
-                dtResult = (Object[]) em.createNativeQuery("SELECT ID, UNF, CASEQUANTITY, VARQUANTITY, ORIGINALFILEFORMAT FROM dataTable WHERE DATAFILE_ID = " + id).getSingleResult();
-            } catch (Exception ex) {
-                dtResult = null;
-            }
-        
-            if (dtResult != null) {
-                DataTable dataTable = new DataTable(); 
-
-                dataTable.setId(((Integer)dtResult[0]).longValue());
-            
-                dataTable.setUnf((String)dtResult[1]);
-            
-                dataTable.setCaseQuantity((Long)dtResult[2]);
-            
-                dataTable.setVarQuantity((Long)dtResult[3]);
-            
-                dataTable.setOriginalFileFormat((String)dtResult[4]);
-                
-                dataTable.setDataFile(dataFile);
-                dataFile.setDataTable(dataTable);
-            }
-        }
-        
         return dataFile;
     }
     /* 
@@ -1198,5 +1232,20 @@ public class DataFileServiceBean implements java.io.Serializable {
     public void populateFileSearchCard(SolrSearchResult solrSearchResult) {
         solrSearchResult.setEntity(this.findCheapAndEasy(solrSearchResult.getEntityId()));
     }
+
+    /**
+     * Same as {@link #populateFileSearchCard(edu.harvard.iq.dataverse.search.SolrSearchResult)},
+     * for a whole page of results at once.
+     */
+    public void populateFileSearchCards(List<SolrSearchResult> solrSearchResults) {
+        Set<Long> ids = new HashSet<>();
+        for (SolrSearchResult solrSearchResult : solrSearchResults) {
+            ids.add(solrSearchResult.getEntityId());
+        }
+        Map<Long, DataFile> dataFiles = findCheapAndEasy(ids);
+        for (SolrSearchResult solrSearchResult : solrSearchResults) {
+            solrSearchResult.setEntity(dataFiles.get(solrSearchResult.getEntityId()));
+        }
+    }
         
 }
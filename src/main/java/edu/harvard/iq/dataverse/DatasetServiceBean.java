@@ -10,30 +10,38 @@ import edu.harvard.iq.dataverse.authorization.Permission;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import edu.harvard.iq.dataverse.authorization.users.User;
 import edu.harvard.iq.dataverse.dataaccess.ImageThumbConverter;
+import edu.harvard.iq.dataverse.export.ExportAllProgress;
 import edu.harvard.iq.dataverse.export.ExportService;
 import edu.harvard.iq.dataverse.harvest.server.OAIRecordServiceBean;
 import edu.harvard.iq.dataverse.search.IndexServiceBean;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
+import edu.harvard.iq.dataverse.util.SystemConfig;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.Resource;
 import javax.ejb.Asynchronous;
 import javax.ejb.EJB;
 import javax.ejb.EJBException;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
@@ -78,6 +86,14 @@ public class DatasetServiceBean implements java.io.Serializable {
     @EJB
     OAIRecordServiceBean recordService;
     
+    @EJB
+    SystemConfig systemConfig;
+    
+    @Resource
+    ManagedExecutorService executor;
+    
+    private static volatile ExportAllProgress currentExportAllProgress;
+    
     private static final SimpleDateFormat logFormatter = new SimpleDateFormat("yyyy-MM-dd'T'HH-mm-ss");
     
     @PersistenceContext(unitName = "VDCNet-ejbPU")
@@ -120,6 +136,16 @@ public class DatasetServiceBean implements java.io.Serializable {
         return em.createQuery("SELECT o.id FROM Dataset o WHERE o.harvestedFrom IS null ORDER BY o.id", Long.class).getResultList();
     }
 
+    /**
+     * @param since a time.
+     * @return the ids of the local datasets whose metadata was (re-)exported 
+     * at or after {@code since} - i.e., that were published since.
+     */
+    public List<Long> findLocalDatasetIdsExportedSince(Date since) {
+        return em.createQuery("SELECT o.id FROM Dataset o WHERE o.harvestedFrom IS null AND o.lastExportTime >= :since ORDER BY o.id", Long.class)
+                .setParameter("since", since).getResultList();
+    }
+
     /**
      * For docs, see the equivalent method on the DataverseServiceBean.
      * @see DataverseServiceBean#findAllOrSubset(long, long, boolean)
@@ -148,11 +174,62 @@ public class DatasetServiceBean implements java.io.Serializable {
     }
     
     public Dataset findByGlobalId(String globalId) {
+        String[] parts = parseGlobalId(globalId, getDoiSeparator());
+        if (parts == null) {
+            return null;
+        }
+        String queryStr = "SELECT s from Dataset s where s.identifier = :identifier  and s.protocol= :protocol and s.authority= :authority";
+        Dataset foundDataset = null;
+        try {
+            Query query = em.createQuery(queryStr);
+            query.setParameter("identifier", parts[2]);
+            query.setParameter("protocol", parts[0]);
+            query.setParameter("authority", parts[1]);
+            foundDataset = (Dataset) query.getSingleResult();
+        } catch (javax.persistence.NoResultException e) {
+            // (set to .info, this can fill the log file with thousands of 
+            // these messages during a large harvest run)
+            logger.fine("no ds found: " + globalId);
+            // DO nothing, just return null.
+        }
+        return foundDataset;
+    }
 
-        String protocol = "";
-        String authority = "";
-        String identifier = "";
-        int index1 = globalId.indexOf(':');
+    /**
+     * Finds the datasets with these global ids with one query, rather than
+     * one {@link #findByGlobalId} each.
+     *
+     * @return the datasets found, by their global id as given; the ids of
+     * the datasets not found are not in it.
+     */
+    public Map<String, Dataset> findByGlobalIds(Collection<String> globalIds) {
+        String separator = getDoiSeparator();
+        Map<List<String>, String> globalIdsByParts = new HashMap<>();
+        for (String globalId : globalIds) {
+            String[] parts = parseGlobalId(globalId, separator);
+            if (parts != null) {
+                globalIdsByParts.put(Arrays.asList(parts), globalId);
+            }
+        }
+        Map<String, Dataset> found = new HashMap<>();
+        if (globalIdsByParts.isEmpty()) {
+            return found;
+        }
+        Set<String> identifiers = new HashSet<>();
+        for (List<String> parts : globalIdsByParts.keySet()) {
+            identifiers.add(parts.get(2));
+        }
+        for (Dataset dataset : em.createQuery("SELECT s FROM Dataset s WHERE s.identifier IN :identifiers", Dataset.class)
+                .setParameter("identifiers", identifiers).getResultList()) {
+            String globalId = globalIdsByParts.get(Arrays.asList(dataset.getProtocol(), dataset.getAuthority(), dataset.getIdentifier()));
+            if (globalId != null) {
+                found.put(globalId, dataset);
+            }
+        }
+        return found;
+    }
+
+    private String getDoiSeparator() {
         String nonNullDefaultIfKeyNotFound = ""; 
         // This is kind of wrong right here: we should not assume that this is *our* DOI - 
         // it can be somebody else's registered DOI that we harvested. And they can 
@@ -161,7 +238,19 @@ public class DatasetServiceBean implements java.io.Serializable {
         // Also, this separator character gets applied to handles lookups too, below. 
         // Which is probably wrong too...
         // -- L.A. 4.2.4
-        String separator = settingsService.getValueForKey(SettingsServiceBean.Key.DoiSeparator, nonNullDefaultIfKeyNotFound);        
+        return settingsService.getValueForKey(SettingsServiceBean.Key.DoiSeparator, nonNullDefaultIfKeyNotFound);        
+    }
+
+    /**
+     * @return the protocol, authority and identifier of the global id, or
+     * {@code null} if it can't be parsed.
+     */
+    private String[] parseGlobalId(String globalId, String separator) {
+
+        String protocol = "";
+        String authority = "";
+        String identifier = "";
+        int index1 = globalId.indexOf(':');
         int index2 = globalId.indexOf(separator, index1 + 1);
         int index3 = 0;
         if (index1 == -1) {            
@@ -197,21 +286,7 @@ public class DatasetServiceBean implements java.io.Serializable {
         } else {
             identifier = globalId.substring(index2 + 1).toUpperCase();
         }
-        String queryStr = "SELECT s from Dataset s where s.identifier = :identifier  and s.protocol= :protocol and s.authority= :authority";
-        Dataset foundDataset = null;
-        try {
-            Query query = em.createQuery(queryStr);
-            query.setParameter("identifier", identifier);
-            query.setParameter("protocol", protocol);
-            query.setParameter("authority", authority);
-            foundDataset = (Dataset) query.getSingleResult();
-        } catch (javax.persistence.NoResultException e) {
-            // (set to .info, this can fill the log file with thousands of 
-            // these messages during a large harvest run)
-            logger.fine("no ds found: " + globalId);
-            // DO nothing, just return null.
-        }
-        return foundDataset;
+        return new String[]{protocol, authority, identifier};
     }
 
     public String generateIdentifierSequence(String protocol, String authority, String separator) {
@@ -691,10 +766,15 @@ public class DatasetServiceBean implements java.io.Serializable {
         exportAllDatasets(false);
     }
     
+    /**
+     * @return Progress of the most recent "export all" run on this server,
+     * if any.
+     */
+    public ExportAllProgress getExportAllProgress() {
+        return currentExportAllProgress;
+    }
+    
     public void exportAllDatasets(boolean forceReExport) {
-        Integer countAll = 0;
-        Integer countSuccess = 0;
-        Integer countError = 0;
         String logTimestamp = logFormatter.format(new Date());
         Logger exportLogger = Logger.getLogger("edu.harvard.iq.dataverse.harvest.client.DatasetServiceBean." + "ExportAll" + logTimestamp);
         String logFileName = "../logs" + File.separator + "export_" + logTimestamp + ".log";
@@ -719,43 +799,50 @@ public class DatasetServiceBean implements java.io.Serializable {
 
         exportLogger.info("Starting an export all job");
 
-        for (Long datasetId : findAllLocalDatasetIds()) {
-            // Potentially, there's a godzillion datasets in this Dataverse. 
-            // This is why we go through the list of ids here, and instantiate 
-            // only one dataset at a time. 
-            Dataset dataset = this.find(datasetId);
-            if (dataset != null) {
-                // Accurate "is published?" test - ?
-                // Answer: Yes, it is! We can't trust dataset.isReleased() alone; because it is a dvobject method 
-                // that returns (publicationDate != null). And "publicationDate" is essentially
-                // "the first publication date"; that stays the same as versions get 
-                // published and/or deaccessioned. But in combination with !isDeaccessioned() 
-                // it is indeed an accurate test.
-                if (dataset.isReleased() && dataset.getReleasedVersion() != null && !dataset.isDeaccessioned()) {
-
-                    // can't trust dataset.getPublicationDate(), no. 
-                    Date publicationDate = dataset.getReleasedVersion().getReleaseTime(); // we know this dataset has a non-null released version! Maybe not - SEK 8/19 (We do now! :)
-                    if (forceReExport || (publicationDate != null
-                            && (dataset.getLastExportTime() == null
-                            || dataset.getLastExportTime().before(publicationDate)))) {
-                        countAll++;
-                        try {
-                            recordService.exportAllFormatsInNewTransaction(dataset);
-                            exportLogger.info("Success exporting dataset: " + dataset.getDisplayName() + " " + dataset.getGlobalId());
-                            countSuccess++;
-                        } catch (Exception ex) {
-                            exportLogger.info("Error exporting dataset: " + dataset.getDisplayName() + " " + dataset.getGlobalId() + "; " + ex.getMessage());
-                            countError++;
+        // Potentially, there's a godzillion datasets in this Dataverse. 
+        // This is why we go through the list of ids here, and have each 
+        // dataset instantiated - and exported - in its own transaction, by a 
+        // bounded pool of workers. 
+        List<Long> datasetIds = findAllLocalDatasetIds();
+        int workers = Math.max(1, systemConfig.getExportAllWorkers());
+        ExportAllProgress progress = new ExportAllProgress(forceReExport, workers, datasetIds.size());
+        currentExportAllProgress = progress;
+        Semaphore workerSlots = new Semaphore(workers);
+        final Logger workerLogger = exportLogger;
+        
+        for (Long datasetId : datasetIds) {
+            workerSlots.acquireUninterruptibly();
+            progress.started();
+            try {
+                executor.submit(() -> {
+                    try {
+                        if (recordService.exportDatasetInNewTransaction(datasetId, forceReExport, workerLogger)) {
+                            progress.exported();
+                        } else {
+                            progress.skipped();
                         }
+                    } catch (Exception ex) {
+                        workerLogger.info("Error exporting dataset id " + datasetId + "; " + ex.getMessage());
+                        progress.failed();
+                    } finally {
+                        workerSlots.release();
                     }
-                }
-                dataset = null;
+                });
+            } catch (RuntimeException ex) {
+                exportLogger.warning("could not hand work to export all worker: " + ex);
+                progress.failed();
+                workerSlots.release();
             }
         }
-        exportLogger.info("Datasets processed: " + countAll.toString());
-        exportLogger.info("Datasets exported successfully: " + countSuccess.toString());
-        exportLogger.info("Datasets failures: " + countError.toString());
-        exportLogger.info("Finished export-all job.");
+        // wait for the last workers to finish
+        workerSlots.acquireUninterruptibly(workers);
+        workerSlots.release(workers);
+        progress.finished();
+        
+        exportLogger.info("Datasets processed: " + (progress.getExported() + progress.getFailures()));
+        exportLogger.info("Datasets exported successfully: " + progress.getExported());
+        exportLogger.info("Datasets failures: " + progress.getFailures());
+        exportLogger.info("Finished export-all job, in " + progress.getElapsedMillis() + " ms.");
         
         if (fileHandlerSuceeded) {
             fileHandler.close();
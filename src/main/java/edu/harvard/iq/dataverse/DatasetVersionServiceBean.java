@@ -9,8 +9,14 @@ import edu.harvard.iq.dataverse.DatasetVersion.VersionState;
 import edu.harvard.iq.dataverse.search.SolrSearchResult;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import edu.harvard.iq.dataverse.util.SystemConfig;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.ejb.EJB;
@@ -21,6 +27,7 @@ import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
+import org.apache.commons.lang.StringUtils;
 
     
 /**
@@ -818,5 +825,104 @@ public class DatasetVersionServiceBean implements java.io.Serializable {
             }
         }
     }
+
+    /**
+     * Same as {@link #populateDatasetSearchCard(edu.harvard.iq.dataverse.search.SolrSearchResult)},
+     * for a whole page of results at once: a query each for the versions, the
+     * dataverses, the thumbnail ids and the thumbnail files, rather than up to
+     * two per card.
+     */
+    public void populateDatasetSearchCards(List<SolrSearchResult> solrSearchResults) {
+        List<SolrSearchResult> cards = new ArrayList<>();
+        Set<Long> versionIds = new HashSet<>();
+        Set<Long> dataverseIds = new HashSet<>();
+        Set<Long> datasetIds = new HashSet<>();
+        for (SolrSearchResult solrSearchResult : solrSearchResults) {
+            Long dataverseId;
+            try {
+                dataverseId = Long.parseLong(solrSearchResult.getParent().get("id"));
+            } catch (NumberFormatException ex) {
+                continue;
+            }
+            Long datasetVersionId = solrSearchResult.getDatasetVersionId();
+            if (dataverseId == 0 || datasetVersionId == null) {
+                continue;
+            }
+            cards.add(solrSearchResult);
+            versionIds.add(datasetVersionId);
+            dataverseIds.add(dataverseId);
+            if (solrSearchResult.getEntityId() != null) {
+                datasetIds.add(solrSearchResult.getEntityId());
+            }
+        }
+        if (cards.isEmpty()) {
+            return;
+        }
+
+        Map<Long, Object> versionStates;
+        Map<Long, Object> dataverseAliases;
+        Map<Long, Object> thumbnailFileIds;
+        try {
+            versionStates = selectById("SELECT ID, VERSIONSTATE FROM DATASETVERSION", versionIds);
+            dataverseAliases = selectById("SELECT ID, ALIAS FROM DATAVERSE", dataverseIds);
+            thumbnailFileIds = selectById("SELECT ID, THUMBNAILFILE_ID FROM DATASET", datasetIds);
+        } catch (Exception ex) {
+            return;
+        }
+
+        Set<Long> thumbnailIds = new HashSet<>();
+        for (Object thumbnailFileId : thumbnailFileIds.values()) {
+            if (thumbnailFileId != null) {
+                thumbnailIds.add(((Number) thumbnailFileId).longValue());
+            }
+        }
+        Map<Long, DataFile> thumbnailFiles;
+        try {
+            thumbnailFiles = datafileService.findCheapAndEasy(thumbnailIds);
+        } catch (Exception ex) {
+            thumbnailFiles = new HashMap<>();
+        }
+
+        for (SolrSearchResult solrSearchResult : cards) {
+            Long versionId = solrSearchResult.getDatasetVersionId();
+            Long dataverseId = Long.parseLong(solrSearchResult.getParent().get("id"));
+            // Same as for a single card: nothing is filled in unless both the
+            // version and the dataverse were found.
+            if (!versionStates.containsKey(versionId) || !dataverseAliases.containsKey(dataverseId)) {
+                continue;
+            }
+            if ("DEACCESSIONED".equals(versionStates.get(versionId))) {
+                solrSearchResult.setDeaccessionedState(true);
+            }
+            if (dataverseAliases.get(dataverseId) != null) {
+                solrSearchResult.setDataverseAlias((String) dataverseAliases.get(dataverseId));
+            }
+            Object thumbnailFileId = thumbnailFileIds.get(solrSearchResult.getEntityId());
+            if (thumbnailFileId != null) {
+                DataFile thumbnailFile = thumbnailFiles.get(((Number) thumbnailFileId).longValue());
+                if (thumbnailFile != null) {
+                    solrSearchResult.setEntity(new Dataset());
+                    ((Dataset)solrSearchResult.getEntity()).setThumbnailFile(thumbnailFile);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param select a native query selecting an id and a value.
+     * @param ids the ids to select the rows of.
+     * @return the values, by id.
+     */
+    private Map<Long, Object> selectById(String select, Collection<Long> ids) {
+        Map<Long, Object> values = new HashMap<>();
+        if (ids.isEmpty()) {
+            return values;
+        }
+        List<Object[]> rows = em.createNativeQuery(select + " WHERE ID IN (" + StringUtils.join(ids, ",") + ")").getResultList();
+        for (Object[] row : rows) {
+            values.put(((Number) row[0]).longValue(), row[1]);
+        }
+        return values;
+    }
     
 } // end class
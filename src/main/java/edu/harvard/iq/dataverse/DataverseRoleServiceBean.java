@@ -38,6 +38,7 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
     @EJB IndexServiceBean indexService;   
     @EJB SolrIndexServiceBean solrIndexService;
     @EJB IndexAsync indexAsync;
+    @EJB PermissionCache permissionCache;
 
 	public DataverseRole save( DataverseRole aRole ) {
 		if ( aRole.getId() == null ) {
@@ -50,6 +51,7 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
 			return aRole;
 		} else {
                     DataverseRole merged = em.merge(aRole);
+                    permissionCache.invalidateAll();
                     /**
                      * @todo update permissionModificationTime here.
                      */
@@ -66,6 +68,7 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
 		} else {
 			assignment = em.merge( assignment );
 		}
+            permissionCache.invalidate(assignment.getDefinitionPoint().getId());
             /**
              * @todo update permissionModificationTime here.
              */
@@ -94,6 +97,7 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
 		em.createNamedQuery("DataverseRole.deleteById", DataverseRole.class)
 				.setParameter("id", id)
 				.executeUpdate();
+            permissionCache.invalidateAll();
 	}
 	
 	public List<DataverseRole> findByOwnerId( Long ownerId ) {
@@ -125,6 +129,7 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
 			em.refresh(role);
 		}
 		em.refresh(assignee);
+            permissionCache.invalidate(defPoint.getId());
 	}
 	
 	public void revoke( RoleAssignment ra ) {
@@ -132,12 +137,29 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
 			ra = em.merge(ra);
 		}
 		em.remove(ra);
+            permissionCache.invalidate(ra.getDefinitionPoint().getId());
             /**
              * @todo update permissionModificationTime here.
              */
             indexAsync.indexRole(ra);
 	}
 	
+    /**
+     * Removes the role assignments made on an object that is being deleted,
+     * and the roles defined in it. Unlike {@link #revoke(RoleAssignment)},
+     * nothing is re-indexed: the object is going away.
+     * @param doomed the object being deleted.
+     */
+    public void removeAllFor( DvObject doomed ) {
+        for ( RoleAssignment ra : directRoleAssignments(doomed) ) {
+            em.remove(ra);
+        }
+        for ( DataverseRole role : findByOwnerId(doomed.getId()) ) {
+            em.remove(role);
+        }
+        permissionCache.invalidateAll();
+    }
+	
 	public RoleAssignmentSet roleAssignments( User user, Dataverse dv ) {
 		RoleAssignmentSet retVal = new RoleAssignmentSet(user);
 		while ( dv != null ) {
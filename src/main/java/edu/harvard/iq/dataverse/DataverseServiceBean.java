@@ -38,6 +38,7 @@ import javax.persistence.NonUniqueResultException;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
+import org.apache.commons.lang.StringUtils;
 
 /**
  *
@@ -516,4 +517,53 @@ public class DataverseServiceBean implements java.io.Serializable {
             }
         }
     }
+
+    /**
+     * Same as {@link #populateDvSearchCard(edu.harvard.iq.dataverse.search.SolrSearchResult)},
+     * for a whole page of results at once: a single query, rather than one
+     * per card.
+     */
+    public void populateDvSearchCards(List<SolrSearchResult> solrSearchResults) {
+        Map<Long, List<SolrSearchResult>> cardsById = new HashMap<>();
+        for (SolrSearchResult solrSearchResult : solrSearchResults) {
+            Long dvId = solrSearchResult.getEntityId();
+            if (dvId != null) {
+                List<SolrSearchResult> cards = cardsById.get(dvId);
+                if (cards == null) {
+                    cards = new ArrayList<>();
+                    cardsById.put(dvId, cards);
+                }
+                cards.add(solrSearchResult);
+            }
+        }
+        if (cardsById.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> searchResults;
+        try {
+            searchResults = em.createNativeQuery("SELECT t0.ID, t0.AFFILIATION, t0.ALIAS, t2.ALIAS FROM DATAVERSE t0 JOIN DVOBJECT t1 ON (t1.ID = t0.ID) LEFT JOIN DATAVERSE t2 ON (t2.ID = t1.OWNER_ID) WHERE t0.ID IN (" + StringUtils.join(cardsById.keySet(), ",") + ")").getResultList();
+        } catch (Exception ex) {
+            return;
+        }
+
+        for (Object[] searchResult : searchResults) {
+            List<SolrSearchResult> cards = cardsById.get(((Number) searchResult[0]).longValue());
+            if (cards == null) {
+                continue;
+            }
+            for (SolrSearchResult solrSearchResult : cards) {
+                if (searchResult[1] != null) {
+                    solrSearchResult.setDataverseAffiliation((String) searchResult[1]);
+                }
+                if (searchResult[2] != null) {
+                    solrSearchResult.setDataverseAlias((String) searchResult[2]);
+                }
+                // as above, the parent alias is only shown when Solr knows the parent:
+                if (searchResult[3] != null && solrSearchResult.getParent().get("id") != null) {
+                    solrSearchResult.setDataverseParentAlias((String) searchResult[3]);
+                }
+            }
+        }
+    }
 }  
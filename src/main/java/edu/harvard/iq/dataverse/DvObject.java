@@ -17,6 +17,8 @@ import javax.persistence.*;
             query = "SELECT o FROM DvObject o ORDER BY o.id"),
     @NamedQuery(name = "DvObject.findById",
             query = "SELECT o FROM DvObject o WHERE o.id=:id"),
+    @NamedQuery(name = "DvObject.findByIds",
+            query = "SELECT o FROM DvObject o WHERE o.id IN :ids"),
 	@NamedQuery(name = "DvObject.ownedObjectsById",
 			query="SELECT COUNT(obj) FROM DvObject obj WHERE obj.owner.id=:id")
 })
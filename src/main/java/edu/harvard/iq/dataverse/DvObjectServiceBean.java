@@ -2,6 +2,7 @@ package edu.harvard.iq.dataverse;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -55,6 +56,31 @@ public class DvObjectServiceBean implements java.io.Serializable {
         }
     }
 
+    /**
+     * Finds several objects, and their owners, in one go - rather than a query
+     * per object (and maybe per owner), as calling {@link #findDvObject(java.lang.Long)}
+     * for each would.
+     * 
+     * @param ids ids of the objects to find.
+     * @return The objects found, by id. Ids of objects that don't exist are 
+     * not in the map.
+     */
+    public Map<Long, DvObject> findDvObjects(Collection<Long> ids) {
+        Map<Long, DvObject> retVal = new HashMap<>();
+        if (ids.isEmpty()) {
+            return retVal;
+        }
+        List<DvObject> found = em.createNamedQuery("DvObject.findByIds", DvObject.class)
+                .setParameter("ids", new ArrayList<>(ids))
+                .setHint("eclipselink.batch", "o.owner")
+                .setHint("eclipselink.batch.type", "IN")
+                .getResultList();
+        for (DvObject dvObject : found) {
+            retVal.put(dvObject.getId(), dvObject);
+        }
+        return retVal;
+    }
+
     public List<DvObject> findAll() {
         return em.createNamedQuery("DvObject.findAll", DvObject.class).getResultList();
     }
@@ -93,6 +119,31 @@ public class DvObjectServiceBean implements java.io.Serializable {
         return savedDvObject;
     }
 
+    /**
+     * Updates the content index time of the object once its documents were
+     * sent to Solr by a {@link edu.harvard.iq.dataverse.search.BatchIndex},
+     * from whichever indexing thread (and transaction) sent them.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public void updateContentIndexTimeInNewTransaction(Long dvObjectId) {
+        DvObject dvObjectToModify = findDvObject(dvObjectId);
+        if (dvObjectToModify != null) {
+            dvObjectToModify.setIndexTime(new Timestamp(new Date().getTime()));
+        }
+    }
+
+    /**
+     * The permission index time counterpart of
+     * {@link #updateContentIndexTimeInNewTransaction(java.lang.Long)}.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public void updatePermissionIndexTimeInNewTransaction(Long dvObjectId) {
+        DvObject dvObjectToModify = findDvObject(dvObjectId);
+        if (dvObjectToModify != null) {
+            dvObjectToModify.setPermissionIndexTime(new Timestamp(new Date().getTime()));
+        }
+    }
+
     @TransactionAttribute(REQUIRES_NEW)
     public int clearAllIndexTimes() {
         Query clearIndexTimes = em.createQuery("UPDATE DvObject o SET o.indexTime = NULL, o.permissionIndexTime = NULL");
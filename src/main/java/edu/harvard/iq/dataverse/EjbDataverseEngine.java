@@ -14,6 +14,8 @@ import edu.harvard.iq.dataverse.engine.command.exception.CommandException;
 import edu.harvard.iq.dataverse.engine.command.exception.PermissionException;
 import edu.harvard.iq.dataverse.ingest.IngestServiceBean;
 import edu.harvard.iq.dataverse.privateurl.PrivateUrlServiceBean;
+import edu.harvard.iq.dataverse.harvest.server.OAIRecordServiceBean;
+import edu.harvard.iq.dataverse.outbox.OutboxServiceBean;
 import edu.harvard.iq.dataverse.search.IndexServiceBean;
 import edu.harvard.iq.dataverse.search.SearchServiceBean;
 import java.util.Map;
@@ -140,6 +142,12 @@ public class EjbDataverseEngine {
     @EJB
     PrivateUrlServiceBean privateUrlService;
 
+    @EJB
+    OAIRecordServiceBean oaiRecords;
+
+    @EJB
+    OutboxServiceBean outbox;
+
     @PersistenceContext(unitName = "VDCNet-ejbPU")
     private EntityManager em;
     
@@ -404,6 +412,16 @@ public class EjbDataverseEngine {
                     return privateUrlService;
                 }
 
+                @Override
+                public OAIRecordServiceBean oaiRecords() {
+                    return oaiRecords;
+                }
+
+                @Override
+                public OutboxServiceBean outbox() {
+                    return outbox;
+                }
+
             };
         }
 
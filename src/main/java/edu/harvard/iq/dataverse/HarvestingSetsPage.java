@@ -267,6 +267,10 @@ public class HarvestingSetsPage implements java.io.Serializable {
         }
         
         // Note that the nickname is not editable:
+        if (!StringUtils.equals(oaiSet.getDefinition(), getNewSetQuery())) {
+            // (the records of the set are all to be looked at again)
+            oaiSet.setLastFullUpdateTime(null);
+        }
         oaiSet.setDefinition(getNewSetQuery());
         oaiSet.setDescription(getNewSetDescription());
         
@@ -0,0 +1,187 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.authorization.Permission;
+import edu.harvard.iq.dataverse.util.LruCache;
+import edu.harvard.iq.dataverse.util.TransactionCallbacks;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * Application-wide cache used by {@link PermissionServiceBean}. For each
+ * definition point, holds the permissions granted there to each role assignee
+ * (the union of the permissions of all roles assigned to them on that point).
+ * This lets a permission check walk the containment hierarchy in memory rather
+ * than issuing a query per ancestor per group.
+ *
+ * The cache also keeps a "generation" counter, bumped whenever role
+ * assignments, roles or group memberships change. Per-request memos of
+ * computed permissions (see {@link PermissionMemo}) are only trusted while the
+ * generation they were computed in is current.
+ *
+ * Changes are only final once the transaction making them commits, so the
+ * invalidations are done twice: right away, so that the changing transaction
+ * sees its own changes, and again once it is over, to drop whatever other
+ * requests loaded from the old rows in the meantime.
+ *
+ * Entries are also dropped after {@link #MAX_AGE_MILLIS}, so that changes made
+ * on another server of a cluster are picked up eventually.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.SUPPORTS)
+public class PermissionCache {
+
+    /**
+     * How long a cached definition point is trusted, in case it was changed on
+     * another server.
+     */
+    static final long MAX_AGE_MILLIS = 60 * 1000;
+
+    private static final class Entry {
+        final Map<String, Set<Permission>> permissionsByAssignee;
+        final long loadTime;
+
+        Entry(Map<String, Set<Permission>> permissionsByAssignee, long loadTime) {
+            this.permissionsByAssignee = permissionsByAssignee;
+            this.loadTime = loadTime;
+        }
+    }
+
+    private final LruCache<Long, Entry> byDefinitionPoint = new LruCache<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong memoHits = new AtomicLong();
+    private final AtomicLong memoMisses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @Resource
+    TransactionSynchronizationRegistry transactionRegistry;
+
+    public PermissionCache() {
+        byDefinitionPoint.setMaxSize(20000);
+    }
+
+    /**
+     * @param definitionPointId id of the {@link DvObject} roles are assigned on.
+     * @return permissions granted on the definition point, keyed by role
+     * assignee identifier, or {@code null} if not cached.
+     */
+    public Map<String, Set<Permission>> get(Long definitionPointId) {
+        Entry entry = byDefinitionPoint.get(definitionPointId);
+        if (entry == null || System.currentTimeMillis() - entry.loadTime > MAX_AGE_MILLIS) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.permissionsByAssignee;
+    }
+
+    /**
+     * Caches the role assignments made directly on a definition point.
+     *
+     * @param definitionPointId id of the {@link DvObject} the roles are
+     * assigned on.
+     * @param assignments all role assignments made on that object.
+     * @param generationAtLoad the generation read <em>before</em> the
+     * assignments were loaded; if it changed in the meantime, the assignments
+     * may be stale and are not cached.
+     * @return the permissions by role assignee identifier.
+     */
+    public Map<String, Set<Permission>> put(Long definitionPointId, List<RoleAssignment> assignments, long generationAtLoad) {
+        Map<String, Set<Permission>> permissionsByAssignee = new HashMap<>();
+        for (RoleAssignment assignment : assignments) {
+            Set<Permission> permissions = permissionsByAssignee.get(assignment.getAssigneeIdentifier());
+            if (permissions == null) {
+                permissions = EnumSet.noneOf(Permission.class);
+                permissionsByAssignee.put(assignment.getAssigneeIdentifier(), permissions);
+            }
+            permissions.addAll(assignment.getRole().permissions());
+        }
+        permissionsByAssignee = Collections.unmodifiableMap(permissionsByAssignee);
+        if (generation.get() == generationAtLoad) {
+            byDefinitionPoint.put(definitionPointId, new Entry(permissionsByAssignee, System.currentTimeMillis()));
+        }
+        return permissionsByAssignee;
+    }
+
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Role assignments on a single definition point have changed.
+     */
+    public void invalidate(final Long definitionPointId) {
+        invalidations.incrementAndGet();
+        Runnable invalidation = () -> {
+            generation.incrementAndGet();
+            if (definitionPointId != null) {
+                byDefinitionPoint.invalidate(definitionPointId);
+            }
+        };
+        invalidation.run();
+        TransactionCallbacks.afterCompletion(transactionRegistry, invalidation);
+    }
+
+    /**
+     * Group memberships have changed. Cached role assignments are still valid
+     * (they are keyed by the group identifiers themselves), but permissions
+     * memoized for requests are not.
+     */
+    public void membershipChanged() {
+        invalidations.incrementAndGet();
+        generation.incrementAndGet();
+        TransactionCallbacks.afterCompletion(transactionRegistry, generation::incrementAndGet);
+    }
+
+    /**
+     * Something with a wider effect has changed, such as the permissions of a
+     * role.
+     */
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        Runnable invalidation = () -> {
+            generation.incrementAndGet();
+            byDefinitionPoint.invalidate();
+        };
+        invalidation.run();
+        TransactionCallbacks.afterCompletion(transactionRegistry, invalidation);
+    }
+
+    public void memoHit() {
+        memoHits.incrementAndGet();
+    }
+
+    public void memoMiss() {
+        memoMisses.incrementAndGet();
+    }
+
+    public JsonObjectBuilder getStats() {
+        return Json.createObjectBuilder()
+                .add("definitionPointsCached", byDefinitionPoint.size())
+                .add("maxDefinitionPoints", byDefinitionPoint.getMaxSize())
+                .add("hits", hits.get())
+                .add("misses", misses.get())
+                .add("requestMemoHits", memoHits.get())
+                .add("requestMemoMisses", memoMisses.get())
+                .add("invalidations", invalidations.get())
+                .add("generation", generation.get());
+    }
+
+}
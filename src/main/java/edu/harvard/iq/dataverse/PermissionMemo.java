@@ -0,0 +1,43 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.authorization.Permission;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Permissions already computed for a single {@link edu.harvard.iq.dataverse.engine.command.DataverseRequest},
+ * keyed by role assignee and {@link DvObject}. A page listing hundreds of files
+ * asks for the same permissions over and over; this memo answers the repeats.
+ *
+ * The memo empties itself when the {@link PermissionCache} generation moves on,
+ * i.e. when a role assignment or group membership was changed during the
+ * request.
+ */
+public class PermissionMemo {
+
+    private final ConcurrentHashMap<String, Set<Permission>> permissions = new ConcurrentHashMap<>();
+    private volatile long generation = -1;
+
+    Set<Permission> get(String assigneeIdentifier, Long dvObjectId, long currentGeneration) {
+        if (generation != currentGeneration) {
+            permissions.clear();
+            generation = currentGeneration;
+            return null;
+        }
+        Set<Permission> memoized = permissions.get(key(assigneeIdentifier, dvObjectId));
+        return (memoized == null) ? null : EnumSet.copyOf(memoized);
+    }
+
+    void put(String assigneeIdentifier, Long dvObjectId, Set<Permission> computed, long generationAtCompute) {
+        if (generation == generationAtCompute) {
+            permissions.put(key(assigneeIdentifier, dvObjectId), computed.isEmpty()
+                    ? EnumSet.noneOf(Permission.class) : EnumSet.copyOf(computed));
+        }
+    }
+
+    private static String key(String assigneeIdentifier, Long dvObjectId) {
+        return assigneeIdentifier + "|" + dvObjectId;
+    }
+
+}
@@ -9,7 +9,6 @@ import edu.harvard.iq.dataverse.authorization.Permission;
 import edu.harvard.iq.dataverse.authorization.RoleAssignee;
 import edu.harvard.iq.dataverse.authorization.groups.Group;
 import edu.harvard.iq.dataverse.authorization.groups.GroupServiceBean;
-import edu.harvard.iq.dataverse.authorization.groups.GroupUtil;
 import edu.harvard.iq.dataverse.authorization.groups.impl.builtin.AuthenticatedUsers;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import edu.harvard.iq.dataverse.authorization.users.User;
@@ -81,6 +80,12 @@ public class PermissionServiceBean {
     
     @Inject
     DataverseRequestServiceBean dvRequestService;
+
+    /**
+     * Permissions granted on each definition point.
+     */
+    @EJB
+    PermissionCache cache;
     
     /**
      * A request-level permission query (e.g includes IP groups).
@@ -205,6 +210,17 @@ public class PermissionServiceBean {
      * @return Permissions of {@code req.getUser()} over {@code dvo}.
      */
     public Set<Permission> permissionsFor( DataverseRequest req, DvObject dvo ) {
+        PermissionMemo memo = req.getPermissionMemo();
+        long generation = cache.getGeneration();
+        if ( dvo.getId() != null ) {
+            Set<Permission> memoized = memo.get(req.getUser().getIdentifier(), dvo.getId(), generation);
+            if ( memoized != null ) {
+                cache.memoHit();
+                return memoized;
+            }
+            cache.memoMiss();
+        }
+        
         Set<Permission> permissions = EnumSet.noneOf(Permission.class);
         
         // Add permissions specifically given to the user
@@ -219,6 +235,9 @@ public class PermissionServiceBean {
             permissions.removeAll( PERMISSIONS_FOR_AUTHENTICATED_USERS_ONLY );
         }
         
+        if ( dvo.getId() != null ) {
+            memo.put(req.getUser().getIdentifier(), dvo.getId(), permissions, generation);
+        }
         return permissions;
     }
     
@@ -281,13 +300,40 @@ public class PermissionServiceBean {
             }
         }
         
-        for (RoleAssignment asmnt : assignmentsFor(ra, d)) {
-            retVal.addAll(asmnt.getRole().permissions());
-        }
+        retVal.addAll(permissionsFromAssignments(ra, d));
         
         return retVal;
     }
 
+    /**
+     * The permissions {@code ra} gets from the roles assigned to it on {@code d}
+     * and its ancestors, up to the permission root. Same as adding up the
+     * roles of {@link #assignmentsFor(edu.harvard.iq.dataverse.authorization.RoleAssignee, edu.harvard.iq.dataverse.DvObject)},
+     * but served from {@link #cache} where possible.
+     */
+    private Set<Permission> permissionsFromAssignments(RoleAssignee ra, DvObject d) {
+        Set<Permission> retVal = EnumSet.noneOf(Permission.class);
+        while (d != null) {
+            if (d.getId() != null) {
+                Map<String, Set<Permission>> granted = cache.get(d.getId());
+                if (granted == null) {
+                    long generation = cache.getGeneration();
+                    granted = cache.put(d.getId(), roleService.directRoleAssignments(d), generation);
+                }
+                Set<Permission> grantedToRa = granted.get(ra.getIdentifier());
+                if (grantedToRa != null) {
+                    retVal.addAll(grantedToRa);
+                }
+            }
+            if (d instanceof Dataverse && ((Dataverse) d).isEffectivelyPermissionRoot()) {
+                return retVal;
+            } else {
+                d = d.getOwner();
+            }
+        }
+        return retVal;
+    }
+
     /**
      * Returns all the role assignments that are effective for {@code ra} over
      * {@code d}. Traverses the containment hierarchy of the {@code d}.
@@ -379,24 +425,71 @@ public class PermissionServiceBean {
      * @return The list of dataverses {@code user} has permission {@code permission} on.
      */
     public List<Dataverse> getDataversesUserHasPermissionOn(AuthenticatedUser user, Permission permission) {
-        Set<Group> groups = groupService.groupsFor(user);
-        String identifiers = GroupUtil.getAllIdentifiersForUser(user, groups);
-        /**
-         * @todo Are there any strings in identifiers that would break this SQL
-         * query?
-         */
-        String query = "SELECT id FROM dvobject WHERE dtype = 'Dataverse' and id in (select definitionpoint_id from roleassignment where assigneeidentifier in (" + identifiers + "));";
+        return getDataversesUserHasPermissionOn(user, permission, 0, 0);
+    }
+
+    /**
+     * A page of {@link #getDataversesUserHasPermissionOn(edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser, edu.harvard.iq.dataverse.authorization.Permission)},
+     * ordered by id.
+     *
+     * @param user
+     * @param permission
+     * @param offset Number of dataverses to skip.
+     * @param limit Maximum number of dataverses to return; 0 or less for all of them.
+     * @return The dataverses {@code user} has {@code permission} on.
+     */
+    public List<Dataverse> getDataversesUserHasPermissionOn(AuthenticatedUser user, Permission permission, int offset, int limit) {
+        List<Long> ids = getDataverseIdsUserHasPermissionOn(user, permission, offset, limit);
+        if (ids.isEmpty()) {
+            return new LinkedList<>();
+        }
+        return em.createQuery("SELECT d FROM Dataverse d WHERE d.id IN :ids ORDER BY d.id", Dataverse.class)
+                .setParameter("ids", ids)
+                .getResultList();
+    }
+
+    /**
+     * Finds the ids of the dataverses on which {@code user} has
+     * {@code permission}, either through roles assigned on the dataverse
+     * itself, or inherited from an ancestor (down to, but not into,
+     * dataverses that are permission roots). Roles assigned to the groups the
+     * user belongs to are taken into account.
+     *
+     * All in one recursive query, rather than a permission check per
+     * candidate dataverse.
+     *
+     * @param user
+     * @param permission
+     * @param offset Number of ids to skip.
+     * @param limit Maximum number of ids to return; 0 or less for all of them.
+     * @return ids of the dataverses, in ascending order.
+     */
+    public List<Long> getDataverseIdsUserHasPermissionOn(AuthenticatedUser user, Permission permission, int offset, int limit) {
+        List<Object> params = new LinkedList<>();
+        List<String> identifiers = new LinkedList<>();
+        identifiers.add(user.getIdentifier());
+        for (Group group : groupService.groupsFor(user)) {
+            identifiers.add(group.getIdentifier());
+        }
+
+        StringBuilder query = new StringBuilder();
+        query.append("WITH RECURSIVE granted(id) AS (")
+                .append(" SELECT ra.definitionpoint_id FROM roleassignment ra, dataverserole r")
+                .append(" WHERE r.id = ra.role_id AND ra.assigneeidentifier IN (").append(placeholders(params, identifiers)).append(")");
+        // superusers have all the permissions of any role they're assigned
+        if (!user.isSuperuser()) {
+            params.add(1L << permission.ordinal());
+            query.append(" AND (r.permissionbits & ?").append(params.size()).append(") <> 0");
+        }
+        query.append(" UNION")
+                .append(" SELECT o.id FROM granted g, dvobject o, dataverse d")
+                .append(" WHERE o.owner_id = g.id AND d.id = o.id AND d.permissionroot = false)")
+                .append(" SELECT g.id FROM granted g, dvobject o WHERE o.id = g.id AND o.dtype = 'Dataverse'")
+                .append(" ORDER BY g.id");
+        appendPaging(query, offset, limit);
+
         logger.fine("query: " + query);
-        Query nativeQuery = em.createNativeQuery(query);
-        List<Integer> dataverseIdsToCheck = nativeQuery.getResultList();
-        List<Dataverse> dataversesUserHasPermissionOn = new LinkedList<>();
-        for (int dvIdAsInt : dataverseIdsToCheck) {
-            Dataverse dataverse = dataverseService.find(Long.valueOf(dvIdAsInt));
-            if (userOn(user, dataverse).has(permission)) {
-                dataversesUserHasPermissionOn.add(dataverse);
-            }
-        }
-        return dataversesUserHasPermissionOn;
+        return getIds(query.toString(), params);
     }
     
     public List<AuthenticatedUser> getUsersWithPermissionOn(Permission permission, DvObject dvo) {
@@ -420,105 +513,92 @@ public class PermissionServiceBean {
         return getDvObjectIdsUserHasRoleOn(user, roles, null, false);
     }
 
-    /*
-    Method takes in a user and optional list of roles and dvobject type
-    queries the role assigment table filtering by optional roles and dv
-    returns dvobject ids
-    */
-    
-    private String getRolesClause(List<DataverseRole> roles) {
-        StringBuilder roleStringBld = new StringBuilder();
+    public List<Long> getDvObjectIdsUserHasRoleOn(User user, List<DataverseRole> roles, List<String> types, boolean indirect) {
+        return getDvObjectIdsUserHasRoleOn(user, roles, types, indirect, 0, 0);
+    }
+
+    /**
+     * Finds the ids of the objects {@code user} has been assigned a role on
+     * directly (not through groups), optionally restricted to some roles and
+     * object types.
+     *
+     * @param user
+     * @param roles Only count assignments of these roles; {@code null} or empty for any role.
+     * @param types Only return objects of these types ({@code dtype}s); {@code null} or empty for any type.
+     * @param indirect Also return the datasets in the dataverses found, and
+     * the files in those datasets (regardless of {@code types}).
+     * @param offset Number of ids to skip.
+     * @param limit Maximum number of ids to return; 0 or less for all of them.
+     * @return ids of the objects, in ascending order.
+     */
+    public List<Long> getDvObjectIdsUserHasRoleOn(User user, List<DataverseRole> roles, List<String> types, boolean indirect, int offset, int limit) {
+        List<Object> params = new LinkedList<>();
+        params.add(user.getIdentifier());
+
+        StringBuilder query = new StringBuilder();
+        query.append("WITH RECURSIVE granted(id) AS (")
+                .append(" SELECT o.id FROM roleassignment ra, dvobject o")
+                .append(" WHERE o.id = ra.definitionpoint_id AND ra.assigneeidentifier = ?1");
         if (roles != null && !roles.isEmpty()) {
-            roleStringBld.append(" and role_id in (");
-            boolean first = true;
+            List<Long> roleIds = new LinkedList<>();
             for (DataverseRole role : roles) {
-                if (!first) {
-                    roleStringBld.append(",");
-                }
-                roleStringBld.append(role.getId());
-                first = false;
+                roleIds.add(role.getId());
             }
-            roleStringBld.append(")");
+            query.append(" AND ra.role_id IN (").append(placeholders(params, roleIds)).append(")");
         }
-        return roleStringBld.toString();
-    }
-
-    private String getTypesClause(List<String> types) {
-        boolean firstType = true;
-        StringBuilder typeStringBld = new StringBuilder();
         if (types != null && !types.isEmpty()) {
-            typeStringBld.append(" dtype in (");
-            for (String type : types) {
-                if (!firstType) {
-                    typeStringBld.append(",");
-                }
-                typeStringBld.append("'").append(type).append("'");
-            }
-            typeStringBld.append(") and ");
+            query.append(" AND o.dtype IN (").append(placeholders(params, types)).append(")");
         }
-        return typeStringBld.toString();
-    }
-    
-       
-    public List<Long> getDvObjectIdsUserHasRoleOn(User user, List<DataverseRole> roles, List<String> types, boolean indirect) {
+        if (indirect) {
+            query.append(" UNION")
+                    .append(" SELECT c.id FROM granted g, dvobject p, dvobject c")
+                    .append(" WHERE p.id = g.id AND c.owner_id = p.id")
+                    .append(" AND ((p.dtype = 'Dataverse' AND c.dtype = 'Dataset') OR (p.dtype = 'Dataset' AND c.dtype = 'DataFile'))");
+        }
+        query.append(") SELECT id FROM granted ORDER BY id");
+        appendPaging(query, offset, limit);
 
+        logger.fine("query: " + query);
+        return getIds(query.toString(), params);
+    }
 
-        String roleString = getRolesClause (roles);
-        String typeString = getTypesClause(types);
-
-        Query nativeQuery = em.createNativeQuery("SELECT id FROM dvobject WHERE "
-                + typeString + " id in (select definitionpoint_id from roleassignment where assigneeidentifier in ('" + user.getIdentifier() + "') "
-                + roleString + ");");
-        List<Integer> dataverseIdsToCheck = nativeQuery.getResultList();
-        List<Long> dataversesUserHasPermissionOn = new LinkedList<>();
-        String indirectParentIds = "";
-        Boolean indirectFirst = true;
-        for (int dvIdAsInt : dataverseIdsToCheck) {
-            dataversesUserHasPermissionOn.add(Long.valueOf(dvIdAsInt));
-            if (indirect) {
-                if (indirectFirst) {
-                    indirectParentIds = "(" + Integer.toString(dvIdAsInt);
-                    indirectFirst = false;
-                } else {
-                    indirectParentIds += ", " + Integer.toString(dvIdAsInt);
-                }
+    /**
+     * Adds {@code values} to the positional query parameters, and returns the
+     * matching list of placeholders ("?2, ?3, ...").
+     */
+    private String placeholders(List<Object> params, List<?> values) {
+        StringBuilder sb = new StringBuilder();
+        for (Object value : values) {
+            params.add(value);
+            if (sb.length() > 0) {
+                sb.append(", ");
             }
+            sb.append("?").append(params.size());
         }
-        
-        // Get child datasets and files
-        if (indirect) {
-            indirectParentIds += ") ";
-            Query nativeQueryIndirect = em.createNativeQuery("SELECT id FROM dvobject WHERE "
-                    + " owner_id in " + indirectParentIds + " and dType = 'Dataset'; ");
-
-            List<Integer> childDatasetIds = nativeQueryIndirect.getResultList();
-
-            String indirectDatasetParentIds = "";
-            Boolean indirectFileFirst = true;
-            for (int dvIdAsInt : childDatasetIds) {
-                dataversesUserHasPermissionOn.add(Long.valueOf(dvIdAsInt));
-                if (indirect) {
-                    if (indirectFileFirst) {
-                        indirectDatasetParentIds = "(" + Integer.toString(dvIdAsInt);
-                        indirectFileFirst = false;
-                    } else {
-                        indirectDatasetParentIds += ", " + Integer.toString(dvIdAsInt);
-                    }
-                }
-            }
-            Query nativeQueryFileIndirect = em.createNativeQuery("SELECT id FROM dvobject WHERE "
-                    + " owner_id in " + indirectDatasetParentIds + " and dType = 'DataFile'; ");
-
-            List<Integer> childFileIds = nativeQueryFileIndirect.getResultList();
+        return sb.toString();
+    }
 
-            for (int dvIdAsInt : childFileIds) {
-                dataversesUserHasPermissionOn.add(Long.valueOf(dvIdAsInt));
+    private void appendPaging(StringBuilder query, int offset, int limit) {
+        if (limit > 0) {
+            query.append(" LIMIT ").append(limit);
+        }
+        if (offset > 0) {
+            query.append(" OFFSET ").append(offset);
+        }
+    }
 
-            }
+    private List<Long> getIds(String query, List<Object> params) {
+        Query nativeQuery = em.createNativeQuery(query);
+        int position = 1;
+        for (Object param : params) {
+            nativeQuery.setParameter(position++, param);
         }
-        return dataversesUserHasPermissionOn;
+        List<Long> ids = new LinkedList<>();
+        for (Object id : nativeQuery.getResultList()) {
+            // integer or bigint, depending on how the database was created
+            ids.add(((Number) id).longValue());
+        }
+        return ids;
     }
-    
-    
-    
+
 }
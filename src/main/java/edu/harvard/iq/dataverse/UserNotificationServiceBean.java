@@ -73,6 +73,18 @@ public class UserNotificationServiceBean {
         return em.merge(userNotification);
     }
     
+    /**
+     * Emails a notification already saved, unless it was already emailed,
+     * and records that it was.
+     */
+    public void sendEmail(Long userNotificationId) {
+        UserNotification userNotification = find(userNotificationId);
+        if (userNotification != null && !userNotification.isEmailed() && mailService.sendNotificationEmail(userNotification)) {
+            logger.fine("email was sent");
+            userNotification.setEmailed(true);
+        }
+    }
+    
     public void delete(UserNotification userNotification) {
         em.remove(em.merge(userNotification));
     }
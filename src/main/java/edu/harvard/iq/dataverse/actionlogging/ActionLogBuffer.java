@@ -0,0 +1,154 @@
+package edu.harvard.iq.dataverse.actionlogging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * The {@link ActionLogRecord}s waiting to be written to the database by
+ * {@link ActionLogWriter}, and the counts of what became of them.
+ *
+ * The queue is bounded: when it is full, {@link #offer(ActionLogRecord)}
+ * refuses the record and the caller writes it itself - so a backlog slows
+ * the callers down rather than losing records. Records are only dropped when
+ * the database refuses them.
+ */
+public class ActionLogBuffer {
+
+    private final BlockingQueue<ActionLogRecord> queue;
+    private final int capacity;
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong writtenByCaller = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong maxBacklog = new AtomicLong();
+
+    public ActionLogBuffer(int capacity) {
+        this.capacity = capacity;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * @param rec the record to write.
+     * @return {@code false} if the queue is full, and the record was not
+     * taken.
+     */
+    public boolean offer(ActionLogRecord rec) {
+        if (!queue.offer(rec)) {
+            return false;
+        }
+        queued.incrementAndGet();
+        maxBacklog.accumulateAndGet(queue.size(), Math::max);
+        return true;
+    }
+
+    /**
+     * Waits for the next batch of records: returns once {@code maxSize}
+     * records are waiting, or {@code maxWaitMillis} after the first one came.
+     *
+     * @param maxSize the largest number of records to return.
+     * @param maxWaitMillis how long to wait, at most, for the first record,
+     * and then for the rest.
+     * @return the records, or an empty list if none came. If the thread is
+     * interrupted once it has taken some, those are returned (with the
+     * thread still interrupted), so that they are not lost.
+     * @throws InterruptedException if the thread was interrupted waiting for
+     * the first record.
+     */
+    public List<ActionLogRecord> nextBatch(int maxSize, long maxWaitMillis) throws InterruptedException {
+        List<ActionLogRecord> batch = new ArrayList<>();
+        ActionLogRecord first = queue.poll(maxWaitMillis, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return batch;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        while (batch.size() < maxSize) {
+            queue.drainTo(batch, maxSize - batch.size());
+            long left = deadline - System.nanoTime();
+            if (batch.size() >= maxSize || left <= 0) {
+                break;
+            }
+            ActionLogRecord next;
+            try {
+                next = queue.poll(left, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+        return batch;
+    }
+
+    /**
+     * @return all the records waiting, which are no longer.
+     */
+    public List<ActionLogRecord> drain() {
+        List<ActionLogRecord> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        return rest;
+    }
+
+    public int getBacklog() {
+        return queue.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void written(int count) {
+        written.addAndGet(count);
+        batches.incrementAndGet();
+    }
+
+    public void writtenByCaller() {
+        writtenByCaller.incrementAndGet();
+    }
+
+    public void batchFailed() {
+        failedBatches.incrementAndGet();
+    }
+
+    public void dropped() {
+        dropped.incrementAndGet();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getWrittenByCaller() {
+        return writtenByCaller.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public JsonObjectBuilder toJson() {
+        return Json.createObjectBuilder()
+                .add("capacity", capacity)
+                .add("backlog", queue.size())
+                .add("maxBacklog", maxBacklog.get())
+                .add("queued", queued.get())
+                .add("written", written.get())
+                .add("batches", batches.get())
+                .add("failedBatches", failedBatches.get())
+                .add("writtenByCaller", writtenByCaller.get())
+                .add("dropped", dropped.get());
+    }
+
+}
@@ -1,27 +1,28 @@
 package edu.harvard.iq.dataverse.actionlogging;
 
 import java.util.Date;
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
-import javax.persistence.EntityManager;
-import javax.persistence.PersistenceContext;
 
 /**
  * A service bean that persists {@link ActionLogRecord}s to the DB.
+ * The records are written in batches, in the background, by
+ * {@link ActionLogWriter}.
  * @author michael
  */
 @Stateless
 public class ActionLogServiceBean {
     
-    @PersistenceContext(unitName = "VDCNet-ejbPU")
-    private EntityManager em;
+    @EJB
+    ActionLogWriter writer;
     
     /**
      * Log the record. Set default values.
      * @param rec 
      */
-    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public void log( ActionLogRecord rec ) {
         if ( rec.getEndTime() == null ) {
             rec.setEndTime( new Date() );
@@ -30,6 +31,6 @@ public class ActionLogServiceBean {
                 && rec.getActionType() != ActionLogRecord.ActionType.Command ) {
             rec.setActionResult(ActionLogRecord.Result.OK);
         }
-        em.persist(rec);
+        writer.log(rec);
     }
 }
@@ -0,0 +1,206 @@
+package edu.harvard.iq.dataverse.actionlogging;
+
+import edu.harvard.iq.dataverse.util.SystemConfig;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.json.JsonObjectBuilder;
+import javax.sql.DataSource;
+
+/**
+ * Writes the {@link ActionLogRecord}s to the database in the background, in
+ * JDBC batches: a batch is written once {@link SystemConfig#getActionLogBatchSize()}
+ * records are waiting, or {@link SystemConfig#getActionLogFlushInterval()}
+ * milliseconds after the first of them came, whichever is first. The records
+ * still waiting when the server shuts down are written before it does.
+ *
+ * The records are written on their own connection, outside any transaction:
+ * just like when each was persisted in a new transaction, the commands that
+ * fail are logged too.
+ *
+ * @see ActionLogBuffer
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class ActionLogWriter {
+
+    private static final Logger logger = Logger.getLogger(ActionLogWriter.class.getCanonicalName());
+
+    private static final String INSERT = "INSERT INTO actionlogrecord"
+            + " (id, actiontype, actionsubtype, actionresult, useridentifier, starttime, endtime, info)"
+            + " VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * How long to wait for the background writer to finish the batch it is
+     * writing, at shutdown (on top of the time it may take to collect it).
+     */
+    private static final long SHUTDOWN_WAIT_MILLIS = 10 * 1000;
+
+    @Resource(lookup = "jdbc/VDCNetDS")
+    DataSource dataSource;
+    @Resource
+    ManagedThreadFactory threadFactory;
+    @EJB
+    SystemConfig systemConfig;
+
+    private ActionLogBuffer buffer;
+    private int batchSize;
+    private long flushInterval;
+    private volatile boolean running = false;
+    private Thread flusher;
+
+    @PostConstruct
+    public void init() {
+        int queueSize = systemConfig.getActionLogQueueSize();
+        buffer = new ActionLogBuffer(Math.max(1, queueSize));
+        batchSize = Math.max(1, systemConfig.getActionLogBatchSize());
+        flushInterval = Math.max(1, systemConfig.getActionLogFlushInterval());
+        if (queueSize > 0) {
+            running = true;
+            flusher = threadFactory.newThread(this::flushUntilStopped);
+            flusher.start();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        // not interrupted: it sees the flag once done with the batch it is 
+        // taking or writing, at most two flush intervals from now
+        running = false;
+        try {
+            flusher.join(2 * flushInterval + SHUTDOWN_WAIT_MILLIS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        writeRemaining();
+    }
+
+    /**
+     * Queues the record to be written; or, if the queue is full (or the
+     * server shutting down), writes it right away.
+     *
+     * @param rec the record, with its end time and result set.
+     */
+    public void log(ActionLogRecord rec) {
+        rec.prepresist();
+        if (running && buffer.offer(rec)) {
+            if (!running) {
+                // came in as the writer was stopping; it may not have seen it
+                writeRemaining();
+            }
+            return;
+        }
+        write(Collections.singletonList(rec));
+        buffer.writtenByCaller();
+    }
+
+    public JsonObjectBuilder getStats() {
+        return buffer.toJson()
+                .add("running", running)
+                .add("batchSize", batchSize)
+                .add("flushIntervalMillis", flushInterval);
+    }
+
+    private void flushUntilStopped() {
+        while (running) {
+            try {
+                List<ActionLogRecord> batch = buffer.nextBatch(batchSize, flushInterval);
+                if (!batch.isEmpty()) {
+                    write(batch);
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+            } catch (InterruptedException ex) {
+                break;
+            } catch (RuntimeException ex) {
+                logger.log(Level.WARNING, "Error writing the action log", ex);
+            }
+        }
+    }
+
+    private void writeRemaining() {
+        List<ActionLogRecord> rest = buffer.drain();
+        for (int i = 0; i < rest.size(); i += batchSize) {
+            write(rest.subList(i, Math.min(rest.size(), i + batchSize)));
+        }
+    }
+
+    /**
+     * Writes the records in one batch; or, if that fails, one at a time,
+     * dropping those the database will not take.
+     */
+    private void write(List<ActionLogRecord> records) {
+        try {
+            insert(records);
+            buffer.written(records.size());
+            return;
+        } catch (SQLException ex) {
+            if (records.size() == 1) {
+                logger.log(Level.WARNING, "Could not write " + records.get(0) + " to the action log: " + ex.getMessage());
+                buffer.dropped();
+                return;
+            }
+            logger.log(Level.WARNING, "Could not write a batch of " + records.size()
+                    + " action log records; writing them one at a time: " + ex.getMessage());
+            buffer.batchFailed();
+        }
+        for (ActionLogRecord rec : records) {
+            write(Collections.singletonList(rec));
+        }
+    }
+
+    private void insert(List<ActionLogRecord> records) throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(INSERT)) {
+                for (ActionLogRecord rec : records) {
+                    ps.setString(1, rec.getId());
+                    ps.setString(2, rec.getActionType() == null ? null : rec.getActionType().name());
+                    ps.setString(3, rec.getActionSubType());
+                    ps.setString(4, rec.getActionResult() == null ? null : rec.getActionResult().name());
+                    ps.setString(5, rec.getUserIdentifier());
+                    ps.setTimestamp(6, toTimestamp(rec.getStartTime()));
+                    ps.setTimestamp(7, toTimestamp(rec.getEndTime()));
+                    ps.setString(8, rec.getInfo());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                conn.commit();
+            } catch (SQLException ex) {
+                conn.rollback();
+                throw ex;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    private static Timestamp toTimestamp(Date date) {
+        return date == null ? null : new Timestamp(date.getTime());
+    }
+
+}
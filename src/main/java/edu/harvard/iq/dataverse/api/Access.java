@@ -26,7 +26,6 @@ import edu.harvard.iq.dataverse.authorization.users.GuestUser;
 import edu.harvard.iq.dataverse.authorization.users.User;
 import edu.harvard.iq.dataverse.dataaccess.DataFileIO;
 import edu.harvard.iq.dataverse.dataaccess.DataFileZipper;
-import edu.harvard.iq.dataverse.dataaccess.FileAccessIO;
 import edu.harvard.iq.dataverse.dataaccess.OptionalAccessService;
 import edu.harvard.iq.dataverse.dataaccess.ImageThumbConverter;
 import edu.harvard.iq.dataverse.datavariable.DataVariable;
@@ -38,7 +37,9 @@ import edu.harvard.iq.dataverse.worldmapauth.WorldMapTokenServiceBean;
 
 import java.util.List;
 import java.util.logging.Logger;
+import javax.annotation.Resource;
 import javax.ejb.EJB;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import java.io.InputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -47,6 +48,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Properties;
+import java.util.zip.CRC32;
 import javax.inject.Inject;
 
 import javax.ws.rs.GET;
@@ -55,7 +57,9 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.UriInfo;
 
 
@@ -111,6 +115,8 @@ public class Access extends AbstractApiBean {
     DataverseSession session;
     @EJB
     WorldMapTokenServiceBean worldMapTokenServiceBean;
+    @Resource
+    ManagedExecutorService executor;
 
     private static final String API_KEY_HEADER = "X-Dataverse-key";    
 
@@ -171,7 +177,7 @@ public class Access extends AbstractApiBean {
     @Path("datafile/{fileId}")
     @GET
     @Produces({ "application/xml" })
-    public DownloadInstance datafile(@PathParam("fileId") Long fileId, @QueryParam("key") String apiToken, @Context UriInfo uriInfo, @Context HttpHeaders headers, @Context HttpServletResponse response) /*throws NotFoundException, ServiceUnavailableException, PermissionDeniedException, AuthorizationRequiredException*/ {                
+    public Response datafile(@PathParam("fileId") Long fileId, @QueryParam("key") String apiToken, @Context UriInfo uriInfo, @Context HttpHeaders headers, @Context Request request, @Context HttpServletResponse response) /*throws NotFoundException, ServiceUnavailableException, PermissionDeniedException, AuthorizationRequiredException*/ {                
 
         DataFile df = dataFileService.find(fileId);
         
@@ -272,8 +278,95 @@ public class Access extends AbstractApiBean {
         /* 
          * Provide some browser-friendly headers: (?)
          */
-        //return retValue; 
-        return downloadInstance;
+        
+        /*
+         * Conditional and partial downloads: these are only supported for 
+         * straight downloads of the stored file (no conversions or subsets), 
+         * since those are the only representations we have a signature of. 
+         * The ETag is the stored MD5 of the file; or, for a tabular file 
+         * (where the MD5 is that of the saved original, not of what is 
+         * served), one made from the tab file and its header - see 
+         * tabularEntityTag(). A request with a matching "If-None-Match:" 
+         * gets a 304 and no content. 
+         * Byte ranges are supported on non-tabular files, whose size we know
+         * up front (tabular files are served with the variable name header
+         * prepended). 
+        */
+        String etagValue = null;
+        if (downloadInstance.getConversionParam() == null) {
+            if (df.isTabularData()) {
+                if (df.getUnf() != null && !"".equals(df.getUnf())) {
+                    etagValue = tabularEntityTag(df);
+                }
+            } else if (df.getmd5() != null && !"".equals(df.getmd5())) {
+                etagValue = df.getmd5();
+            }
+        }
+        boolean rangesSupported = etagValue != null && !df.isTabularData() && df.getFilesize() > 0;
+        if (etagValue != null) {
+            EntityTag etag = new EntityTag(etagValue);
+            
+            Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+            if (notModified != null) {
+                return downloadHeaders(notModified.tag(etag), rangesSupported).build();
+            }
+            
+            if (rangesSupported) {
+                String rangeHeader = headers.getHeaderString("Range");
+                String ifRange = headers.getHeaderString("If-Range");
+                
+                // "If-Range:" with a stale (or date) validator means the 
+                // client wants the whole file instead:
+                if (rangeHeader != null && (ifRange == null || ifRange.trim().equals(etag.toString()))) {
+                    List<ByteRange> ranges = ByteRange.parse(rangeHeader, df.getFilesize());
+                    if (ranges != null && ranges.isEmpty()) {
+                        return downloadHeaders(Response.status(416), rangesSupported)
+                                .header("Content-Range", "bytes */" + df.getFilesize())
+                                .tag(etag)
+                                .build();
+                    }
+                    if (ranges != null) {
+                        downloadInstance.setRanges(ranges);
+                        return downloadHeaders(Response.status(206).entity(downloadInstance).tag(etag), rangesSupported).build();
+                    }
+                }
+            }
+            return downloadHeaders(Response.ok(downloadInstance).tag(etag), rangesSupported).build();
+        }
+        
+        return downloadHeaders(Response.ok(downloadInstance), rangesSupported).build();
+    }
+    
+    /*
+     * The headers all the responses to a datafile download carry: whether
+     * byte ranges can be asked for; and that the response depends on the
+     * API key header (restricted files are only served to some users), so 
+     * that a cache doesn't serve it to a request without the key.
+     */
+    private static Response.ResponseBuilder downloadHeaders(Response.ResponseBuilder builder, boolean rangesSupported) {
+        return builder
+                .header("Accept-Ranges", rangesSupported ? "bytes" : "none")
+                .header("Vary", API_KEY_HEADER);
+    }
+    
+    /*
+     * The ETag of a tabular file, as it is served: the variable name header,
+     * followed by the tab file. The stored MD5 is that of the saved 
+     * original, so the tab file is represented by its UNF and its size 
+     * (which change when it is re-ingested); the header is made from the 
+     * variable metadata, not read from the file, so it is checksummed too. 
+     * The size in the tag is that of the whole body. 
+     */
+    static String tabularEntityTag(DataFile df) {
+        String varHeader = null;
+        if (df.getDataTable() != null) {
+            varHeader = DataFileIO.generateVariableHeader(df.getDataTable().getDataVariables());
+        }
+        // (encoded the way DownloadInstanceWriter writes it)
+        byte[] header = varHeader == null ? new byte[0] : varHeader.getBytes();
+        CRC32 headerChecksum = new CRC32();
+        headerChecksum.update(header);
+        return df.getUnf() + "-" + (df.getFilesize() + header.length) + "-" + Long.toHexString(headerChecksum.getValue());
     }
     
     
@@ -427,12 +520,16 @@ public class Access extends AbstractApiBean {
         
         
         
+        // The zipped files are streamed out as they are compressed, so 
+        // there's no need for a size limit by default; one can still be 
+        // configured:
         long setLimit = systemConfig.getZipDownloadLimit();
         if (!(setLimit > 0L)) {
-            setLimit = DataFileZipper.DEFAULT_ZIPFILE_LIMIT;
+            setLimit = Long.MAX_VALUE;
         }
         
         long zipDownloadSizeLimit = setLimit; 
+        int zipDownloadWindow = systemConfig.getZipDownloadWindowMB();
         
         logger.fine("setting zip download size limit to " + zipDownloadSizeLimit + " bytes.");
         
@@ -482,13 +579,18 @@ public class Access extends AbstractApiBean {
                                     if (zipper == null) {
                                         // This is the first file we can serve - so we now know that we are going to be able 
                                         // to produce some output.
-                                        zipper = new DataFileZipper(os);
+                                        zipper = new DataFileZipper(os, executor, zipDownloadWindow);
                                         zipper.setFileManifest(fileManifest);
                                         response.setHeader("Content-disposition", "attachment; filename=\"dataverse_files.zip\"");
                                         response.setHeader("Content-Type", "application/zip; name=\"dataverse_files.zip\"");
                                     }
                                     if (sizeTotal + file.getFilesize() < zipDownloadSizeLimit) {
-                                        sizeTotal += zipper.addFileToZipStream(file);
+                                        try {
+                                            sizeTotal += zipper.addFileToZipStream(file);
+                                        } catch (IOException ioex) {
+                                            zipper.abortZipStream();
+                                            throw ioex;
+                                        }
                                     } else {
                                         String fileName = file.getFileMetadata().getLabel();
                                         String mimeType = file.getContentType();
@@ -608,14 +710,14 @@ public class Access extends AbstractApiBean {
         
         try {
             DataFileIO dataAccess = df.getAccessObject();
-            if (dataAccess != null && dataAccess.isLocalFile()) {
+            if (dataAccess != null) {
                 dataAccess.open();
 
                 if ("application/pdf".equalsIgnoreCase(df.getContentType())
                         || df.isImage()
                         || "application/zipped-shapefile".equalsIgnoreCase(df.getContentType())) {
 
-                    thumbnailDataAccess = ImageThumbConverter.getImageThumb((FileAccessIO) dataAccess, 48);
+                    thumbnailDataAccess = ImageThumbConverter.getImageThumb(dataAccess, 48);
                 }
             }
         } catch (IOException ioEx) {
@@ -656,10 +758,10 @@ public class Access extends AbstractApiBean {
         
                 try {
                     DataFileIO dataAccess = logoDataFile.getAccessObject();
-                    if (dataAccess != null && dataAccess.isLocalFile()) {
+                    if (dataAccess != null) {
                         dataAccess.open();
 
-                        thumbnailDataAccess = ImageThumbConverter.getImageThumb((FileAccessIO) dataAccess, 48);
+                        thumbnailDataAccess = ImageThumbConverter.getImageThumb(dataAccess, 48);
                     }
                 } catch (IOException ioEx) {
                     thumbnailDataAccess = null; 
@@ -779,10 +881,10 @@ public class Access extends AbstractApiBean {
 
                     try {
                         DataFileIO dataAccess = dataFile.getAccessObject();
-                        if (dataAccess != null && dataAccess.isLocalFile()) {
+                        if (dataAccess != null) {
                             dataAccess.open();
 
-                            thumbnailDataAccess = ImageThumbConverter.getImageThumb((FileAccessIO) dataAccess, 48);
+                            thumbnailDataAccess = ImageThumbConverter.getImageThumb(dataAccess, 48);
                         }
                     } catch (IOException ioEx) {
                         thumbnailDataAccess = null;
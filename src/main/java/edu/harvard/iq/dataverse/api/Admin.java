@@ -2,7 +2,9 @@ package edu.harvard.iq.dataverse.api;
 
 import edu.harvard.iq.dataverse.Dataverse;
 import edu.harvard.iq.dataverse.EMailValidator;
+import edu.harvard.iq.dataverse.PermissionCache;
 import edu.harvard.iq.dataverse.actionlogging.ActionLogRecord;
+import edu.harvard.iq.dataverse.actionlogging.ActionLogWriter;
 import static edu.harvard.iq.dataverse.api.AbstractApiBean.errorResponse;
 import edu.harvard.iq.dataverse.api.dto.RoleDTO;
 import edu.harvard.iq.dataverse.authorization.AuthenticatedUserDisplayInfo;
@@ -10,6 +12,7 @@ import edu.harvard.iq.dataverse.authorization.AuthenticationProvider;
 import edu.harvard.iq.dataverse.authorization.UserIdentifier;
 import edu.harvard.iq.dataverse.authorization.exceptions.AuthenticationProviderFactoryNotFoundException;
 import edu.harvard.iq.dataverse.authorization.exceptions.AuthorizationSetupException;
+import edu.harvard.iq.dataverse.authorization.groups.impl.explicit.ExplicitGroupServiceBean;
 import edu.harvard.iq.dataverse.authorization.providers.AuthenticationProviderFactory;
 import edu.harvard.iq.dataverse.authorization.providers.AuthenticationProviderRow;
 import edu.harvard.iq.dataverse.authorization.providers.builtin.BuiltinUser;
@@ -19,7 +22,14 @@ import edu.harvard.iq.dataverse.authorization.providers.shib.ShibServiceBean;
 import edu.harvard.iq.dataverse.authorization.providers.shib.ShibUtil;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import edu.harvard.iq.dataverse.engine.command.impl.PublishDataverseCommand;
+import edu.harvard.iq.dataverse.dataaccess.DerivativeCache;
+import edu.harvard.iq.dataverse.dataaccess.DerivativeCacheService;
+import edu.harvard.iq.dataverse.ingest.IngestScheduler;
+import edu.harvard.iq.dataverse.outbox.OutboxServiceBean;
+import edu.harvard.iq.dataverse.outbox.OutboxTask;
+import edu.harvard.iq.dataverse.search.SearchServiceBean;
 import edu.harvard.iq.dataverse.settings.Setting;
+import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObjectBuilder;
@@ -59,6 +69,16 @@ public class Admin extends AbstractApiBean {
     BuiltinUserServiceBean builtinUserService;
     @EJB
     ShibServiceBean shibService;
+    @EJB
+    OutboxServiceBean outboxService;
+    @EJB
+    ActionLogWriter actionLogWriter;
+    @EJB
+    IngestScheduler ingestScheduler;
+    @EJB
+    DerivativeCacheService derivativeCacheService;
+    @EJB
+    PermissionCache permissionCache;
 
     @Path("settings")
     @GET
@@ -73,6 +93,9 @@ public class Admin extends AbstractApiBean {
     @Path("settings/{name}")
     @PUT
     public Response putSetting( @PathParam("name") String name, String content ) {
+        if ( SettingsServiceBean.isInternal(name) ) {
+            return badRequest("Setting " + name + " is internal and can't be set");
+        }
         Setting s = settingsSvc.set(name, content);
         return okResponse( jsonObjectBuilder().add(s.getName(), s.getContent()) );
     }
@@ -90,6 +113,9 @@ public class Admin extends AbstractApiBean {
     @Path("settings/{name}")
     @DELETE
     public Response deleteSetting( @PathParam("name") String name ) {
+        if ( SettingsServiceBean.isInternal(name) ) {
+            return badRequest("Setting " + name + " is internal and can't be deleted");
+        }
         settingsSvc.delete(name);
         
         return okResponse("Setting " + name +  " deleted.");
@@ -479,6 +505,105 @@ public class Admin extends AbstractApiBean {
     }
     
     
+    @Path("permissions/cache")
+    @GET
+    public Response showPermissionCache() {
+        return okResponse(permissionCache.getStats()
+                .add("explicitGroupMembership", ExplicitGroupServiceBean.membership.getStats())
+                .add("searchFilters", SearchServiceBean.permissionFilterCache.getStats()));
+    }
+
+    @Path("permissions/cache")
+    @DELETE
+    public Response clearPermissionCache() {
+        permissionCache.invalidateAll();
+        ExplicitGroupServiceBean.membership.clear();
+        SearchServiceBean.permissionFilterCache.invalidateAll();
+        return okResponse("Permission cache cleared.");
+    }
+
+    @Path("settings/cache")
+    @GET
+    public Response showSettingsCache() {
+        return okResponse(SettingsServiceBean.cache.getStats());
+    }
+
+    @Path("settings/cache")
+    @DELETE
+    public Response clearSettingsCache() {
+        SettingsServiceBean.cache.invalidate();
+        return okResponse("Settings cache cleared.");
+    }
+
+    @Path("search/latency")
+    @GET
+    public Response showSearchLatency() {
+        return okResponse(SearchServiceBean.latency.toJson());
+    }
+
+    @Path("search/latency")
+    @DELETE
+    public Response resetSearchLatency() {
+        SearchServiceBean.latency.reset();
+        return okResponse("Search latency statistics reset.");
+    }
+
+    @Path("outbox")
+    @GET
+    public Response showPostPublishTasks() {
+        JsonArrayBuilder failed = Json.createArrayBuilder();
+        for (OutboxTask task : outboxService.findFailedTasks()) {
+            failed.add(jsonObjectBuilder()
+                    .add("id", task.getId())
+                    .add("stage", task.getStage().name())
+                    .add("datasetId", task.getDatasetId())
+                    .add("attempts", task.getAttempts())
+                    .add("lastError", task.getLastError()));
+        }
+        return okResponse(Json.createObjectBuilder()
+                .add("tasks", outboxService.getTaskCounts())
+                .add("failed", failed)
+                .add("timings", OutboxServiceBean.stats.toJson()));
+    }
+
+    @Path("outbox/retry")
+    @POST
+    public Response retryPostPublishTasks() {
+        return okResponse(outboxService.retryFailedTasks() + " failed post-publish tasks put back in line.");
+    }
+
+    @Path("actionlog/queue")
+    @GET
+    public Response showActionLogQueue() {
+        return okResponse(actionLogWriter.getStats());
+    }
+
+    @Path("ingest/queue")
+    @GET
+    public Response showIngestQueue() {
+        return okResponse(ingestScheduler.getStatus());
+    }
+
+    @Path("ingest/queue/stats")
+    @DELETE
+    public Response resetIngestStats() {
+        IngestScheduler.stats.reset();
+        return okResponse("Ingest statistics reset.");
+    }
+
+    @Path("derivatives/cache")
+    @GET
+    public Response showDerivativeCache() {
+        return okResponse(derivativeCacheService.getStatus());
+    }
+
+    @Path("derivatives/cache/stats")
+    @DELETE
+    public Response resetDerivativeCacheStats() {
+        DerivativeCache.getInstance().resetStats();
+        return okResponse("Derivative cache statistics reset.");
+    }
+
     @Path("superuser/{identifier}")
     @POST
     public Response toggleSuperuser(@PathParam("identifier") String identifier) {
@@ -0,0 +1,138 @@
+package edu.harvard.iq.dataverse.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A single byte range of a download, as requested in an HTTP {@code Range}
+ * header (RFC 7233), resolved against the length of the content.
+ */
+public class ByteRange {
+
+    /**
+     * Requests for more ranges than this are served the whole content, rather
+     * than a multipart response with lots of tiny parts.
+     */
+    static final int MAX_RANGES = 32;
+
+    private final long start;
+    private final long end;
+
+    public ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Parses the value of a {@code Range} header.
+     *
+     * @param rangeHeader the header value, e.g. {@code bytes=0-499,-500}.
+     * @param contentLength the length of the complete content.
+     * @return The satisfiable ranges, in order, with those that overlap or
+     * are adjacent merged into one (as RFC 7233 lets a server do); an empty
+     * list if none of them is satisfiable (i.e. a 416 response is in order);
+     * or {@code null} if the header is missing or malformed, or not in bytes,
+     * in which case the header is to be ignored and the whole content
+     * served.
+     */
+    public static List<ByteRange> parse(String rangeHeader, long contentLength) {
+        if (rangeHeader == null || contentLength < 0) {
+            return null;
+        }
+        String header = rangeHeader.trim();
+        if (!header.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+
+        String[] specs = header.substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+
+        List<ByteRange> ranges = new ArrayList<>();
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            try {
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                if (first.isEmpty()) {
+                    // suffix range: the last N bytes
+                    long suffixLength = Long.parseLong(last);
+                    if (suffixLength < 0) {
+                        return null;
+                    }
+                    if (suffixLength > 0 && contentLength > 0) {
+                        ranges.add(new ByteRange(Math.max(0, contentLength - suffixLength), contentLength - 1));
+                    }
+                } else {
+                    long start = Long.parseLong(first);
+                    long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                    if (start < 0 || end < start) {
+                        return null;
+                    }
+                    if (start < contentLength) {
+                        ranges.add(new ByteRange(start, Math.min(end, contentLength - 1)));
+                    }
+                }
+            } catch (NumberFormatException nfe) {
+                return null;
+            }
+        }
+        return coalesce(ranges);
+    }
+
+    /**
+     * @return the ranges sorted by their start, with overlapping and adjacent
+     * ranges merged.
+     */
+    static List<ByteRange> coalesce(List<ByteRange> ranges) {
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+        List<ByteRange> sorted = new ArrayList<>(ranges);
+        Collections.sort(sorted, new Comparator<ByteRange>() {
+            @Override
+            public int compare(ByteRange r1, ByteRange r2) {
+                return Long.compare(r1.start, r2.start);
+            }
+        });
+        List<ByteRange> coalesced = new ArrayList<>();
+        ByteRange current = sorted.get(0);
+        for (ByteRange next : sorted.subList(1, sorted.size())) {
+            if (next.start <= current.end + 1) {
+                current = new ByteRange(current.start, Math.max(current.end, next.end));
+            } else {
+                coalesced.add(current);
+                current = next;
+            }
+        }
+        coalesced.add(current);
+        return coalesced;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * @return the value of the {@code Content-Range} header for this range.
+     */
+    public String toContentRange(long contentLength) {
+        return "bytes " + start + "-" + end + "/" + contentLength;
+    }
+
+}
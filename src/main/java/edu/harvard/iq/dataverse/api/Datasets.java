@@ -240,25 +240,17 @@ public class Datasets extends AbstractApiBean {
             
             ExportService instance = ExportService.getInstance();
             
-            String xml = instance.getExportAsString(dataset, exporter);
-            // I'm wondering if this going to become a performance problem 
-            // with really GIANT datasets,
-            // the fact that we are passing these exports, blobs of JSON, and, 
-            // especially, DDI XML as complete strings. It would be nicer 
-            // if we could stream instead - and the export service already can
-            // give it to as as a stream; then we could start sending the 
-            // output to the remote client as soon as we got the first bytes, 
-            // without waiting for the whole thing to be generated and buffered... 
-            // (the way Access API streams its output). 
-            // -- L.A., 4.5
+            // The cached export is streamed to the client as it's read - 
+            // rather than read into a String first (the DDI of a dataset with
+            // thousands of files can be very large). 
+            InputStream exportInputStream = instance.getExport(dataset, exporter);
             
-            LOGGER.fine("xml to return: " + xml);
             String mediaType = MediaType.TEXT_PLAIN;
             if (instance.isXMLFormat(exporter)){
                 mediaType = MediaType.APPLICATION_XML;
             }
             return Response.ok()
-                    .entity(xml)
+                    .entity(exportInputStream)
                     .type(mediaType).
                     build();
         } catch (Exception wr) {
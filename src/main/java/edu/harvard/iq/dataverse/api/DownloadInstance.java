@@ -37,6 +37,21 @@ public class DownloadInstance {
     }
      
 
+    /*
+     * The byte ranges requested with a "Range:" header, if any; when set, 
+     * only these parts of the file are written out, as a (multipart, if 
+     * more than one) partial content response. 
+    */
+    private List<ByteRange> ranges = null;
+
+    public List<ByteRange> getRanges() {
+        return ranges;
+    }
+
+    public void setRanges(List<ByteRange> ranges) {
+        this.ranges = ranges;
+    }
+
     private DownloadInfo downloadInfo = null;
     private String conversionParam = null;
     private String conversionParamValue = null;
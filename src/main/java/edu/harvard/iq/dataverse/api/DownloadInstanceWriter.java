@@ -11,6 +11,8 @@ import java.lang.annotation.Annotation;
 import java.io.InputStream; 
 import java.io.OutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 
 import javax.ws.rs.WebApplicationException;
 
@@ -26,6 +28,7 @@ import edu.harvard.iq.dataverse.dataaccess.*;
 import edu.harvard.iq.dataverse.datavariable.DataVariable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 import java.util.logging.Logger;
 
 /**
@@ -66,19 +69,20 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                 
                 if (di.getConversionParam() != null) {
                     // Image Thumbnail and Tabular data conversion: 
-                    // NOTE: only supported on local files, as of 4.0.2!
+                    // (files not stored locally are converted from their 
+                    // local copies; see DataFileIO.getLocalCopy())
                     
-                    if (di.getConversionParam().equals("imageThumb") && accessObject.isLocalFile()) {
+                    if (di.getConversionParam().equals("imageThumb")) {
                         if ("".equals(di.getConversionParamValue())) {
-                            accessObject = ImageThumbConverter.getImageThumb((FileAccessIO)accessObject); 
+                            accessObject = ImageThumbConverter.getImageThumb(accessObject); 
                         } else {
                             try {
                                 int size = new Integer(di.getConversionParamValue()).intValue();
                                 if (size > 0) {
-                                    accessObject = ImageThumbConverter.getImageThumb((FileAccessIO)accessObject, size);
+                                    accessObject = ImageThumbConverter.getImageThumb(accessObject, size);
                                 }
                             } catch (java.lang.NumberFormatException ex) {
-                                accessObject = ImageThumbConverter.getImageThumb((FileAccessIO)accessObject);
+                                accessObject = ImageThumbConverter.getImageThumb(accessObject);
                             }
                         }
                     }
@@ -88,7 +92,7 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                         if (di.getConversionParam().equals("noVarHeader")) {
                             accessObject.setNoVarHeader(Boolean.TRUE);
                             accessObject.setVarHeader(null);
-                        } else if (di.getConversionParam().equals("format")  && accessObject.isLocalFile()) {
+                        } else if (di.getConversionParam().equals("format")) {
                             
                             if ("original".equals(di.getConversionParamValue())) {
                                 accessObject = StoredOriginalFile.retreive(accessObject);
@@ -103,7 +107,7 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                                 accessObject = 
                                         DataFileConverter.performFormatConversion(
                                         sf, 
-                                        (FileAccessIO)accessObject, 
+                                        accessObject, 
                                         di.getConversionParamValue(), requestedMimeType);
                             } 
                         } else if (di.getConversionParam().equals("subset")) {
@@ -151,7 +155,6 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                                         logger.fine("successfully created subset output stream.");
                                         accessObject.closeInputStream();
                                         accessObject.setInputStream(subsetInputStream);
-                                        accessObject.setIsLocalFile(true);
                                         // TODO: make noVarHeader option work for subsets too!
                                         subsetVariableHeader = subsetVariableHeader.concat("\n");
                                         accessObject.setVarHeader(subsetVariableHeader);
@@ -194,6 +197,16 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                     httpHeaders.add("Content-disposition", "attachment; filename=\"" + fileName + "\"");
                     httpHeaders.add("Content-Type", mimeType + "; name=\"" + fileName + "\"");
                     
+                    // Partial content requests (these are only accepted for 
+                    // straight downloads of stored files, with no extra 
+                    // header - see Access.datafile()): 
+                    if (di.getRanges() != null && accessObject.getVarHeader() == null && accessObject.getSize() > 0) {
+                        writeRanges(di.getRanges(), accessObject, mimeType, httpHeaders, outstream);
+                        instream.close();
+                        outstream.close();
+                        return;
+                    }
+                    
                     long contentSize; 
                     boolean useChunkedTransfer = false; 
                     //if ((contentSize = getFileSize(di, accessObject.getVarHeader())) > 0) {
@@ -207,6 +220,23 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                     
                     // (the httpHeaders map must be modified *before* writing any
                     // data in the output stream!)
+                    
+                    // Fast path for straight downloads of local files: the 
+                    // file is copied from its channel, with no intermediate 
+                    // per-request buffers (and, if the output allows it, 
+                    // without copying through user space at all).
+                    // (Not for conversions and subsets, which have replaced 
+                    // the input stream, but not the channel, of the access 
+                    // object!)
+                    if (isStraightDownload(di) && accessObject.getChannel() instanceof FileChannel && contentSize > 0) {
+                        if (accessObject.getVarHeader() != null && accessObject.getVarHeader().getBytes().length > 0) {
+                            outstream.write(accessObject.getVarHeader().getBytes());
+                        }
+                        FileTransfer.transfer((FileChannel) accessObject.getChannel(), 0, accessObject.getSize(), outstream);
+                        instream.close();
+                        outstream.close();
+                        return;
+                    }
                                                               
                     int bufsize;
                     byte [] bffr = new byte[4*8192];
@@ -256,6 +286,105 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
 
     }
     
+    private boolean isStraightDownload(DownloadInstance di) {
+        return di.getConversionParam() == null || di.getConversionParam().equals("noVarHeader");
+    }
+    
+    /**
+     * Writes out the requested byte ranges of the file: a single range as is, 
+     * several ranges as a "multipart/byteranges" body. (The 206 status itself
+     * is set by the API method). 
+     * Local files are read by positioning their channel; the objects of the 
+     * storage drivers that can read a range directly, by opening a stream on
+     * each range; other streams are skipped through, so their ranges need to
+     * be in ascending order. 
+     */
+    private void writeRanges(List<ByteRange> ranges, DataFileIO accessObject, String mimeType, MultivaluedMap<String, Object> httpHeaders, OutputStream outstream) throws IOException {
+        long fileSize = accessObject.getSize();
+        
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            httpHeaders.add("Content-Range", range.toContentRange(fileSize));
+            httpHeaders.add("Content-Length", range.getLength());
+            writeRange(range, accessObject, outstream, 0);
+            return;
+        }
+        
+        String boundary = UUID.randomUUID().toString();
+        List<byte[]> partHeaders = new ArrayList<>();
+        long contentSize = 0;
+        for (ByteRange range : ranges) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                    + "Content-Type: " + mimeType + "\r\n"
+                    + "Content-Range: " + range.toContentRange(fileSize) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            contentSize += partHeader.length + range.getLength();
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentSize += closing.length;
+        
+        httpHeaders.putSingle("Content-Type", "multipart/byteranges; boundary=" + boundary);
+        httpHeaders.add("Content-Length", contentSize);
+        
+        long streamPosition = 0;
+        for (int i = 0; i < ranges.size(); i++) {
+            outstream.write(partHeaders.get(i));
+            streamPosition = writeRange(ranges.get(i), accessObject, outstream, streamPosition);
+        }
+        outstream.write(closing);
+    }
+    
+    /**
+     * @return the position of the input stream of the access object after 
+     * the range has been written. 
+     */
+    private long writeRange(ByteRange range, DataFileIO accessObject, OutputStream outstream, long streamPosition) throws IOException {
+        long remaining = range.getLength();
+        
+        if (accessObject.getChannel() instanceof FileChannel) {
+            FileTransfer.transfer((FileChannel) accessObject.getChannel(), range.getStart(), remaining, outstream);
+            return streamPosition;
+        }
+        
+        try (InputStream rangeStream = accessObject.openRange(range.getStart(), remaining)) {
+            if (rangeStream != null) {
+                copyRange(rangeStream, range, outstream);
+                return streamPosition;
+            }
+        }
+        
+        InputStream instream = accessObject.getInputStream();
+        if (range.getStart() < streamPosition) {
+            throw new IOException("Byte ranges out of order on a sequential stream");
+        }
+        long toSkip = range.getStart() - streamPosition;
+        while (toSkip > 0) {
+            long skipped = instream.skip(toSkip);
+            if (skipped <= 0) {
+                throw new IOException("Unexpected end of stream at byte " + (range.getStart() - toSkip));
+            }
+            toSkip -= skipped;
+        }
+        copyRange(instream, range, outstream);
+        return range.getEnd() + 1;
+    }
+    
+    /**
+     * Copies the bytes of the range from the stream, positioned at its start.
+     */
+    private void copyRange(InputStream instream, ByteRange range, OutputStream outstream) throws IOException {
+        long remaining = range.getLength();
+        byte[] bffr = new byte[4*8192];
+        while (remaining > 0) {
+            int bufsize = instream.read(bffr, 0, (int) Math.min(bffr.length, remaining));
+            if (bufsize < 0) {
+                throw new IOException("Unexpected end of stream at byte " + (range.getEnd() - remaining + 1));
+            }
+            outstream.write(bffr, 0, bufsize);
+            remaining -= bufsize;
+        }
+    }
+    
     private long getContentSize(DataFileIO accessObject) {
         long contentSize = 0; 
         
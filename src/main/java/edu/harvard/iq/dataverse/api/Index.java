@@ -25,6 +25,7 @@ import edu.harvard.iq.dataverse.authorization.users.User;
 import edu.harvard.iq.dataverse.search.DvObjectSolrDoc;
 import edu.harvard.iq.dataverse.search.FacetCategory;
 import edu.harvard.iq.dataverse.search.FileView;
+import edu.harvard.iq.dataverse.search.IndexAllProgress;
 import edu.harvard.iq.dataverse.search.IndexAllServiceBean;
 import edu.harvard.iq.dataverse.search.IndexResponse;
 import edu.harvard.iq.dataverse.search.IndexServiceBean;
@@ -357,6 +358,20 @@ public class Index extends AbstractApiBean {
         }
     }
 
+    /**
+     * Progress, throughput and estimated time remaining of the most recent
+     * "index all" run on this server.
+     */
+    @GET
+    @Path("progress")
+    public Response indexAllProgress() {
+        IndexAllProgress progress = indexAllService.getProgress();
+        if (progress == null) {
+            return errorResponse(Status.NOT_FOUND, "No index all run has been started since this server was started.");
+        }
+        return okResponse(progress.toJson());
+    }
+
     @GET
     @Path("status")
     public Response indexStatus() {
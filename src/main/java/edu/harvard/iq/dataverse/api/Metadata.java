@@ -6,6 +6,7 @@
 package edu.harvard.iq.dataverse.api;
 
 import edu.harvard.iq.dataverse.DatasetServiceBean;
+import edu.harvard.iq.dataverse.export.ExportAllProgress;
 import java.util.logging.Logger;
 import javax.ejb.EJB;
 import javax.ws.rs.GET;
@@ -51,4 +52,17 @@ public class Metadata extends AbstractApiBean {
         datasetService.reExportAllAsync();
         return this.accepted();
     }    
+    
+    // Progress, throughput and estimated time remaining of the most recent 
+    // export all (or reExportAll) job on this server.
+    @GET
+    @Path("/exportAll/progress")
+    @Produces("application/json")
+    public Response exportAllProgress() {
+        ExportAllProgress progress = datasetService.getExportAllProgress();
+        if (progress == null) {
+            return errorResponse(Response.Status.NOT_FOUND, "No export all job has been started since this server was started.");
+        }
+        return okResponse(progress.toJson());
+    }
 }
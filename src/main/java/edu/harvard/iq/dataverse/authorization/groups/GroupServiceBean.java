@@ -80,10 +80,14 @@ public class GroupServiceBean {
         Set<Group> groups = new HashSet<>();
          // first, get all groups the user directly belongs to
         for ( GroupProvider gp : groupProviders.values() ) {
-            groups.addAll( gp.groupsFor(req, dvo) );
+            if ( gp != explicitGroupProvider ) {
+                groups.addAll( gp.groupsFor(req, dvo) );
+            }
         }
         
-        return groupTransitiveClosure(groups, dvo);
+        // explicit groups, including the ones containing other groups, in one go
+        groups.addAll( explicitGroupService.findGroupsTransitively(req.getUser(), dvo) );
+        return groups;
     }
     
     /**
@@ -98,10 +102,14 @@ public class GroupServiceBean {
         
         // first, get all groups the user directly belongs to
         for ( GroupProvider gp : groupProviders.values() ) {
-            groups.addAll( gp.groupsFor(ra, dvo) );
+            if ( gp != explicitGroupProvider ) {
+                groups.addAll( gp.groupsFor(ra, dvo) );
+            }
         }
         
-        return groupTransitiveClosure(groups, dvo);
+        // explicit groups, including the ones containing other groups, in one go
+        groups.addAll( explicitGroupService.findGroupsTransitively(ra, dvo) );
+        return groups;
     }
 
     /**
@@ -139,44 +147,6 @@ public class GroupServiceBean {
         return groups;
     }
 
-    /**
-     * Given a set of groups and a DV object, return all the groups that are
-     * reachable from the set. Effectively, if the initial set has an {@link ExplicitGroup},
-     * recursively add all the groups it contains.
-     * 
-     * @param groups
-     * @param dvo
-     * @return All the groups included in the groups in {@code groups}.
-     */
-    private Set<Group> groupTransitiveClosure(Set<Group> groups, DvObject dvo) {
-        // now, get the explicit group transitive closure.
-        Set<ExplicitGroup> perimeter = new HashSet<>();
-        Set<ExplicitGroup> visited = new HashSet<>();
-        
-        for ( Group g : groups ) {
-            if ( g instanceof ExplicitGroup ) {
-                perimeter.add((ExplicitGroup) g);
-            }
-        }
-        visited.addAll(perimeter);
-        
-        while ( ! perimeter.isEmpty() ) {
-            ExplicitGroup g = perimeter.iterator().next();
-            perimeter.remove(g);
-            groups.add(g);
-            
-            Set<ExplicitGroup> discovered = explicitGroupProvider.groupsFor(g, dvo);
-            discovered.removeAll(visited); // Ideally the conjunction is always empty, as we don't allow cycles.
-            // Still, coding defensively here, in case someone gets too
-            // smart on the SQL console.
-            
-            perimeter.addAll(discovered);
-            visited.addAll(discovered);
-        }
-        
-        return groups;
-    }
-    
     public Set<Group> findGlobalGroups() {
         Set<Group> groups = new HashSet<>();
         for ( GroupProvider gp : groupProviders.values() ) {
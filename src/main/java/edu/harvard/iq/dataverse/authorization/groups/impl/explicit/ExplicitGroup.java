@@ -56,7 +56,15 @@ import org.hibernate.validator.constraints.NotBlank;
                       +"WHERE eg.owner.id=:ownerId AND ceg.id=:subExGroupId"),
     @NamedQuery( name="ExplicitGroup.findByOwnerAndRAIdtf",
                  query="SELECT eg FROM ExplicitGroup eg join eg.containedRoleAssignees ra "
-                      +"WHERE eg.owner.id=:ownerId AND ra=:raIdtf")
+                      +"WHERE eg.owner.id=:ownerId AND ra=:raIdtf"),
+    @NamedQuery( name="ExplicitGroup.listIdsOwnersAndAliases",
+                 query="SELECT eg.id, o.id, eg.groupAlias FROM ExplicitGroup eg left join eg.owner o"),
+    @NamedQuery( name="ExplicitGroup.listContainedAuthUsers",
+                 query="SELECT eg.id, au.userIdentifier FROM ExplicitGroup eg join eg.containedAuthenticatedUsers au"),
+    @NamedQuery( name="ExplicitGroup.listContainedExGroups",
+                 query="SELECT eg.id, ceg.groupAlias FROM ExplicitGroup eg join eg.containedExplicitGroups ceg"),
+    @NamedQuery( name="ExplicitGroup.listContainedRAIdtfs",
+                 query="SELECT eg.id, ra FROM ExplicitGroup eg join eg.containedRoleAssignees ra")
 })
 @Entity
 @Table(indexes = {@Index(columnList="owner_id")
@@ -258,7 +266,16 @@ public class ExplicitGroup implements Group, java.io.Serializable {
             }
         }
         
+        if ( containedRoleAssignees.isEmpty() ) {
+            return false;
+        }
+        String explicitGroupPrefix = Group.IDENTIFIER_PREFIX + provider.getGroupProviderAlias() + Group.PATH_SEPARATOR;
         for ( String containedRAIdtf : containedRoleAssignees ) {
+            // Only explicit groups can contain other role assignees, so don't 
+            // bother looking up the rest.
+            if ( ! containedRAIdtf.startsWith(explicitGroupPrefix) ) {
+                continue;
+            }
             RoleAssignee containedRa = provider.findRoleAssignee(containedRAIdtf);
             if ( containedRa != null ) {
                 if ( containedRa instanceof ExplicitGroup ) {
@@ -0,0 +1,280 @@
+package edu.harvard.iq.dataverse.authorization.groups.impl.explicit;
+
+import edu.harvard.iq.dataverse.DvObject;
+import edu.harvard.iq.dataverse.util.LruCache;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Application-wide, in-memory copy of the explicit group memberships, used by
+ * {@link ExplicitGroupServiceBean}. For each explicit group, holds the
+ * definition point it belongs to and the identifiers of its direct members
+ * (users, other explicit groups, and any other role assignee), as well as the
+ * reverse mapping from members to the groups that contain them.
+ *
+ * This lets "all the groups X belongs to in the context of Y" be answered
+ * without a query per ancestor of Y, per group found. The transitive answers
+ * are memoized by (role assignee, definition point), and dropped whenever a
+ * membership changes.
+ *
+ * The graph is kept current by the service bean as groups are stored and
+ * removed. It is also considered stale after {@link #MAX_AGE_MILLIS}, so that
+ * changes made on another server of a cluster are picked up eventually; a
+ * new graph is then loaded on the side, and swapped in with
+ * {@link #replaceWith(edu.harvard.iq.dataverse.authorization.groups.impl.explicit.ExplicitGroupMembershipGraph, long)}.
+ */
+public class ExplicitGroupMembershipGraph {
+
+    /**
+     * How long a loaded graph is trusted, in case groups were changed on
+     * another server.
+     */
+    static final long MAX_AGE_MILLIS = 60 * 1000;
+
+    private static final class GroupNode {
+        final Long ownerId;
+        final String identifier;
+        final Set<String> members;
+
+        GroupNode(Long ownerId, String identifier, Set<String> members) {
+            this.ownerId = ownerId;
+            this.identifier = identifier;
+            this.members = members;
+        }
+    }
+
+    private Map<Long, GroupNode> groups = new HashMap<>();
+
+    /** Member identifier to the ids of the groups that directly contain it. */
+    private Map<String, Set<Long>> containingGroups = new HashMap<>();
+
+    /** Memoized closures, keyed by role assignee identifier and definition point id. */
+    private final LruCache<String, Set<Long>> closures = new LruCache<>();
+
+    private long loadTime = -1;
+
+    /** Counts the changes, so that a load can tell it missed some. */
+    private long modifications = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ExplicitGroupMembershipGraph() {
+        closures.setMaxSize(20000);
+    }
+
+    /**
+     * @return {@code true} if the graph was never loaded, or was loaded long
+     * enough ago to have missed changes made elsewhere.
+     */
+    public synchronized boolean isStale() {
+        return loadTime < 0 || System.currentTimeMillis() - loadTime > MAX_AGE_MILLIS;
+    }
+
+    /**
+     * Drops the entire graph. The next {@link #isStale()} will return
+     * {@code true}.
+     */
+    public synchronized void clear() {
+        groups = new HashMap<>();
+        containingGroups = new HashMap<>();
+        closures.invalidate();
+        loadTime = -1;
+        modifications++;
+    }
+
+    /**
+     * @return a number to pass to {@link #replaceWith(edu.harvard.iq.dataverse.authorization.groups.impl.explicit.ExplicitGroupMembershipGraph, long)}.
+     */
+    public synchronized long getModifications() {
+        return modifications;
+    }
+
+    /**
+     * Replaces the contents of {@code this} graph with those of a freshly
+     * loaded one. If {@code this} graph was modified since the load started,
+     * the loaded graph may have missed these modifications; in that case it is
+     * discarded, and {@code this} graph stays stale, to be loaded again.
+     *
+     * @param loaded the graph, as loaded from the database.
+     * @param modificationsAtLoad the value of {@link #getModifications()}
+     * <em>before</em> the load.
+     * @return {@code true} if the loaded graph was installed.
+     */
+    public synchronized boolean replaceWith(ExplicitGroupMembershipGraph loaded, long modificationsAtLoad) {
+        if (modifications != modificationsAtLoad) {
+            return false;
+        }
+        synchronized (loaded) {
+            groups = loaded.groups;
+            containingGroups = loaded.containingGroups;
+        }
+        closures.invalidate();
+        loadTime = System.currentTimeMillis();
+        modifications++;
+        return true;
+    }
+
+    /**
+     * Adds a group to the graph, or replaces its members if it's already in it.
+     *
+     * @param groupId the id of the group.
+     * @param ownerId the id of the {@link DvObject} the group is defined on.
+     * @param identifier the role assignee identifier of the group.
+     * @param memberIdentifiers the identifiers of the group's direct members.
+     */
+    public synchronized void putGroup(Long groupId, Long ownerId, String identifier, Set<String> memberIdentifiers) {
+        removeEdges(groupId);
+        Set<String> members = new HashSet<>(memberIdentifiers);
+        groups.put(groupId, new GroupNode(ownerId, identifier, members));
+        for (String member : members) {
+            Set<Long> containing = containingGroups.get(member);
+            if (containing == null) {
+                containing = new HashSet<>();
+                containingGroups.put(member, containing);
+            }
+            containing.add(groupId);
+        }
+        closures.invalidate();
+        modifications++;
+    }
+
+    /**
+     * Adds a single member to a group that's already in the graph, as when
+     * loading the graph.
+     */
+    synchronized void addMember(Long groupId, String memberIdentifier) {
+        GroupNode node = groups.get(groupId);
+        if (node == null) {
+            return;
+        }
+        node.members.add(memberIdentifier);
+        Set<Long> containing = containingGroups.get(memberIdentifier);
+        if (containing == null) {
+            containing = new HashSet<>();
+            containingGroups.put(memberIdentifier, containing);
+        }
+        containing.add(groupId);
+        closures.invalidate();
+        modifications++;
+    }
+
+    public synchronized void removeGroup(Long groupId) {
+        removeEdges(groupId);
+        groups.remove(groupId);
+        closures.invalidate();
+        modifications++;
+    }
+
+    private void removeEdges(Long groupId) {
+        GroupNode existing = groups.get(groupId);
+        if (existing != null) {
+            for (String member : existing.members) {
+                Set<Long> containing = containingGroups.get(member);
+                if (containing != null) {
+                    containing.remove(groupId);
+                    if (containing.isEmpty()) {
+                        containingGroups.remove(member);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the groups that directly contain the role assignee, and are
+     * defined on {@code context} or one of its ancestors.
+     *
+     * @param memberIdentifier identifier of the role assignee.
+     * @param context the {@link DvObject} that defines the context of the search.
+     * @return ids of the groups.
+     */
+    public synchronized Set<Long> findDirectGroupIds(String memberIdentifier, DvObject context) {
+        Set<Long> contextIds = ancestorIds(context);
+        Set<Long> retVal = new HashSet<>();
+        for (Long groupId : containingGroups.getOrDefault(memberIdentifier, Collections.<Long>emptySet())) {
+            GroupNode node = groups.get(groupId);
+            if (node != null && contextIds.contains(node.ownerId)) {
+                retVal.add(groupId);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Finds all the groups the role assignee belongs to in the context of
+     * {@code context}: the groups defined on {@code context} or one of its
+     * ancestors that contain it, the groups in that context that contain those
+     * groups, and so on.
+     *
+     * @param memberIdentifier identifier of the role assignee.
+     * @param context the {@link DvObject} that defines the context of the search.
+     * @return ids of the groups. The set is shared, and can't be modified.
+     */
+    public Set<Long> findGroupIds(String memberIdentifier, DvObject context) {
+        String key = (context.getId() != null) ? memberIdentifier + " " + context.getId() : null;
+        if (key != null) {
+            Set<Long> memoized = closures.get(key);
+            if (memoized != null) {
+                hits.incrementAndGet();
+                return memoized;
+            }
+        }
+        misses.incrementAndGet();
+
+        // Computed and memoized while holding the lock, so that a concurrent
+        // membership change can't leave a stale closure behind.
+        synchronized (this) {
+            Set<Long> contextIds = ancestorIds(context);
+            Set<Long> found = new HashSet<>();
+            Deque<String> perimeter = new ArrayDeque<>();
+            perimeter.add(memberIdentifier);
+            while (!perimeter.isEmpty()) {
+                String current = perimeter.poll();
+                for (Long groupId : containingGroups.getOrDefault(current, Collections.<Long>emptySet())) {
+                    GroupNode node = groups.get(groupId);
+                    // The visited check also guards against cycles that were
+                    // made outside the application.
+                    if (node != null && contextIds.contains(node.ownerId) && found.add(groupId)) {
+                        perimeter.add(node.identifier);
+                    }
+                }
+            }
+            Set<Long> closure = Collections.unmodifiableSet(found);
+            if (key != null) {
+                closures.put(key, closure);
+            }
+            return closure;
+        }
+    }
+
+    private static Set<Long> ancestorIds(DvObject context) {
+        Set<Long> ids = new HashSet<>();
+        for (DvObject cur = context; cur != null; cur = cur.getOwner()) {
+            ids.add(cur.getId());
+        }
+        return ids;
+    }
+
+    public JsonObjectBuilder getStats() {
+        synchronized (this) {
+            return Json.createObjectBuilder()
+                    .add("groups", groups.size())
+                    .add("members", containingGroups.size())
+                    .add("closuresCached", closures.size())
+                    .add("maxClosures", closures.getMaxSize())
+                    .add("hits", hits.get())
+                    .add("misses", misses.get())
+                    .add("loadTime", loadTime);
+        }
+    }
+
+}
@@ -1,22 +1,26 @@
 package edu.harvard.iq.dataverse.authorization.groups.impl.explicit;
 
 import edu.harvard.iq.dataverse.DvObject;
+import edu.harvard.iq.dataverse.PermissionCache;
 import edu.harvard.iq.dataverse.RoleAssigneeServiceBean;
 import edu.harvard.iq.dataverse.authorization.RoleAssignee;
+import edu.harvard.iq.dataverse.authorization.groups.Group;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.util.TransactionCallbacks;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
+import javax.transaction.TransactionSynchronizationRegistry;
 import org.jboss.logging.Logger;
 
 /**
@@ -29,14 +33,31 @@ import org.jboss.logging.Logger;
 @Stateless
 public class ExplicitGroupServiceBean {
     
+    private static final Logger logger = Logger.getLogger(ExplicitGroupServiceBean.class);
+    
     @EJB
     private RoleAssigneeServiceBean roleAssigneeSvc;
     
+    @EJB
+    PermissionCache permissionCache;
+    
+    @Resource
+    TransactionSynchronizationRegistry transactionRegistry;
+    
     @PersistenceContext(unitName = "VDCNet-ejbPU")
 	protected EntityManager em;
 	
     ExplicitGroupProvider provider;
     
+    /**
+     * The memberships of all the explicit groups, kept in memory so that
+     * finding a user's groups does not query the database per ancestor per group.
+     * Changes are applied to it once they are committed.
+     */
+    public static final ExplicitGroupMembershipGraph membership = new ExplicitGroupMembershipGraph();
+    
+    private static final Object MEMBERSHIP_LOAD_LOCK = new Object();
+    
     @PostConstruct
     void setup() {
         provider = new ExplicitGroupProvider(this, roleAssigneeSvc);
@@ -49,6 +70,10 @@ public class ExplicitGroupServiceBean {
     public ExplicitGroup persist( ExplicitGroup g ) {
         if ( g.getId() == null ) {
             em.persist( g );
+            // the id is generated by the database
+            em.flush();
+            updateMembership( g );
+            permissionCache.membershipChanged();
             return g;
         } else {
             // clean stale data once in a while
@@ -64,7 +89,10 @@ public class ExplicitGroupServiceBean {
                 }
             }
             
-            return em.merge( g );
+            ExplicitGroup merged = em.merge( g );
+            updateMembership( merged );
+            permissionCache.membershipChanged();
+            return merged;
         }    
     }
     
@@ -98,6 +126,9 @@ public class ExplicitGroupServiceBean {
 
     public void removeGroup(ExplicitGroup explicitGroup) {
         em.remove( explicitGroup );
+        final Long groupId = explicitGroup.getId();
+        TransactionCallbacks.afterCommit(transactionRegistry, () -> membership.removeGroup(groupId));
+        permissionCache.membershipChanged();
     }
     
     /**
@@ -122,37 +153,102 @@ public class ExplicitGroupServiceBean {
      * @param ra The role assignee that belongs to the groups
      * @param o the DvObject that defines the context of the search.
      * @return All the groups ra belongs to in the context of o.
+     * @see #findGroupsTransitively(edu.harvard.iq.dataverse.authorization.RoleAssignee, edu.harvard.iq.dataverse.DvObject) 
      */
     public Set<ExplicitGroup> findGroups( RoleAssignee ra, DvObject o ) {
         if ( o == null ) return Collections.emptySet();
-        List<ExplicitGroup> groupList = new LinkedList<>();
-        
-        if ( ra instanceof ExplicitGroup ) {
-            for ( DvObject cur = o; cur != null; cur=cur.getOwner() ) {
-                groupList.addAll( em.createNamedQuery("ExplicitGroup.findByOwnerAndSubExGroupId", ExplicitGroup.class)
-                  .setParameter("ownerId", cur.getId())
-                  .setParameter("subExGroupId", ((ExplicitGroup)ra).getId())
-                  .getResultList() );
-            }
-            
-        } else if ( ra instanceof AuthenticatedUser ) {
-            for ( DvObject cur = o; cur != null; cur=cur.getOwner() ) {
-                groupList.addAll( em.createNamedQuery("ExplicitGroup.findByOwnerAndAuthUserId", ExplicitGroup.class)
-                  .setParameter("ownerId", cur.getId())
-                  .setParameter("authUserId", ((AuthenticatedUser)ra).getId())
-                  .getResultList() );
+        return findByIds( getMembership().findDirectGroupIds(ra.getIdentifier(), o) );
+    }
+    
+    /**
+     * Finds all the groups {@code ra} belongs to in the context of {@code o}, 
+     * directly or through other groups: the groups defined at {@code o} or
+     * one of its ancestors that contain {@code ra}, the groups in that context
+     * that contain them, and so on.
+     * 
+     * @param ra The role assignee that belongs to the groups
+     * @param o the DvObject that defines the context of the search.
+     * @return All the groups ra belongs to in the context of o, directly or indirectly.
+     */
+    public Set<ExplicitGroup> findGroupsTransitively( RoleAssignee ra, DvObject o ) {
+        if ( o == null ) return Collections.emptySet();
+        return findByIds( getMembership().findGroupIds(ra.getIdentifier(), o) );
+    }
+    
+    private Set<ExplicitGroup> findByIds( Set<Long> ids ) {
+        Set<ExplicitGroup> groups = new HashSet<>();
+        for ( Long id : ids ) {
+            ExplicitGroup eg = em.find( ExplicitGroup.class, id );
+            // null if the group was removed on another server
+            if ( eg != null ) {
+                groups.add( eg );
             }
-            
-        } else {
-            for ( DvObject cur = o; cur != null; cur=cur.getOwner() ) {
-                groupList.addAll( em.createNamedQuery("ExplicitGroup.findByOwnerAndRAIdtf", ExplicitGroup.class)
-                  .setParameter("ownerId", cur.getId())
-                  .setParameter("raIdtf", ra.getIdentifier())
-                  .getResultList() );
+        }
+        return provider.updateProvider( groups );
+    }
+    
+    /**
+     * Returns the membership graph, (re)loading it from the database if it is
+     * stale.
+     */
+    ExplicitGroupMembershipGraph getMembership() {
+        if ( membership.isStale() ) {
+            synchronized ( MEMBERSHIP_LOAD_LOCK ) {
+                if ( membership.isStale() ) {
+                    long modifications = membership.getModifications();
+                    if ( ! membership.replaceWith(loadMembership(), modifications) ) {
+                        logger.debug("Explicit group memberships changed while being loaded; will reload on next use.");
+                    }
+                }
             }
         }
-        
-        return provider.updateProvider( new HashSet<>(groupList) );
+        return membership;
+    }
+    
+    private ExplicitGroupMembershipGraph loadMembership() {
+        ExplicitGroupMembershipGraph loaded = new ExplicitGroupMembershipGraph();
+        for ( Object[] row : em.createNamedQuery("ExplicitGroup.listIdsOwnersAndAliases", Object[].class).getResultList() ) {
+            loaded.putGroup( (Long) row[0], (Long) row[1], identifierFor((String) row[2]), Collections.<String>emptySet() );
+        }
+        for ( Object[] row : em.createNamedQuery("ExplicitGroup.listContainedAuthUsers", Object[].class).getResultList() ) {
+            loaded.addMember( (Long) row[0], AuthenticatedUser.IDENTIFIER_PREFIX + row[1] );
+        }
+        for ( Object[] row : em.createNamedQuery("ExplicitGroup.listContainedExGroups", Object[].class).getResultList() ) {
+            loaded.addMember( (Long) row[0], identifierFor((String) row[1]) );
+        }
+        for ( Object[] row : em.createNamedQuery("ExplicitGroup.listContainedRAIdtfs", Object[].class).getResultList() ) {
+            loaded.addMember( (Long) row[0], (String) row[1] );
+        }
+        return loaded;
+    }
+    
+    /**
+     * Replaces the members of {@code g} in the membership graph with its current
+     * ones, once the current transaction commits. (Any earlier, a concurrent 
+     * load of the graph could still read the old rows, and put them back.)
+     * @param g a persisted group.
+     */
+    private void updateMembership( ExplicitGroup g ) {
+        final Set<String> members = new HashSet<>( g.getContainedRoleAssignees() );
+        for ( AuthenticatedUser au : g.getContainedAuthenticatedUsers() ) {
+            members.add( au.getIdentifier() );
+        }
+        for ( ExplicitGroup sub : g.getContainedExplicitGroups() ) {
+            members.add( identifierFor(sub.getAlias()) );
+        }
+        final Long groupId = g.getId();
+        final Long ownerId = (g.getOwner() != null) ? g.getOwner().getId() : null;
+        final String identifier = identifierFor(g.getAlias());
+        TransactionCallbacks.afterCommit(transactionRegistry, () -> membership.putGroup(groupId, ownerId, identifier, members));
+    }
+    
+    /**
+     * The identifier of an explicit group, from its alias. Unlike 
+     * {@link ExplicitGroup#getIdentifier()}, does not require the group's
+     * provider to be set.
+     */
+    private String identifierFor( String groupAlias ) {
+        return Group.IDENTIFIER_PREFIX + provider.getGroupProviderAlias() + Group.PATH_SEPARATOR + groupAlias;
     }
     
 }
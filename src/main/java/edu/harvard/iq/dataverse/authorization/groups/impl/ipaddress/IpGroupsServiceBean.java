@@ -6,17 +6,21 @@ import edu.harvard.iq.dataverse.actionlogging.ActionLogServiceBean;
 import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv4Address;
 import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv6Address;
 import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddress;
-import java.util.HashSet;
+import edu.harvard.iq.dataverse.util.TransactionCallbacks;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.Resource;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 /**
  * Provides CRUD tools to efficiently manage IP groups in a Java EE container.
@@ -38,7 +42,28 @@ public class IpGroupsServiceBean {
     @EJB
     RoleAssigneeServiceBean roleAssigneeSvc;
     
+    @Resource
+    TransactionSynchronizationRegistry transactionRegistry;
+    
+    /**
+     * Other servers of a cluster may change the groups too; we pick up those
+     * changes by rebuilding the index once it's older than this (ms).
+     */
+    private static final long INDEX_MAX_AGE = 60 * 1000;
+    
+    /** Index of all the groups' ranges. Replaced as a whole, never modified. */
+    private static final AtomicReference<IpRangeIndex> rangeIndex = new AtomicReference<>();
+    
+    /** Held while the index is rebuilt, so that only one thread does it. */
+    private static final ReentrantLock rebuildLock = new ReentrantLock();
+    
     public IpGroup store( IpGroup grp ) {
+        IpGroup stored = doStore( grp );
+        dropRangeIndexAfterCommit();
+        return stored;
+    }
+    
+    private IpGroup doStore( IpGroup grp ) {
         ActionLogRecord alr = new ActionLogRecord(ActionLogRecord.ActionType.GlobalGroups, "ipCreate");
         if ( grp.getGroupProvider() != null ) {
             alr.setInfo( grp.getIdentifier());
@@ -94,27 +119,71 @@ public class IpGroupsServiceBean {
         return em.createNamedQuery("IpGroup.findAll").getResultList();
     }
     
+    /**
+     * Finds the groups that have a range containing {@code ipa}. This is done
+     * on every request, so it is served from an in-memory {@link IpRangeIndex}
+     * rather than by querying the database.
+     * 
+     * @param ipa an IPv4 or IPv6 address
+     * @return the groups containing {@code ipa}. The set is shared, and can't be modified.
+     */
     public Set<IpGroup> findAllIncludingIp( IpAddress ipa ) {
-        if ( ipa instanceof IPv4Address ) {
-            IPv4Address ip4 = (IPv4Address) ipa;
-            List<IpGroup> groupList = em.createNamedQuery("IPv4Range.findGroupsContainingAddressAsLong", IpGroup.class)
-                    .setParameter("addressAsLong", ip4.toLong()).getResultList();
-            return new HashSet<>(groupList);
-            
-        } else if ( ipa instanceof IPv6Address ) {
-            IPv6Address ip6 = (IPv6Address) ipa;
-            long[] ip6arr = ip6.toLongArray();
-            List<IpGroup> groupList = em.createNamedQuery("IPv6Range.findGroupsContainingABCD", IpGroup.class)
-                    .setParameter("a", ip6arr[0])
-                    .setParameter("b", ip6arr[1])
-                    .setParameter("c", ip6arr[2])
-                    .setParameter("d", ip6arr[3])
-                    .getResultList();
-            return new HashSet<>(groupList);
-            
-        } else {
+        if ( !(ipa instanceof IPv4Address) && !(ipa instanceof IPv6Address) ) {
             throw new IllegalArgumentException( "Unknown IpAddress type: " + ipa.getClass() + " (for IpAddress:" + ipa + ")" );
         }
+        return getRangeIndex().groupsContaining(ipa);
+    }
+    
+    /**
+     * Returns the range index, building it if there's none yet, or if the
+     * current one is old enough to have missed changes made on another server
+     * of the cluster.
+     * 
+     * Only one thread builds it at a time. While it does, the others keep
+     * using the expired index, if there is one, or wait for the new one.
+     */
+    IpRangeIndex getRangeIndex() {
+        IpRangeIndex index = rangeIndex.get();
+        if ( index != null && !isExpired(index) ) {
+            return index;
+        }
+        if ( index == null ) {
+            rebuildLock.lock();
+        } else if ( !rebuildLock.tryLock() ) {
+            return index;
+        }
+        try {
+            index = rangeIndex.get();
+            if ( index == null || isExpired(index) ) {
+                index = IpRangeIndex.build( findAll() );
+                rangeIndex.set( index );
+            }
+            return index;
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+    
+    private static boolean isExpired( IpRangeIndex index ) {
+        return System.currentTimeMillis() - index.getBuildTime() > INDEX_MAX_AGE;
+    }
+    
+    /**
+     * Drops the range index once the current transaction has committed, so
+     * that the next request builds one that has the changes. (Dropped any
+     * earlier, it could be rebuilt from the rows as they were before.) Waits
+     * for a rebuild in progress, which may have read the rows before the 
+     * commit.
+     */
+    private void dropRangeIndexAfterCommit() {
+        TransactionCallbacks.afterCommit(transactionRegistry, () -> {
+            rebuildLock.lock();
+            try {
+                rangeIndex.set( null );
+            } finally {
+                rebuildLock.unlock();
+            }
+        });
     }
     
     /**
@@ -129,6 +198,7 @@ public class IpGroupsServiceBean {
         if ( roleAssigneeSvc.getAssignmentsFor(grp.getIdentifier()).isEmpty() ) {
             em.remove( grp );
             actionLogSvc.log(alr);
+            dropRangeIndexAfterCommit();
             
         } else {
             String failReason = "Group " + grp.getAlias() + " has assignments and thus can't be deleted.";
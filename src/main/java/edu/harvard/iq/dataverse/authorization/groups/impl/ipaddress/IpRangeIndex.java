@@ -0,0 +1,236 @@
+package edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress;
+
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv4Address;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv4Range;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv6Address;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv6Range;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable, in-memory index of the address ranges of all the IP groups,
+ * for finding the groups an address belongs to without a database query.
+ *
+ * The address space is cut into segments at every range boundary; each
+ * segment maps to the (pre-computed, shared) set of groups whose ranges cover
+ * it. A lookup is then a binary search for the segment of the address, and
+ * allocates nothing. Changes to the groups are applied by building a new
+ * index and swapping it in (see {@link IpGroupsServiceBean}).
+ *
+ * Addresses are handled as unsigned 128 bit numbers, split into two longs;
+ * IPv4 addresses use the low long only.
+ */
+public class IpRangeIndex {
+
+    private final Segments ipv4;
+    private final Segments ipv6;
+    private final int rangeCount;
+    private final long buildTime;
+
+    private IpRangeIndex(Segments ipv4, Segments ipv6, int rangeCount) {
+        this.ipv4 = ipv4;
+        this.ipv6 = ipv6;
+        this.rangeCount = rangeCount;
+        this.buildTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Builds an index of the ranges of {@code groups}. The ranges are read
+     * here, so lazily loaded groups must still be attached.
+     */
+    public static IpRangeIndex build(Collection<IpGroup> groups) {
+        SegmentsBuilder ipv4 = new SegmentsBuilder();
+        SegmentsBuilder ipv6 = new SegmentsBuilder();
+        for (IpGroup group : groups) {
+            for (IPv4Range range : group.getIpv4Ranges()) {
+                ipv4.add(0, unsigned(range.getBottomAsLong()), 0, unsigned(range.getTopAsLong()), group);
+            }
+            for (IPv6Range range : group.getIpv6Ranges()) {
+                IPv6Address bottom = range.getBottom();
+                IPv6Address top = range.getTop();
+                ipv6.add(high(bottom), low(bottom), high(top), low(top), group);
+            }
+        }
+        return new IpRangeIndex(ipv4.build(), ipv6.build(), ipv4.size() + ipv6.size());
+    }
+
+    /**
+     * @param address an IPv4 or IPv6 address.
+     * @return The groups that have a range containing the address; the set is
+     * shared, and cannot be modified.
+     */
+    public Set<IpGroup> groupsContaining(IpAddress address) {
+        if (address instanceof IPv4Address) {
+            return ipv4.find(0, unsigned(((IPv4Address) address).toLong()));
+        } else if (address instanceof IPv6Address) {
+            IPv6Address ipv6Address = (IPv6Address) address;
+            return ipv6.find(high(ipv6Address), low(ipv6Address));
+        }
+        throw new IllegalArgumentException("Unknown IpAddress type: " + address.getClass() + " (for IpAddress:" + address + ")");
+    }
+
+    public int getRangeCount() {
+        return rangeCount;
+    }
+
+    public long getBuildTime() {
+        return buildTime;
+    }
+
+    /**
+     * {@link IPv4Address#toLong()} overflows into the sign bit for addresses
+     * from 128.0.0.0 up; the lower 32 bits are the actual address.
+     */
+    private static long unsigned(long ipv4AsLong) {
+        return ipv4AsLong & 0xffffffffL;
+    }
+
+    private static long high(IPv6Address address) {
+        return words(address, 0);
+    }
+
+    private static long low(IPv6Address address) {
+        return words(address, 4);
+    }
+
+    private static long words(IPv6Address address, int first) {
+        long value = 0;
+        for (int i = first; i < first + 4; i++) {
+            value = (value << 16) | (address.get(i) & 0xffff);
+        }
+        return value;
+    }
+
+    /**
+     * The segments of an address family: segment {@code i} starts at
+     * ({@code startHigh[i]}, {@code startLow[i]}) and ends where segment
+     * {@code i+1} starts.
+     */
+    private static class Segments {
+
+        final long[] startHigh;
+        final long[] startLow;
+        final List<Set<IpGroup>> groups;
+
+        Segments(long[] startHigh, long[] startLow, List<Set<IpGroup>> groups) {
+            this.startHigh = startHigh;
+            this.startLow = startLow;
+            this.groups = groups;
+        }
+
+        Set<IpGroup> find(long high, long low) {
+            // the last segment that starts at or before the address:
+            int lo = 0;
+            int hi = startHigh.length - 1;
+            int found = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(startHigh[mid], startLow[mid], high, low) <= 0) {
+                    found = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return found < 0 ? Collections.<IpGroup>emptySet() : groups.get(found);
+        }
+    }
+
+    private static int compare(long high1, long low1, long high2, long low2) {
+        int c = Long.compareUnsigned(high1, high2);
+        return c != 0 ? c : Long.compareUnsigned(low1, low2);
+    }
+
+    private static class SegmentsBuilder {
+
+        /**
+         * A range starts (a group is added) or ends (it is removed) at a
+         * point.
+         */
+        private static class Event {
+            final long high;
+            final long low;
+            final IpGroup group;
+            final boolean start;
+
+            Event(long high, long low, IpGroup group, boolean start) {
+                this.high = high;
+                this.low = low;
+                this.group = group;
+                this.start = start;
+            }
+        }
+
+        private final List<Event> events = new ArrayList<>();
+        private int ranges = 0;
+
+        void add(long bottomHigh, long bottomLow, long topHigh, long topLow, IpGroup group) {
+            if (compare(bottomHigh, bottomLow, topHigh, topLow) > 0) {
+                return;
+            }
+            ranges++;
+            events.add(new Event(bottomHigh, bottomLow, group, true));
+            // the range ends right after its top address - unless that's the
+            // last address there is:
+            long endLow = topLow + 1;
+            long endHigh = endLow == 0 ? topHigh + 1 : topHigh;
+            if (!(endLow == 0 && endHigh == 0)) {
+                events.add(new Event(endHigh, endLow, group, false));
+            }
+        }
+
+        int size() {
+            return ranges;
+        }
+
+        @SuppressWarnings("unchecked")
+        Segments build() {
+            events.sort((e1, e2) -> compare(e1.high, e1.low, e2.high, e2.low));
+
+            List<long[]> starts = new ArrayList<>();
+            List<Set<IpGroup>> segmentGroups = new ArrayList<>();
+            // identical sets are shared between segments:
+            Map<Set<IpGroup>, Set<IpGroup>> internedSets = new HashMap<>();
+            Map<IpGroup, Integer> active = new HashMap<>();
+
+            int i = 0;
+            while (i < events.size()) {
+                Event first = events.get(i);
+                // apply all the events at this point:
+                while (i < events.size() && compare(events.get(i).high, events.get(i).low, first.high, first.low) == 0) {
+                    Event event = events.get(i++);
+                    int count = active.getOrDefault(event.group, 0) + (event.start ? 1 : -1);
+                    if (count > 0) {
+                        active.put(event.group, count);
+                    } else {
+                        active.remove(event.group);
+                    }
+                }
+                Set<IpGroup> groups = new HashSet<>(active.keySet());
+                Set<IpGroup> interned = internedSets.get(groups);
+                if (interned == null) {
+                    interned = groups.isEmpty() ? Collections.<IpGroup>emptySet() : Collections.unmodifiableSet(groups);
+                    internedSets.put(groups, interned);
+                }
+                starts.add(new long[]{first.high, first.low});
+                segmentGroups.add(interned);
+            }
+
+            long[] startHigh = new long[starts.size()];
+            long[] startLow = new long[starts.size()];
+            for (int s = 0; s < starts.size(); s++) {
+                startHigh[s] = starts.get(s)[0];
+                startLow[s] = starts.get(s)[1];
+            }
+            return new Segments(startHigh, startLow, segmentGroups);
+        }
+    }
+
+}
@@ -23,6 +23,8 @@ package edu.harvard.iq.dataverse.dataaccess;
 import edu.harvard.iq.dataverse.DataFile;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *
@@ -33,6 +35,14 @@ public class DataAccess {
     public DataAccess() {
 
     }
+    
+    /**
+     * The id of the local filesystem "driver" ({@link FileAccessIO}); the 
+     * files stored there have storage identifiers with no scheme. 
+     */
+    public static final String FILE_STORAGE = "file";
+    
+    private static final Map<String, StorageDriver> storageDrivers = new ConcurrentHashMap<>();
 
     public static DataFileIO createDataAccessObject (DataFile df) throws IOException {
         return createDataAccessObject (df, null);
@@ -47,17 +57,70 @@ public class DataAccess {
         }
 
         if (df.getStorageIdentifier().startsWith("file://")
-                || (!df.getStorageIdentifier().matches("^[a-z][a-z]*://.*"))) {
+                || (!df.getStorageIdentifier().matches("^[a-z][a-z0-9]*://.*"))) {
             return new FileAccessIO (df, req);
         }
         
-        // No other storage methods are supported as of now! -- 4.0.1
-        // TODO: 
-        // This code will need to be extended with a system of looking up 
-        // available storage plugins by the storage tag embedded in the 
-        // "storage identifier". 
-        // -- L.A. 4.0.2
-        
-        throw new IOException ("createDataAccessObject: Unsupported storage method.");
+        // Otherwise, the storage identifier starts with the id of the 
+        // storage driver it is stored with: 
+        String driverId = df.getStorageIdentifier().substring(0, df.getStorageIdentifier().indexOf("://"));
+        return new StorageIO (df, req, getStorageDriver(driverId));
+    }
+    
+    /**
+     * @return the driver with the id. 
+     * @throws IOException if there is no such driver, or it is not 
+     * configured.
+     */
+    public static StorageDriver getStorageDriver(String driverId) throws IOException {
+        StorageDriver driver = storageDrivers.get(driverId);
+        if (driver != null) {
+            return driver;
+        }
+        if (S3StorageDriver.ID.equals(driverId)) {
+            synchronized (storageDrivers) {
+                driver = storageDrivers.get(driverId);
+                if (driver == null) {
+                    driver = S3StorageDriver.fromSystemProperties();
+                    storageDrivers.put(driverId, driver);
+                }
+            }
+            return driver;
+        }
+        throw new IOException ("createDataAccessObject: Unsupported storage method " + driverId + ".");
+    }
+    
+    /**
+     * Makes the driver available to the files stored with it (in place of 
+     * the configured driver with the same id, if any). 
+     */
+    public static void registerStorageDriver(StorageDriver driver) {
+        storageDrivers.put(driver.getId(), driver);
+    }
+    
+    /**
+     * @return the id of the driver new files are stored with: the 
+     * {@code dataverse.files.storageDriver} JVM option; {@link #FILE_STORAGE} 
+     * by default. 
+     */
+    public static String getNewFileStorageDriverId() {
+        String driverId = System.getProperty("dataverse.files.storageDriver");
+        if (driverId == null || driverId.trim().equals("")) {
+            return FILE_STORAGE;
+        }
+        return driverId.trim();
+    }
+    
+    /**
+     * @param storageId the (bare) storage identifier generated for a new file.
+     * @return the storage identifier to save the file with, with the driver 
+     * to store it with. 
+     */
+    public static String getNewFileStorageIdentifier(String storageId) {
+        String driverId = getNewFileStorageDriverId();
+        if (FILE_STORAGE.equals(driverId)) {
+            return storageId;
+        }
+        return driverId + "://" + storageId;
     }
-}
\ No newline at end of file
+}
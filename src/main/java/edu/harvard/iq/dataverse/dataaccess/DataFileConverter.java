@@ -38,7 +38,10 @@ import edu.harvard.iq.dataverse.datavariable.DataVariable;
 import edu.harvard.iq.dataverse.datavariable.VariableCategory;
 import edu.harvard.iq.dataverse.util.FileUtil;
 import edu.harvard.iq.dataverse.rserve.*;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 
 
 
@@ -63,15 +66,26 @@ public class DataFileConverter {
     public static String SERVICE_REQUEST_CONVERT = "convert";
     
     
-    public static FileAccessIO performFormatConversion (DataFile file, FileAccessIO fileDownload, String formatRequested, String formatType) {
-        if (!file.isTabularData() || !fileDownload.isLocalFile()) {
+    public static DataFileIO performFormatConversion (final DataFile file, final DataFileIO fileDownload, final String formatRequested, String formatType) {
+        if (!file.isTabularData()) {
             return null; 
         }
         
+        // if the format requested is "D00", and it's already a TAB file,
+        // we don't need to do anything:
+        if (formatRequested.equals(FILE_TYPE_TAB)
+                && file.getContentType().equals("text/tab-separated-values")) {
+
+            return fileDownload;
+        }
+        
+        // (the conversions are cached next to the tab file; or, for the 
+        // files that are not stored locally, next to its local copy - which
+        // is only downloaded if the conversion needs to be made)
         Path tabFilePath = null; 
         
         try {
-            tabFilePath = fileDownload.getFileSystemPath();
+            tabFilePath = fileDownload.getLocalCopyLocation();
         } catch (IOException ioEx) {
             return null; 
         }
@@ -80,63 +94,43 @@ public class DataFileConverter {
             return null; 
         }
         
-        File tabFile = null; 
         File formatConvertedFile = null;
 
-        String cachedFileSystemLocation = null;
-
-         // initialize the data variables list:
-
-        List<DataVariable> dataVariables = file.getDataTable().getDataVariables();
-
-        // if the format requested is "D00", and it's already a TAB file,
-        // we don't need to do anything:
-        if (formatRequested.equals(FILE_TYPE_TAB)
-                && file.getContentType().equals("text/tab-separated-values")) {
-
-            return fileDownload;
-        }
-
-        // We may already have a cached copy of this
-        // format:
-        cachedFileSystemLocation = tabFilePath.toString()
+        // We may already have a cached copy of this format; if not, we'll 
+        // have to run the conversion (only once, however many requests for
+        // it there are at the same time):
+        final Path cachedFileSystemLocation = Paths.get(tabFilePath.toString()
                 + "."
-                + formatRequested;
-
-        if (new File(cachedFileSystemLocation).exists()) {
-            formatConvertedFile = new File(cachedFileSystemLocation);
-        } else {
-                // OK, we don't have a cached copy. So we'll have to run
-            // conversion again (below). Let's have the
-            // tab-delimited file handy:
+                + formatRequested);
 
-            tabFile = tabFilePath.toFile();
-        }
-                        
-        
-        // Check if the tab file is present and run the conversion:
-
-        if (tabFile != null && (tabFile.length() > 0)) {   
-            formatConvertedFile = runFormatConversion (file, tabFile, formatRequested);
-
-            // for local files, cache the result:
-
-            if (formatConvertedFile != null &&
-                    formatConvertedFile.exists()) {
-
-                try {
-                    File cachedConvertedFile = new File (cachedFileSystemLocation);
-                    FileUtil.copyFile(formatConvertedFile,cachedConvertedFile);
-                    formatConvertedFile.delete();
-                    formatConvertedFile = cachedConvertedFile;
-                    
-                } catch (IOException ex) {
-                    // Whatever. For whatever reason we have failed to cache
-                    // the format-converted copy of the file we just produced.
-                    // But it's not fatal. So we just carry on.
+        try {
+            formatConvertedFile = DerivativeCache.getInstance().get(cachedFileSystemLocation, () -> {
+                // Let's have the tab-delimited file handy:
+                File tabFile = fileDownload.getLocalCopy().toFile();
+
+                // Check if the tab file is present and run the conversion:
+                if (tabFile.length() > 0) {
+                    File convertedFile = runFormatConversion(file, tabFile, formatRequested);
+
+                    if (convertedFile != null && convertedFile.exists()) {
+                        // (copied next to where it goes, and moved in place, 
+                        // so that no one sees a partial copy)
+                        File cachedTempFile = File.createTempFile(cachedFileSystemLocation.getFileName().toString(), ".tmp", tabFile.getAbsoluteFile().getParentFile());
+                        try {
+                            FileUtil.copyFile(convertedFile, cachedTempFile);
+                            Files.move(cachedTempFile.toPath(), cachedFileSystemLocation, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                        } finally {
+                            cachedTempFile.delete();
+                        }
+                        if (!convertedFile.equals(tabFile)) {
+                            convertedFile.delete();
+                        }
+                    }
                 }
-            }
-
+            }).toFile();
+        } catch (IOException ex) {
+            dbgLog.warning("Failed to convert file " + file.getId() + " to " + formatRequested + ": " + ex.getMessage());
+            return null;
         }
 
         // Now check the converted file: 
@@ -152,10 +146,6 @@ public class DataFileConverter {
                 return null; 
             }
 
-            fileDownload.releaseConnection();
-            fileDownload.setHTTPMethod(null);
-            fileDownload.setIsLocalFile(true);
-
             fileDownload.setMimeType(formatType);
             String dbFileName = fileDownload.getFileName();
 
@@ -22,6 +22,7 @@ package edu.harvard.iq.dataverse.dataaccess;
 
 
 import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.datavariable.DataVariable;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 
@@ -32,14 +33,14 @@ import java.nio.channels.Channel;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
-
-
-import org.apache.commons.httpclient.Header;
-import org.apache.commons.httpclient.methods.GetMethod;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.List;
+import java.util.Set;
 
 
 /**
@@ -133,8 +134,6 @@ public abstract class DataFileIO {
     
     // For HTTP-based downloads:
     private String remoteUrl;
-    private GetMethod method = null;
-    private Header[] responseHeaders;
     
     
     // this is a convenience method for copying a local Path (for ex., a
@@ -201,6 +200,82 @@ public abstract class DataFileIO {
         setSize(newFileSize);
     }
 
+    // same as copyPath(), but for a local Path that is not needed afterwards 
+    // (a temp file): if this DataAccess location is a file on the same 
+    // filesystem, the file is simply moved (renamed) there, instead of its 
+    // bytes being copied; otherwise, it is copied, and then deleted:
+    public void movePath(Path fileSystemPath) throws IOException {
+        if (isLocalFile()) {
+            Path outputPath = null;
+            try {
+                outputPath = getFileSystemPath();
+            } catch (IOException ex) {
+                outputPath = null;
+            }
+            if (outputPath != null) {
+                try {
+                    Files.move(fileSystemPath, outputPath, StandardCopyOption.ATOMIC_MOVE);
+                    resetPermissions(outputPath);
+                    setSize(outputPath.toFile().length());
+                    return;
+                } catch (AtomicMoveNotSupportedException ex) {
+                    // different filesystems; copying it is
+                }
+            }
+        }
+        copyPath(fileSystemPath);
+        Files.deleteIfExists(fileSystemPath);
+    }
+    
+    // The permissions of a newly created file (0666, less the umask); found 
+    // out once, by creating one. 
+    private static volatile Set<PosixFilePermission> newFilePermissions; 
+    
+    // A moved file keeps its permissions; and temp files are only readable 
+    // by their owner (0600). So the file is given the permissions it would 
+    // have had if it had been created, or copied, in its permanent location. 
+    // (Nothing to do on filesystems without POSIX permissions.)
+    private static void resetPermissions(Path file) throws IOException {
+        try {
+            if (newFilePermissions == null) {
+                Path probe = file.resolveSibling(file.getFileName() + ".permissions");
+                try {
+                    Files.createFile(probe);
+                    newFilePermissions = Files.getPosixFilePermissions(probe);
+                } finally {
+                    Files.deleteIfExists(probe);
+                }
+            }
+            Files.setPosixFilePermissions(file, newFilePermissions);
+        } catch (UnsupportedOperationException ex) {
+            // not a POSIX filesystem
+        }
+    }
+    
+    // Opens a new stream on a byte range of the (main) object, for the 
+    // storage drivers that can read one without reading everything before 
+    // it. Returns null for the others - and for local files, which are read 
+    // by positioning their channel instead: 
+    public InputStream openRange(long offset, long length) throws IOException {
+        return null;
+    }
+    
+    // The code that needs a java.io.File to work on (subsetting, thumbnails, 
+    // format conversions) works on this copy of the (main) object, on the 
+    // local filesystem. A local file is its own copy; objects stored 
+    // elsewhere are downloaded into the local cache (see LocalCopyCache) the
+    // first time they are needed. The derived files (thumbnails, etc.) are 
+    // kept next to the copy. 
+    public Path getLocalCopy() throws IOException {
+        return getFileSystemPath();
+    }
+    
+    // Where getLocalCopy() keeps the copy, whether it has been made or not 
+    // (to look for the derived files, without downloading the object): 
+    public Path getLocalCopyLocation() throws IOException {
+        return getFileSystemPath();
+    }
+
     // getters:
     
     public Channel getChannel() {
@@ -271,14 +346,6 @@ public abstract class DataFileIO {
         return remoteUrl;
     }
 
-    public GetMethod getHTTPMethod() {
-        return method;
-    }
-
-    public Header[] getResponseHeaders() {
-        return responseHeaders;
-    }
-
     public Boolean isLocalFile() {
         return isLocalFile;
     }
@@ -356,14 +423,6 @@ public abstract class DataFileIO {
         remoteUrl = u;
     }
 
-    public void setHTTPMethod(GetMethod hm) {
-        method = hm;
-    }
-
-    public void setResponseHeaders(Header[] headers) {
-        responseHeaders = headers;
-    }
-
     public void setIsLocalFile(Boolean f) {
         isLocalFile = f;
     }
@@ -393,12 +452,6 @@ public abstract class DataFileIO {
     }
 
         // connection management methods:
-    public void releaseConnection() {
-        if (method != null) {
-            method.releaseConnection();
-        }
-    }
-
     public void closeInputStream() {
         if (in != null) {
             try {
@@ -414,4 +467,21 @@ public abstract class DataFileIO {
             }
         }
     }
+    
+    // The header line of the variable names, prepended to a tab file when 
+    // it is served: 
+    public static String generateVariableHeader(List<DataVariable> dvs) {
+        String varHeader = null;
+
+        if (dvs != null) {
+            for (DataVariable dv : dvs) {
+                varHeader = varHeader == null ? dv.getName() : varHeader + "\t" + dv.getName();
+            }
+            if (varHeader != null) {
+                varHeader = varHeader + "\n";
+            }
+        }
+
+        return varHeader;
+    }
 }
@@ -19,18 +19,22 @@
 */
 package edu.harvard.iq.dataverse.dataaccess;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.IOException;
+import java.io.SequenceInputStream;
 
 import java.util.Iterator;
 
 import edu.harvard.iq.dataverse.DataFile;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Logger;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 
 /**
@@ -38,27 +42,55 @@ import java.util.zip.ZipOutputStream;
  * @author Leonid Andreev
  */
 public class DataFileZipper {
-    public static long DEFAULT_ZIPFILE_LIMIT = 100 * 1024 * 1024; // 100MB
+    /**
+     * How many blocks (of {@link ParallelZipWriter#BLOCK_SIZE}) a download 
+     * may have in memory at a time, by default. 
+     */
+    public static int DEFAULT_WINDOW_BLOCKS = 16;
     
     private static final Logger logger = Logger.getLogger(DataFileZipper.class.getCanonicalName());
     
     private OutputStream outputStream = null; 
-    private ZipOutputStream zipOutputStream = null;
     
-    private List fileNameList = null; // the list of file names to check for duplicates
-    private List zippedFilesList = null; // list of successfully zipped files, to update guestbooks and download counts (not yet implemented)
+    private static final Set<String> COMPRESSED_FORMATS = new HashSet<>(Arrays.asList(
+            "application/zip", "application/x-zip-compressed", "application/gzip", "application/x-gzip",
+            "application/x-bzip2", "application/x-xz", "application/x-7z-compressed", "application/x-rar-compressed",
+            "application/x-compress", "application/java-archive",
+            "image/jpeg", "image/png", "image/gif", "image/jp2",
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+            "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
+            "application/vnd.openxmlformats-officedocument.presentationml.presentation"));
+    
+    private ParallelZipWriter zipWriter = null;
+    private ExecutorService executor = null;
+    private int windowBlocks = DEFAULT_WINDOW_BLOCKS;
+    
+    private Set<String> fileNameList = null; // the set of file names to check for duplicates
+    private List<Long> zippedFilesList = null; // list of successfully zipped files, to update guestbooks and download counts (not yet implemented)
     
     private String fileManifest = "";
 
     public DataFileZipper() {
-        fileNameList = new ArrayList();
-        zippedFilesList = new ArrayList(); 
+        fileNameList = new HashSet<>();
+        zippedFilesList = new ArrayList<>(); 
     }
     
     public DataFileZipper(OutputStream outputStream) {
         this.outputStream = outputStream;
-        fileNameList = new ArrayList();
-        zippedFilesList = new ArrayList();
+        fileNameList = new HashSet<>();
+        zippedFilesList = new ArrayList<>();
+    }
+    
+    /**
+     * @param outputStream where the zipped files are written.
+     * @param executor compresses the files in parallel; if null, they are 
+     * compressed on the calling thread. 
+     * @param windowBlocks how many blocks of data may be in memory at a time.
+     */
+    public DataFileZipper(OutputStream outputStream, ExecutorService executor, int windowBlocks) {
+        this(outputStream);
+        this.executor = executor;
+        this.windowBlocks = windowBlocks;
     }
     
     public void setOutputStream(OutputStream outputStream) {
@@ -208,13 +240,13 @@ public class DataFileZipper {
     
     public void openZipStream() throws IOException {
         if (outputStream == null) {
-            throw new IOException("Attempted to create a ZipOutputStream from a NULL OutputStream.");
+            throw new IOException("Attempted to create a zip stream from a NULL OutputStream.");
         }
-        this.zipOutputStream = new ZipOutputStream(outputStream);
+        this.zipWriter = new ParallelZipWriter(outputStream, executor, windowBlocks);
     }
     
     public long addFileToZipStream(DataFile dataFile) throws IOException {
-        if (zipOutputStream == null) {
+        if (zipWriter == null) {
             openZipStream();
         }
         
@@ -233,9 +265,6 @@ public class DataFileZipper {
                 mimeType = "application/octet-stream";
             }
 
-            //if (sizeTotal + fileSize < sizeLimit) {
-            Boolean Success = true;
-
             InputStream instream = accessObject.getInputStream();
             if (instream == null) {
                 if (createManifest) {
@@ -243,40 +272,31 @@ public class DataFileZipper {
                             + " (" + mimeType
                             + ") COULD NOT be downloaded because an I/O error has occured. \r\n");
                 }
-
-                Success = false;
             } else {
                 String zipEntryName = checkZipEntryName(fileName);
-                ZipEntry e = new ZipEntry(zipEntryName);
-                logger.fine("created new zip entry for " + zipEntryName);
+                logger.fine("creating new zip entry for " + zipEntryName);
                 // support for categories: (not yet implemented)
                 //String zipEntryDirectoryName = file.getCategory(versionNum);
-                //ZipEntry e = new ZipEntry(zipEntryDirectoryName + "/" + zipEntryName);
-
-                zipOutputStream.putNextEntry(e);
 
                 // before writing out any bytes from the input stream, flush
                 // any extra content, such as the variable header for the 
                 // subsettable files:
+                long expectedSize = accessObject.getSize();
                 String varHeaderLine = accessObject.getVarHeader();
                 if (varHeaderLine != null) {
-                    zipOutputStream.write(varHeaderLine.getBytes());
-                    byteSize += (varHeaderLine.getBytes().length);
+                    byte[] varHeaderBytes = varHeaderLine.getBytes();
+                    instream = new SequenceInputStream(new ByteArrayInputStream(varHeaderBytes), instream);
+                    if (expectedSize > -1) {
+                        expectedSize += varHeaderBytes.length;
+                    }
                 }
 
-                byte[] data = new byte[8192];
-
-                int i = 0;
-                while ((i = instream.read(data)) > 0) {
-                    zipOutputStream.write(data, 0, i);
-                    logger.fine("wrote " + i + " bytes;");
-
-                    byteSize += i;
-                    zipOutputStream.flush();
+                try {
+                    byteSize = zipWriter.addEntry(zipEntryName, instream, !isCompressedFormat(mimeType), expectedSize);
+                } finally {
+                    instream.close();
                 }
-                instream.close();
-                zipOutputStream.closeEntry();
-                logger.fine("closed zip entry for " + zipEntryName);
+                logger.fine("added zip entry for " + zipEntryName);
 
                 if (createManifest) {
                     addToManifest(zipEntryName + " (" + mimeType + ") " + byteSize + " bytes.\r\n");
@@ -286,9 +306,6 @@ public class DataFileZipper {
                     zippedFilesList.add(dataFile.getId());
                 }
             }
-            //} else if (createManifest) {
-            //    addToManifest(fileName + " (" + mimeType + ") " + " skipped because the total size of the download bundle exceeded the limit of " + sizeLimit + " bytes.\r\n");
-            //}
             return byteSize;
         }
         return 0L;
@@ -297,20 +314,43 @@ public class DataFileZipper {
     public void finalizeZipStream() throws IOException {
         boolean createManifest = fileManifest != null;
         
-        if (zipOutputStream == null) {
+        if (zipWriter == null) {
             openZipStream();
         }
         
         if (createManifest) {
-            ZipEntry e = new ZipEntry("MANIFEST.TXT");
-
-            zipOutputStream.putNextEntry(e);
-            zipOutputStream.write(fileManifest.getBytes());
-            zipOutputStream.closeEntry();
+            byte[] manifestBytes = fileManifest.getBytes();
+            zipWriter.addEntry("MANIFEST.TXT", new ByteArrayInputStream(manifestBytes), true, manifestBytes.length);
         }
 
-        zipOutputStream.flush();
-        zipOutputStream.close();
+        zipWriter.finish();
+        outputStream.flush();
+        outputStream.close();
+    }
+    
+    /**
+     * Drops the compression work still in progress; for when the download 
+     * fails, or is abandoned by the client. 
+     */
+    public void abortZipStream() {
+        if (zipWriter != null) {
+            zipWriter.abort();
+        }
+    }
+    
+    /**
+     * @return true for formats that are already compressed, and are not 
+     * worth compressing again; these are stored in the zip as they are. 
+     */
+    static boolean isCompressedFormat(String mimeType) {
+        if (mimeType == null) {
+            return false;
+        }
+        // ignore parameters, such as "; charset=..."
+        String baseType = mimeType.split(";")[0].trim().toLowerCase();
+        return COMPRESSED_FORMATS.contains(baseType) 
+                || baseType.startsWith("video/") 
+                || (baseType.startsWith("audio/") && !baseType.equals("audio/x-wav") && !baseType.equals("audio/wav"));
     }
     
     public void addToManifest(String manifestEntry) {
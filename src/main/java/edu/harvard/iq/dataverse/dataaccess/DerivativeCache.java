@@ -0,0 +1,434 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Keeps track of the files derived from the data files - thumbnails, rotated
+ * tab files, format conversions, and the local copies of the files kept with
+ * a {@link StorageDriver} - and keeps the space they take up within a budget:
+ * all of them can be made again, so when there are more than the budget
+ * allows, the least recently (or, with {@link Policy#LFU}, the least often)
+ * used ones are deleted, until they take up {@link #LOW_WATER_MARK} of it.
+ *
+ * The index of these files is saved into {@code <cache directory>/}
+ * {@link #INDEX_FILE_NAME} (see {@link DerivativeCacheService}), so that it
+ * survives a restart; the derived files that are not in it yet - made before
+ * there was an index, say - are added as they are used, or by a {@link #scan}
+ * of the files directory.
+ *
+ * {@link #get} also makes sure that a file is only ever made by one request
+ * at a time: the others that need it wait for it to be made.
+ */
+public class DerivativeCache {
+
+    private static final Logger logger = Logger.getLogger(DerivativeCache.class.getCanonicalName());
+
+    public enum Policy {
+        LRU, LFU
+    }
+
+    public static final String INDEX_FILE_NAME = "derivatives.index";
+    /**
+     * The share of the budget the files are brought down to when they go
+     * over it; so that not every new file makes room for itself.
+     */
+    static final double LOW_WATER_MARK = 0.9;
+    /**
+     * How long a file is safe from eviction after it was last used; long
+     * enough for whoever asked for it to have opened it.
+     */
+    static final long DEFAULT_MIN_AGE_MILLIS = 60 * 1000;
+
+    /**
+     * The names of the files derived from a data file named {@code <name>}:
+     * {@code <name>.thumb64}, {@code <name>.img.thumb64}, {@code <name>.90d},
+     * {@code <name>.RData}, etc. (but not the saved original,
+     * {@code <name>.orig}, nor the world map image, {@code <name>.img}, which
+     * can't be made again here).
+     */
+    private static final Pattern DERIVATIVE_NAME = Pattern.compile(".+\\.(thumb[0-9]+|90d|RData|prep|tab)");
+
+    private static final DerivativeCache instance = new DerivativeCache(null, 0, Policy.LRU, DEFAULT_MIN_AGE_MILLIS);
+
+    public static DerivativeCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Makes a derived file; at {@code location}, where {@link #get} expects
+     * to find it afterwards.
+     */
+    public interface Generator {
+        void generate() throws IOException;
+    }
+
+    private static final class Entry {
+        final long size;
+        volatile long lastUsed;
+        final AtomicLong uses;
+
+        Entry(long size, long lastUsed, long uses) {
+            this.size = size;
+            this.lastUsed = lastUsed;
+            this.uses = new AtomicLong(uses);
+        }
+    }
+
+    private final Path indexFile;
+    private final long minAgeMillis;
+    private volatile long maxSize;
+    private volatile Policy policy;
+
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<Path, FutureTask<Path>> inProgress = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private volatile boolean modified = false;
+
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong evictedBytes = new AtomicLong();
+
+    /**
+     * @param indexFile where the index is saved; null for the default
+     * location.
+     * @param maxSize the budget, in bytes; 0 for none.
+     * @param policy which files go first.
+     * @param minAgeMillis how long a file is safe from eviction after it was
+     * last used.
+     */
+    DerivativeCache(Path indexFile, long maxSize, Policy policy, long minAgeMillis) {
+        this.indexFile = indexFile;
+        this.maxSize = maxSize;
+        this.policy = policy;
+        this.minAgeMillis = minAgeMillis;
+    }
+
+    public void configure(long maxSize, Policy policy) {
+        this.maxSize = maxSize;
+        this.policy = policy;
+    }
+
+    private Path getIndexFile() {
+        return indexFile != null ? indexFile : LocalCopyCache.getCacheDirectory().resolve(INDEX_FILE_NAME);
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the derived file at {@code location}; made with the
+     * {@code generator} if it isn't there - unless another request is already
+     * making it, in which case this waits for that one.
+     * @throws IOException if the file could not be made.
+     */
+    public Path get(final Path location, final Generator generator) throws IOException {
+        if (Files.exists(location)) {
+            used(location);
+            return location;
+        }
+        FutureTask<Path> generation = new FutureTask<>(new Callable<Path>() {
+            @Override
+            public Path call() throws IOException {
+                // (it may have been made while this was being set up)
+                if (Files.exists(location)) {
+                    used(location);
+                    return location;
+                }
+                generator.generate();
+                if (!Files.exists(location)) {
+                    throw new IOException("Failed to make " + location);
+                }
+                added(location);
+                return location;
+            }
+        });
+
+        FutureTask<Path> running = inProgress.putIfAbsent(location, generation);
+        if (running == null) {
+            try {
+                generation.run();
+            } finally {
+                inProgress.remove(location, generation);
+            }
+            running = generation;
+        } else {
+            logger.fine(location + " is already being made; waiting.");
+        }
+
+        try {
+            return running.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + location, ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) {
+                throw (IOException) ee.getCause();
+            }
+            throw new IOException("Failed to make " + location, ee.getCause());
+        }
+    }
+
+    /**
+     * Records a use of the derived file at {@code location} (and adds it to
+     * the index, if it isn't there yet).
+     */
+    public void used(Path location) {
+        hits.incrementAndGet();
+        Entry entry = entries.get(location);
+        if (entry != null) {
+            entry.lastUsed = System.currentTimeMillis();
+            entry.uses.incrementAndGet();
+            modified = true;
+            return;
+        }
+        try {
+            index(location, Files.size(location), System.currentTimeMillis(), 1);
+        } catch (IOException ex) {
+            // (gone already)
+        }
+    }
+
+    /**
+     * Adds the derived file just made at {@code location} to the index; and
+     * evicts others, if that takes the cache over its budget.
+     */
+    public void added(Path location) {
+        misses.incrementAndGet();
+        try {
+            index(location, Files.size(location), System.currentTimeMillis(), 1);
+        } catch (IOException ex) {
+            logger.warning("Could not add " + location + " to the derivative cache: " + ex.getMessage());
+            return;
+        }
+        if (maxSize > 0 && size.get() > maxSize) {
+            evict();
+        }
+    }
+
+    /**
+     * Drops the file at {@code location} from the index; for when it was
+     * deleted (with the file it was derived from, say).
+     */
+    public void forget(Path location) {
+        Entry entry = entries.remove(location);
+        if (entry != null) {
+            size.addAndGet(-entry.size);
+            modified = true;
+        }
+    }
+
+    private void index(Path location, long fileSize, long lastUsed, long uses) {
+        Entry previous = entries.put(location, new Entry(fileSize, lastUsed, uses));
+        size.addAndGet(fileSize - (previous == null ? 0 : previous.size));
+        modified = true;
+    }
+
+    /**
+     * If the files take up more than the budget, deletes the ones the policy
+     * picks - except those used within the last {@code minAgeMillis}, and those
+     * being made - until they take up {@link #LOW_WATER_MARK} of it.
+     *
+     * @return how many files were deleted.
+     */
+    public int evict() {
+        long budget = maxSize;
+        if (budget <= 0 || size.get() <= budget || !evictionLock.tryLock()) {
+            // (if someone else is evicting already, they will take care of it)
+            return 0;
+        }
+        try {
+            long target = (long) (budget * LOW_WATER_MARK);
+            long youngest = System.currentTimeMillis() - minAgeMillis;
+            List<Map.Entry<Path, Entry>> candidates = new ArrayList<>(entries.entrySet());
+            candidates.sort(comparator(policy));
+
+            int evicted = 0;
+            for (Map.Entry<Path, Entry> candidate : candidates) {
+                if (size.get() <= target) {
+                    break;
+                }
+                Path location = candidate.getKey();
+                Entry entry = candidate.getValue();
+                if (entry.lastUsed > youngest || inProgress.containsKey(location)
+                        || !entries.remove(location, entry)) {
+                    continue;
+                }
+                size.addAndGet(-entry.size);
+                modified = true;
+                if (location.getFileName().toString().endsWith(".90d")) {
+                    // (let go of the mapped image, for the space to be freed)
+                    RotatedImage.invalidate(location.toFile());
+                }
+                try {
+                    if (Files.deleteIfExists(location)) {
+                        evicted++;
+                        evictions.incrementAndGet();
+                        evictedBytes.addAndGet(entry.size);
+                    }
+                } catch (IOException ex) {
+                    logger.warning("Could not evict " + location + " from the derivative cache: " + ex.getMessage());
+                }
+                ImageThumbConverter.invalidateThumbnail(location.toString());
+            }
+            if (evicted > 0) {
+                logger.fine("evicted " + evicted + " files from the derivative cache; " + size.get() + " bytes left");
+            }
+            return evicted;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static Comparator<Map.Entry<Path, Entry>> comparator(Policy policy) {
+        Comparator<Map.Entry<Path, Entry>> leastRecentlyUsed = Comparator.comparingLong(e -> e.getValue().lastUsed);
+        if (policy == Policy.LFU) {
+            Comparator<Map.Entry<Path, Entry>> leastOftenUsed = Comparator.comparingLong(e -> e.getValue().uses.get());
+            return leastOftenUsed.thenComparing(leastRecentlyUsed);
+        }
+        return leastRecentlyUsed;
+    }
+
+    /**
+     * Adds the derived files under {@code directory} that are not in the
+     * index yet, as last used when they were last modified; along with all the
+     * local copies in the {@link LocalCopyCache}.
+     *
+     * @return how many files were added.
+     */
+    public int scan(Path directory) throws IOException {
+        final Path cacheDirectory = LocalCopyCache.getCacheDirectory();
+        final int[] added = {0};
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                String name = file.getFileName().toString();
+                boolean derived = DERIVATIVE_NAME.matcher(name).matches()
+                        || (file.startsWith(cacheDirectory) && !file.getParent().equals(cacheDirectory) && !name.endsWith(".part"));
+                if (derived && attributes.isRegularFile() && !entries.containsKey(file)) {
+                    index(file, attributes.size(), attributes.lastModifiedTime().toMillis(), 0);
+                    added[0]++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return added[0];
+    }
+
+    /**
+     * Reads the saved index (if there is one), in place of the entries there
+     * are.
+     *
+     * @return whether there was one.
+     */
+    public boolean load() throws IOException {
+        Path indexFile = getIndexFile();
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(indexFile, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException ex) {
+            return false;
+        }
+        entries.clear();
+        size.set(0);
+        for (String line : lines) {
+            // <size> <last used> <uses> <location>
+            String[] fields = line.split(" ", 4);
+            if (fields.length < 4) {
+                continue;
+            }
+            try {
+                index(indexFile.getFileSystem().getPath(fields[3]), Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+            } catch (RuntimeException ex) {
+                logger.warning("Skipping an invalid line of " + indexFile + ": " + line);
+            }
+        }
+        modified = false;
+        return true;
+    }
+
+    /**
+     * Writes the index out, if it changed since it was last read or written.
+     */
+    public void save() throws IOException {
+        if (!modified) {
+            return;
+        }
+        modified = false;
+        Path indexFile = getIndexFile();
+        Files.createDirectories(indexFile.getParent());
+        Path temp = Files.createTempFile(indexFile.getParent(), INDEX_FILE_NAME, ".part");
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<Path, Entry> entry : entries.entrySet()) {
+                    Entry e = entry.getValue();
+                    out.write(e.size + " " + e.lastUsed + " " + e.uses.get() + " " + entry.getKey());
+                    out.newLine();
+                }
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            modified = true;
+            throw ex;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public void resetStats() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        evictedBytes.set(0);
+    }
+
+    public JsonObjectBuilder toJson() {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        return Json.createObjectBuilder()
+                .add("maxSize", maxSize)
+                .add("policy", policy.name())
+                .add("files", entries.size())
+                .add("size", size.get())
+                .add("hits", hitCount)
+                .add("misses", missCount)
+                .add("hitRatio", hitCount + missCount == 0 ? 0 : (double) hitCount / (hitCount + missCount))
+                .add("evictions", evictions.get())
+                .add("evictedBytes", evictedBytes.get());
+    }
+
+}
@@ -0,0 +1,104 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.util.SystemConfig;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.Timer;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Looks after the {@link DerivativeCache} of this server: reads its index
+ * when the server starts (or, the first time, scans the files directory for
+ * the derived files there are), and every {@link #SAVE_INTERVAL_MILLIS} takes
+ * up the budget and policy settings (see
+ * {@link SystemConfig#getDerivativeCacheSize()}), evicts what doesn't fit,
+ * and saves the index.
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class DerivativeCacheService {
+
+    private static final Logger logger = Logger.getLogger(DerivativeCacheService.class.getCanonicalName());
+
+    static final long SAVE_INTERVAL_MILLIS = 60 * 1000;
+
+    @EJB
+    SystemConfig systemConfig;
+    @Resource
+    ManagedExecutorService executor;
+    @Resource
+    TimerService timerService;
+
+    @PostConstruct
+    public void init() {
+        final DerivativeCache cache = DerivativeCache.getInstance();
+        configure(cache);
+        boolean loaded = false;
+        try {
+            loaded = cache.load();
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Could not read the derivative cache index", ex);
+        }
+        if (!loaded) {
+            final Path filesDirectory = LocalCopyCache.getCacheDirectory().getParent();
+            executor.submit(() -> {
+                try {
+                    logger.info("Scanning " + filesDirectory + " for derived files...");
+                    int found = cache.scan(filesDirectory);
+                    logger.info("Found " + found + " derived files in " + filesDirectory);
+                    cache.evict();
+                    cache.save();
+                } catch (IOException ex) {
+                    logger.log(Level.WARNING, "Could not scan " + filesDirectory + " for derived files", ex);
+                }
+            });
+        }
+        // (not persistent: each server has its own)
+        timerService.createIntervalTimer(SAVE_INTERVAL_MILLIS, SAVE_INTERVAL_MILLIS, new TimerConfig(null, false));
+    }
+
+    @Timeout
+    public void maintain(Timer timer) {
+        DerivativeCache cache = DerivativeCache.getInstance();
+        configure(cache);
+        cache.evict();
+        save(cache);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        save(DerivativeCache.getInstance());
+    }
+
+    public JsonObjectBuilder getStatus() {
+        return DerivativeCache.getInstance().toJson();
+    }
+
+    private void configure(DerivativeCache cache) {
+        cache.configure(systemConfig.getDerivativeCacheSize(), systemConfig.getDerivativeCachePolicy());
+    }
+
+    private void save(DerivativeCache cache) {
+        try {
+            cache.save();
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Could not save the derivative cache index", ex);
+        }
+    }
+
+}
@@ -32,7 +32,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
-import java.util.Iterator; 
 
 
 // Dataverse imports:
@@ -113,7 +112,7 @@ public class FileAccessIO extends DataFileIO {
                     && dataFile.getDataTable() != null
                     && (!this.noVarHeader())) {
 
-                List datavariables = dataFile.getDataTable().getDataVariables();
+                List<DataVariable> datavariables = dataFile.getDataTable().getDataVariables();
                 String varHeaderLine = generateVariableHeader(datavariables);
                 this.setVarHeader(varHeaderLine);
             }
@@ -244,6 +243,7 @@ public class FileAccessIO extends DataFileIO {
         
         if (victim != null) {
             Files.delete(victim);
+            ImageThumbConverter.invalidateThumbnails(victim.toString());
         } else {
             throw new IOException("Could not locate physical file location for the Filesystem object.");
         }
@@ -371,28 +371,5 @@ public class FileAccessIO extends DataFileIO {
         
         return false; 
     }
-    
-    private String generateVariableHeader(List dvs) {
-        String varHeader = null;
-
-        if (dvs != null) {
-            Iterator iter = dvs.iterator();
-            DataVariable dv;
-
-            if (iter.hasNext()) {
-                dv = (DataVariable) iter.next();
-                varHeader = dv.getName();
-            }
-
-            while (iter.hasNext()) {
-                dv = (DataVariable) iter.next();
-                varHeader = varHeader + "\t" + dv.getName();
-            }
-
-            varHeader = varHeader + "\n";
-        }
-
-        return varHeader;
-    }
 
 }
\ No newline at end of file
@@ -0,0 +1,121 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Logger;
+
+/**
+ * Copies a region of a local file to an output stream, for downloads.
+ *
+ * When the output is backed by a channel (a file, or a container stream that
+ * exposes one), the bytes are handed over with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which lets
+ * the operating system move them without copying them through the heap
+ * (sendfile). Otherwise - the usual case for a servlet output stream - they
+ * are copied through a buffer taken from a small pool, so that concurrent
+ * downloads don't each allocate (and then garbage-collect) their own.
+ *
+ * Reads are positional, so the position of the file channel is not changed;
+ * several regions of the same channel may be copied in any order.
+ */
+public class FileTransfer {
+
+    private static final Logger logger = Logger.getLogger(FileTransfer.class.getCanonicalName());
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * How many times in a row transferTo() may move nothing before the rest
+     * is copied through a buffer instead.
+     */
+    static final int MAX_EMPTY_TRANSFERS = 3;
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    private static final ConcurrentLinkedQueue<byte[]> bufferPool = new ConcurrentLinkedQueue<>();
+
+    private FileTransfer() {
+    }
+
+    /**
+     * Copies {@code count} bytes of {@code source}, starting at
+     * {@code position}, to {@code out}.
+     *
+     * @return the number of bytes copied.
+     * @throws IOException if the file ends before {@code count} bytes have
+     * been copied, or on any error writing the output.
+     */
+    public static long transfer(FileChannel source, long position, long count, OutputStream out) throws IOException {
+        WritableByteChannel target = getTargetChannel(out);
+        if (target != null) {
+            out.flush();
+            return transferToChannel(source, position, count, target);
+        }
+        return copyThroughBuffer(source, position, count, out);
+    }
+
+    static WritableByteChannel getTargetChannel(OutputStream out) {
+        if (out instanceof FileOutputStream) {
+            return ((FileOutputStream) out).getChannel();
+        }
+        if (out instanceof WritableByteChannel) {
+            return (WritableByteChannel) out;
+        }
+        return null;
+    }
+
+    private static long transferToChannel(FileChannel source, long position, long count, WritableByteChannel target) throws IOException {
+        long transferred = 0;
+        int emptyTransfers = 0;
+        while (transferred < count) {
+            long bytes = source.transferTo(position + transferred, count - transferred, target);
+            if (bytes <= 0) {
+                // transferTo() returns 0, rather than -1, at the end of the file
+                if (position + transferred >= source.size()) {
+                    throw new IOException("Unexpected end of file at byte " + (position + transferred));
+                }
+                // (or when the target takes nothing; rather than spin on it:)
+                if (++emptyTransfers >= MAX_EMPTY_TRANSFERS) {
+                    logger.fine("transferTo() is making no progress at byte " + (position + transferred) + "; copying the rest through a buffer");
+                    return transferred + copyThroughBuffer(source, position + transferred, count - transferred, Channels.newOutputStream(target));
+                }
+                continue;
+            }
+            emptyTransfers = 0;
+            transferred += bytes;
+        }
+        return transferred;
+    }
+
+    static long copyThroughBuffer(FileChannel source, long position, long count, OutputStream out) throws IOException {
+        byte[] bffr = bufferPool.poll();
+        if (bffr == null) {
+            bffr = new byte[BUFFER_SIZE];
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bffr);
+            long copied = 0;
+            while (copied < count) {
+                buffer.clear();
+                buffer.limit((int) Math.min(bffr.length, count - copied));
+                int bufsize = source.read(buffer, position + copied);
+                if (bufsize < 0) {
+                    throw new IOException("Unexpected end of file at byte " + (position + copied));
+                }
+                out.write(bffr, 0, bufsize);
+                copied += bufsize;
+            }
+            return copied;
+        } finally {
+            // (the size check is approximate, which is fine for a pool)
+            if (bufferPool.size() < MAX_POOLED_BUFFERS) {
+                bufferPool.offer(bffr);
+            }
+        }
+    }
+
+}
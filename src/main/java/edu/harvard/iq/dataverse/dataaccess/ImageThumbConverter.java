@@ -23,8 +23,15 @@ import java.io.File;
 import java.io.InputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Paths;
 
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
@@ -36,11 +43,16 @@ import java.awt.image.ImageFilter;
 import java.awt.image.ImageProducer;
 import java.awt.image.RGBImageFilter;
 
+import javax.imageio.IIOException;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
 import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
 
 import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.util.LruCache;
 import java.util.logging.Logger;
 import org.primefaces.util.Base64;
 
@@ -55,6 +67,31 @@ public class ImageThumbConverter {
     
     private static final Logger logger = Logger.getLogger(ImageThumbConverter.class.getCanonicalName());
     
+    /*
+     * Thumbnail generation is expensive (a full image decode, or an 
+     * ImageMagick process), and a page full of new images asks for all of 
+     * them at once - often more than once each. So:
+     *  - a thumbnail that is already being generated is not generated again; 
+     *    the other requests for it wait for the one in progress;
+     *  - only so many thumbnails are generated at a time (one per processor,
+     *    by default; see the dataverse.dataAccess.thumbnail.workers JVM option);
+     *  - the outcome is remembered, in an index of thumbnail locations, so
+     *    that checking whether a thumbnail is available doesn't need to probe
+     *    the filesystem, and a file we cannot make a thumbnail of (not an 
+     *    image we can decode, or ImageMagick fails on it) isn't tried again 
+     *    on every page view. Failures that may well go away (I/O errors, 
+     *    interrupts) are not remembered. 
+     * The index is in memory, and starts empty; thumbnails that exist are 
+     * found on the filesystem the first time they're asked for. 
+     */
+    private static final ConcurrentHashMap<String, Generation> thumbnailsInProgress = new ConcurrentHashMap<>();
+    private static final Semaphore generationPermits = new Semaphore(getThumbnailWorkers());
+    private static final LruCache<String, Boolean> thumbnailIndex = new LruCache<>();
+    
+    static {
+        thumbnailIndex.setMaxSize(10000);
+    }
+    
     public ImageThumbConverter() {
     }
     
@@ -73,18 +110,15 @@ public class ImageThumbConverter {
 
             DataFileIO dataAccess = file.getAccessObject();
 
-            if (!dataAccess.isLocalFile()) {
-                logger.fine("thumbnails are supported on local files only at this time.");
-                return false;
-            }
-
             logger.fine("Checking for thumbnail, file type: " + file.getContentType());
 
             if (file.getContentType().substring(0, 6).equalsIgnoreCase("image/")) {
-                imageThumbFileName = generateImageThumb(dataAccess.getFileSystemPath().toString(), size);
+                String fileLocation = getThumbnailSourceLocation(dataAccess, size, getThumbnailSizeLimitImage());
+                imageThumbFileName = fileLocation == null ? null : generateImageThumb(fileLocation, size);
             } else if (file.getContentType().equalsIgnoreCase("application/pdf")) {
-                imageThumbFileName = generatePDFThumb(dataAccess.getFileSystemPath().toString(), size);
-            } else if (file.getContentType().equalsIgnoreCase("application/zipped-shapefile")) {
+                String fileLocation = getThumbnailSourceLocation(dataAccess, size, getThumbnailSizeLimitPDF());
+                imageThumbFileName = fileLocation == null ? null : generatePDFThumb(fileLocation, size);
+            } else if (file.getContentType().equalsIgnoreCase("application/zipped-shapefile") && dataAccess.isLocalFile()) {
                 imageThumbFileName = generateWorldMapThumb(dataAccess.getFileSystemPath().toString(), size);
             }
         } catch (IOException ioEx) {
@@ -100,11 +134,11 @@ public class ImageThumbConverter {
         return false;
     }
     
-    public static FileAccessIO getImageThumb (FileAccessIO fileAccess) {
+    public static DataFileIO getImageThumb (DataFileIO fileAccess) {
         return getImageThumb (fileAccess, DEFAULT_THUMBNAIL_SIZE);
     }
     
-    public static FileAccessIO getImageThumb(FileAccessIO fileAccess, int size) {
+    public static DataFileIO getImageThumb(DataFileIO fileAccess, int size) {
         logger.fine("entering getImageThumb, size " + size);
 
         File imageThumbFile = getImageThumbAsFile(fileAccess, size);
@@ -125,7 +159,6 @@ public class ImageThumbConverter {
 
             if (imageThumbInputStream != null) {
                 fileAccess.setInputStream(imageThumbInputStream);
-                fileAccess.setIsLocalFile(true);
 
                 fileAccess.setMimeType("image/png");
                 logger.fine("getImageThumb: created fileAccess object for the image thumbnail file");
@@ -144,18 +177,18 @@ public class ImageThumbConverter {
 
         logger.fine("entering getImageThumb, size " + size);
 
-        FileAccessIO fileAccess = null;
+        DataFileIO fileAccess = null;
 
         try {
 
-            fileAccess = (FileAccessIO) file.getAccessObject();
+            fileAccess = file.getAccessObject();
         } catch (IOException ex) {
             // too bad - but not fatal
             logger.warning("getImageThumbAsBase64: Failed to obtain FileAccess object for DataFile id " + file.getId());
             return null;
         }
 
-        if (fileAccess != null && fileAccess.isLocalFile()) {
+        if (fileAccess != null) {
             try {
                 fileAccess.open();
             } catch (IOException ex) {
@@ -209,16 +242,18 @@ public class ImageThumbConverter {
         return null;
     }
     
-    public static File getImageThumbAsFile(FileAccessIO fileAccess, int size ) {
+    public static File getImageThumbAsFile(DataFileIO fileAccess, int size ) {
         String imageThumbFileName = null;
         try {
             if (fileAccess.getDataFile() != null && fileAccess.getDataFile().getContentType().substring(0, 6).equalsIgnoreCase("image/")) {
-                imageThumbFileName = generateImageThumb(fileAccess.getFileSystemPath().toString(), size);
+                String fileLocation = getThumbnailSourceLocation(fileAccess, size, getThumbnailSizeLimitImage());
+                imageThumbFileName = fileLocation == null ? null : generateImageThumb(fileLocation, size);
                 
             } else if (fileAccess.getDataFile() != null && fileAccess.getDataFile().getContentType().equalsIgnoreCase("application/pdf")) {
-                imageThumbFileName = generatePDFThumb(fileAccess.getFileSystemPath().toString(), size);
+                String fileLocation = getThumbnailSourceLocation(fileAccess, size, getThumbnailSizeLimitPDF());
+                imageThumbFileName = fileLocation == null ? null : generatePDFThumb(fileLocation, size);
                 
-            } else if (fileAccess.getDataFile() != null && fileAccess.getDataFile().getContentType().equalsIgnoreCase("application/zipped-shapefile")) {
+            } else if (fileAccess.getDataFile() != null && fileAccess.getDataFile().getContentType().equalsIgnoreCase("application/zipped-shapefile") && fileAccess.isLocalFile()) {
                 imageThumbFileName = generateWorldMapThumb(fileAccess.getFileSystemPath().toString(), size);
                 
             } else {
@@ -241,18 +276,51 @@ public class ImageThumbConverter {
         return null;
     }
     
+    /**
+     * The location of the file to make the thumbnails of; they are kept next 
+     * to it. For a file that is not stored on the local filesystem, that is 
+     * its local copy (see {@link DataFileIO#getLocalCopy()}); which is only 
+     * downloaded if the thumbnail is not there yet, and the file is not too 
+     * big to make one of. 
+     * 
+     * @return the location; or null if there is no thumbnail, and none is to 
+     * be made. 
+     */
+    public static String getThumbnailSourceLocation(DataFileIO dataAccess, int size, long sizeLimit) throws IOException {
+        if (dataAccess.isLocalFile()) {
+            return dataAccess.getFileSystemPath().toString();
+        }
+        
+        String localCopyLocation = dataAccess.getLocalCopyLocation().toString();
+        if (thumbnailFileExists(localCopyLocation, size)) {
+            return localCopyLocation;
+        }
+        
+        long fileSize = dataAccess.getDataFile().getFilesize();
+        if (sizeLimit < 0 || (sizeLimit > 0 && (fileSize <= 0 || fileSize > sizeLimit))) {
+            return null;
+        }
+        return dataAccess.getLocalCopy().toString();
+    }
+    
     public static String generateImageThumb(String fileLocation) {
         return generateImageThumb(fileLocation, DEFAULT_THUMBNAIL_SIZE);
     }
     
-    public static String generateImageThumb(String fileLocation, int size) {
+    public static String generateImageThumb(final String fileLocation, final int size) {
 
         String thumbFileLocation = fileLocation + ".thumb" + size;
 
         // see if the thumb is already generated and saved:
 
+        Boolean indexed = thumbnailIndex.get(thumbFileLocation);
+        if (indexed != null) {
+            return indexed ? found(thumbFileLocation) : null;
+        }
+        
         if (new File(thumbFileLocation).exists()) {
-            return thumbFileLocation;
+            thumbnailIndex.put(thumbFileLocation, true);
+            return found(thumbFileLocation);
         } 
         
         // if not, let's attempt to generate the thumb:
@@ -287,12 +355,37 @@ public class ImageThumbConverter {
             }
         }
 
+        return generateOnce(fileLocation, thumbFileLocation, new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+                return rescaleImageFile(fileLocation, size);
+            }
+        });
+    }
+    
+    /**
+     * @return the thumbnail location, or null if the file is not an image we
+     * can decode.
+     * @throws IOException if the file can't be read, or the thumbnail can't
+     * be written.
+     */
+    private static String rescaleImageFile(String fileLocation, int size) throws IOException {
+        String thumbFileLocation; 
+        
+        // (made by an earlier generation of another size, which this one 
+        // was waiting for; no need to decode the image again)
+        if (thumbnailFileExists(fileLocation, size)) {
+            return fileLocation + ".thumb" + size;
+        }
+        
         try {
-            logger.fine("attempting to read the image file " + fileLocation + " with ImageIO.read()");
-            BufferedImage fullSizeImage = ImageIO.read(new File(fileLocation));
+            logger.fine("attempting to read the image file " + fileLocation);
+            // All the thumbnail sizes are made from this one decoded image; 
+            // so it needs to be large enough for the largest one. 
+            BufferedImage fullSizeImage = readSubsampledImage(new File(fileLocation), Math.max(size, DEFAULT_PREVIEW_SIZE));
             
             if (fullSizeImage == null) {
-                logger.fine("could not read image with ImageIO.read()");
+                logger.fine("could not read image with ImageIO");
                 return null;                
             }
             
@@ -307,21 +400,187 @@ public class ImageThumbConverter {
                 // calculated too:
                 for (int s : (new int[]{DEFAULT_PREVIEW_SIZE, DEFAULT_THUMBNAIL_SIZE, DEFAULT_CARDIMAGE_SIZE})) {
                     if (size != s && !thumbnailFileExists(fileLocation, s)) {
-                        rescaleImage(fullSizeImage, width, height, s, fileLocation);
+                        try {
+                            rescaleImage(fullSizeImage, width, height, s, fileLocation);
+                        } catch (IOException ioex) {
+                            // (it'll be tried again when it's asked for)
+                            logger.info("Failed to save a thumbnail of " + fileLocation + ": " + ioex.getMessage());
+                        }
                     }
                 }
                 return thumbFileLocation;
             }
-        } catch (Exception e) {
+        } catch (IIOException | RuntimeException e) {
+            // the decoder can't make sense of the file:
             logger.info("Failed to read in an image from " + fileLocation + ": " + e.getMessage());
-            // something went wrong...
-
         }
         return null;
 
     }
     
-    private static String rescaleImage(BufferedImage fullSizeImage, int width, int height, int size, String fileLocation) {
+    /**
+     * Reads an image, subsampled as it is decoded, so that it is no larger 
+     * than it needs to be - but still at least twice {@code targetSize} on 
+     * the long side, for a decent-looking thumbnail of that size. This way, 
+     * a thumbnail of a 10,000 x 10,000 pixel image doesn't need a 400MB 
+     * raster in memory. 
+     * 
+     * @return the image, or null if no ImageIO reader can read the file. 
+     */
+    static BufferedImage readSubsampledImage(File imageFile, int targetSize) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(imageFile)) {
+            if (iis == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, Math.max(width, height) / (2 * targetSize));
+                if (subsampling > 1) {
+                    logger.fine("subsampling a " + width + "x" + height + " image by " + subsampling);
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+    
+    /**
+     * Generates the thumbnail at {@code thumbFileLocation}, and records the 
+     * outcome in the thumbnail index - unless the generator failed with an
+     * exception, or this thread was interrupted, in which case the next 
+     * request tries again. The generator returns null only when the 
+     * thumbnail cannot be made at all. 
+     * Only one thumbnail of any given file is generated at a time (since 
+     * generating one size makes the other sizes too): if one is already in 
+     * progress, this waits for it to finish, and then only generates the 
+     * requested thumbnail if that didn't produce it already. 
+     * 
+     * @return the thumbnail location, or null if it could not be generated.
+     */
+    private static String generateOnce(String fileLocation, String thumbFileLocation, final Callable<String> generator) {
+        while (true) {
+            Generation generation = new Generation(thumbFileLocation, new FutureTask<>(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    generationPermits.acquire();
+                    try {
+                        return generator.call();
+                    } finally {
+                        generationPermits.release();
+                    }
+                }
+            }));
+
+            Generation inProgress = thumbnailsInProgress.putIfAbsent(fileLocation, generation);
+            if (inProgress == null) {
+                String generated;
+                try {
+                    generation.task.run();
+                    generated = generation.task.get();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                } catch (ExecutionException ee) {
+                    logger.info("Failed to generate thumbnail " + thumbFileLocation + ": " + ee.getCause());
+                    return null;
+                } finally {
+                    thumbnailsInProgress.remove(fileLocation, generation);
+                }
+                thumbnailIndex.put(thumbFileLocation, generated != null);
+                return generated;
+            }
+
+            logger.fine("a thumbnail of " + fileLocation + " is already being generated; waiting.");
+            try {
+                inProgress.task.get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException ee) {
+                // (logged by the thread that ran it)
+            }
+            
+            Boolean indexed = thumbnailIndex.get(thumbFileLocation);
+            if (indexed != null) {
+                return indexed ? thumbFileLocation : null;
+            }
+            // (the generation only indexes the size it was asked for; the 
+            // other sizes it made are only on disk)
+            if (new File(thumbFileLocation).exists()) {
+                thumbnailIndex.put(thumbFileLocation, true);
+                return found(thumbFileLocation);
+            }
+            if (thumbFileLocation.equals(inProgress.thumbFileLocation)) {
+                return null;
+            }
+            // otherwise, try again - for the size we need.
+        }
+    }
+    
+    private static class Generation {
+        final String thumbFileLocation;
+        final FutureTask<String> task;
+
+        Generation(String thumbFileLocation, FutureTask<String> task) {
+            this.thumbFileLocation = thumbFileLocation;
+            this.task = task;
+        }
+    }
+    
+    /**
+     * Forgets what the thumbnail index knows about the thumbnails of the file
+     * at {@code fileLocation}; for when the file is deleted or replaced. 
+     */
+    public static void invalidateThumbnails(String fileLocation) {
+        for (int s : (new int[]{DEFAULT_PREVIEW_SIZE, DEFAULT_THUMBNAIL_SIZE, DEFAULT_CARDIMAGE_SIZE})) {
+            thumbnailIndex.invalidate(fileLocation + ".thumb" + s);
+            thumbnailIndex.invalidate(fileLocation + ".img.thumb" + s);
+        }
+    }
+    
+    /**
+     * Forgets the thumbnail at {@code thumbFileLocation}; for when it is
+     * evicted from the {@link DerivativeCache}.
+     */
+    static void invalidateThumbnail(String thumbFileLocation) {
+        thumbnailIndex.invalidate(thumbFileLocation);
+    }
+    
+    /**
+     * Records a use of an existing thumbnail with the {@link DerivativeCache}.
+     */
+    private static String found(String thumbFileLocation) {
+        DerivativeCache.getInstance().used(Paths.get(thumbFileLocation));
+        return thumbFileLocation;
+    }
+    
+    private static int getThumbnailWorkers() {
+        String option = System.getProperty("dataverse.dataAccess.thumbnail.workers");
+        if (option != null && !option.equals("")) {
+            try {
+                int workers = Integer.parseInt(option.trim());
+                if (workers > 0) {
+                    return workers;
+                }
+            } catch (NumberFormatException nfe) {
+                logger.warning("Invalid dataverse.dataAccess.thumbnail.workers option: " + option);
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+    
+    private static String rescaleImage(BufferedImage fullSizeImage, int width, int height, int size, String fileLocation) throws IOException {
         String thumbFileLocation = fileLocation + ".thumb" + size;
         
         double scaleFactor = 0.0;
@@ -392,10 +651,15 @@ public class ImageThumbConverter {
             thumbImage.flush();
             //fullSizeImage.flush();
             lowRes.flush();
-        } catch (Exception ex) {
+        } catch (IOException ex) {
+            logger.info("Caught exception trying to save thumbnail: "+ex.getMessage());
+            throw ex;
+        } catch (RuntimeException ex) {
             logger.info("Caught exception trying to generate thumbnail: "+ex.getMessage());
             return null;
         }
+        thumbnailIndex.put(thumbFileLocation, true);
+        DerivativeCache.getInstance().added(Paths.get(thumbFileLocation));
         return thumbFileLocation;
     }
     
@@ -404,15 +668,21 @@ public class ImageThumbConverter {
         return generatePDFThumb(fileLocation, DEFAULT_THUMBNAIL_SIZE);
     }
     
-    public static String generatePDFThumb(String fileLocation, int size) {
+    public static String generatePDFThumb(final String fileLocation, final int size) {
         logger.fine("entering generatePDFThumb");
 
         String thumbFileLocation = fileLocation + ".thumb" + size;
 
         // see if the thumb is already generated and saved:
 
+        Boolean indexed = thumbnailIndex.get(thumbFileLocation);
+        if (indexed != null) {
+            return indexed ? found(thumbFileLocation) : null;
+        }
+        
         if (new File(thumbFileLocation).exists()) {
-            return thumbFileLocation;
+            thumbnailIndex.put(thumbFileLocation, true);
+            return found(thumbFileLocation);
         } 
 
         // it it doesn't exist yet, let's attempt to generate it:
@@ -454,6 +724,17 @@ public class ImageThumbConverter {
         }
 
 
+        return generateOnce(fileLocation, thumbFileLocation, new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+                return convertPDFFile(fileLocation, size);
+            }
+        });
+    }
+    
+    private static String convertPDFFile(String fileLocation, int size) throws IOException {
+        String thumbFileLocation;
+        
 	String imageMagickExec = System.getProperty("dataverse.path.imagemagick.convert");
 
         if ( imageMagickExec != null ) {
@@ -515,7 +796,12 @@ public class ImageThumbConverter {
                     
                     for (int s : (new int[] {DEFAULT_THUMBNAIL_SIZE, DEFAULT_CARDIMAGE_SIZE})) {
                         if (size != s && !thumbnailFileExists(fileLocation, s)) {
-                            runImageMagick(imageMagickExec, fileLocation, s, "pdf");
+                            try {
+                                runImageMagick(imageMagickExec, fileLocation, s, "pdf");
+                            } catch (IOException ioex) {
+                                // (it'll be tried again when it's asked for)
+                                logger.info("Failed to run ImageMagick on " + fileLocation + ": " + ioex.getMessage());
+                            }
                         }
                     }
                 }
@@ -533,7 +819,12 @@ public class ImageThumbConverter {
         return new File(thumbFileLocation).exists();
     }
     
-    private static String runImageMagick(String imageMagickExec, String fileLocation, int size, String format) {
+    /**
+     * @return the thumbnail location, or null if ImageMagick failed to make
+     * it.
+     * @throws IOException if ImageMagick could not be run.
+     */
+    private static String runImageMagick(String imageMagickExec, String fileLocation, int size, String format) throws IOException {
         String imageMagickCmd = null;
         String thumbFileLocation = fileLocation + ".thumb" + size;
         
@@ -550,12 +841,15 @@ public class ImageThumbConverter {
             Runtime runtime = Runtime.getRuntime();
             Process process = runtime.exec(imageMagickCmd);
             exitValue = process.waitFor();
-        } catch (Exception e) {
-            exitValue = 1;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while running ImageMagick on " + fileLocation);
         }
 
         if (exitValue == 0 && new File(thumbFileLocation).exists()) {
             logger.fine("returning " + thumbFileLocation);
+            thumbnailIndex.put(thumbFileLocation, true);
+            DerivativeCache.getInstance().added(Paths.get(thumbFileLocation));
             return thumbFileLocation;
         }
         
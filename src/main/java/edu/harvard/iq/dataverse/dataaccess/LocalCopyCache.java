@@ -0,0 +1,95 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Logger;
+
+/**
+ * Local copies of the objects stored with the {@link StorageDriver}s, for the
+ * code that needs a file to work on (see {@link DataFileIO#getLocalCopy()}):
+ * an object is downloaded the first time it is needed, into
+ * {@code <dataverse.files.directory>/cache/<driver id>/<key>}, and read from
+ * there afterwards. The files derived from it (thumbnails, rotated tab files,
+ * format conversions) are made next to the copy, the way they are next to
+ * the local files. All of them are kept within the {@link DerivativeCache}
+ * budget.
+ */
+public class LocalCopyCache {
+
+    private static final Logger logger = Logger.getLogger(LocalCopyCache.class.getCanonicalName());
+
+    public static Path getCacheDirectory() {
+        String filesRootDirectory = System.getProperty("dataverse.files.directory");
+        if (filesRootDirectory == null || filesRootDirectory.equals("")) {
+            filesRootDirectory = "/tmp/files";
+        }
+        return Paths.get(filesRootDirectory, "cache");
+    }
+
+    /**
+     * @return where the local copy of the object is (or would be) kept.
+     */
+    public static Path locate(StorageDriver driver, String key) {
+        return getCacheDirectory().resolve(driver.getId()).resolve(key);
+    }
+
+    /**
+     * @return the local copy of the object, downloaded if there is none (or
+     * if the one there is not the size of the object).
+     */
+    public static Path fetch(final StorageDriver driver, final String key) throws IOException {
+        final Path localCopy = locate(driver, key);
+        long size = driver.size(key);
+        if (Files.exists(localCopy) && Files.size(localCopy) != size) {
+            // (out of date)
+            DerivativeCache.getInstance().forget(localCopy);
+            Files.deleteIfExists(localCopy);
+        }
+
+        // downloaded by one request at a time, next to where it goes, and 
+        // moved there in one step, so that no one sees a partial copy:
+        return DerivativeCache.getInstance().get(localCopy, () -> {
+            Files.createDirectories(localCopy.getParent());
+            Path partial = Files.createTempFile(localCopy.getParent(), localCopy.getFileName().toString(), ".part");
+            try {
+                try (InputStream in = driver.read(key)) {
+                    Files.copy(in, partial, StandardCopyOption.REPLACE_EXISTING);
+                }
+                Files.move(partial, localCopy, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(partial);
+            }
+            logger.fine("downloaded " + driver.getId() + "://" + key + " into the local cache");
+        });
+    }
+
+    /**
+     * Deletes the local copy of the object, and the files derived from it;
+     * for when the object is deleted or replaced.
+     */
+    public static void evict(StorageDriver driver, String key) {
+        Path localCopy = locate(driver, key);
+        if (!Files.isDirectory(localCopy.getParent())) {
+            return;
+        }
+        final String baseName = localCopy.getFileName().toString();
+        DirectoryStream.Filter<Path> filter = (Path file) -> file.getFileName() != null
+                && (file.getFileName().toString().equals(baseName)
+                || file.getFileName().toString().startsWith(baseName + "."));
+        try (DirectoryStream<Path> cached = Files.newDirectoryStream(localCopy.getParent(), filter)) {
+            for (Path file : cached) {
+                Files.deleteIfExists(file);
+                DerivativeCache.getInstance().forget(file);
+            }
+        } catch (IOException ex) {
+            logger.warning("Could not clear the local copies of " + driver.getId() + "://" + key + ": " + ex.getMessage());
+        }
+        ImageThumbConverter.invalidateThumbnails(localCopy.toString());
+    }
+
+}
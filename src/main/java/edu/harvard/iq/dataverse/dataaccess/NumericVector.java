@@ -0,0 +1,57 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.util.BitSet;
+
+/**
+ * A numeric column of a tabular file, as primitive doubles.
+ *
+ * Missing values (empty or unparseable entries in the tab file) are tracked
+ * separately from the values, since they are not the same thing as a NaN:
+ * UNF calculations encode a missing value differently from a NaN.
+ */
+public class NumericVector {
+
+    private final double[] values;
+    private final BitSet missing;
+
+    public NumericVector(double[] values, BitSet missing) {
+        this.values = values;
+        this.missing = missing;
+    }
+
+    /**
+     * @return the values; the entries of missing values are 0.
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return the indices of the missing values.
+     */
+    public BitSet getMissing() {
+        return missing;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public boolean hasMissingValues() {
+        return !missing.isEmpty();
+    }
+
+    /**
+     * @return the values as a boxed vector, with {@code null}s for the
+     * missing values; for APIs, such as the UNF calculator, that can only
+     * take missing values this way.
+     */
+    public Double[] toBoxedVector() {
+        Double[] boxed = new Double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            boxed[i] = missing.get(i) ? null : values[i];
+        }
+        return boxed;
+    }
+
+}
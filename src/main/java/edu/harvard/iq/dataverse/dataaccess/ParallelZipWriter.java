@@ -0,0 +1,554 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a zip archive to a stream, compressing the entries in parallel.
+ *
+ * Each entry is read in blocks of {@link #BLOCK_SIZE} bytes, and each block
+ * is deflated on its own, by a task on the executor (primed with the tail of
+ * the previous block as the dictionary, so the compression ratio stays close
+ * to that of a single stream). The blocks end on a sync flush, so their
+ * concatenation is a valid deflate stream - the same technique pigz uses. The
+ * compressed blocks are written out in order, as soon as they are done; at
+ * most {@code windowBlocks} blocks are in flight at any time, which bounds
+ * the memory a download takes regardless of the size of the archive. The
+ * executor is shared with the rest of the application, so all the writers
+ * together run at most {@link #COMPRESSION_SLOTS} blocks on it at a time;
+ * blocks that find no slot free are compressed on the calling thread.
+ *
+ * Nothing is buffered or seeked back to: sizes and CRCs go into data
+ * descriptors after the entry data. ZIP64 records are written when the
+ * entries, offsets or entry count outgrow the classic zip format, so there is
+ * no limit on the size of the archive. (An entry of unknown size that turns
+ * out larger than 4GB fails, though: by then its local header, without the
+ * ZIP64 extra field, has been written.)
+ *
+ * Entries of formats that are already compressed can be added without
+ * compression; they are still deflate entries (of "stored" deflate blocks,
+ * which cost 5 bytes per 64KB), because readers such as
+ * {@link java.util.zip.ZipInputStream} refuse stored entries with data
+ * descriptors.
+ *
+ * Not thread-safe: entries are added from a single thread.
+ */
+public class ParallelZipWriter {
+
+    private static final Logger logger = Logger.getLogger(ParallelZipWriter.class.getCanonicalName());
+
+    static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final long ZIP64_MAGICVAL = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGICCOUNT = 0xFFFF;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    private static final int FLAG_UTF8 = 1 << 11;
+    private static final int METHOD_DEFLATED = 8;
+
+    /**
+     * How many blocks may be compressed on the executor at a time, by all
+     * the writers together.
+     */
+    static final Semaphore COMPRESSION_SLOTS = new Semaphore(Math.max(1, Runtime.getRuntime().availableProcessors()));
+
+    private final CountingOutputStream out;
+    private final ExecutorService executor;
+    private final int windowBlocks;
+    private final int dosTime;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final Deque<Segment> pending = new ArrayDeque<>();
+    private int pendingBlocks = 0;
+    private boolean finished = false;
+
+    /**
+     * @param outputStream where the archive is written.
+     * @param executor runs the compression tasks; if {@code null}, blocks are
+     * compressed on the calling thread.
+     * @param windowBlocks how many blocks may be read and compressed ahead of
+     * the output.
+     */
+    public ParallelZipWriter(OutputStream outputStream, ExecutorService executor, int windowBlocks) {
+        this.out = new CountingOutputStream(new BufferedOutputStream(outputStream, 64 * 1024));
+        this.executor = executor;
+        this.windowBlocks = Math.max(1, windowBlocks);
+        this.dosTime = toDosTime(System.currentTimeMillis());
+    }
+
+    /**
+     * Adds an entry, reading its content from {@code in} until the end of
+     * the stream. (The stream is not closed.)
+     *
+     * @param name the name of the entry.
+     * @param in the content.
+     * @param compress whether to compress the content; pass {@code false} for
+     * data that is already compressed.
+     * @param expectedSize the size of the content, if known, or -1; only used
+     * to decide up front whether the entry needs ZIP64 records.
+     * @return the number of (uncompressed) bytes in the entry.
+     * @throws IOException on errors reading the content or writing the
+     * archive, or if the size was not known and the content turns out to
+     * need ZIP64 records.
+     */
+    public long addEntry(String name, InputStream in, boolean compress, long expectedSize) throws IOException {
+        if (finished) {
+            throw new IOException("Zip archive already finished");
+        }
+        Entry entry = new Entry(name, expectedSize >= ZIP64_MAGICVAL);
+        entries.add(entry);
+        enqueue(new Segment(entry, SegmentType.HEADER, null));
+
+        int level = compress ? Deflater.DEFAULT_COMPRESSION : Deflater.NO_COMPRESSION;
+        CRC32 crc = new CRC32();
+
+        // (for small files, there's no point in allocating a whole block)
+        byte[] block = new byte[expectedSize >= 0 ? (int) Math.min(BLOCK_SIZE, expectedSize + 1) : BLOCK_SIZE];
+        int blockLength = readBlock(in, block);
+        byte[] previous = null;
+        int previousLength = 0;
+        while (true) {
+            byte[] next = null;
+            int nextLength = 0;
+            if (blockLength == block.length) {
+                next = new byte[BLOCK_SIZE];
+                nextLength = readBlock(in, next);
+            }
+            boolean last = nextLength == 0;
+
+            crc.update(block, 0, blockLength);
+            entry.size += blockLength;
+            if (!entry.zip64 && entry.size >= ZIP64_MAGICVAL) {
+                abort();
+                throw new IOException("Zip entry " + entry.name + " turned out larger than 4GB, and its header has already been written without ZIP64 records");
+            }
+
+            BlockCompressor compressor = new BlockCompressor(block, blockLength, previous, previousLength, level, last);
+            enqueue(new Segment(entry, SegmentType.BLOCK, submit(compressor, compress)));
+
+            if (last) {
+                break;
+            }
+            previous = block;
+            previousLength = blockLength;
+            block = next;
+            blockLength = nextLength;
+        }
+
+        entry.crc = crc.getValue();
+        enqueue(new Segment(entry, SegmentType.DESCRIPTOR, null));
+        return entry.size;
+    }
+
+    /**
+     * Writes out all the pending entries, and the central directory; and
+     * flushes (but does not close) the underlying stream.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        try {
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+        } catch (IOException ioex) {
+            abort();
+            throw ioex;
+        }
+        writeCentralDirectory();
+        out.flush();
+    }
+
+    /**
+     * Cancels any compression tasks still in flight, e.g. after the client
+     * has gone away.
+     */
+    public void abort() {
+        for (Segment segment : pending) {
+            if (segment.data != null) {
+                segment.data.cancel(true);
+            }
+        }
+        pending.clear();
+        pendingBlocks = 0;
+    }
+
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    private Future<byte[]> submit(BlockCompressor compressor, boolean parallel) throws IOException {
+        if (parallel && executor != null && COMPRESSION_SLOTS.tryAcquire()) {
+            // (done() is called once the task has run, or was cancelled)
+            FutureTask<byte[]> task = new FutureTask<byte[]>(compressor) {
+                @Override
+                protected void done() {
+                    COMPRESSION_SLOTS.release();
+                }
+            };
+            try {
+                executor.execute(task);
+                return task;
+            } catch (RejectedExecutionException rex) {
+                COMPRESSION_SLOTS.release();
+                logger.fine("Compression task rejected; compressing on the calling thread.");
+            }
+        }
+        FutureTask<byte[]> task = new FutureTask<>(compressor);
+        task.run();
+        return task;
+    }
+
+    private void enqueue(Segment segment) throws IOException {
+        pending.addLast(segment);
+        if (segment.type == SegmentType.BLOCK) {
+            pendingBlocks++;
+        }
+        try {
+            // Write out what's done already, and wait when the window is full:
+            while (!pending.isEmpty() && (pendingBlocks > windowBlocks || isReady(pending.peekFirst()))) {
+                writeNext();
+            }
+        } catch (IOException ioex) {
+            abort();
+            throw ioex;
+        }
+    }
+
+    private boolean isReady(Segment segment) {
+        return segment.type != SegmentType.BLOCK || segment.data.isDone();
+    }
+
+    private void writeNext() throws IOException {
+        Segment segment = pending.removeFirst();
+        Entry entry = segment.entry;
+        switch (segment.type) {
+            case HEADER:
+                entry.offset = out.getCount();
+                writeLocalHeader(entry);
+                break;
+            case BLOCK:
+                pendingBlocks--;
+                byte[] compressed;
+                try {
+                    compressed = segment.data.get();
+                } catch (InterruptedException iex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while compressing " + entry.name, iex);
+                } catch (ExecutionException eex) {
+                    throw new IOException("Failed to compress " + entry.name, eex.getCause());
+                }
+                entry.compressedSize += compressed.length;
+                if (!entry.zip64 && entry.compressedSize >= ZIP64_MAGICVAL) {
+                    throw new IOException("Zip entry " + entry.name + " turned out larger than 4GB compressed, and its header has already been written without ZIP64 records");
+                }
+                out.write(compressed);
+                break;
+            case DESCRIPTOR:
+                writeDataDescriptor(entry);
+                break;
+        }
+    }
+
+    private static int readBlock(InputStream in, byte[] block) throws IOException {
+        int length = 0;
+        int bytes;
+        while (length < block.length && (bytes = in.read(block, length, block.length - length)) != -1) {
+            length += bytes;
+        }
+        return length;
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        writeInt(0x04034b50L);
+        writeShort(entry.zip64 ? 45 : 20);
+        writeShort(FLAG_DATA_DESCRIPTOR | FLAG_UTF8);
+        writeShort(METHOD_DEFLATED);
+        writeInt(dosTime);
+        // crc and sizes follow in the data descriptor:
+        writeInt(0);
+        writeInt(entry.zip64 ? ZIP64_MAGICVAL : 0);
+        writeInt(entry.zip64 ? ZIP64_MAGICVAL : 0);
+        writeShort(name.length);
+        writeShort(entry.zip64 ? 20 : 0);
+        out.write(name);
+        if (entry.zip64) {
+            writeShort(0x0001);
+            writeShort(16);
+            writeLong(0);
+            writeLong(0);
+        }
+    }
+
+    private void writeDataDescriptor(Entry entry) throws IOException {
+        writeInt(0x08074b50L);
+        writeInt(entry.crc);
+        if (entry.zip64) {
+            writeLong(entry.compressedSize);
+            writeLong(entry.size);
+        } else {
+            writeInt(entry.compressedSize);
+            writeInt(entry.size);
+        }
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long directoryOffset = out.getCount();
+
+        for (Entry entry : entries) {
+            byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+
+            // ZIP64 extra field: only the values that don't fit, in this order
+            ByteArrayOutputStream extra = new ByteArrayOutputStream();
+            if (entry.size >= ZIP64_MAGICVAL) {
+                writeLong(extra, entry.size);
+            }
+            if (entry.compressedSize >= ZIP64_MAGICVAL) {
+                writeLong(extra, entry.compressedSize);
+            }
+            if (entry.offset >= ZIP64_MAGICVAL) {
+                writeLong(extra, entry.offset);
+            }
+            boolean zip64 = extra.size() > 0 || entry.zip64;
+
+            writeInt(0x02014b50L);
+            writeShort(zip64 ? 45 : 20);
+            writeShort(zip64 ? 45 : 20);
+            writeShort(FLAG_DATA_DESCRIPTOR | FLAG_UTF8);
+            writeShort(METHOD_DEFLATED);
+            writeInt(dosTime);
+            writeInt(entry.crc);
+            writeInt(Math.min(entry.compressedSize, ZIP64_MAGICVAL));
+            writeInt(Math.min(entry.size, ZIP64_MAGICVAL));
+            writeShort(name.length);
+            writeShort(extra.size() > 0 ? extra.size() + 4 : 0);
+            writeShort(0); // comment length
+            writeShort(0); // disk number
+            writeShort(0); // internal attributes
+            writeInt(0); // external attributes
+            writeInt(Math.min(entry.offset, ZIP64_MAGICVAL));
+            out.write(name);
+            if (extra.size() > 0) {
+                writeShort(0x0001);
+                writeShort(extra.size());
+                extra.writeTo(out);
+            }
+        }
+
+        long directoryEnd = out.getCount();
+        long directorySize = directoryEnd - directoryOffset;
+        int entryCount = entries.size();
+
+        if (entryCount >= ZIP64_MAGICCOUNT || directoryOffset >= ZIP64_MAGICVAL || directorySize >= ZIP64_MAGICVAL) {
+            // ZIP64 end of central directory record:
+            writeInt(0x06064b50L);
+            writeLong(44);
+            writeShort(45);
+            writeShort(45);
+            writeInt(0);
+            writeInt(0);
+            writeLong(entryCount);
+            writeLong(entryCount);
+            writeLong(directorySize);
+            writeLong(directoryOffset);
+            // ... and its locator:
+            writeInt(0x07064b50L);
+            writeInt(0);
+            writeLong(directoryEnd);
+            writeInt(1);
+        }
+
+        writeInt(0x06054b50L);
+        writeShort(0);
+        writeShort(0);
+        writeShort(Math.min(entryCount, ZIP64_MAGICCOUNT));
+        writeShort(Math.min(entryCount, ZIP64_MAGICCOUNT));
+        writeInt(Math.min(directorySize, ZIP64_MAGICVAL));
+        writeInt(Math.min(directoryOffset, ZIP64_MAGICVAL));
+        writeShort(0);
+    }
+
+    private void writeShort(int v) throws IOException {
+        out.write(v & 0xff);
+        out.write((v >>> 8) & 0xff);
+    }
+
+    private void writeInt(long v) throws IOException {
+        writeShort((int) (v & 0xffff));
+        writeShort((int) ((v >>> 16) & 0xffff));
+    }
+
+    private void writeLong(long v) throws IOException {
+        writeLong(out, v);
+    }
+
+    private static void writeLong(OutputStream stream, long v) throws IOException {
+        for (int i = 0; i < 8; i++) {
+            stream.write((int) (v >>> (8 * i)) & 0xff);
+        }
+    }
+
+    private static int toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25
+                | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private enum SegmentType {
+        HEADER, BLOCK, DESCRIPTOR
+    }
+
+    /**
+     * A piece of the archive waiting to be written out, in order.
+     */
+    private static class Segment {
+
+        final Entry entry;
+        final SegmentType type;
+        final Future<byte[]> data;
+
+        Segment(Entry entry, SegmentType type, Future<byte[]> data) {
+            this.entry = entry;
+            this.type = type;
+            this.data = data;
+        }
+    }
+
+    private static class Entry {
+
+        final String name;
+        boolean zip64;
+        long offset;
+        long crc;
+        long size;
+        long compressedSize;
+
+        Entry(String name, boolean zip64) {
+            this.name = name;
+            this.zip64 = zip64;
+        }
+    }
+
+    /**
+     * Deflates one block of an entry into a raw deflate fragment: ending on a
+     * sync flush, or, for the last block of the entry, finishing the stream.
+     */
+    static class BlockCompressor implements Callable<byte[]> {
+
+        private final byte[] block;
+        private final int length;
+        private final byte[] previous;
+        private final int previousLength;
+        private final int level;
+        private final boolean last;
+
+        BlockCompressor(byte[] block, int length, byte[] previous, int previousLength, int level, boolean last) {
+            this.block = block;
+            this.length = length;
+            this.previous = previous;
+            this.previousLength = previousLength;
+            this.level = level;
+            this.last = last;
+        }
+
+        @Override
+        public byte[] call() {
+            Deflater deflater = new Deflater(level, true);
+            try {
+                if (previous != null && level != Deflater.NO_COMPRESSION) {
+                    int dictionaryLength = Math.min(DICTIONARY_SIZE, previousLength);
+                    deflater.setDictionary(previous, previousLength - dictionaryLength, dictionaryLength);
+                }
+                deflater.setInput(block, 0, length);
+
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(level == Deflater.NO_COMPRESSION ? length + length / 8192 + 64 : length / 2 + 64);
+                byte[] buffer = new byte[64 * 1024];
+                if (last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        int bytes = deflater.deflate(buffer);
+                        compressed.write(buffer, 0, bytes);
+                    }
+                } else {
+                    int bytes;
+                    do {
+                        bytes = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                        compressed.write(buffer, 0, bytes);
+                    } while (bytes == buffer.length || !deflater.needsInput());
+                }
+                return compressed.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+
+        private final OutputStream out;
+        private long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.util.LruCache;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+/**
+ * A "rotated" (column-major) image of a tab-delimited file, as produced by
+ * {@link TabularSubsetGenerator}, opened for reading.
+ *
+ * The file starts with a header of {@code varcount} longs, the end offsets
+ * of the column vectors; the vectors follow, each one a sequence of
+ * new-line-terminated values.
+ *
+ * Opened images are kept in a small application-wide cache, keyed by the
+ * location of the image and checked against its size and modification time,
+ * so that repeated subset and summary statistics requests on the same file
+ * don't re-read the offset header. The image itself is memory-mapped once and
+ * shared by all readers; each reader gets its own view of a column through
+ * {@link #getColumn(int)}.
+ */
+class RotatedImage {
+
+    private static final Logger logger = Logger.getLogger(RotatedImage.class.getCanonicalName());
+
+    private static final LruCache<String, RotatedImage> cache = new LruCache<>();
+
+    static {
+        cache.setMaxSize(64);
+    }
+
+    private final File file;
+    private final long lastModified;
+    private final long length;
+    private final long[] columnEndOffsets;
+    /**
+     * The whole image, read-only; {@code null} if it's too large to be mapped
+     * as a single buffer, in which case each column is mapped on request.
+     */
+    private final MappedByteBuffer mappedImage;
+
+    private RotatedImage(File file, int varcount) throws IOException {
+        this.file = file;
+        this.lastModified = file.lastModified();
+        this.length = file.length();
+
+        if (length < varcount * 8L) {
+            throw new IOException("Could not read " + varcount * 8 + " header bytes from the rotated file.");
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (length <= Integer.MAX_VALUE) {
+                mappedImage = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+                columnEndOffsets = readOffsetHeader(mappedImage.duplicate(), varcount);
+            } else {
+                mappedImage = null;
+                columnEndOffsets = readOffsetHeader(channel.map(FileChannel.MapMode.READ_ONLY, 0, varcount * 8L), varcount);
+            }
+        }
+    }
+
+    /**
+     * Opens the rotated image {@code file}, or returns the already opened
+     * image, if it hasn't changed since.
+     *
+     * @param file the rotated image file.
+     * @param varcount number of columns in the image.
+     * @return the opened image.
+     * @throws IOException if the file can't be read.
+     */
+    static RotatedImage open(File file, int varcount) throws IOException {
+        String key = file.getAbsolutePath();
+        RotatedImage image = cache.get(key);
+        if (image != null && image.isCurrent() && image.getVarCount() == varcount) {
+            return image;
+        }
+        logger.fine("Opening rotated image " + key);
+        image = new RotatedImage(file, varcount);
+        cache.put(key, image);
+        return image;
+    }
+
+    /**
+     * Drops the cached image for {@code file}, e.g. when it is deleted.
+     */
+    static void invalidate(File file) {
+        cache.invalidate(file.getAbsolutePath());
+    }
+
+    /**
+     * @return whether an image of {@code file} is cached.
+     */
+    static boolean isCached(File file) {
+        return cache.get(file.getAbsolutePath()) != null;
+    }
+
+    private static long[] readOffsetHeader(ByteBuffer header, int varcount) {
+        long[] offsets = new long[varcount];
+        for (int varindex = 0; varindex < varcount; varindex++) {
+            offsets[varindex] = header.getLong(varindex * 8);
+        }
+        return offsets;
+    }
+
+    private boolean isCurrent() {
+        return file.lastModified() == lastModified && file.length() == length;
+    }
+
+    int getVarCount() {
+        return columnEndOffsets.length;
+    }
+
+    /*
+     * Note that the methods below operate on the *absolute* column number,
+     * i.e. the number of the physical column in the tabular file, as stored
+     * in DataVariable.FileOrder.
+     */
+    long getColumnOffset(int column) throws IOException {
+        checkColumn(column);
+        return column > 0 ? columnEndOffsets[column - 1] : columnEndOffsets.length * 8L;
+    }
+
+    long getColumnLength(int column) throws IOException {
+        return columnEndOffsets[column] - getColumnOffset(column);
+    }
+
+    /**
+     * @param column the (absolute) column number.
+     * @return A new read-only buffer over the bytes of the column vector,
+     * positioned at its first byte. The buffer is not shared, so it can be
+     * read without any synchronization.
+     * @throws IOException if the column is out of bounds, or larger than a
+     * single buffer can hold.
+     */
+    ByteBuffer getColumn(int column) throws IOException {
+        long offset = getColumnOffset(column);
+        long columnLength = getColumnLength(column);
+        if (columnLength > Integer.MAX_VALUE) {
+            throw new IOException("Column " + column + " is too large to be read (" + columnLength + " bytes)");
+        }
+        if (mappedImage != null) {
+            ByteBuffer columnBuffer = mappedImage.duplicate();
+            columnBuffer.limit((int) (offset + columnLength));
+            columnBuffer.position((int) offset);
+            return columnBuffer.slice();
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, columnLength);
+        }
+    }
+
+    private void checkColumn(int column) throws IOException {
+        if (column < 0 || column >= columnEndOffsets.length) {
+            throw new IOException("Offsets table not initialized; or column out of bounds.");
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.util.MD5Checksum;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Signs S3 requests, with AWS Signature Version 4 (as an "Authorization:"
+ * header). The payloads are not signed: they go out as
+ * {@link #UNSIGNED_PAYLOAD}, so that they can be streamed.
+ *
+ * @see S3StorageDriver
+ */
+class S3RequestSigner {
+
+    static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    private static final String SERVICE = "s3";
+
+    private final String accessKey;
+    private final String secretKey;
+    private final String region;
+
+    S3RequestSigner(String accessKey, String secretKey, String region) {
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.region = region;
+    }
+
+    /**
+     * @param method the HTTP method.
+     * @param path the path of the request, URI-encoded (see
+     * {@link #encodePath(String)}).
+     * @param query the query parameters, not encoded.
+     * @param headers the headers to sign - at least "host",
+     * "x-amz-content-sha256" and "x-amz-date" - by their lower case names.
+     * @return the value of the "Authorization:" header.
+     */
+    String authorization(String method, String path, Map<String, String> query, SortedMap<String, String> headers) {
+        String amzDate = headers.get("x-amz-date");
+        String scope = amzDate.substring(0, 8) + "/" + region + "/" + SERVICE + "/aws4_request";
+
+        StringBuilder canonicalHeaders = new StringBuilder();
+        StringBuilder signedHeaders = new StringBuilder();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            canonicalHeaders.append(header.getKey()).append(':').append(header.getValue().trim()).append('\n');
+            if (signedHeaders.length() > 0) {
+                signedHeaders.append(';');
+            }
+            signedHeaders.append(header.getKey());
+        }
+
+        String canonicalRequest = method + "\n"
+                + path + "\n"
+                + canonicalQuery(query) + "\n"
+                + canonicalHeaders + "\n"
+                + signedHeaders + "\n"
+                + headers.get("x-amz-content-sha256");
+
+        String stringToSign = ALGORITHM + "\n"
+                + amzDate + "\n"
+                + scope + "\n"
+                + MD5Checksum.toHexString(sha256(canonicalRequest));
+
+        byte[] signingKey = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), amzDate.substring(0, 8));
+        signingKey = hmac(signingKey, region);
+        signingKey = hmac(signingKey, SERVICE);
+        signingKey = hmac(signingKey, "aws4_request");
+
+        return ALGORITHM + " Credential=" + accessKey + "/" + scope
+                + ",SignedHeaders=" + signedHeaders
+                + ",Signature=" + MD5Checksum.toHexString(hmac(signingKey, stringToSign));
+    }
+
+    /**
+     * @return the query parameters as they are signed, and sent: encoded, and
+     * in order.
+     */
+    static String canonicalQuery(Map<String, String> query) {
+        SortedMap<String, String> encoded = new TreeMap<>();
+        for (Map.Entry<String, String> param : query.entrySet()) {
+            encoded.put(encode(param.getKey()), encode(param.getValue() == null ? "" : param.getValue()));
+        }
+        StringBuilder canonical = new StringBuilder();
+        for (Map.Entry<String, String> param : encoded.entrySet()) {
+            if (canonical.length() > 0) {
+                canonical.append('&');
+            }
+            canonical.append(param.getKey()).append('=').append(param.getValue());
+        }
+        return canonical.toString();
+    }
+
+    /**
+     * @return the path, with each of its segments URI-encoded.
+     */
+    static String encodePath(String path) {
+        String[] segments = path.split("/", -1);
+        StringBuilder encoded = new StringBuilder();
+        for (int i = 0; i < segments.length; i++) {
+            if (i > 0) {
+                encoded.append('/');
+            }
+            encoded.append(encode(segments[i]));
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * URI-encodes everything but the unreserved characters (RFC 3986), the
+     * way the signature needs it.
+     */
+    static String encode(String value) {
+        StringBuilder encoded = new StringBuilder();
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~') {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(String.format("%02X", b & 0xff));
+            }
+        }
+        return encoded.toString();
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String value) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(value.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
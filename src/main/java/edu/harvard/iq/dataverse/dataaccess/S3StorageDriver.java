@@ -0,0 +1,472 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Stores the files in an S3 bucket - on Amazon S3, or on any other object
+ * store with an S3-compatible API (Ceph, MinIO, ...). The requests are plain
+ * HTTP, signed with AWS Signature Version 4, and path-style
+ * ({@code <endpoint>/<bucket>/<key>}), so that any such endpoint will do.
+ *
+ * Objects are written in parts of {@link #getPartSize()} bytes ("multipart
+ * uploads"), so only one part of an object being written is ever held in
+ * memory; objects that fit in one part are written with a single PUT.
+ *
+ * Configured with the JVM options:
+ * <ul>
+ * <li>{@code dataverse.files.s3.bucket} (required);</li>
+ * <li>{@code dataverse.files.s3.region} ({@code us-east-1} by default);</li>
+ * <li>{@code dataverse.files.s3.endpoint} (the Amazon S3 endpoint of the
+ * region by default);</li>
+ * <li>{@code dataverse.files.s3.accessKey} and
+ * {@code dataverse.files.s3.secretKey};</li>
+ * <li>{@code dataverse.files.s3.partSize} (in bytes; 8MB by default, and at
+ * least 5MB).</li>
+ * </ul>
+ */
+public class S3StorageDriver implements StorageDriver {
+
+    private static final Logger logger = Logger.getLogger(S3StorageDriver.class.getCanonicalName());
+
+    public static final String ID = "s3";
+
+    static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+    static final int DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 60 * 1000;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final String endpoint;
+    private final String bucket;
+    private final int partSize;
+    private final S3RequestSigner signer;
+
+    /**
+     * @param endpoint the URL of the S3 service, with no path: for example,
+     * {@code https://s3.us-east-1.amazonaws.com}.
+     * @param bucket the bucket to keep the objects in.
+     * @param region the region the bucket is in.
+     * @param accessKey the access key id of the account to use.
+     * @param secretKey the secret access key of that account.
+     * @param partSize the size of the parts the objects are uploaded in.
+     */
+    public S3StorageDriver(String endpoint, String bucket, String region, String accessKey, String secretKey, int partSize) {
+        this.endpoint = endpoint.replaceAll("/+$", "");
+        this.bucket = bucket;
+        this.partSize = partSize;
+        this.signer = new S3RequestSigner(accessKey, secretKey, region);
+    }
+
+    /**
+     * @return the driver configured with the dataverse.files.s3.* JVM
+     * options.
+     * @throws IOException if no bucket is configured.
+     */
+    public static S3StorageDriver fromSystemProperties() throws IOException {
+        String bucket = System.getProperty("dataverse.files.s3.bucket");
+        if (bucket == null || bucket.equals("")) {
+            throw new IOException("No S3 bucket configured (dataverse.files.s3.bucket)");
+        }
+        String region = System.getProperty("dataverse.files.s3.region", "us-east-1");
+        String endpoint = System.getProperty("dataverse.files.s3.endpoint", "https://s3." + region + ".amazonaws.com");
+        int partSize = DEFAULT_PART_SIZE;
+        String partSizeOption = System.getProperty("dataverse.files.s3.partSize");
+        if (partSizeOption != null && !partSizeOption.equals("")) {
+            try {
+                partSize = Math.max(MIN_PART_SIZE, Integer.parseInt(partSizeOption.trim()));
+            } catch (NumberFormatException nfe) {
+                logger.warning("Invalid dataverse.files.s3.partSize option: " + partSizeOption);
+            }
+        }
+        return new S3StorageDriver(endpoint, bucket, region,
+                System.getProperty("dataverse.files.s3.accessKey", ""),
+                System.getProperty("dataverse.files.s3.secretKey", ""),
+                partSize);
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    public int getPartSize() {
+        return partSize;
+    }
+
+    @Override
+    public InputStream read(String key) throws IOException {
+        HttpURLConnection conn = request("GET", key, Collections.<String, String>emptyMap(), Collections.<String, String>emptyMap());
+        check(conn, "GET", key);
+        return conn.getInputStream();
+    }
+
+    @Override
+    public InputStream read(String key, long offset, long length) throws IOException {
+        if (length <= 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        Map<String, String> headers = Collections.singletonMap("range", "bytes=" + offset + "-" + (offset + length - 1));
+        HttpURLConnection conn = request("GET", key, Collections.<String, String>emptyMap(), headers);
+        check(conn, "GET", key);
+        if (conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+            conn.getInputStream().close();
+            throw new IOException("S3 GET " + key + ": the byte range " + offset + "+" + length + " was not served");
+        }
+        return conn.getInputStream();
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        HttpURLConnection conn = request("HEAD", key, Collections.<String, String>emptyMap(), Collections.<String, String>emptyMap());
+        check(conn, "HEAD", key);
+        return conn.getContentLengthLong();
+    }
+
+    @Override
+    public boolean exists(String key) throws IOException {
+        try {
+            size(key);
+            return true;
+        } catch (FileNotFoundException ex) {
+            return false;
+        }
+    }
+
+    @Override
+    public OutputStream openForWriting(String key) throws IOException {
+        return new ObjectOutputStream(key);
+    }
+
+    @Override
+    public void write(String key, Path source) throws IOException {
+        long size = Files.size(source);
+        if (size > partSize) {
+            StorageDriver.super.write(key, source);
+            return;
+        }
+        HttpURLConnection conn = request("PUT", key, Collections.<String, String>emptyMap(), Collections.<String, String>emptyMap());
+        conn.setDoOutput(true);
+        conn.setFixedLengthStreamingMode(size);
+        try (OutputStream out = conn.getOutputStream()) {
+            Files.copy(source, out);
+        }
+        check(conn, "PUT", key);
+        conn.getInputStream().close();
+    }
+
+    @Override
+    public void copy(String fromKey, String toKey) throws IOException {
+        Map<String, String> headers = Collections.singletonMap("x-amz-copy-source",
+                S3RequestSigner.encodePath("/" + bucket + "/" + fromKey));
+        HttpURLConnection conn = request("PUT", toKey, Collections.<String, String>emptyMap(), headers);
+        send(conn, new byte[0], 0);
+        check(conn, "PUT (copy)", toKey);
+        // a copy can fail after the 200 has been sent; the error is then in
+        // the body:
+        String response = readBody(conn.getInputStream());
+        if (response.contains("<Error>")) {
+            throw new IOException("S3 copy of " + fromKey + " to " + toKey + " failed: " + errorCode(response));
+        }
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        HttpURLConnection conn = request("DELETE", key, Collections.<String, String>emptyMap(), Collections.<String, String>emptyMap());
+        try {
+            check(conn, "DELETE", key);
+            conn.getInputStream().close();
+        } catch (FileNotFoundException ex) {
+            // already gone
+        }
+    }
+
+    @Override
+    public List<String> list(String prefix) throws IOException {
+        List<String> keys = new ArrayList<>();
+        String continuationToken = null;
+        do {
+            Map<String, String> query = new HashMap<>();
+            query.put("list-type", "2");
+            query.put("prefix", prefix);
+            if (continuationToken != null) {
+                query.put("continuation-token", continuationToken);
+            }
+            HttpURLConnection conn = request("GET", null, query, Collections.<String, String>emptyMap());
+            check(conn, "GET (list)", prefix);
+            Document listing = parse(conn.getInputStream());
+            NodeList contents = listing.getElementsByTagName("Key");
+            for (int i = 0; i < contents.getLength(); i++) {
+                keys.add(contents.item(i).getTextContent());
+            }
+            NodeList truncated = listing.getElementsByTagName("IsTruncated");
+            NodeList nextToken = listing.getElementsByTagName("NextContinuationToken");
+            continuationToken = truncated.getLength() > 0 && "true".equals(truncated.item(0).getTextContent()) && nextToken.getLength() > 0
+                    ? nextToken.item(0).getTextContent()
+                    : null;
+        } while (continuationToken != null);
+        return keys;
+    }
+
+    /**
+     * Buffers what is written into it, and uploads it once it is closed; or,
+     * if it is more than a part, as a multipart upload, a part at a time.
+     */
+    private class ObjectOutputStream extends OutputStream {
+
+        private final String key;
+        private byte[] buffer = new byte[Math.min(INITIAL_BUFFER_SIZE, partSize)];
+        private int count = 0;
+        private String uploadId = null;
+        private final List<String> etags = new ArrayList<>();
+        private boolean closed = false;
+
+        ObjectOutputStream(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            while (len > 0) {
+                if (count == partSize) {
+                    uploadPart();
+                }
+                if (count == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, partSize));
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (uploadId == null) {
+                putObject(key, buffer, count);
+                return;
+            }
+            try {
+                if (count > 0) {
+                    uploadPart();
+                }
+                completeMultipartUpload(key, uploadId, etags);
+            } catch (IOException ex) {
+                abortMultipartUpload(key, uploadId);
+                throw ex;
+            }
+        }
+
+        private void uploadPart() throws IOException {
+            if (uploadId == null) {
+                uploadId = initiateMultipartUpload(key);
+            }
+            try {
+                etags.add(putPart(key, uploadId, etags.size() + 1, buffer, count));
+            } catch (IOException ex) {
+                closed = true;
+                abortMultipartUpload(key, uploadId);
+                throw ex;
+            }
+            count = 0;
+        }
+    }
+
+    private void putObject(String key, byte[] data, int length) throws IOException {
+        HttpURLConnection conn = request("PUT", key, Collections.<String, String>emptyMap(), Collections.<String, String>emptyMap());
+        send(conn, data, length);
+        check(conn, "PUT", key);
+        conn.getInputStream().close();
+    }
+
+    private String initiateMultipartUpload(String key) throws IOException {
+        HttpURLConnection conn = request("POST", key, Collections.singletonMap("uploads", ""), Collections.<String, String>emptyMap());
+        send(conn, new byte[0], 0);
+        check(conn, "POST (initiate upload)", key);
+        NodeList uploadId = parse(conn.getInputStream()).getElementsByTagName("UploadId");
+        if (uploadId.getLength() == 0) {
+            throw new IOException("S3 did not start a multipart upload of " + key);
+        }
+        return uploadId.item(0).getTextContent();
+    }
+
+    private String putPart(String key, String uploadId, int partNumber, byte[] data, int length) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        query.put("partNumber", Integer.toString(partNumber));
+        query.put("uploadId", uploadId);
+        HttpURLConnection conn = request("PUT", key, query, Collections.<String, String>emptyMap());
+        send(conn, data, length);
+        check(conn, "PUT (part " + partNumber + ")", key);
+        conn.getInputStream().close();
+        String etag = conn.getHeaderField("ETag");
+        if (etag == null) {
+            throw new IOException("S3 returned no ETag for part " + partNumber + " of " + key);
+        }
+        return etag;
+    }
+
+    private void completeMultipartUpload(String key, String uploadId, List<String> etags) throws IOException {
+        StringBuilder body = new StringBuilder("<CompleteMultipartUpload>");
+        for (int i = 0; i < etags.size(); i++) {
+            body.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>")
+                    .append(etags.get(i).replace("\"", "&quot;")).append("</ETag></Part>");
+        }
+        body.append("</CompleteMultipartUpload>");
+        byte[] data = body.toString().getBytes(StandardCharsets.UTF_8);
+
+        HttpURLConnection conn = request("POST", key, Collections.singletonMap("uploadId", uploadId), Collections.<String, String>emptyMap());
+        send(conn, data, data.length);
+        check(conn, "POST (complete upload)", key);
+        String response = readBody(conn.getInputStream());
+        if (response.contains("<Error>")) {
+            throw new IOException("S3 multipart upload of " + key + " failed: " + errorCode(response));
+        }
+    }
+
+    private void abortMultipartUpload(String key, String uploadId) {
+        try {
+            HttpURLConnection conn = request("DELETE", key, Collections.singletonMap("uploadId", uploadId), Collections.<String, String>emptyMap());
+            check(conn, "DELETE (abort upload)", key);
+            conn.getInputStream().close();
+        } catch (IOException ex) {
+            // the parts uploaded so far are left for the bucket's lifecycle
+            // rules to clean up
+            logger.warning("Could not abort the multipart upload of " + key + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Opens a signed request for the object (or, for a {@code null} key, the
+     * bucket).
+     */
+    private HttpURLConnection request(String method, String key, Map<String, String> query, Map<String, String> headers) throws IOException {
+        String path = S3RequestSigner.encodePath("/" + bucket + "/" + (key == null ? "" : key));
+        String queryString = S3RequestSigner.canonicalQuery(query);
+        URL url = new URL(endpoint + path + (queryString.isEmpty() ? "" : "?" + queryString));
+
+        SortedMap<String, String> signedHeaders = new TreeMap<>(headers);
+        signedHeaders.put("host", url.getPort() == -1 || url.getPort() == url.getDefaultPort()
+                ? url.getHost() : url.getHost() + ":" + url.getPort());
+        signedHeaders.put("x-amz-content-sha256", S3RequestSigner.UNSIGNED_PAYLOAD);
+        signedHeaders.put("x-amz-date", amzDate(new Date()));
+
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod(method);
+        conn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        conn.setReadTimeout(READ_TIMEOUT_MILLIS);
+        conn.setInstanceFollowRedirects(false);
+        for (Map.Entry<String, String> header : signedHeaders.entrySet()) {
+            // (the connection sets the "Host:" header itself)
+            if (!header.getKey().equals("host")) {
+                conn.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+        conn.setRequestProperty("Authorization", signer.authorization(method, url.getPath(), query, signedHeaders));
+        return conn;
+    }
+
+    private static void send(HttpURLConnection conn, byte[] data, int length) throws IOException {
+        conn.setDoOutput(true);
+        conn.setFixedLengthStreamingMode(length);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(data, 0, length);
+        }
+    }
+
+    /**
+     * @throws FileNotFoundException if the object was not found.
+     * @throws IOException with the S3 error code, if the request failed
+     * otherwise.
+     */
+    private static void check(HttpURLConnection conn, String request, String key) throws IOException {
+        int status = conn.getResponseCode();
+        if (status < 300) {
+            return;
+        }
+        String error = "";
+        InputStream errorStream = conn.getErrorStream();
+        if (errorStream != null) {
+            error = errorCode(readBody(errorStream));
+        }
+        if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+            throw new FileNotFoundException("S3 " + request + " " + key + ": not found " + error);
+        }
+        throw new IOException("S3 " + request + " " + key + " failed: " + status + " " + error);
+    }
+
+    private static String errorCode(String response) {
+        int start = response.indexOf("<Code>");
+        int end = response.indexOf("</Code>");
+        return start >= 0 && end > start ? response.substring(start + "<Code>".length(), end) : "";
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        try (InputStream body = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = body.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Document parse(InputStream in) throws IOException {
+        try (InputStream body = in) {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setExpandEntityReferences(false);
+            return factory.newDocumentBuilder().parse(body);
+        } catch (ParserConfigurationException | SAXException ex) {
+            throw new IOException("Could not parse the response from S3: " + ex.getMessage(), ex);
+        }
+    }
+
+    private static String amzDate(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+
+}
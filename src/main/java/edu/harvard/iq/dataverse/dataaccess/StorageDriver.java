@@ -0,0 +1,80 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A storage system the data files (and their auxiliary objects) can be kept
+ * in, other than the local filesystem (see {@link FileAccessIO} for that):
+ * the objects are addressed by keys, and read and written as streams.
+ *
+ * The files stored with a driver have storage identifiers of the form
+ * {@code <driver id>://<name>}; see {@link DataAccess} for how the drivers are
+ * looked up, and {@link StorageIO} for how the files are mapped to keys.
+ */
+public interface StorageDriver {
+
+    /**
+     * @return the scheme of the storage identifiers of the files stored with
+     * this driver.
+     */
+    String getId();
+
+    /**
+     * @return a stream of the whole object, to be closed by the caller.
+     * @throws java.io.FileNotFoundException if there is no such object.
+     */
+    InputStream read(String key) throws IOException;
+
+    /**
+     * @return a stream of {@code length} bytes of the object, starting at
+     * {@code offset}, to be closed by the caller.
+     * @throws java.io.FileNotFoundException if there is no such object.
+     */
+    InputStream read(String key, long offset, long length) throws IOException;
+
+    /**
+     * @return the size of the object, in bytes.
+     * @throws java.io.FileNotFoundException if there is no such object.
+     */
+    long size(String key) throws IOException;
+
+    boolean exists(String key) throws IOException;
+
+    /**
+     * Opens a stream to write an object with; the object is created (or
+     * replaced) when the stream is closed. Objects of any size can be
+     * written this way, without the driver holding them in memory.
+     */
+    OutputStream openForWriting(String key) throws IOException;
+
+    /**
+     * Writes the local file as the object, creating or replacing it.
+     */
+    default void write(String key, Path source) throws IOException {
+        try (OutputStream out = openForWriting(key)) {
+            Files.copy(source, out);
+        }
+    }
+
+    /**
+     * Copies the object within the storage system, without reading it.
+     */
+    void copy(String fromKey, String toKey) throws IOException;
+
+    /**
+     * Deletes the object; deleting an object that is not there is not an
+     * error.
+     */
+    void delete(String key) throws IOException;
+
+    /**
+     * @return the keys of all the objects whose keys start with the prefix.
+     */
+    List<String> list(String prefix) throws IOException;
+
+}
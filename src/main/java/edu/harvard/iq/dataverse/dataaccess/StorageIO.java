@@ -0,0 +1,261 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.Dataset;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channel;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Access to a data file stored with a {@link StorageDriver}. The file, with
+ * the storage identifier {@code <driver id>://<name>}, is the object
+ * {@code <authority>/<identifier>/<name>} (the same layout as the local
+ * files, under the files directory); its auxiliary objects are
+ * {@code <authority>/<identifier>/<name>.<tag>}.
+ *
+ * Opening the file for reading only looks up its size: the object itself is
+ * only requested once its stream (or channel) is first read from - so that
+ * the callers that open the file for its size, or to hand it on to something
+ * that reads its local copy instead, do not download it.
+ */
+public class StorageIO extends DataFileIO {
+
+    private final StorageDriver driver;
+    private String key = null;
+
+    private boolean isReadAccess = false;
+    private boolean isWriteAccess = false;
+
+    public StorageIO(DataFile dataFile, DataAccessRequest req, StorageDriver driver) {
+        super(dataFile, req);
+        this.driver = driver;
+        this.setIsLocalFile(false);
+        this.setIsRemoteAccess(true);
+    }
+
+    public StorageDriver getDriver() {
+        return driver;
+    }
+
+    @Override
+    public boolean canRead() {
+        return isReadAccess;
+    }
+
+    @Override
+    public boolean canWrite() {
+        return isWriteAccess;
+    }
+
+    @Override
+    public void open(DataAccessOption... options) throws IOException {
+        DataFile dataFile = this.getDataFile();
+        DataAccessRequest req = this.getRequest();
+
+        if (req != null && req.getParameter("noVarHeader") != null) {
+            this.setNoVarHeader(true);
+        }
+
+        isWriteAccess = isWriteAccessRequested(options);
+        isReadAccess = !isWriteAccess;
+
+        if (isReadAccess) {
+            this.setSize(driver.size(getKey()));
+            InputStream in = new LazyInputStream(driver, getKey());
+            this.setInputStream(in);
+            setChannel(Channels.newChannel(in));
+
+            if (dataFile.getContentType() != null
+                    && dataFile.getContentType().equals("text/tab-separated-values")
+                    && dataFile.isTabularData()
+                    && dataFile.getDataTable() != null
+                    && (!this.noVarHeader())) {
+                this.setVarHeader(generateVariableHeader(dataFile.getDataTable().getDataVariables()));
+            }
+        } else {
+            LocalCopyCache.evict(driver, getKey());
+            OutputStream out = driver.openForWriting(getKey());
+            this.setOutputStream(out);
+            setChannel(Channels.newChannel(out));
+        }
+
+        this.setMimeType(dataFile.getContentType());
+        try {
+            this.setFileName(dataFile.getFileMetadata().getLabel());
+        } catch (Exception ex) {
+            this.setFileName("unknown");
+        }
+
+        this.setStatus(200);
+    }
+
+    @Override
+    public InputStream openRange(long offset, long length) throws IOException {
+        return driver.read(getKey(), offset, length);
+    }
+
+    @Override
+    public Path getLocalCopy() throws IOException {
+        return LocalCopyCache.fetch(driver, getKey());
+    }
+
+    @Override
+    public Path getLocalCopyLocation() throws IOException {
+        return LocalCopyCache.locate(driver, getKey());
+    }
+
+    @Override
+    public void copyPath(Path fileSystemPath) throws IOException {
+        LocalCopyCache.evict(driver, getKey());
+        driver.write(getKey(), fileSystemPath);
+        setSize(Files.size(fileSystemPath));
+    }
+
+    @Override
+    public Channel openAuxChannel(String auxItemTag, DataAccessOption... options) throws IOException {
+        if (isWriteAccessRequested(options)) {
+            return Channels.newChannel(driver.openForWriting(getAuxKey(auxItemTag)));
+        }
+        return Channels.newChannel(driver.read(getAuxKey(auxItemTag)));
+    }
+
+    @Override
+    public long getAuxObjectSize(String auxItemTag) throws IOException {
+        return driver.size(getAuxKey(auxItemTag));
+    }
+
+    @Override
+    public boolean isAuxObjectCached(String auxItemTag) throws IOException {
+        return driver.exists(getAuxKey(auxItemTag));
+    }
+
+    @Override
+    public void backupAsAux(String auxItemTag) throws IOException {
+        driver.copy(getKey(), getAuxKey(auxItemTag));
+        driver.delete(getKey());
+        LocalCopyCache.evict(driver, getKey());
+    }
+
+    @Override
+    public String getStorageLocation() throws IOException {
+        return driver.getId() + "://" + getKey();
+    }
+
+    @Override
+    public Path getFileSystemPath() throws IOException {
+        throw new IOException("Data Access: " + getStorageLocation() + " is not stored on the local filesystem.");
+    }
+
+    /**
+     * Deletes the object, and its auxiliary objects.
+     */
+    @Override
+    public void delete() throws IOException {
+        for (String auxKey : driver.list(getKey() + ".")) {
+            driver.delete(auxKey);
+        }
+        driver.delete(getKey());
+        LocalCopyCache.evict(driver, getKey());
+    }
+
+    public String getKey() throws IOException {
+        if (key != null) {
+            return key;
+        }
+
+        DataFile dataFile = this.getDataFile();
+        if (dataFile == null) {
+            throw new IOException("No datafile defined in the Data Access Object");
+        }
+        Dataset dataset = dataFile.getOwner();
+        if (dataset == null || dataset.getAuthority() == null || dataset.getIdentifier() == null) {
+            throw new IOException("Data Access: no parent dataset defined for this datafile");
+        }
+        String storageIdentifier = dataFile.getStorageIdentifier();
+        String prefix = driver.getId() + "://";
+        if (storageIdentifier == null || !storageIdentifier.startsWith(prefix) || storageIdentifier.length() == prefix.length()) {
+            throw new IOException("Data Access: invalid storage identifier " + storageIdentifier + " for the " + driver.getId() + " storage driver.");
+        }
+
+        key = dataset.getAuthority() + "/" + dataset.getIdentifier() + "/" + storageIdentifier.substring(prefix.length());
+        return key;
+    }
+
+    private String getAuxKey(String auxItemTag) throws IOException {
+        if (auxItemTag == null || "".equals(auxItemTag)) {
+            throw new IOException("Null or invalid Auxiliary Object Tag.");
+        }
+        return getKey() + "." + auxItemTag;
+    }
+
+    private boolean isWriteAccessRequested(DataAccessOption... options) {
+        for (DataAccessOption option : options) {
+            if (option == DataAccessOption.READ_ACCESS) {
+                return false;
+            }
+            if (option == DataAccessOption.WRITE_ACCESS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The object, requested on the first read.
+     */
+    private static class LazyInputStream extends InputStream {
+
+        private final StorageDriver driver;
+        private final String key;
+        private InputStream in = null;
+        private boolean closed = false;
+
+        LazyInputStream(StorageDriver driver, String key) {
+            this.driver = driver;
+            this.key = key;
+        }
+
+        private InputStream in() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (in == null) {
+                in = driver.read(key);
+            }
+            return in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return in().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return in().read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return in().skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return in == null ? 0 : in.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+}
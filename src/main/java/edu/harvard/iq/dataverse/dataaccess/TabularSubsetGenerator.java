@@ -31,9 +31,9 @@ import java.math.BigDecimal;
 import java.math.MathContext;
 import java.math.RoundingMode;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
 import java.util.regex.Matcher;
 
 
@@ -56,24 +56,17 @@ public class TabularSubsetGenerator implements SubsetGenerator {
     private static int COLUMN_TYPE_DOUBLE = 3; 
     private static int COLUMN_TYPE_FLOAT = 4; 
     
-    private static int MAX_COLUMN_BUFFER = 8192;
-    
-    private FileChannel fileChannel = null; 
-    
     private int varcount; 
     private int casecount; 
     private int subsetcount;
     
     private byte[][] columnEntries = null; 
 
-    
+    /*
+     * Read-only views of the subset columns in the (memory-mapped) rotated 
+     * image; each one positioned at the next entry to be read.
+     */
     private ByteBuffer[] columnByteBuffers;
-    private int[] columnBufferSizes;
-    private int[] columnBufferOffsets;
-    
-    private long[] columnStartOffsets; 
-    private long[] columnTotalOffsets;
-    private long[] columnTotalLengths;
     
     public TabularSubsetGenerator() {
         
@@ -90,61 +83,31 @@ public class TabularSubsetGenerator implements SubsetGenerator {
            
         
         DataFileIO dataAccess = datafile.getAccessObject();
-        if (!dataAccess.isLocalFile()) {
-            throw new IOException("Subsetting is supported on local files only!");
-        }
         
         //File tabfile = datafile.getFileSystemLocation().toFile();
-        File tabfile = dataAccess.getFileSystemPath().toFile();
+        File tabfile = dataAccess.getLocalCopy().toFile();
         
-        File rotatedImageFile = getRotatedImage(tabfile, getVarCount(), getCaseCount());
-        long[] columnEndOffsets = extractColumnOffsets(rotatedImageFile, getVarCount(), getCaseCount()); 
-        
-        fileChannel = (FileChannel.open(Paths.get(rotatedImageFile.getAbsolutePath()), StandardOpenOption.READ));
+        RotatedImage rotatedImage = RotatedImage.open(getRotatedImage(tabfile, getVarCount(), getCaseCount()), getVarCount());
         
         if (variables == null || variables.size() < 1 || variables.size() > getVarCount()) {
             throw new IOException("Illegal number of variables in the subset request");
         }
         
         subsetcount = variables.size();
-        columnTotalOffsets = new long[subsetcount];
-        columnTotalLengths = new long[subsetcount];
         columnByteBuffers = new ByteBuffer[subsetcount];
-
-
         
-        if (subsetcount == 1) {
-            if (!datafile.getDataTable().getId().equals(variables.get(0).getDataTable().getId())) {
-                throw new IOException("Variable in the subset request does not belong to the datafile.");
-            }
-            dbgLog.fine("single variable subset; setting fileChannel position to "+extractColumnOffset(columnEndOffsets, variables.get(0).getFileOrder()));
-            fileChannel.position(extractColumnOffset(columnEndOffsets, variables.get(0).getFileOrder()));
-            columnTotalLengths[0] = extractColumnLength(columnEndOffsets, variables.get(0).getFileOrder());
-            columnTotalOffsets[0] = 0;
-        } else {
+        if (subsetcount > 1) {
             columnEntries = new byte[subsetcount][];
+        }
 
-            columnBufferSizes = new int[subsetcount];
-            columnBufferOffsets = new int[subsetcount];
-            columnStartOffsets = new long[subsetcount];
-
-            int i = 0;
-            for (DataVariable var : variables) {
-                if (!datafile.getDataTable().getId().equals(var.getDataTable().getId())) {
-                    throw new IOException("Variable in the subset request does not belong to the datafile.");
-                }
-                columnByteBuffers[i] = ByteBuffer.allocate(MAX_COLUMN_BUFFER);
-                columnTotalLengths[i] = extractColumnLength(columnEndOffsets, var.getFileOrder());
-                columnStartOffsets[i] = extractColumnOffset(columnEndOffsets, var.getFileOrder());
-                if (columnTotalLengths[i] < MAX_COLUMN_BUFFER) {
-                    columnByteBuffers[i].limit((int)columnTotalLengths[i]);
-                }
-                fileChannel.position(columnStartOffsets[i]);
-                columnBufferSizes[i] = fileChannel.read(columnByteBuffers[i]);
-                columnBufferOffsets[i] = 0;
-                columnTotalOffsets[i] = columnBufferSizes[i];
-                i++;
+        int i = 0;
+        for (DataVariable var : variables) {
+            if (!datafile.getDataTable().getId().equals(var.getDataTable().getId())) {
+                throw new IOException("Variable in the subset request does not belong to the datafile.");
             }
+            dbgLog.fine("subset column "+i+": offset "+rotatedImage.getColumnOffset(var.getFileOrder()));
+            columnByteBuffers[i] = rotatedImage.getColumn(var.getFileOrder());
+            i++;
         }
     }
     
@@ -165,153 +128,45 @@ public class TabularSubsetGenerator implements SubsetGenerator {
     }
     
     
-    /* 
-     * Note that this method operates on the *absolute* column number, i.e.
-     * the number of the physical column in the tabular file. This is stored
-     * in DataVariable.FileOrder. 
-     * This "column number" should not be confused with the number of column 
-     * in the subset request; a user can request any number of variable 
-     * columns, in an order that doesn't have to follow the physical order
-     * of the columns in the file. 
-    */
-    private long extractColumnOffset(long[] columnEndOffsets, int column) throws IOException {
-        if (columnEndOffsets == null || columnEndOffsets.length <= column) {
-            throw new IOException("Offsets table not initialized; or column out of bounds.");
-        }
-        long columnOffset;
-        
-        if (column > 0) {
-            columnOffset = columnEndOffsets[column - 1];
-        } else {
-            columnOffset = getVarCount() * 8; 
-        }
-        return columnOffset; 
-    }
-    
-    /* 
-     * See the comment for the method above. 
-     */
-    private long extractColumnLength(long[] columnEndOffsets, int column) throws IOException {
-        if (columnEndOffsets == null || columnEndOffsets.length <= column) {
-            throw new IOException("Offsets table not initialized; or column out of bounds.");
-        }
-        long columnLength; 
-        
-        if (column > 0) {
-            columnLength = columnEndOffsets[column] - columnEndOffsets[column - 1];
-        } else {
-            columnLength = columnEndOffsets[0] - varcount * 8;  
-        }
-        
-        return columnLength; 
-    }
-      
-    
-    private void bufferMoreColumnBytes(int column) throws IOException {
-        if (columnTotalOffsets[column] >= columnTotalLengths[column]) {
-            throw new IOException("attempt to buffer bytes past the column boundary");
-        }
-        fileChannel.position(columnStartOffsets[column] + columnTotalOffsets[column]);
-        
-        columnByteBuffers[column].clear();
-        if (columnTotalLengths[column] < columnTotalOffsets[column] + MAX_COLUMN_BUFFER) {
-            dbgLog.fine("Limiting the buffer to "+(columnTotalLengths[column] - columnTotalOffsets[column])+" bytes");
-            columnByteBuffers[column].limit((int) (columnTotalLengths[column] - columnTotalOffsets[column]));
-        }
-        columnBufferSizes[column] = fileChannel.read(columnByteBuffers[column]);
-        dbgLog.fine("Read "+columnBufferSizes[column]+" bytes for subset column "+column);
-        columnBufferOffsets[column] = 0;
-        columnTotalOffsets[column] += columnBufferSizes[column];
-    }
-    
     public byte[] readColumnEntryBytes(int column) {
         return readColumnEntryBytes(column, true);
     }
     
     
     public byte[] readColumnEntryBytes(int column, boolean addTabs) {
-        byte[] leftover = null; 
-        byte[] ret = null; 
+        ByteBuffer columnBuffer = columnByteBuffers[column];
+        int start = columnBuffer.position();
+        int limit = columnBuffer.limit();
         
-        if (columnBufferOffsets[column] >= columnBufferSizes[column]) {
-            try {
-                bufferMoreColumnBytes(column);
-                if (columnBufferSizes[column] < 1) {
-                    return null;
-                }
-            } catch (IOException ioe) {
-                return null; 
-            }
+        int byteindex = start;
+        while (byteindex < limit && columnBuffer.get(byteindex) != '\n') {
+            byteindex++;
         }
-        
-        int byteindex = columnBufferOffsets[column];
-        try {
-            while (columnByteBuffers[column].array()[byteindex] != '\n') {
-                byteindex++;
-                if (byteindex == columnBufferSizes[column]) {
-                    // save the leftover: 
-                    if (leftover == null) {
-                        leftover = new byte[columnBufferSizes[column] - columnBufferOffsets[column]];
-                        System.arraycopy(columnByteBuffers[column].array(), columnBufferOffsets[column], leftover, 0, columnBufferSizes[column] - columnBufferOffsets[column]);
-                    } else {
-                        byte[] merged = new byte[leftover.length + columnBufferSizes[column]];
-                        
-                        System.arraycopy(leftover, 0, merged, 0, leftover.length);
-                        System.arraycopy(columnByteBuffers[column].array(), 0, merged, leftover.length, columnBufferSizes[column]);
-                        leftover = merged;
-                        merged = null; 
-                    }
-                    // read more bytes:
-                    bufferMoreColumnBytes(column);
-                    if (columnBufferSizes[column] < 1) {
-                        return null;
-                    }
-                    byteindex = 0;
-                }
-            }
-
-            // presumably, we have found our '\n':
-            if (leftover == null) {
-                ret = new byte[byteindex - columnBufferOffsets[column] + 1];
-                System.arraycopy(columnByteBuffers[column].array(), columnBufferOffsets[column], ret, 0, byteindex - columnBufferOffsets[column] + 1);
-            } else {
-                ret = new byte[leftover.length + byteindex + 1];
-                System.arraycopy(leftover, 0, ret, 0, leftover.length);
-                System.arraycopy(columnByteBuffers[column].array(), 0, ret, leftover.length, byteindex + 1);
-            }
-
-        } catch (IOException ioe) {
+        if (byteindex == limit) {
+            // no more entries in this column:
             return null;
         }
+        
+        // the entry, including the terminating new line:
+        byte[] ret = new byte[byteindex - start + 1];
+        columnBuffer.get(ret);
 
-        columnBufferOffsets[column] = (byteindex + 1);
-
-        if (column < columnBufferOffsets.length - 1) {
+        if (addTabs && column < columnByteBuffers.length - 1) {
             ret[ret.length - 1] = '\t';
         }
         return ret;
     }
     
     public int readSingleColumnSubset(byte[] buffer) throws IOException {
-        if (columnTotalOffsets[0] == columnTotalLengths[0]) {
+        ByteBuffer columnBuffer = columnByteBuffers[0];
+        if (!columnBuffer.hasRemaining()) {
             return -1;
         }
         
-        if (columnByteBuffers[0] == null) {
-            dbgLog.fine("allocating single column subset buffer.");
-            columnByteBuffers[0] = ByteBuffer.allocate(buffer.length);
-        }
-                
-        int bytesread = fileChannel.read(columnByteBuffers[0]);
+        int bytesread = Math.min(buffer.length, columnBuffer.remaining());
+        columnBuffer.get(buffer, 0, bytesread);
         dbgLog.fine("single column subset: read "+bytesread+" bytes.");
-        if (columnTotalOffsets[0] + bytesread > columnTotalLengths[0]) {
-            bytesread = (int)(columnTotalLengths[0] - columnTotalOffsets[0]);
-        }
-        System.arraycopy(columnByteBuffers[0].array(), 0, buffer, 0, bytesread);
-
-        columnTotalOffsets[0] += bytesread;
-        columnByteBuffers[0].clear();
-        return bytesread > 0 ? bytesread : -1;
+        return bytesread;
     }
     
     
@@ -339,13 +194,9 @@ public class TabularSubsetGenerator implements SubsetGenerator {
     
     
     public void close() {
-        if (fileChannel != null) {
-            try {
-                fileChannel.close();
-            } catch (IOException ioe) {
-                // don't care.
-            }
-        }
+        // the rotated image is mapped and shared; all we hold are views of it.
+        columnByteBuffers = null;
+        columnEntries = null;
     }
     
     public  void subsetFile(String infile, String outfile, Set<Integer> columns, Long numCases) {
@@ -512,6 +363,10 @@ public class TabularSubsetGenerator implements SubsetGenerator {
         return (String[])subsetObjectVector(tabfile, column, varcount, casecount, COLUMN_TYPE_STRING);
     }
     
+    public String[] subsetStringVector(File tabfile, int column, int varcount, int casecount, boolean compatmode) throws IOException {
+        return (String[])subsetObjectVector(tabfile, column, varcount, casecount, COLUMN_TYPE_STRING, compatmode);
+    }
+    
     public Double[] subsetDoubleVector(File tabfile, int column, int varcount, int casecount) throws IOException {
         return (Double[])subsetObjectVector(tabfile, column, varcount, casecount, COLUMN_TYPE_DOUBLE);
     }
@@ -524,7 +379,37 @@ public class TabularSubsetGenerator implements SubsetGenerator {
         return (Float[])subsetObjectVector(tabfile, column, varcount, casecount, COLUMN_TYPE_FLOAT);
     }
     
-    public Object[] subsetObjectVector(DataFile dataFile, int column, int columntype) throws IOException {
+    /*
+     * The methods below return numeric columns as primitive vectors, 
+     * without boxing every value; for calculating summary statistics on 
+     * very long vectors. 
+     */
+    
+    public NumericVector subsetDoubleValues(DataFile datafile, int column) throws IOException {
+        return subsetNumericVector(datafile, column, COLUMN_TYPE_DOUBLE);
+    }
+    
+    public NumericVector subsetLongValues(DataFile datafile, int column) throws IOException {
+        return subsetNumericVector(datafile, column, COLUMN_TYPE_LONG);
+    }
+    
+    public NumericVector subsetFloatValues(DataFile datafile, int column) throws IOException {
+        return subsetNumericVector(datafile, column, COLUMN_TYPE_FLOAT);
+    }
+    
+    public NumericVector subsetDoubleValues(File tabfile, int column, int varcount, int casecount) throws IOException {
+        return subsetNumericVector(tabfile, column, varcount, casecount, COLUMN_TYPE_DOUBLE);
+    }
+    
+    public NumericVector subsetLongValues(File tabfile, int column, int varcount, int casecount) throws IOException {
+        return subsetNumericVector(tabfile, column, varcount, casecount, COLUMN_TYPE_LONG);
+    }
+    
+    public NumericVector subsetFloatValues(File tabfile, int column, int varcount, int casecount) throws IOException {
+        return subsetNumericVector(tabfile, column, varcount, casecount, COLUMN_TYPE_FLOAT);
+    }
+    
+    private NumericVector subsetNumericVector(DataFile dataFile, int column, int columntype) throws IOException {
         if (!dataFile.isTabularData()) {
             throw new IOException("DataFile is not tabular data.");
         }
@@ -537,67 +422,162 @@ public class TabularSubsetGenerator implements SubsetGenerator {
         }
         
         DataFileIO dataAccess = dataFile.getAccessObject();
-        if (!dataAccess.isLocalFile()) {
-            throw new IOException("Subsetting is supported on local files only!");
+        
+        return subsetNumericVector(dataAccess.getLocalCopy().toFile(), column, varcount, casecount, columntype);
+    }
+    
+    /*
+     * Same as subsetObjectVector() above, for the numeric types; the 
+     * values are parsed the same way. Long and Float values are stored as 
+     * doubles, the way they are used for summary statistics and UNFs. 
+     */
+    private NumericVector subsetNumericVector(File tabfile, int column, int varcount, int casecount, int columntype) throws IOException {
+        if (columntype != COLUMN_TYPE_DOUBLE && columntype != COLUMN_TYPE_LONG && columntype != COLUMN_TYPE_FLOAT) {
+            throw new IOException("Unsupported numeric column type: "+columntype);
         }
         
-        //File tabfile = datafile.getFileSystemLocation().toFile();
-        File tabfile = dataAccess.getFileSystemPath().toFile();
-
-        if (columntype == COLUMN_TYPE_STRING) {
-            String filename = dataFile.getFileMetadata().getLabel();
-            if (filename != null) {
-                filename = filename.replaceFirst("^_", "");
-                Integer fnumvalue = null; 
-                try {
-                    fnumvalue = new Integer(filename);
-                } catch (Exception ex){
-                    fnumvalue = null; 
+        double[] values = new double[casecount];
+        BitSet missing = new BitSet(casecount);
+        
+        RotatedImage rotatedImage = RotatedImage.open(getRotatedImage(tabfile, varcount, casecount), varcount);
+        ByteBuffer columnBuffer = rotatedImage.getColumn(column);
+        int columnLength = columnBuffer.limit();
+        // numeric tokens are plain ASCII, so there's no need to decode them 
+        // as UTF8; and they are short, so one reusable buffer will do: 
+        char[] tokenChars = new char[64];
+        
+        int caseindex = 0; 
+        int byteoffset = 0; 
+        
+        for (int bytecount = 0; bytecount < columnLength; bytecount++) {
+            if (columnBuffer.get(bytecount) == '\n') {
+                if (caseindex >= casecount) {
+                    throw new IOException("More than "+casecount+" tokens found in column "+column);
                 }
-                if (fnumvalue != null) {
-                    //if ((fnumvalue.intValue() < 112497)) { // && (fnumvalue.intValue() > 60015)) {
-                    if ((fnumvalue.intValue() < 111931)) { // && (fnumvalue.intValue() > 60015)) {
-                        if (!(fnumvalue.intValue() == 60007
-                                || fnumvalue.intValue() == 59997
-                                || fnumvalue.intValue() == 60015
-                                || fnumvalue.intValue() == 59948
-                                || fnumvalue.intValue() == 60012
-                                || fnumvalue.intValue() == 52585
-                                || fnumvalue.intValue() == 60005
-                                || fnumvalue.intValue() == 60002
-                                || fnumvalue.intValue() == 59954
-                                || fnumvalue.intValue() == 60008
-                                || fnumvalue.intValue() == 54972
-                                || fnumvalue.intValue() == 55010
-                                || fnumvalue.intValue() == 54996
-                                || fnumvalue.intValue() == 53527
-                                || fnumvalue.intValue() == 53546
-                                || fnumvalue.intValue() == 55002
-                                || fnumvalue.intValue() == 55006
-                                || fnumvalue.intValue() == 54998
-                                || fnumvalue.intValue() == 52552
-                                // SPSS/SAV cases with similar issue - compat mode must be disabled
-                                //|| fnumvalue.intValue() == 101826 // temporary - tricky file with accents and v. 16...
-                                || fnumvalue.intValue() == 54618 // another SAV file, with long strings...
-                                || fnumvalue.intValue() == 54619 // [same]
-                                || fnumvalue.intValue() == 57983 
-                                || fnumvalue.intValue() == 58262
-                                || fnumvalue.intValue() == 58288
-                                || fnumvalue.intValue() == 58656
-                                || fnumvalue.intValue() == 59144
-                                // || fnumvalue.intValue() == 69626 [nope!]
-                                )) {
-                            dbgLog.info("\"Old\" file name detected; using \"compatibility mode\" for a character vector subset;");
-                            return subsetObjectVector(tabfile, column, varcount, casecount, columntype, true);
-                        }
+                int tokenLength = bytecount - byteoffset;
+                if (tokenLength > tokenChars.length) {
+                    tokenChars = new char[Math.max(tokenLength, tokenChars.length * 2)];
+                }
+                for (int i = 0; i < tokenLength; i++) {
+                    tokenChars[i] = (char) (columnBuffer.get(byteoffset + i) & 0xFF);
+                }
+                String token = new String(tokenChars, 0, tokenLength);
+                
+                try {
+                    if (columntype == COLUMN_TYPE_LONG) {
+                        values[caseindex] = Long.parseLong(token);
+                    } else if ("".equals(token)) {
+                        // missing value:
+                        missing.set(caseindex);
+                    } else if ("inf".equalsIgnoreCase(token) || "+inf".equalsIgnoreCase(token)) {
+                        values[caseindex] = Double.POSITIVE_INFINITY;
+                    } else if ("-inf".equalsIgnoreCase(token)) {
+                        values[caseindex] = Double.NEGATIVE_INFINITY;
+                    } else if (columntype == COLUMN_TYPE_FLOAT) {
+                        values[caseindex] = Float.parseFloat(token);
+                    } else {
+                        values[caseindex] = Double.parseDouble(token);
                     }
+                } catch (NumberFormatException ex) {
+                    if (columntype != COLUMN_TYPE_LONG) {
+                        dbgLog.warning("NumberFormatException thrown for "+token+" as "+(columntype == COLUMN_TYPE_FLOAT ? "Float" : "Double"));
+                    }
+                    missing.set(caseindex); // assume missing value
                 }
+                
+                caseindex++;
+                byteoffset = bytecount + 1;
             }
         }
+        
+        if (caseindex != casecount) {
+            throw new IOException("Failed to read "+casecount+" tokens for column "+column);
+        }
+        
+        return new NumericVector(values, missing);
+    }
+    
+    public Object[] subsetObjectVector(DataFile dataFile, int column, int columntype) throws IOException {
+        if (!dataFile.isTabularData()) {
+            throw new IOException("DataFile is not tabular data.");
+        }
+         
+        int varcount = dataFile.getDataTable().getVarQuantity().intValue(); 
+        int casecount = dataFile.getDataTable().getCaseQuantity().intValue(); 
+        
+        if (column >= varcount) {
+            throw new IOException("Column "+column+" is out of bounds.");
+        }
+        
+        DataFileIO dataAccess = dataFile.getAccessObject();
+        
+        //File tabfile = datafile.getFileSystemLocation().toFile();
+        File tabfile = dataAccess.getLocalCopy().toFile();
+
+        if (columntype == COLUMN_TYPE_STRING && isCompatibilityModeFile(dataFile)) {
+            dbgLog.info("\"Old\" file name detected; using \"compatibility mode\" for a character vector subset;");
+            return subsetObjectVector(tabfile, column, varcount, casecount, columntype, true);
+        }
 
         return subsetObjectVector(tabfile, column, varcount, casecount, columntype);
     }
     
+    /**
+     * Character vectors of some early files must be subset in 
+     * "compatibility mode", to reproduce the UNFs calculated for them at the 
+     * time; these files are recognized by their (numeric) names. 
+     */
+    public boolean isCompatibilityModeFile(DataFile dataFile) {
+        String filename = dataFile.getFileMetadata().getLabel();
+        if (filename != null) {
+            filename = filename.replaceFirst("^_", "");
+            Integer fnumvalue = null; 
+            try {
+                fnumvalue = new Integer(filename);
+            } catch (Exception ex){
+                fnumvalue = null; 
+            }
+            if (fnumvalue != null) {
+                //if ((fnumvalue.intValue() < 112497)) { // && (fnumvalue.intValue() > 60015)) {
+                if ((fnumvalue.intValue() < 111931)) { // && (fnumvalue.intValue() > 60015)) {
+                    if (!(fnumvalue.intValue() == 60007
+                            || fnumvalue.intValue() == 59997
+                            || fnumvalue.intValue() == 60015
+                            || fnumvalue.intValue() == 59948
+                            || fnumvalue.intValue() == 60012
+                            || fnumvalue.intValue() == 52585
+                            || fnumvalue.intValue() == 60005
+                            || fnumvalue.intValue() == 60002
+                            || fnumvalue.intValue() == 59954
+                            || fnumvalue.intValue() == 60008
+                            || fnumvalue.intValue() == 54972
+                            || fnumvalue.intValue() == 55010
+                            || fnumvalue.intValue() == 54996
+                            || fnumvalue.intValue() == 53527
+                            || fnumvalue.intValue() == 53546
+                            || fnumvalue.intValue() == 55002
+                            || fnumvalue.intValue() == 55006
+                            || fnumvalue.intValue() == 54998
+                            || fnumvalue.intValue() == 52552
+                            // SPSS/SAV cases with similar issue - compat mode must be disabled
+                            //|| fnumvalue.intValue() == 101826 // temporary - tricky file with accents and v. 16...
+                            || fnumvalue.intValue() == 54618 // another SAV file, with long strings...
+                            || fnumvalue.intValue() == 54619 // [same]
+                            || fnumvalue.intValue() == 57983 
+                            || fnumvalue.intValue() == 58262
+                            || fnumvalue.intValue() == 58288
+                            || fnumvalue.intValue() == 58656
+                            || fnumvalue.intValue() == 59144
+                            // || fnumvalue.intValue() == 69626 [nope!]
+                            )) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+    
     public Object[] subsetObjectVector(File tabfile, int column, int varcount, int casecount, int columntype) throws IOException {
         return subsetObjectVector(tabfile, column, varcount, casecount, columntype, false);
     }
@@ -631,249 +611,156 @@ public class TabularSubsetGenerator implements SubsetGenerator {
             throw new IOException("Unsupported column type: "+columntype);
         }
         
-        File rotatedImageFile = getRotatedImage(tabfile, varcount, casecount);
-        long[] columnEndOffsets = extractColumnOffsets(rotatedImageFile, varcount, casecount); 
-        long columnOffset = 0; 
-        long columnLength = 0; 
-        
-        if (column > 0) {
-            columnOffset = columnEndOffsets[column - 1];
-            columnLength = columnEndOffsets[column] - columnEndOffsets[column - 1];
-        } else {
-            columnOffset = varcount * 8; 
-            columnLength = columnEndOffsets[0] - varcount * 8;  
-        }
-        
-        FileChannel fc = (FileChannel.open(Paths.get(rotatedImageFile.getAbsolutePath()), StandardOpenOption.READ));
-        fc.position(columnOffset);
-        int MAX_COLUMN_BUFFER = 8192;
+        RotatedImage rotatedImage = RotatedImage.open(getRotatedImage(tabfile, varcount, casecount), varcount);
         
-        ByteBuffer in = ByteBuffer.allocate(MAX_COLUMN_BUFFER);
-        
-        if (columnLength < MAX_COLUMN_BUFFER) {
-          in.limit((int)(columnLength));
-        }
+        // The column is read straight from the mapped image; the entries are 
+        // only copied (into a reusable buffer) to be decoded as UTF8 - 
+        // and they must be decoded whole, since a multi-byte UTF8 character 
+        // could otherwise be split in two. 
+        ByteBuffer columnBuffer = rotatedImage.getColumn(column);
+        int columnLength = columnBuffer.limit();
+        byte[] tokenBytes = new byte[256];
         
-        long bytesRead = 0;
-        long bytesReadTotal = 0;
         int caseindex = 0; 
         int byteoffset = 0; 
-        byte[] leftover = null; 
         
-        while (bytesReadTotal < columnLength) {
-            bytesRead = fc.read(in);
-            byte[] columnBytes = in.array();
-            int bytecount = 0; 
-
-            
-            while (bytecount < bytesRead) {
-                if (columnBytes[bytecount] == '\n') {
-                    /*
-                    String token = new String(columnBytes, byteoffset, bytecount-byteoffset, "UTF8");
-
-                    if (leftover != null) {
-                        String leftoverString = new String (leftover, "UTF8");
-                        token = leftoverString + token;
-                        leftover = null;
-                    }
-                    */
-                    /* 
-                     * Note that the way I was doing it at first - above - 
-                     * was not quite the correct way - because I was creating UTF8
-                     * strings from the leftover bytes, and the bytes in the 
-                     * current buffer *separately*; which means, if a multi-byte
-                     * UTF8 character got split in the middle between one buffer
-                     * and the next, both chunks of it would become junk 
-                     * characters, on each side!
-                     * The correct way of doing it, of course, is to create a
-                     * merged byte buffer, and then turn it into a UTF8 string. 
-                     *      -- L.A. 4.0
-                     */
-                    String token = null; 
-                    
-                    if (leftover == null) {
-                        token = new String(columnBytes, byteoffset, bytecount-byteoffset, "UTF8");
+        for (int bytecount = 0; bytecount < columnLength; bytecount++) {
+            if (columnBuffer.get(bytecount) == '\n') {
+                if (caseindex >= casecount) {
+                    throw new IOException("More than "+casecount+" tokens found in column "+column);
+                }
+                int tokenLength = bytecount - byteoffset;
+                if (tokenLength > tokenBytes.length) {
+                    tokenBytes = new byte[Math.max(tokenLength, tokenBytes.length * 2)];
+                }
+                columnBuffer.position(byteoffset);
+                columnBuffer.get(tokenBytes, 0, tokenLength);
+                String token = new String(tokenBytes, 0, tokenLength, "UTF8");
+                
+                if (isString) {
+                    if ("".equals(token)) {
+                        // An empty string is a string missing value!
+                        // An empty string in quotes is an empty string!
+                        retVector[caseindex] = null;
                     } else {
-                        byte[] merged = new byte[leftover.length + bytecount-byteoffset];
-                        
-                        System.arraycopy(leftover, 0, merged, 0, leftover.length);
-                        System.arraycopy(columnBytes, byteoffset, merged, leftover.length, bytecount-byteoffset);
-                        token = new String (merged, "UTF8");
-                        leftover = null;
-                        merged = null; 
-                    }
+                        // Strip the outer quotes:
+                        token = token.replaceFirst("^\\\"", "");
+                        token = token.replaceFirst("\\\"$", "");
                     
-                    if (isString) {
-                        if ("".equals(token)) {
-                            // An empty string is a string missing value!
-                            // An empty string in quotes is an empty string!
-                            retVector[caseindex] = null;
-                        } else {
-                            // Strip the outer quotes:
-                            token = token.replaceFirst("^\\\"", "");
-                            token = token.replaceFirst("\\\"$", "");
-                            
-                            // We need to restore the special characters that 
-                            // are stored in tab files escaped - quotes, new lines 
-                            // and tabs. Before we do that however, we need to 
-                            // take care of any escaped backslashes stored in 
-                            // the tab file. I.e., "foo\t" should be transformed 
-                            // to "foo<TAB>"; but "foo\\t" should be transformed 
-                            // to "foo\t". This way new lines and tabs that were
-                            // already escaped in the original data are not 
-                            // going to be transformed to unescaped tab and 
-                            // new line characters!
-                            
-                            String[] splitTokens = token.split(Matcher.quoteReplacement("\\\\"), -2);
-                            
-                            // (note that it's important to use the 2-argument version 
-                            // of String.split(), and set the limit argument to a
-                            // negative value; otherwise any trailing backslashes 
-                            // are lost.)
-                            
-                            for (int i = 0; i < splitTokens.length; i++) {
-                                splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\\""), "\"");
-                                splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\t"), "\t");
-                                splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\n"), "\n");
-                                splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\r"), "\r");
-                            }
-                            // TODO: 
-                            // Make (some of?) the above optional; for ex., we 
-                            // do need to restore the newlines when calculating UNFs;
-                            // But if we are subsetting these vectors in order to 
-                            // create a new tab-delimited file, they will 
-                            // actually break things! -- L.A. Jul. 28 2014
-                            
-                            token = StringUtils.join(splitTokens, '\\');
-                            
-                            // "compatibility mode" - a hack, to be able to produce
-                            // unfs identical to those produced by the "early" 
-                            // unf5 jar; will be removed in production 4.0. 
-                            // -- L.A. (TODO: ...)
-                            if (compatmode && !"".equals(token)) {
-                                if (token.length() > 128) {
-                                    if ("".equals(token.trim())) {
-                                        // don't ask... 
-                                        token = token.substring(0, 129);
-                                    } else {
-                                        token = token.substring(0, 128);
-                                        //token = String.format(loc, "%.128s", token);
-                                        token = token.trim();
-                                        //dbgLog.info("formatted and trimmed: "+token);
-                                    }
+                        // We need to restore the special characters that 
+                        // are stored in tab files escaped - quotes, new lines 
+                        // and tabs. Before we do that however, we need to 
+                        // take care of any escaped backslashes stored in 
+                        // the tab file. I.e., "foo\t" should be transformed 
+                        // to "foo<TAB>"; but "foo\\t" should be transformed 
+                        // to "foo\t". This way new lines and tabs that were
+                        // already escaped in the original data are not 
+                        // going to be transformed to unescaped tab and 
+                        // new line characters!
+                    
+                        String[] splitTokens = token.split(Matcher.quoteReplacement("\\\\"), -2);
+                    
+                        // (note that it's important to use the 2-argument version 
+                        // of String.split(), and set the limit argument to a
+                        // negative value; otherwise any trailing backslashes 
+                        // are lost.)
+                    
+                        for (int i = 0; i < splitTokens.length; i++) {
+                            splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\\""), "\"");
+                            splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\t"), "\t");
+                            splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\n"), "\n");
+                            splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\r"), "\r");
+                        }
+                        // TODO: 
+                        // Make (some of?) the above optional; for ex., we 
+                        // do need to restore the newlines when calculating UNFs;
+                        // But if we are subsetting these vectors in order to 
+                        // create a new tab-delimited file, they will 
+                        // actually break things! -- L.A. Jul. 28 2014
+                    
+                        token = StringUtils.join(splitTokens, '\\');
+                    
+                        // "compatibility mode" - a hack, to be able to produce
+                        // unfs identical to those produced by the "early" 
+                        // unf5 jar; will be removed in production 4.0. 
+                        // -- L.A. (TODO: ...)
+                        if (compatmode && !"".equals(token)) {
+                            if (token.length() > 128) {
+                                if ("".equals(token.trim())) {
+                                    // don't ask... 
+                                    token = token.substring(0, 129);
                                 } else {
-                                    if ("".equals(token.trim())) {
-                                        // again, don't ask; 
-                                        // - this replicates some bugginness 
-                                        // that happens inside unf5;
-                                        token = "null";
-                                    } else {
-                                        token = token.trim();
-                                    }
+                                    token = token.substring(0, 128);
+                                    //token = String.format(loc, "%.128s", token);
+                                    token = token.trim();
+                                    //dbgLog.info("formatted and trimmed: "+token);
                                 }
-                            }
-                            
-                            retVector[caseindex] = token;
-                        }
-                    } else if (isDouble) {
-                        try {
-                            // TODO: verify that NaN and +-Inf are 
-                            // handled correctly here! -- L.A.
-                            // Verified: new Double("nan") works correctly, 
-                            // resulting in Double.NaN;
-                            // Double("[+-]Inf") doesn't work however; 
-                            // (the constructor appears to be expecting it
-                            // to be spelled as "Infinity", "-Infinity", etc. 
-                            if ("inf".equalsIgnoreCase(token) || "+inf".equalsIgnoreCase(token)) {
-                                retVector[caseindex] = java.lang.Double.POSITIVE_INFINITY;
-                            } else if ("-inf".equalsIgnoreCase(token)) {
-                                retVector[caseindex] = java.lang.Double.NEGATIVE_INFINITY;
-                            } else if (token == null || token.equals("")) {
-                                // missing value:
-                                retVector[caseindex] = null;
                             } else {
-                                retVector[caseindex] = new Double(token);
-                            }
-                        } catch (NumberFormatException ex) {
-                            dbgLog.warning("NumberFormatException thrown for "+token+" as Double");
-
-                            retVector[caseindex] = null; // missing value
-                            // TODO: ?
-                        }
-                    } else if (isLong) {
-                        try {
-                            retVector[caseindex] = new Long(token);
-                        } catch (NumberFormatException ex) {
-                            retVector[caseindex] = null; // assume missing value
-                        }
-                    } else if (isFloat) {
-                        try {
-                            if ("inf".equalsIgnoreCase(token) || "+inf".equalsIgnoreCase(token)) {
-                                retVector[caseindex] = java.lang.Float.POSITIVE_INFINITY;
-                            } else if ("-inf".equalsIgnoreCase(token)) {
-                                retVector[caseindex] = java.lang.Float.NEGATIVE_INFINITY;
-                            } else if (token == null || token.equals("")) {
-                                // missing value:
-                                retVector[caseindex] = null;
-                            } else {
-                                retVector[caseindex] = new Float(token);
+                                if ("".equals(token.trim())) {
+                                    // again, don't ask; 
+                                    // - this replicates some bugginness 
+                                    // that happens inside unf5;
+                                    token = "null";
+                                } else {
+                                    token = token.trim();
+                                }
                             }
-                        } catch (NumberFormatException ex) {
-                            dbgLog.warning("NumberFormatException thrown for "+token+" as Float");
-                            retVector[caseindex] = null; // assume missing value (TODO: ?)
                         }
-                    }
-                    caseindex++;
                     
-                    if (bytecount == bytesRead - 1) {
-                        byteoffset = 0;
-                    } else {
-                        byteoffset = bytecount + 1;
+                        retVector[caseindex] = token;
                     }
-                } else {
-                    if (bytecount == bytesRead - 1) {
-                        // We've reached the end of the buffer; 
-                        // This means we'll save whatever unused bytes left in 
-                        // it - i.e., the bytes between the last new line 
-                        // encountered and the end - in the leftover buffer. 
-                        
-                        // *EXCEPT*, there may be a case of a very long String
-                        // that is actually longer than MAX_COLUMN_BUFFER, in 
-                        // which case it is possible that we've read through
-                        // an entire buffer of bytes without finding any 
-                        // new lines... in this case we may need to add this
-                        // entire byte buffer to an already existing leftover 
-                        // buffer!
-                        if (leftover == null) {
-                            leftover = new byte[(int)bytesRead - byteoffset];
-                            System.arraycopy(columnBytes, byteoffset, leftover, 0, (int)bytesRead - byteoffset);
+                } else if (isDouble) {
+                    try {
+                        // TODO: verify that NaN and +-Inf are 
+                        // handled correctly here! -- L.A.
+                        // Verified: new Double("nan") works correctly, 
+                        // resulting in Double.NaN;
+                        // Double("[+-]Inf") doesn't work however; 
+                        // (the constructor appears to be expecting it
+                        // to be spelled as "Infinity", "-Infinity", etc. 
+                        if ("inf".equalsIgnoreCase(token) || "+inf".equalsIgnoreCase(token)) {
+                            retVector[caseindex] = java.lang.Double.POSITIVE_INFINITY;
+                        } else if ("-inf".equalsIgnoreCase(token)) {
+                            retVector[caseindex] = java.lang.Double.NEGATIVE_INFINITY;
+                        } else if (token == null || token.equals("")) {
+                            // missing value:
+                            retVector[caseindex] = null;
                         } else {
-                            if (byteoffset != 0) {
-                                throw new IOException("Reached the end of the byte buffer, with some leftover left from the last read; yet the offset is not zero!");
-                            }
-                            byte[] merged = new byte[leftover.length + (int)bytesRead];
-
-                            System.arraycopy(leftover, 0, merged, 0, leftover.length);
-                            System.arraycopy(columnBytes, byteoffset, merged, leftover.length, (int)bytesRead);
-                            //leftover = null;
-                            leftover = merged;
-                            merged = null;   
+                            retVector[caseindex] = new Double(token);
                         }
-                        byteoffset = 0;
+                    } catch (NumberFormatException ex) {
+                        dbgLog.warning("NumberFormatException thrown for "+token+" as Double");
 
+                        retVector[caseindex] = null; // missing value
+                        // TODO: ?
+                    }
+                } else if (isLong) {
+                    try {
+                        retVector[caseindex] = new Long(token);
+                    } catch (NumberFormatException ex) {
+                        retVector[caseindex] = null; // assume missing value
+                    }
+                } else if (isFloat) {
+                    try {
+                        if ("inf".equalsIgnoreCase(token) || "+inf".equalsIgnoreCase(token)) {
+                            retVector[caseindex] = java.lang.Float.POSITIVE_INFINITY;
+                        } else if ("-inf".equalsIgnoreCase(token)) {
+                            retVector[caseindex] = java.lang.Float.NEGATIVE_INFINITY;
+                        } else if (token == null || token.equals("")) {
+                            // missing value:
+                            retVector[caseindex] = null;
+                        } else {
+                            retVector[caseindex] = new Float(token);
+                        }
+                    } catch (NumberFormatException ex) {
+                        dbgLog.warning("NumberFormatException thrown for "+token+" as Float");
+                        retVector[caseindex] = null; // assume missing value (TODO: ?)
                     }
                 }
-                bytecount++;
-            }
-            
-            bytesReadTotal += bytesRead; 
-            in.clear();
-            if (columnLength - bytesReadTotal < MAX_COLUMN_BUFFER) {
-                in.limit((int)(columnLength - bytesReadTotal));
+                caseindex++;
+                byteoffset = bytecount + 1;
             }
         }
-        
-        fc.close();
 
         if (caseindex != casecount) {
             throw new IOException("Faile to read "+casecount+" tokens for column "+column);
@@ -883,45 +770,13 @@ public class TabularSubsetGenerator implements SubsetGenerator {
         return retVector; 
     }
     
-    private long[] extractColumnOffsets (File rotatedImageFile, int varcount, int casecount) throws IOException {
-         BufferedInputStream rotfileStream = new BufferedInputStream(new FileInputStream(rotatedImageFile));
-        
-        byte[] offsetHeader = new byte[varcount * 8];
-        long[] byteOffsets = new long[varcount];
-        
-        
-        int readlen = rotfileStream.read(offsetHeader); 
-        
-        if (readlen != varcount * 8) {
-            throw new IOException ("Could not read "+varcount*8+" header bytes from the rotated file.");
-        }
-        
-        for (int varindex = 0; varindex < varcount; varindex++) {
-            byte[] offsetBytes = new byte[8];
-            System.arraycopy(offsetHeader, varindex*8, offsetBytes, 0, 8);
-           
-            ByteBuffer offsetByteBuffer = ByteBuffer.wrap(offsetBytes);
-            byteOffsets[varindex] = offsetByteBuffer.getLong();
-            
-            //System.out.println(byteOffsets[varindex]);
-        }
-        
-        rotfileStream.close(); 
-        
-        return byteOffsets; 
-    }
-    
-    private File getRotatedImage(File tabfile, int varcount, int casecount)  throws IOException {
+    private File getRotatedImage(final File tabfile, final int varcount, final int casecount)  throws IOException {
         String fileName = tabfile.getAbsolutePath();
         String rotatedImageFileName = fileName + ".90d";
-        File rotatedImageFile = new File(rotatedImageFileName); 
-        if (rotatedImageFile.exists()) {
-            //System.out.println("Image already exists!");
-            return rotatedImageFile;
-        }
-        
-        return generateRotatedImage(tabfile, varcount, casecount);
-        
+        // (made by one request at a time, and kept within the derivative 
+        // cache budget)
+        return DerivativeCache.getInstance().get(Paths.get(rotatedImageFileName),
+                () -> generateRotatedImage(tabfile, varcount, casecount)).toFile();
     }
     
     private File generateRotatedImage (File tabfile, int varcount, int casecount) throws IOException {
@@ -1039,7 +894,11 @@ public class TabularSubsetGenerator implements SubsetGenerator {
         // We now need to go through all these buffers and create the final 
         // rotated image file. 
         
-        BufferedOutputStream finalOut = new BufferedOutputStream(new FileOutputStream (new File(rotatedImageFileName)));
+        // The image is written into a temp file first, and then moved in 
+        // place, so that a concurrent request never maps a partially written
+        // image. 
+        File rotatedImageTempFile = File.createTempFile("rotatedImage", ".tmp", tabfile.getAbsoluteFile().getParentFile());
+        BufferedOutputStream finalOut = new BufferedOutputStream(new FileOutputStream (rotatedImageTempFile));
         
         // but first we should create the offset header and write it out into 
         // the final file; because it should be at the head, doh!
@@ -1080,6 +939,7 @@ public class TabularSubsetGenerator implements SubsetGenerator {
             
             if (cachedBytesRead != cachedfileSizes[varindex]) {
                 finalOut.close();
+                rotatedImageTempFile.delete();
                 throw new IOException("Could not read the correct number of bytes cached for column "+varindex+"; "+
                         cachedfileSizes[varindex] + " bytes expected, "+cachedBytesRead+" read.");
             }
@@ -1093,7 +953,10 @@ public class TabularSubsetGenerator implements SubsetGenerator {
         }
         
         finalOut.close();
-        return new File(rotatedImageFileName);
+        File rotatedImageFile = new File(rotatedImageFileName);
+        Files.move(rotatedImageTempFile.toPath(), rotatedImageFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        RotatedImage.invalidate(rotatedImageFile);
+        return rotatedImageFile;
 
     }
   
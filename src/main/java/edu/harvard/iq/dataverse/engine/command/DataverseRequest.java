@@ -1,5 +1,6 @@
 package edu.harvard.iq.dataverse.engine.command;
 
+import edu.harvard.iq.dataverse.PermissionMemo;
 import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddress;
 import edu.harvard.iq.dataverse.authorization.users.User;
 import java.util.logging.Level;
@@ -17,6 +18,7 @@ public class DataverseRequest {
     
     private final User user;
     private final IpAddress sourceAddress;
+    private final PermissionMemo permissionMemo = new PermissionMemo();
     private static final Logger logger = Logger.getLogger(DataverseRequest.class.getCanonicalName());
     
     public DataverseRequest(User aUser, HttpServletRequest aHttpServletRequest) {
@@ -83,6 +85,13 @@ public class DataverseRequest {
         return sourceAddress;
     }
 
+    /**
+     * @return Permissions already computed in the context of this request.
+     */
+    public PermissionMemo getPermissionMemo() {
+        return permissionMemo;
+    }
+
     
     @Override
     public String toString() {
@@ -90,6 +90,10 @@ public class DeaccessionDatasetVersionCommand extends AbstractCommand<DatasetVer
         
         Dataset managedDs = ctxt.em().merge(managed.getDataset());
         
+        // and mark the dataset's OAI records as removed, unless it still has
+        // a released version:
+        ctxt.oaiRecords().updateOaiRecordsForDataset(managedDs);
+        
         return managed;
     }
     
@@ -5,6 +5,7 @@ import edu.harvard.iq.dataverse.search.IndexServiceBean;
 import edu.harvard.iq.dataverse.authorization.Permission;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import edu.harvard.iq.dataverse.dataaccess.DataFileIO;
+import edu.harvard.iq.dataverse.dataaccess.DerivativeCache;
 import edu.harvard.iq.dataverse.engine.command.AbstractVoidCommand;
 import edu.harvard.iq.dataverse.engine.command.CommandContext;
 import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
@@ -154,6 +155,7 @@ public class DeleteDataFileCommand extends AbstractVoidCommand {
                 try {
                     logger.log(Level.FINE, "Deleting cached file {0}", deadFile.toString());
                     Files.delete(deadFile);
+                    DerivativeCache.getInstance().forget(deadFile);
                 } catch (IOException ex) {
                     failures.add(deadFile.toString());
                 }
@@ -2,8 +2,6 @@ package edu.harvard.iq.dataverse.engine.command.impl;
 
 import edu.harvard.iq.dataverse.Dataverse;
 import edu.harvard.iq.dataverse.DataverseFieldTypeInputLevel;
-import edu.harvard.iq.dataverse.authorization.DataverseRole;
-import edu.harvard.iq.dataverse.RoleAssignment;
 import edu.harvard.iq.dataverse.authorization.Permission;
 import edu.harvard.iq.dataverse.authorization.groups.impl.explicit.ExplicitGroup;
 import edu.harvard.iq.dataverse.engine.command.AbstractVoidCommand;
@@ -52,14 +50,8 @@ public class DeleteDataverseCommand extends AbstractVoidCommand {
          ctxt.em().remove(merged);
          } */
         
-        // ASSIGNMENTS
-        for ( RoleAssignment ra : ctxt.roles().directRoleAssignments(doomed) ) {
-            ctxt.em().remove(ra);
-        }
-        // ROLES
-        for ( DataverseRole ra : ctxt.roles().findByOwnerId(doomed.getId()) ) {
-            ctxt.em().remove(ra);
-        }
+        // ASSIGNMENTS AND ROLES
+        ctxt.roles().removeAllFor(doomed);
         
         // EXPLICIT GROUPS
         for ( ExplicitGroup eg : ctxt.em().createNamedQuery("ExplicitGroup.findByOwnerId", ExplicitGroup.class)
@@ -3,9 +3,7 @@ package edu.harvard.iq.dataverse.engine.command.impl;
 import edu.harvard.iq.dataverse.DataFile;
 import edu.harvard.iq.dataverse.Dataset;
 import edu.harvard.iq.dataverse.Dataverse;
-import edu.harvard.iq.dataverse.authorization.DataverseRole;
 import edu.harvard.iq.dataverse.search.IndexServiceBean;
-import edu.harvard.iq.dataverse.RoleAssignment;
 import edu.harvard.iq.dataverse.authorization.Permission;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import edu.harvard.iq.dataverse.authorization.users.User;
@@ -15,10 +13,12 @@ import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
 import edu.harvard.iq.dataverse.engine.command.RequiredPermissions;
 import edu.harvard.iq.dataverse.engine.command.exception.CommandException;
 import edu.harvard.iq.dataverse.engine.command.exception.PermissionException;
+import edu.harvard.iq.dataverse.harvest.server.OAIRecord;
 import edu.harvard.iq.dataverse.search.IndexResponse;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Level;
@@ -72,20 +72,22 @@ public class DestroyDatasetCommand extends AbstractVoidCommand {
         }
         
         
-        // ASSIGNMENTS
-        for (RoleAssignment ra : ctxt.roles().directRoleAssignments(doomed)) {
-            ctxt.em().remove(ra);
-        }
-        // ROLES
-        for (DataverseRole ra : ctxt.roles().findByOwnerId(doomed.getId())) {
-            ctxt.em().remove(ra);
-        }   
+        // ASSIGNMENTS AND ROLES
+        ctxt.roles().removeAllFor(doomed);
         
         //Register Cache
         if(ctxt.settings().getValueForKey(SettingsServiceBean.Key.DoiProvider, "").equals("DataCite")){
             ctxt.doiDataCite().deleteRecordFromCache(doomed);
         }
 
+        // the harvesters should be told the dataset is gone:
+        if (doomed.getGlobalId() != null) {
+            List<OAIRecord> oaiRecords = ctxt.oaiRecords().findOaiRecordsByGlobalId(doomed.getGlobalId());
+            if (oaiRecords != null) {
+                ctxt.oaiRecords().markOaiRecordsAsRemoved(oaiRecords, new Date(), logger);
+            }
+        }
+
         Dataverse toReIndex = managedDoomed.getOwner();
 
         // dataset
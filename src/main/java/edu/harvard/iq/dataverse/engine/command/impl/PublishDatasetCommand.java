@@ -12,8 +12,6 @@ import edu.harvard.iq.dataverse.DatasetFieldConstant;
 import edu.harvard.iq.dataverse.DatasetVersionUser;
 import edu.harvard.iq.dataverse.DatasetVersion;
 import edu.harvard.iq.dataverse.Dataverse;
-import edu.harvard.iq.dataverse.RoleAssignment;
-import edu.harvard.iq.dataverse.UserNotification;
 import edu.harvard.iq.dataverse.authorization.Permission;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import edu.harvard.iq.dataverse.engine.command.AbstractCommand;
@@ -22,23 +20,19 @@ import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
 import edu.harvard.iq.dataverse.engine.command.RequiredPermissions;
 import edu.harvard.iq.dataverse.engine.command.exception.CommandException;
 import edu.harvard.iq.dataverse.engine.command.exception.IllegalCommandException;
-import edu.harvard.iq.dataverse.export.ExportException;
-import edu.harvard.iq.dataverse.export.ExportService;
 import edu.harvard.iq.dataverse.privateurl.PrivateUrl;
-import edu.harvard.iq.dataverse.search.IndexResponse;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import static edu.harvard.iq.dataverse.util.json.JsonPrinter.jsonAsDatasetDto;
 import java.io.FileOutputStream;
-import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.ResourceBundle;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.json.JsonObjectBuilder;
 
@@ -129,16 +123,10 @@ public class PublishDatasetCommand extends AbstractCommand<Dataset> {
             }
         }
         
-        if (theDataset.getPublicationDate() == null) {
-            //Before setting dataset to released send notifications to users with download file
-            List<RoleAssignment> ras = ctxt.roles().directRoleAssignments(theDataset);
-            for (RoleAssignment ra : ras) {
-                if (ra.getRole().permissions().contains(Permission.DownloadFile)) {
-                    for (AuthenticatedUser au : ctxt.roleAssignees().getExplicitUsers(ctxt.roleAssignees().getRoleAssignee(ra.getAssigneeIdentifier()))) {
-                        ctxt.notifications().sendNotification(au, new Timestamp(new Date().getTime()), UserNotification.Type.ASSIGNROLE, theDataset.getId());
-                    }
-                }
-            }
+        boolean firstPublication = theDataset.getPublicationDate() == null;
+        if (firstPublication) {
+            // (the users with download file permission are notified by the 
+            // NOTIFY post-publish task)
             theDataset.setPublicationDate(new Timestamp(new Date().getTime()));
             theDataset.setReleaseUser((AuthenticatedUser) getUser());
             if (!minorRelease) {
@@ -164,20 +152,15 @@ public class PublishDatasetCommand extends AbstractCommand<Dataset> {
         theDataset.getEditVersion().setInReview(false);
         theDataset.getEditVersion().setVersionState(DatasetVersion.VersionState.RELEASED);
 
+        List<DataFile> newlyPublishedFiles = new ArrayList<>();
         for (DataFile dataFile : theDataset.getFiles()) {
             if (dataFile.getPublicationDate() == null) {
                 // this is a new, previously unpublished file, so publish by setting date
                 dataFile.setPublicationDate(updateTime);
 
-                // check if any prexisting roleassignments have file download and send notifications
-                List<RoleAssignment> ras = ctxt.roles().directRoleAssignments(dataFile);
-                for (RoleAssignment ra : ras) {
-                    if (ra.getRole().permissions().contains(Permission.DownloadFile)) {
-                        for (AuthenticatedUser au : ctxt.roleAssignees().getExplicitUsers(ctxt.roleAssignees().getRoleAssignee(ra.getAssigneeIdentifier()))) {
-                            ctxt.notifications().sendNotification(au, new Timestamp(new Date().getTime()), UserNotification.Type.GRANTFILEACCESS, theDataset.getId());
-                        }
-                    }
-                }
+                // (users with pre-existing roles with file download on it 
+                // are notified by the NOTIFY post-publish task)
+                newlyPublishedFiles.add(dataFile);
             }
 
             // set the files restriction flag to the same as the latest version's
@@ -189,24 +172,6 @@ public class PublishDatasetCommand extends AbstractCommand<Dataset> {
         theDataset.setFileAccessRequest(theDataset.getLatestVersion().getTermsOfUseAndAccess().isFileAccessRequest());
         
         
-        /*
-            Attempting to run metadata export, for all the formats for which 
-            we have metadata Exporters:
-        */
-        
-        try {
-            ExportService instance = ExportService.getInstance();
-            instance.exportAllFormats(theDataset);
-
-        } catch (ExportException ex) {
-            // Something went wrong!  
-            // Just like with indexing, a failure to export is not a fatal 
-            // condition. We'll just log the error as a warning and keep 
-            // going: 
-            logger.log(Level.WARNING, "Exception while exporting:" + ex.getMessage());
-        }
-        
-        
         Dataset savedDataset = ctxt.em().merge(theDataset);
 
         // set the subject of the parent (all the way up) Dataverses
@@ -217,11 +182,12 @@ public class PublishDatasetCommand extends AbstractCommand<Dataset> {
                 break;
             }
         }
+        List<Dataverse> changedDataverses = new ArrayList<>();
         if (subject != null) {
             Dataverse dv = savedDataset.getOwner();
             while (dv != null) {
                 if (dv.getDataverseSubjects().addAll(subject.getControlledVocabularyValues())) {
-                    ctxt.index().indexDataverse(dv); // need to reindex to capture the new subjects
+                    changedDataverses.add(dv); // need to reindex to capture the new subjects
                 }
                 dv = dv.getOwner();
             }
@@ -243,24 +209,6 @@ public class PublishDatasetCommand extends AbstractCommand<Dataset> {
             ctxt.em().merge(datasetDataverseUser);
         }
 
-        if (protocol.equals("doi")
-                && doiProvider.equals("EZID")) {
-            ctxt.doiEZId().publicizeIdentifier(savedDataset);
-        }
-        if (protocol.equals("doi")
-                && doiProvider.equals("DataCite")) {
-            try {
-                ctxt.doiDataCite().publicizeIdentifier(savedDataset);
-            } catch (IOException io) {
-                throw new CommandException(ResourceBundle.getBundle("Bundle").getString("dataset.publish.error.datacite"), this);
-            } catch (Exception e) {
-                if (e.toString().contains("Internal Server Error")) {
-                    throw new CommandException(ResourceBundle.getBundle("Bundle").getString("dataset.publish.error.datacite"), this);
-                }
-                throw new CommandException(ResourceBundle.getBundle("Bundle").getString("dataset.publish.error.datacite"), this);
-            }
-        }
-
         PrivateUrl privateUrl = ctxt.engine().submit(new GetPrivateUrlCommand(getRequest(), savedDataset));
         if (privateUrl != null) {
             logger.fine("Deleting Private URL for dataset id " + savedDataset.getId());
@@ -268,19 +216,15 @@ public class PublishDatasetCommand extends AbstractCommand<Dataset> {
         }
 
         /*
-        MoveIndexing to after DOI update so that if command exception is thrown the re-index will not
-        
-         */
-        
-        boolean doNormalSolrDocCleanUp = true;
-        ctxt.index().indexDataset(savedDataset, doNormalSolrDocCleanUp);
-        /**
-         * @todo consider also ctxt.solrIndex().indexPermissionsOnSelfAndChildren(theDataset);
-         */
-        /**
-         * @todo what should we do with the indexRespose?
-         */
-        IndexResponse indexResponse = ctxt.solrIndex().indexPermissionsForOneDvObject(savedDataset);
+            Making the DOI public, exporting the metadata, indexing and 
+            notifying users are all left to the post-publish tasks, recorded 
+            here in this transaction, and carried out - and retried, if need
+            be - once it commits. 
+        */
+        boolean publicizeIdentifier = protocol.equals("doi")
+                && (doiProvider.equals("EZID") || doiProvider.equals("DataCite"));
+        ctxt.outbox().enqueuePostPublish(savedDataset, publicizeIdentifier ? doiProvider : null,
+                firstPublication, newlyPublishedFiles, changedDataverses);
 
         return savedDataset;
     }
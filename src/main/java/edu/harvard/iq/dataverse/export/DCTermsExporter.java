@@ -38,6 +38,11 @@ public class DCTermsExporter implements Exporter {
         }
     }
 
+    @Override
+    public Boolean requiresDatasetVersion() {
+        return false;
+    }
+
     @Override
     public Boolean isXMLFormat() {
         return true;
@@ -38,6 +38,11 @@ public class DublinCoreExporter implements Exporter {
         }
     }
 
+    @Override
+    public Boolean requiresDatasetVersion() {
+        return false;
+    }
+
     @Override
     public Boolean isXMLFormat() {
         return true;
@@ -0,0 +1,122 @@
+package edu.harvard.iq.dataverse.export;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Live progress of an "export all" (or "re-export all") run, updated by the
+ * worker threads and read by the {@code admin/metadata/exportAll/progress}
+ * API endpoint.
+ */
+public class ExportAllProgress {
+
+    private final long startTime = System.currentTimeMillis();
+    private final boolean forceReExport;
+    private final int workers;
+    private final long datasetsTotal;
+
+    private final AtomicLong exported = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong inFlight = new AtomicLong();
+    private volatile long endTime = 0;
+
+    public ExportAllProgress(boolean forceReExport, int workers, long datasetsTotal) {
+        this.forceReExport = forceReExport;
+        this.workers = workers;
+        this.datasetsTotal = datasetsTotal;
+    }
+
+    public void started() {
+        inFlight.incrementAndGet();
+    }
+
+    public void exported() {
+        exported.incrementAndGet();
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * The dataset was not exported: not published, or already exported.
+     */
+    public void skipped() {
+        skipped.incrementAndGet();
+        inFlight.decrementAndGet();
+    }
+
+    public void failed() {
+        failures.incrementAndGet();
+        inFlight.decrementAndGet();
+    }
+
+    public void finished() {
+        endTime = System.currentTimeMillis();
+    }
+
+    public boolean isFinished() {
+        return endTime != 0;
+    }
+
+    public long getExported() {
+        return exported.get();
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getDone() {
+        return exported.get() + skipped.get() + failures.get();
+    }
+
+    public long getElapsedMillis() {
+        return (isFinished() ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    /**
+     * @return Datasets examined per second so far.
+     */
+    public double getThroughput() {
+        long elapsed = getElapsedMillis();
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return getDone() * 1000.0 / elapsed;
+    }
+
+    /**
+     * @return Estimated milliseconds until the run completes, based on the
+     * throughput so far, or -1 if no dataset has been examined yet.
+     */
+    public long getEtaMillis() {
+        if (isFinished()) {
+            return 0;
+        }
+        double throughput = getThroughput();
+        if (throughput <= 0) {
+            return -1;
+        }
+        return (long) ((datasetsTotal - getDone()) * 1000 / throughput);
+    }
+
+    public JsonObjectBuilder toJson() {
+        return Json.createObjectBuilder()
+                .add("forceReExport", forceReExport)
+                .add("workers", workers)
+                .add("finished", isFinished())
+                .add("datasetsTotal", datasetsTotal)
+                .add("datasetsExported", exported.get())
+                .add("datasetsSkipped", skipped.get())
+                .add("failures", failures.get())
+                .add("inFlight", inFlight.get())
+                .add("elapsedMillis", getElapsedMillis())
+                .add("datasetsPerSecond", getThroughput())
+                .add("etaMillis", getEtaMillis());
+    }
+
+}
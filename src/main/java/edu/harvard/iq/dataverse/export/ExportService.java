@@ -6,28 +6,35 @@ import edu.harvard.iq.dataverse.DatasetVersion;
 import edu.harvard.iq.dataverse.export.spi.Exporter;
 import edu.harvard.iq.dataverse.util.SystemConfig;
 import static edu.harvard.iq.dataverse.util.json.JsonPrinter.jsonAsDatasetDto;
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
 import java.util.ServiceConfigurationError;
 import java.util.ServiceLoader;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
 import javax.ejb.EJB;
 import javax.ejb.TransactionAttribute;
 import static javax.ejb.TransactionAttributeType.REQUIRES_NEW;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
 
 /**
  *
@@ -35,31 +42,72 @@ import javax.json.JsonObjectBuilder;
  */
 public class ExportService {
     
+    private static final Logger logger = Logger.getLogger(ExportService.class.getCanonicalName());
+    
     private static ExportService service;
     private ServiceLoader<Exporter> loader;
+    /**
+     * Runs the exporters that only need the JSON; {@code null} outside of
+     * the application server, in which case they are run one after another.
+     */
+    private final Executor executor;
 
     private ExportService() {
+        this(lookupExecutor());
+    }
+
+    ExportService(Executor executor) {
         loader = ServiceLoader.load(Exporter.class);        
+        this.executor = executor;
     }
 
     public static synchronized ExportService getInstance() {
         if (service == null) {
             service = new ExportService();
         } else{
-            service.loader.reload();
+            synchronized (service) {
+                service.loader.reload();
+            }
         }
         return service;
     }
+    
+    private static Executor lookupExecutor() {
+        try {
+            return (Executor) new InitialContext().lookup("java:comp/DefaultManagedExecutorService");
+        } catch (NamingException | RuntimeException ex) {
+            logger.fine("No managed executor; exporters will be run sequentially. " + ex);
+            return null;
+        }
+    }
+    
+    /**
+     * The {@link ServiceLoader} is not thread-safe; so the exporters are 
+     * listed once, here, and the list is used from there on.
+     */
+    private synchronized List<Exporter> getExporters() throws ExportException {
+        try {
+            List<Exporter> exporters = new ArrayList<>();
+            for (Exporter e : loader) {
+                exporters.add(e);
+            }
+            return exporters;
+        } catch (ServiceConfigurationError serviceError) {
+            throw new ExportException("Service configuration error during export. " + serviceError.getMessage());
+        }
+    }
                 
     public List< String[]> getExportersLabels() {
         List<String[]> retList = new ArrayList();
-        Iterator<Exporter> exporters = ExportService.getInstance().loader.iterator();
-        while (exporters.hasNext()) {
-            Exporter e = exporters.next();
-            String[] temp = new String[2];
-            temp[0] = e.getDisplayName();
-            temp[1] = e.getProviderName();
-            retList.add(temp);
+        try {
+            for (Exporter e : getExporters()) {
+                String[] temp = new String[2];
+                temp[0] = e.getDisplayName();
+                temp[1] = e.getProviderName();
+                retList.add(temp);
+            }
+        } catch (ExportException ee) {
+            logger.warning(ee.getMessage());
         }
         return retList;
     }
@@ -92,19 +140,18 @@ public class ExportService {
         
     }
     
+    // (Prefer getExport(), and streaming the export, to this: the DDI of a 
+    // dataset with thousands of files can be very large.)
     public String getExportAsString(Dataset dataset, String formatName) {
-        try {
-            InputStream inputStream = getExport(dataset, formatName);
+        try (InputStream inputStream = getExport(dataset, formatName)) {
             if (inputStream != null) {
-                BufferedReader br = new BufferedReader(new InputStreamReader(inputStream, "UTF8"));
-                StringBuilder sb = new StringBuilder();
-                String line;
-                while ((line = br.readLine()) != null) {
-                    sb.append(line);
-                    sb.append('\n');
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, read);
                 }
-                br.close();
-                return sb.toString();
+                return bytes.toString("UTF-8");
             }
         } catch (Exception ex) {
             //ex.printStackTrace();
@@ -118,28 +165,25 @@ public class ExportService {
     // This method goes through all the Exporters and calls 
     // the "chacheExport()" method that will save the produced output  
     // in a file in the dataset directory, on each Exporter available. 
+    // The JSON is produced once, and shared by all the exporters; the ones
+    // that don't need the DatasetVersion entity are run concurrently, on 
+    // the managed executor. The cached exports already there are replaced, 
+    // each in one step, so that they can still be served in the meantime. 
     
     public void exportAllFormats (Dataset dataset) throws ExportException {
-        clearAllCachedFormats(dataset);
-        
+        DatasetVersion releasedVersion = dataset.getReleasedVersion();
+        if (releasedVersion == null) {
+            clearAllCachedFormats(dataset);
+            throw new ExportException("No released version for dataset "+dataset.getGlobalId());
+        }
+        final JsonObject datasetAsJson = jsonAsDatasetDto(releasedVersion).build();
+
         try {
-            DatasetVersion releasedVersion = dataset.getReleasedVersion();
-            if (releasedVersion == null) {
-                throw new ExportException("No released version for dataset "+dataset.getGlobalId());
-            }
-            final JsonObjectBuilder datasetAsJsonBuilder = jsonAsDatasetDto(releasedVersion);
-            JsonObject datasetAsJson = datasetAsJsonBuilder.build();
-            
-            Iterator<Exporter> exporters = loader.iterator();
-            while ( exporters.hasNext()) {
-                Exporter e = exporters.next();
-                String formatName = e.getProviderName(); 
-                
-                cacheExport(releasedVersion, formatName, datasetAsJson, e);
-                
-            }
-        } catch (ServiceConfigurationError serviceError) {
-            throw new ExportException("Service configuration error during export. "+serviceError.getMessage());
+            runExports(dataset.getFileSystemDirectory(), releasedVersion, datasetAsJson, getExporters());
+        } catch (ExportException ee) {
+            // Better no cached exports than a mix of old and new ones:
+            clearAllCachedFormats(dataset);
+            throw ee;
         }
         // Finally, if we have been able to successfully export in all available 
         // formats, we'll increment the "last exported" time stamp: 
@@ -148,13 +192,72 @@ public class ExportService {
         
     }
     
+    /**
+     * Runs the exporters, and caches their exports in the directory given.
+     * The directory is looked up by the caller, on the thread that owns the
+     * dataset, as the exporters that don't need the DatasetVersion entity 
+     * are run on worker threads. 
+     */
+    void runExports(Path exportDirectory, DatasetVersion version, JsonObject datasetAsJson, List<Exporter> exporters) throws ExportException {
+        createExportDirectory(exportDirectory);
+        
+        List<FutureTask<Void>> concurrentExports = new ArrayList<>();
+        List<Exporter> entityExporters = new ArrayList<>();
+        for (Exporter e : exporters) {
+            if (executor != null && !e.requiresDatasetVersion()) {
+                FutureTask<Void> export = new FutureTask<>(() -> {
+                    cacheExport(exportDirectory, version, e.getProviderName(), datasetAsJson, e);
+                    return null;
+                });
+                concurrentExports.add(export);
+                try {
+                    executor.execute(export);
+                } catch (RejectedExecutionException ree) {
+                    // (it will be run below, on this thread)
+                }
+            } else {
+                entityExporters.add(e);
+            }
+        }
+
+        ExportException failure = null;
+        try {
+            for (Exporter e : entityExporters) {
+                cacheExport(exportDirectory, version, e.getProviderName(), datasetAsJson, e);
+            }
+        } catch (ExportException ee) {
+            failure = ee;
+        }
+        for (FutureTask<Void> export : concurrentExports) {
+            // Runs the export here, if no worker has picked it up yet - so 
+            // that a busy executor (e.g., one running a lot of these, for 
+            // "export all") can not keep us waiting forever: 
+            export.run();
+            try {
+                export.get();
+            } catch (ExecutionException ee) {
+                if (failure == null) {
+                    failure = ee.getCause() instanceof ExportException 
+                            ? (ExportException) ee.getCause() 
+                            : new ExportException("Exception while exporting: " + ee.getCause());
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                failure = new ExportException("Interrupted while exporting to " + exportDirectory);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    
     public void clearAllCachedFormats(Dataset dataset) {
-        Iterator<Exporter> exporters = loader.iterator();
-        while (exporters.hasNext()) {
-            Exporter e = exporters.next();
-            String formatName = e.getProviderName();
-            
-            clearCachedExport(dataset, formatName);
+        try {
+            for (Exporter e : getExporters()) {
+                clearCachedExport(dataset, e.getProviderName());
+            }
+        } catch (ExportException ee) {
+            logger.warning(ee.getMessage());
         }
         
         dataset.setLastExportTime(null);
@@ -167,20 +270,19 @@ public class ExportService {
     
     public void exportFormat(Dataset dataset, String formatName) throws ExportException {
         try {
-            Iterator<Exporter> exporters = loader.iterator();
-            while (exporters.hasNext()) {
-                Exporter e = exporters.next();
+            for (Exporter e : getExporters()) {
                 if (e.getProviderName().equals(formatName)) {
                     DatasetVersion releasedVersion = dataset.getReleasedVersion();
                     if (releasedVersion == null) {
                         throw new IllegalStateException("No Released Version");
                     }
                     final JsonObjectBuilder datasetAsJsonBuilder = jsonAsDatasetDto(releasedVersion);
-                    cacheExport(releasedVersion, formatName, datasetAsJsonBuilder.build(), e);
+                    Path exportDirectory = dataset.getFileSystemDirectory();
+                    createExportDirectory(exportDirectory);
+                    cacheExport(exportDirectory, releasedVersion, formatName, datasetAsJsonBuilder.build(), e);
+                    return;
                 }
             }
-        } catch (ServiceConfigurationError serviceError) {
-            throw new ExportException("Service configuration error during export. " + serviceError.getMessage());
         } catch (IllegalStateException e) {
             throw new ExportException("No published version found during export. " + dataset.getGlobalId());
         }
@@ -188,39 +290,56 @@ public class ExportService {
     
     public Exporter getExporter(String formatName) throws ExportException {
         try {
-            Iterator<Exporter> exporters = loader.iterator();
-            while (exporters.hasNext()) {
-                Exporter e = exporters.next();
+            for (Exporter e : getExporters()) {
                 if (e.getProviderName().equals(formatName)) {
                     return e;
                 }
             }
-        } catch (ServiceConfigurationError serviceError) {
-            throw new ExportException("Service configuration error during export. " + serviceError.getMessage());
+        } catch (ExportException ee) {
+            throw ee;
         } catch (Exception ex) {
             throw new ExportException("Could not find Exporter \""+formatName+"\", unknown exception");
         }
         throw new ExportException("No such Exporter: "+formatName);
     }
     
-    // This method runs the selected metadata exporter, caching the output 
-    // in a file in the dataset dirctory:
-    private void cacheExport(DatasetVersion version, String format, JsonObject datasetAsJson, Exporter exporter) throws ExportException {
+    private static void createExportDirectory(Path exportDirectory) throws ExportException {
         try {
-            if (version.getDataset().getFileSystemDirectory() != null && !Files.exists(version.getDataset().getFileSystemDirectory())) {
+            if (exportDirectory != null && !Files.exists(exportDirectory)) {
                 /* Note that "createDirectories()" must be used - not 
                      * "createDirectory()", to make sure all the parent 
                      * directories that may not yet exist are created as well. 
                  */
 
-                Files.createDirectories(version.getDataset().getFileSystemDirectory());
+                Files.createDirectories(exportDirectory);
+            }
+        } catch (IOException ioex) {
+            throw new ExportException("IO Exception thrown creating the export directory " + exportDirectory);
+        }
+    }
+    
+    // This method runs the selected metadata exporter, caching the output 
+    // in a file in the dataset dirctory:
+    static void cacheExport(Path exportDirectory, DatasetVersion version, String format, JsonObject datasetAsJson, Exporter exporter) throws ExportException {
+        try {
+            Path cachedMetadataFilePath = Paths.get(exportDirectory.toString(), "export_" + format + ".cached");
+            // The export is written to a temporary file first, and then
+            // moved in place of the cached one; so a reader gets either the 
+            // old export or the new one - never a partial one. 
+            Path tempFilePath = Files.createTempFile(exportDirectory, "export_" + format, ".tmp");
+            try {
+                try (OutputStream cachedExportOutputStream = new BufferedOutputStream(Files.newOutputStream(tempFilePath))) {
+                    exporter.exportDataset(version, datasetAsJson, cachedExportOutputStream);
+                    cachedExportOutputStream.flush();
+                }
+                try {
+                    Files.move(tempFilePath, cachedMetadataFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException amnse) {
+                    Files.move(tempFilePath, cachedMetadataFilePath, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tempFilePath);
             }
-
-            Path cachedMetadataFilePath = Paths.get(version.getDataset().getFileSystemDirectory().toString(), "export_" + format + ".cached");
-            FileOutputStream cachedExportOutputStream = new FileOutputStream(cachedMetadataFilePath.toFile());
-            exporter.exportDataset(version, datasetAsJson, cachedExportOutputStream);
-            cachedExportOutputStream.flush();
-            cachedExportOutputStream.close();
 
         } catch (IOException ioex) {
             throw new ExportException("IO Exception thrown exporting as " + format);
@@ -279,15 +398,13 @@ public class ExportService {
     
     public Boolean isXMLFormat(String provider){
         try {
-            Iterator<Exporter> exporters = loader.iterator();
-            while (exporters.hasNext()) {
-                Exporter e = exporters.next();
+            for (Exporter e : getExporters()) {
                 if (e.getProviderName().equals(provider)) {
                     return e.isXMLFormat();
                 }
             }
-        } catch (ServiceConfigurationError serviceError) {
-            serviceError.printStackTrace();
+        } catch (ExportException ee) {
+            logger.warning(ee.getMessage());
         }
         return null;       
     }
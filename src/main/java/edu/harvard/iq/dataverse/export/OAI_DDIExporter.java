@@ -45,6 +45,11 @@ public class OAI_DDIExporter implements Exporter {
         }
     }
 
+    @Override
+    public Boolean requiresDatasetVersion() {
+        return false;
+    }
+
     @Override
     public Boolean isXMLFormat() {
         return true; 
@@ -44,4 +44,13 @@ public interface Exporter {
     
     public void setParam(String name, Object value);
     
+    /* Whether exportDataset() needs the DatasetVersion entity, rather than 
+       just the JSON. The exporters that don't are run on worker threads, 
+       concurrently with the others; the ones that do are run on the thread 
+       that owns the entity (JPA entities must not be shared between threads).
+    */
+    default Boolean requiresDatasetVersion() {
+        return true;
+    }
+    
 }
@@ -25,6 +25,8 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 
@@ -35,6 +37,7 @@ import javax.persistence.TemporalType;
  * @author Gustavo Durand
  */
 @Entity
+@Table(indexes = {@Index(columnList="setname, lastupdatetime, id")})
 public class OAIRecord implements Serializable {
 
     private static final long serialVersionUID = 1L;
@@ -15,11 +15,13 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -31,6 +33,7 @@ import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import javax.persistence.TypedQuery;
 
 /**
  *
@@ -154,6 +157,10 @@ public class OAIRecordServiceBean implements java.io.Serializable {
     // right here, in this EJB - so the attribute does not do anything! (TODO:!)
     @TransactionAttribute(REQUIRES_NEW)
     public void updateOaiRecordForDataset(Dataset dataset, String setName, Map<String, OAIRecord> recordMap, Logger setUpdateLogger) {
+        updateOaiRecordForDataset(dataset, setName, recordMap, null, setUpdateLogger);
+    }
+    
+    private void updateOaiRecordForDataset(Dataset dataset, String setName, Map<String, OAIRecord> recordMap, OAISetUpdateResult result, Logger setUpdateLogger) {
         // TODO: review .isReleased() logic
         // Answer: no, we can't trust isReleased()! It's a dvobject method that
         // simply returns (publicationDate != null). And the publication date 
@@ -166,19 +173,113 @@ public class OAIRecordServiceBean implements java.io.Serializable {
                 setUpdateLogger.info("creating a new OAI Record for " + dataset.getGlobalId());
                 record = new OAIRecord(setName, dataset.getGlobalId(), new Date());
                 em.persist(record);
+                if (result != null) { result.recordCreated(); }
             } else {
                 if (record.isRemoved()) {
                     setUpdateLogger.info("\"un-deleting\" an existing OAI Record for " + dataset.getGlobalId());
                     record.setRemoved(false);
                     record.setLastUpdateTime(new Date());
+                    if (result != null) { result.recordUndeleted(); }
                 } else if (dataset.getLastExportTime().after(record.getLastUpdateTime())) {
                     setUpdateLogger.info("updating the timestamp on an existing record.");
                     record.setLastUpdateTime(new Date());
+                    if (result != null) { result.recordUpdated(); }
                 }
 
                 recordMap.remove(record.getGlobalId());
             }
+            if (result != null) { result.inSet(dataset.getGlobalId()); }
+        }
+    }
+    
+    /**
+     * Updates the records of a set for a chunk of datasets, in a transaction
+     * of its own - so that a big set is not updated in one huge transaction.
+     * The records of the datasets that belong in the set are created,
+     * refreshed or un-deleted; those of the datasets that don't are marked as
+     * removed.
+     * 
+     * @param setName the spec of the set.
+     * @param datasetIds the ids of the datasets to look at.
+     * @param inSetIds the ids of the datasets that (according to the set 
+     * definition) belong in the set.
+     * @param doExport whether to export the datasets that haven't been since 
+     * their last publication.
+     * @param updateTime the time to mark the removed records with.
+     * @param result the counts to update.
+     * @param setUpdateLogger the log of the set update.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public void updateOaiRecordsInNewTransaction(String setName, List<Long> datasetIds, Set<Long> inSetIds, boolean doExport, Date updateTime, OAISetUpdateResult result, Logger setUpdateLogger) {
+        if (datasetIds.isEmpty()) {
+            return;
+        }
+        List<Dataset> datasets = em.createQuery("SELECT d FROM Dataset d WHERE d.id IN :ids", Dataset.class)
+                .setParameter("ids", datasetIds).getResultList();
+        
+        List<String> globalIds = new ArrayList<>();
+        for (Dataset dataset : datasets) {
+            globalIds.add(dataset.getGlobalId());
+        }
+        Map<String, OAIRecord> recordMap = new HashMap<>();
+        for (OAIRecord record : em.createQuery("SELECT h FROM OAIRecord h WHERE h.setName = :setName AND h.globalId IN :globalIds", OAIRecord.class)
+                .setParameter("setName", setName).setParameter("globalIds", globalIds).getResultList()) {
+            recordMap.put(record.getGlobalId(), record);
+        }
+        
+        List<OAIRecord> toRemove = new ArrayList<>();
+        for (Dataset dataset : datasets) {
+            result.datasetExamined();
+            if (inSetIds.contains(dataset.getId())) {
+                if (doExport) {
+                    DatasetVersion releasedVersion = dataset.getReleasedVersion();
+                    Date publicationDate = releasedVersion == null ? null : releasedVersion.getReleaseTime();
+                    if (publicationDate != null 
+                            && (dataset.getLastExportTime() == null
+                            || dataset.getLastExportTime().before(publicationDate))) {
+                        setUpdateLogger.fine("Attempting to run export on dataset " + dataset.getGlobalId());
+                        exportAllFormats(dataset);
+                        // to get the "last exported" timestamp the export left:
+                        em.refresh(dataset);
+                    }
+                }
+                updateOaiRecordForDataset(dataset, setName, recordMap, result, setUpdateLogger);
+            }
+            // Whatever is left in the map - the records of the datasets that 
+            // are not in the set, or not exported - is to be removed:
+            OAIRecord record = recordMap.remove(dataset.getGlobalId());
+            if (record != null && !record.isRemoved()) {
+                toRemove.add(record);
+            }
         }
+        markOaiRecordsAsRemoved(toRemove, updateTime, setUpdateLogger);
+        result.recordsRemoved(toRemove.size());
+    }
+    
+    /**
+     * Marks records as removed, in a transaction of its own.
+     * 
+     * @param recordIds the ids of the records.
+     * @param updateTime the time to mark the records with.
+     * @return the number of records marked.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public int markOaiRecordsAsRemovedInNewTransaction(List<Long> recordIds, Date updateTime) {
+        if (recordIds.isEmpty()) {
+            return 0;
+        }
+        return em.createQuery("UPDATE OAIRecord h SET h.removed = true, h.lastUpdateTime = :updateTime WHERE h.id IN :ids AND h.removed = false")
+                .setParameter("updateTime", updateTime).setParameter("ids", recordIds).executeUpdate();
+    }
+    
+    /**
+     * @param setName the spec of the set.
+     * @return the id and global id of each record of the set that is not 
+     * marked as removed - without loading the records themselves.
+     */
+    public List<Object[]> findActiveOaiRecordIdsBySetName(String setName) {
+        return em.createQuery("SELECT h.id, h.globalId FROM OAIRecord h WHERE h.setName = :setName AND h.removed = false", Object[].class)
+                .setParameter("setName", setName).getResultList();
     }
     
     
@@ -265,6 +366,49 @@ public class OAIRecordServiceBean implements java.io.Serializable {
     }
     
     
+    /**
+     * Exports a dataset, for "export all", if it is published and - unless
+     * {@code forceReExport} - was not exported since it was.
+     * 
+     * @param datasetId id of the dataset.
+     * @param forceReExport whether to export the dataset even if it was 
+     * already exported.
+     * @param exportLogger the log of the "export all" run.
+     * @return whether the dataset was exported.
+     * @throws ExportException if the export failed.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public boolean exportDatasetInNewTransaction(Long datasetId, boolean forceReExport, Logger exportLogger) throws ExportException {
+        Dataset dataset = datasetService.find(datasetId);
+        if (dataset == null) {
+            return false;
+        }
+        // Accurate "is published?" test - ?
+        // Answer: Yes, it is! We can't trust dataset.isReleased() alone; because it is a dvobject method 
+        // that returns (publicationDate != null). And "publicationDate" is essentially
+        // "the first publication date"; that stays the same as versions get 
+        // published and/or deaccessioned. But in combination with !isDeaccessioned() 
+        // it is indeed an accurate test.
+        if (!dataset.isReleased() || dataset.getReleasedVersion() == null || dataset.isDeaccessioned()) {
+            return false;
+        }
+        // can't trust dataset.getPublicationDate(), no. 
+        Date publicationDate = dataset.getReleasedVersion().getReleaseTime();
+        if (!forceReExport && (publicationDate == null
+                || (dataset.getLastExportTime() != null
+                && !dataset.getLastExportTime().before(publicationDate)))) {
+            return false;
+        }
+        try {
+            ExportService.getInstance().exportAllFormats(dataset);
+        } catch (Exception e) {
+            throw new ExportException(dataset.getGlobalId() + ": " + e.getMessage());
+        }
+        datasetService.updateLastExportTimeStamp(dataset.getId());
+        exportLogger.info("Success exporting dataset: " + dataset.getDisplayName() + " " + dataset.getGlobalId());
+        return true;
+    }
+    
     public OAIRecord findOAIRecordBySetNameandGlobalId(String setName, String globalId) {
         OAIRecord oaiRecord = null;
         
@@ -323,6 +467,73 @@ public class OAIRecordServiceBean implements java.io.Serializable {
         }
     }
     
+    /**
+     * Finds a page of the records of a set, in (lastUpdateTime, id) order.
+     * The page starts right after the record last seen, rather than at an
+     * offset, so that the database can seek straight to it on the
+     * (setName, lastUpdateTime, id) index - however deep into the set the 
+     * page is.
+     * 
+     * @param setName the set, or {@code null} for all the records.
+     * @param from only the records updated at or after this time, if not {@code null}.
+     * @param until only the records updated at or before this time, if not {@code null}.
+     * @param afterTime lastUpdateTime of the last record seen, or {@code null} for the first page.
+     * @param afterId id of the last record seen, or {@code null} for the first page.
+     * @param maxResults the maximum number of records to return.
+     * @return the records, or {@code null} if the query failed.
+     */
+    public List<OAIRecord> findOaiRecordsBySetName(String setName, Date from, Date until, Date afterTime, Long afterId, int maxResults) {
+        try {
+            return createOrderedQuery(setName, from, until, afterTime, afterId).setMaxResults(maxResults).getResultList();      
+        } catch (Exception ex) {
+            logger.fine("Caught exception; returning null.");
+            return null;
+        }
+    }
+    
+    /**
+     * Finds a page of the records of a set, in (lastUpdateTime, id) order, by
+     * offset - as XOAI asks for them when listing identifiers.
+     * 
+     * @return the records, or {@code null} if the query failed.
+     */
+    public List<OAIRecord> findOaiRecordsBySetName(String setName, Date from, Date until, int firstResult, int maxResults) {
+        try {
+            return createOrderedQuery(setName, from, until, null, null).setFirstResult(firstResult).setMaxResults(maxResults).getResultList();      
+        } catch (Exception ex) {
+            logger.fine("Caught exception; returning null.");
+            return null;
+        }
+    }
+    
+    private TypedQuery<OAIRecord> createOrderedQuery(String setName, Date from, Date until, Date afterTime, Long afterId) {
+        List<String> conditions = new ArrayList<>();
+        if (setName != null) { conditions.add("h.setName = :setName"); }
+        if (from != null) { conditions.add("h.lastUpdateTime >= :from"); }
+        if (until != null) { conditions.add("h.lastUpdateTime <= :until"); }
+        if (afterTime != null && afterId != null) {
+            conditions.add("(h.lastUpdateTime > :afterTime OR (h.lastUpdateTime = :afterTime AND h.id > :afterId))");
+        }
+        
+        String queryString = "SELECT object(h) from OAIRecord as h";
+        if (!conditions.isEmpty()) {
+            queryString += " WHERE " + String.join(" AND ", conditions);
+        }
+        queryString += " ORDER BY h.lastUpdateTime, h.id";
+
+        logger.fine("Query: "+queryString);
+        
+        TypedQuery<OAIRecord> query = em.createQuery(queryString, OAIRecord.class);
+        if (setName != null) { query.setParameter("setName",setName); }
+        if (from != null) { query.setParameter("from",from); }
+        if (until != null) { query.setParameter("until",until); }
+        if (afterTime != null && afterId != null) {
+            query.setParameter("afterTime",afterTime);
+            query.setParameter("afterId",afterId);
+        }
+        return query;
+    }
+    
     // This method is to only get the records NOT marked as "deleted":
     public List<OAIRecord> findActiveOaiRecordsBySetName(String setName) {
         
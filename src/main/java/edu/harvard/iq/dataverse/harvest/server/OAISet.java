@@ -20,6 +20,7 @@
 package edu.harvard.iq.dataverse.harvest.server;
 
 import java.io.Serializable;
+import java.util.Date;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
@@ -27,6 +28,8 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.OneToOne;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
 import javax.persistence.Version;
 import javax.validation.constraints.Pattern;
 import javax.validation.constraints.Size;
@@ -78,6 +81,23 @@ public class OAISet implements Serializable {
     private boolean updateInProgress;
     
     private boolean deleted;
+    
+    /**
+     * When the last update of the records of this set started; the next 
+     * update only needs to look at the datasets exported since.
+     */
+    @Temporal(value = TemporalType.TIMESTAMP)
+    private Date lastUpdateTime;
+    
+    /**
+     * When the last full update of the records of this set started: the
+     * incremental updates don't catch the datasets that come into or leave
+     * the set without being exported again (say, when the set definition
+     * or the dataverse they are in changes), so the set is updated in full
+     * now and then; and as soon as its definition changes.
+     */
+    @Temporal(value = TemporalType.TIMESTAMP)
+    private Date lastFullUpdateTime;
 
     public boolean isUpdateInProgress() {
         return this.updateInProgress;
@@ -95,6 +115,22 @@ public class OAISet implements Serializable {
         this.deleted = deleteInProgress; 
     }
     
+    public Date getLastUpdateTime() {
+        return lastUpdateTime;
+    }
+
+    public void setLastUpdateTime(Date lastUpdateTime) {
+        this.lastUpdateTime = lastUpdateTime;
+    }
+    
+    public Date getLastFullUpdateTime() {
+        return lastFullUpdateTime;
+    }
+
+    public void setLastFullUpdateTime(Date lastFullUpdateTime) {
+        this.lastFullUpdateTime = lastFullUpdateTime;
+    }
+    
     public String getName() {
         return name;
     }
@@ -18,8 +18,10 @@ import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -39,6 +41,7 @@ import org.apache.solr.client.solrj.impl.HttpSolrServer.RemoteSolrException;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
+import org.apache.commons.lang.StringUtils;
 
 /**
  *
@@ -59,10 +62,20 @@ public class OAISetServiceBean implements java.io.Serializable {
     @EJB
     OAIRecordServiceBean oaiRecordService;
     
+    @EJB
+    DatasetServiceBean datasetService;
+    
     private static final Logger logger = Logger.getLogger("edu.harvard.iq.dataverse.harvest.server.OAISetServiceBean");
     
     private static final SimpleDateFormat logFormatter = new SimpleDateFormat("yyyy-MM-dd'T'HH-mm-ss");
     
+    /** The number of datasets whose records are updated per transaction. */
+    private static final int UPDATE_CHUNK_SIZE = 100;
+    /** The number of datasets looked for per search, in incremental updates. */
+    private static final int EXPAND_CHUNK_SIZE = 500;
+    /** How far back before the last update an incremental one starts. */
+    private static final long UPDATE_OVERLAP_MILLIS = 60 * 60 * 1000;
+    
     public OAISet find(Object pk) {
         return (OAISet) em.find(OAISet.class, pk);
     }
@@ -145,7 +158,10 @@ public class OAISetServiceBean implements java.io.Serializable {
             datasetIds = expandSetQuery(query);
             exportLogger.info("set query expanded to " + datasetIds.size() + " datasets.");
         } catch (OaiSetException ose) {
-            datasetIds = null;
+            // (rather than marking all the records of the set as removed:)
+            exportLogger.warning("Failed to expand the set query; the set was not updated. " + ose.getMessage());
+            managedSet.setUpdateInProgress(false);
+            return;
         }
 
         // We still DO want to update the set, when the search query does not 
@@ -153,12 +169,118 @@ public class OAISetServiceBean implements java.io.Serializable {
         // they will be properly marked as "deleted"! -- L.A. 4.5
         //if (datasetIds != null && !datasetIds.isEmpty()) {
         exportLogger.info("Calling OAI Record Service to re-export " + datasetIds.size() + " datasets.");
-        oaiRecordService.updateOaiRecords(managedSet.getSpec(), datasetIds, new Date(), true, exportLogger);
+        OAISetUpdateResult result = new OAISetUpdateResult(managedSet.getSpec(), null);
+        Date updateTime = new Date();
+        updateOaiRecords(managedSet.getSpec(), datasetIds, new HashSet<>(datasetIds), updateTime, result, exportLogger);
+
+        // anything else in the set should be marked as removed! - unless 
+        // some of the datasets could not be updated: then which ones are in 
+        // the set is not known, and their records are left as they are.
+        if (result.hasFailures()) {
+            exportLogger.warning("Some of the datasets could not be updated; no records were marked as removed.");
+        } else {
+            List<Long> toRemove = new ArrayList<>();
+            for (Object[] idAndGlobalId : oaiRecordService.findActiveOaiRecordIdsBySetName(managedSet.getSpec())) {
+                if (!result.getGlobalIdsInSet().contains((String) idAndGlobalId[1])) {
+                    toRemove.add((Long) idAndGlobalId[0]);
+                }
+            }
+            for (int i = 0; i < toRemove.size(); i += UPDATE_CHUNK_SIZE) {
+                result.recordsRemoved(oaiRecordService.markOaiRecordsAsRemovedInNewTransaction(toRemove.subList(i, Math.min(i + UPDATE_CHUNK_SIZE, toRemove.size())), updateTime));
+            }
+        }
         //}
+        result.finish();
+        exportLogger.info(result.toString());
+        
+        // (after a failure, the next update is a full one again)
+        if (!result.hasFailures()) {
+            managedSet.setLastUpdateTime(result.getStartTime());
+            managedSet.setLastFullUpdateTime(result.getStartTime());
+        }
         managedSet.setUpdateInProgress(false);
 
     } 
     
+    /**
+     * Updates the records of a set for just the datasets exported since its
+     * last update - rather than for all the datasets the set definition finds.
+     * Datasets only get (re-)exported as they are published; the records of 
+     * the datasets deaccessioned or destroyed since are taken care of as
+     * that happens (see {@link OAIRecordServiceBean#updateOaiRecordsForDataset(edu.harvard.iq.dataverse.Dataset)}).
+     * The set is updated in full instead if it never was, if its definition
+     * changed since, or if its last full update is more than
+     * {@link SystemConfig#getOaiSetFullUpdateDays()} days old - since the
+     * datasets that came into or left the set without being exported again
+     * are only found by a full update.
+     * If some of the datasets could not be updated, the times of the last 
+     * updates are left as they were, so that the next update takes them up 
+     * again.
+     * 
+     * @param oaiSet the set.
+     * @param exportLogger the log of the update.
+     */
+    public void updateOaiSet(OAISet oaiSet, Logger exportLogger) {
+        OAISet managedSet = find(oaiSet.getId());
+        if (managedSet.getLastUpdateTime() == null || isFullUpdateDue(managedSet)) {
+            exportOaiSet(managedSet, exportLogger);
+            return;
+        }
+        
+        // Datasets get their export timestamps a little before the publishing
+        // transaction commits - so a little overlap with the previous update
+        // makes sure none is missed. Updating a record twice is harmless.
+        Date since = new Date(managedSet.getLastUpdateTime().getTime() - UPDATE_OVERLAP_MILLIS);
+        OAISetUpdateResult result = new OAISetUpdateResult(managedSet.getSpec(), since);
+        
+        List<Long> datasetIds = datasetService.findLocalDatasetIdsExportedSince(since);
+        exportLogger.info(datasetIds.size() + " datasets exported since " + since);
+        
+        Set<Long> inSetIds;
+        try {
+            inSetIds = new HashSet<>(expandSetQuery(managedSet.getDefinition(), datasetIds));
+        } catch (OaiSetException ose) {
+            exportLogger.warning("Failed to expand the set query; the set was not updated. " + ose.getMessage());
+            return;
+        }
+        
+        updateOaiRecords(managedSet.getSpec(), datasetIds, inSetIds, new Date(), result, exportLogger);
+        result.finish();
+        exportLogger.info(result.toString());
+        
+        // (after a failure, the next update starts from the same time again)
+        if (!result.hasFailures()) {
+            managedSet.setLastUpdateTime(result.getStartTime());
+        }
+    }
+    
+    private boolean isFullUpdateDue(OAISet oaiSet) {
+        if (oaiSet.getLastFullUpdateTime() == null) {
+            return true;
+        }
+        long interval = systemConfig.getOaiSetFullUpdateDays() * 24 * 60 * 60 * 1000L;
+        // (an hour early, so that the update that runs at the same time of 
+        // the day as the last full one, a few seconds earlier, is full)
+        return System.currentTimeMillis() - oaiSet.getLastFullUpdateTime().getTime() >= interval - UPDATE_OVERLAP_MILLIS;
+    }
+    
+    private void updateOaiRecords(String setName, List<Long> datasetIds, Set<Long> inSetIds, Date updateTime, OAISetUpdateResult result, Logger exportLogger) {
+        for (int i = 0; i < datasetIds.size(); i += UPDATE_CHUNK_SIZE) {
+            List<Long> chunk = datasetIds.subList(i, Math.min(i + UPDATE_CHUNK_SIZE, datasetIds.size()));
+            // (counted in once committed; a chunk rolled back did nothing)
+            OAISetUpdateResult chunkResult = new OAISetUpdateResult(setName, result.getSince());
+            try {
+                oaiRecordService.updateOaiRecordsInNewTransaction(setName, new ArrayList<>(chunk), inSetIds, true, updateTime, chunkResult, exportLogger);
+                result.add(chunkResult);
+            } catch (Exception ex) {
+                // one bad chunk should not hold up the rest of the set - but
+                // the set is not up to date then (see the callers):
+                exportLogger.warning("Failed to update the records for datasets " + chunk.get(0) + " to " + chunk.get(chunk.size() - 1) + ": " + ex.getMessage());
+                result.chunkFailed();
+            }
+        }
+    }
+    
     public void exportAllSets() {
         String logTimestamp = logFormatter.format(new Date());
         Logger exportLogger = Logger.getLogger("edu.harvard.iq.dataverse.harvest.client.OAISetServiceBean." + "UpdateAllSets." + logTimestamp);
@@ -186,7 +308,7 @@ public class OAISetServiceBean implements java.io.Serializable {
         
         if (allSets != null) {
             for (OAISet set : allSets) {
-                exportOaiSet(set, exportLogger);
+                updateOaiSet(set, exportLogger);
             }
         }
         
@@ -232,6 +354,32 @@ public class OAISetServiceBean implements java.io.Serializable {
     }
     
     public List<Long> expandSetQuery(String query) throws OaiSetException {
+        return expandSetQuery(query, (String) null);
+    }
+    
+    /**
+     * Same as {@link #expandSetQuery(java.lang.String)}, but only finds the 
+     * datasets among those given.
+     * 
+     * @param query the set definition.
+     * @param datasetIds the ids of the datasets to look among; {@code null}
+     * for all.
+     * @return the ids of the datasets found.
+     * @throws OaiSetException if the query is invalid, or the search failed.
+     */
+    public List<Long> expandSetQuery(String query, List<Long> datasetIds) throws OaiSetException {
+        if (datasetIds == null) {
+            return expandSetQuery(query);
+        }
+        List<Long> resultIds = new ArrayList<>();
+        for (int i = 0; i < datasetIds.size(); i += EXPAND_CHUNK_SIZE) {
+            List<Long> chunk = datasetIds.subList(i, Math.min(i + EXPAND_CHUNK_SIZE, datasetIds.size()));
+            resultIds.addAll(expandSetQuery(query, SearchFields.ENTITY_ID + ":(" + StringUtils.join(chunk, " OR ") + ")"));
+        }
+        return resultIds;
+    }
+    
+    private List<Long> expandSetQuery(String query, String filterQuery) throws OaiSetException {
         // We do not allow "keyword" queries (like "king") - we require
         // that they search on specific fields, for ex., "authorName:king":
         if (query == null || !(query.indexOf(':') > 0)) {
@@ -248,6 +396,10 @@ public class OAISetServiceBean implements java.io.Serializable {
 //        solrQuery.addFilterQuery(SearchFields.IS_HARVESTED + ":" + false);
 //        solrQuery.addFilterQuery(SearchFields.PUBLICATION_STATUS + ":" + IndexServiceBean.PUBLISHED_STRING);
 
+        if (filterQuery != null) {
+            solrQuery.addFilterQuery(filterQuery);
+        }
+
         solrQuery.setRows(Integer.MAX_VALUE);
 
         
@@ -0,0 +1,160 @@
+package edu.harvard.iq.dataverse.harvest.server;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * What one update of an OAI set did to its records, and how long it took;
+ * filled in as the datasets are processed, a chunk at a time, by
+ * {@link OAIRecordServiceBean#updateOaiRecordsInNewTransaction(java.lang.String, java.util.List, java.util.Set, boolean, java.util.Date, edu.harvard.iq.dataverse.harvest.server.OAISetUpdateResult, java.util.logging.Logger)}.
+ *
+ * @see OAISetServiceBean#exportOaiSet(edu.harvard.iq.dataverse.harvest.server.OAISet, java.util.logging.Logger)
+ * @see OAISetServiceBean#updateOaiSet(edu.harvard.iq.dataverse.harvest.server.OAISet, java.util.logging.Logger)
+ */
+public class OAISetUpdateResult {
+
+    private final String setSpec;
+    private final Date since;
+    private final long startTime = System.currentTimeMillis();
+    private long endTime = -1;
+
+    private int datasetsExamined = 0;
+    private int created = 0;
+    private int updated = 0;
+    private int undeleted = 0;
+    private int removed = 0;
+    private int failedChunks = 0;
+
+    /** Global ids of the datasets found to belong in the set. */
+    private final Set<String> globalIdsInSet = new HashSet<>();
+
+    /**
+     * @param setSpec the set updated.
+     * @param since for an incremental update, the time of the changes it
+     * starts from; {@code null} for a full one.
+     */
+    public OAISetUpdateResult(String setSpec, Date since) {
+        this.setSpec = setSpec;
+        this.since = since;
+    }
+
+    public String getSetSpec() {
+        return setSpec;
+    }
+
+    public boolean isIncremental() {
+        return since != null;
+    }
+
+    public Date getSince() {
+        return since;
+    }
+
+    public Date getStartTime() {
+        return new Date(startTime);
+    }
+
+    public void finish() {
+        endTime = System.currentTimeMillis();
+    }
+
+    public long getDurationMillis() {
+        return (endTime < 0 ? System.currentTimeMillis() : endTime) - startTime;
+    }
+
+    void datasetExamined() {
+        datasetsExamined++;
+    }
+
+    void recordCreated() {
+        created++;
+    }
+
+    void recordUpdated() {
+        updated++;
+    }
+
+    void recordUndeleted() {
+        undeleted++;
+    }
+
+    void recordsRemoved(int count) {
+        removed += count;
+    }
+
+    /**
+     * Counts in what a chunk of the datasets did - once its transaction has
+     * committed.
+     */
+    void add(OAISetUpdateResult chunk) {
+        datasetsExamined += chunk.datasetsExamined;
+        created += chunk.created;
+        updated += chunk.updated;
+        undeleted += chunk.undeleted;
+        removed += chunk.removed;
+        globalIdsInSet.addAll(chunk.globalIdsInSet);
+    }
+
+    /**
+     * Records that a chunk of the datasets could not be updated (and that
+     * what it did was rolled back).
+     */
+    void chunkFailed() {
+        failedChunks++;
+    }
+
+    /**
+     * @return whether some of the datasets could not be updated - in which
+     * case the set is not up to date as of the start of the update.
+     */
+    public boolean hasFailures() {
+        return failedChunks > 0;
+    }
+
+    public int getFailedChunks() {
+        return failedChunks;
+    }
+
+    void inSet(String globalId) {
+        globalIdsInSet.add(globalId);
+    }
+
+    Set<String> getGlobalIdsInSet() {
+        return globalIdsInSet;
+    }
+
+    public int getDatasetsExamined() {
+        return datasetsExamined;
+    }
+
+    public int getCreated() {
+        return created;
+    }
+
+    public int getUpdated() {
+        return updated;
+    }
+
+    public int getUndeleted() {
+        return undeleted;
+    }
+
+    public int getRemoved() {
+        return removed;
+    }
+
+    @Override
+    public String toString() {
+        return (isIncremental() ? "incremental update (changes since " + since + ")" : "full update")
+                + " of set " + setSpec + ": "
+                + datasetsExamined + " datasets examined; "
+                + created + " records created, "
+                + updated + " updated, "
+                + undeleted + " un-deleted, "
+                + removed + " marked as removed"
+                + (failedChunks > 0 ? "; " + failedChunks + " chunks of datasets FAILED" : "")
+                + "; in "
+                + getDurationMillis() + " ms.";
+    }
+}
@@ -0,0 +1,180 @@
+package edu.harvard.iq.dataverse.harvest.server.web;
+
+import com.lyncode.xoai.exceptions.InvalidResumptionTokenException;
+import com.lyncode.xoai.model.oaipmh.ResumptionToken;
+import com.lyncode.xoai.services.api.ResumptionTokenFormat;
+import edu.harvard.iq.dataverse.harvest.server.OAIRecord;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A ListRecords resumption token that remembers the last record sent - its
+ * lastUpdateTime and id - rather than just how many records were sent, so
+ * that the next page can be looked up with
+ * {@link edu.harvard.iq.dataverse.harvest.server.OAIRecordServiceBean#findOaiRecordsBySetName(java.lang.String, java.util.Date, java.util.Date, java.util.Date, java.lang.Long, int)}
+ * without skipping over the records already sent.
+ *
+ * The token is opaque to the harvesters: the values are URL-encoded, and
+ * the whole is Base64 (URL-safe) encoded.
+ */
+public class KeysetResumptionToken extends ResumptionToken.Value {
+
+    private Date lastUpdateTime;
+    private Long lastId;
+
+    public KeysetResumptionToken() {
+        super();
+    }
+
+    /**
+     * @param lastRecord the last record of the page just sent.
+     * @param pageSize the number of records on the page just sent.
+     * @return the token for the next page, with the same request arguments
+     * as this one.
+     */
+    public KeysetResumptionToken next(OAIRecord lastRecord, int pageSize) {
+        KeysetResumptionToken next = new KeysetResumptionToken();
+        next.withOffset((hasOffset() ? getOffset() : 0) + pageSize);
+        if (hasMetadataPrefix()) { next.withMetadataPrefix(getMetadataPrefix()); }
+        if (hasSetSpec()) { next.withSetSpec(getSetSpec()); }
+        if (hasFrom()) { next.withFrom(getFrom()); }
+        if (hasUntil()) { next.withUntil(getUntil()); }
+        next.lastUpdateTime = lastRecord.getLastUpdateTime();
+        next.lastId = lastRecord.getId();
+        return next;
+    }
+
+    public Date getLastUpdateTime() {
+        return lastUpdateTime;
+    }
+
+    public Long getLastId() {
+        return lastId;
+    }
+
+    public String format() {
+        Map<String, String> fields = new HashMap<>();
+        if (hasOffset()) { fields.put("offset", getOffset().toString()); }
+        if (hasMetadataPrefix()) { fields.put("metadataPrefix", getMetadataPrefix()); }
+        if (hasSetSpec()) { fields.put("set", getSetSpec()); }
+        if (hasFrom()) { fields.put("from", formatDate(getFrom())); }
+        if (hasUntil()) { fields.put("until", formatDate(getUntil())); }
+        if (lastUpdateTime != null && lastId != null) {
+            fields.put("lastUpdateTime", formatDate(lastUpdateTime));
+            fields.put("lastId", lastId.toString());
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append('&');
+            }
+            sb.append(field.getKey()).append('=').append(urlEncode(field.getValue()));
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static KeysetResumptionToken parse(String token) throws InvalidResumptionTokenException {
+        KeysetResumptionToken parsed = new KeysetResumptionToken();
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(token.trim()), StandardCharsets.UTF_8);
+            for (String field : decoded.split("&")) {
+                int eq = field.indexOf('=');
+                if (eq < 1) {
+                    throw new InvalidResumptionTokenException("Malformed resumption token");
+                }
+                String value = URLDecoder.decode(field.substring(eq + 1), "UTF-8");
+                switch (field.substring(0, eq)) {
+                    case "offset":
+                        parsed.withOffset(Long.parseLong(value));
+                        break;
+                    case "metadataPrefix":
+                        parsed.withMetadataPrefix(value);
+                        break;
+                    case "set":
+                        parsed.withSetSpec(value);
+                        break;
+                    case "from":
+                        parsed.withFrom(parseDate(value));
+                        break;
+                    case "until":
+                        parsed.withUntil(parseDate(value));
+                        break;
+                    case "lastUpdateTime":
+                        parsed.lastUpdateTime = parseDate(value);
+                        break;
+                    case "lastId":
+                        parsed.lastId = Long.parseLong(value);
+                        break;
+                    default:
+                        throw new InvalidResumptionTokenException("Unknown field in resumption token");
+                }
+            }
+        } catch (IllegalArgumentException | UnsupportedEncodingException ex) {
+            // (NumberFormatException included)
+            throw new InvalidResumptionTokenException(ex);
+        }
+        if (!parsed.hasMetadataPrefix() || parsed.lastUpdateTime == null || parsed.lastId == null) {
+            throw new InvalidResumptionTokenException("Incomplete resumption token");
+        }
+        return parsed;
+    }
+
+    /**
+     * Dates are kept to the nanosecond, as the database has them: a record
+     * whose lastUpdateTime were truncated to the millisecond would come
+     * after itself.
+     */
+    private static String formatDate(Date date) {
+        if (date instanceof Timestamp) {
+            return date.getTime() + "." + ((Timestamp) date).getNanos();
+        }
+        return Long.toString(date.getTime());
+    }
+
+    private static Date parseDate(String value) {
+        int dot = value.indexOf('.');
+        if (dot < 0) {
+            return new Date(Long.parseLong(value));
+        }
+        Timestamp timestamp = new Timestamp(Long.parseLong(value.substring(0, dot)));
+        timestamp.setNanos(Integer.parseInt(value.substring(dot + 1)));
+        return timestamp;
+    }
+
+    private static String urlEncode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Writes the keyset tokens in the ListRecords responses; the way XOAI
+     * writes resumption tokens, this has to go through the
+     * {@link com.lyncode.xoai.xml.XmlWriter}.
+     */
+    public static class Format implements ResumptionTokenFormat {
+
+        @Override
+        public String format(ResumptionToken.Value value) {
+            if (value instanceof KeysetResumptionToken) {
+                return ((KeysetResumptionToken) value).format();
+            }
+            throw new IllegalArgumentException("Not a keyset resumption token");
+        }
+
+        @Override
+        public ResumptionToken.Value parse(String token) throws InvalidResumptionTokenException {
+            return KeysetResumptionToken.parse(token);
+        }
+    }
+}
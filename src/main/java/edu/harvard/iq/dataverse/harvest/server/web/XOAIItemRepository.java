@@ -97,18 +97,18 @@ public class XOAIItemRepository implements ItemRepository {
                 + ", from=" + from
                 + ", until=" + until);
 
-        List<OAIRecord> oaiRecords = recordService.findOaiRecordsBySetName(setSpec, from, until);
-
-        logger.fine("total " + oaiRecords.size() + " returned");
+        // Only the page asked for (plus one record, to tell if there are more)
+        // is loaded, rather than the whole set:
+        List<OAIRecord> oaiRecords = recordService.findOaiRecordsBySetName(setSpec, from, until, offset, length + 1);
 
         List<ItemIdentifier> xoaiItems = new ArrayList<>();
         if (oaiRecords != null && !oaiRecords.isEmpty()) {
 
-            for (int i = offset; i < offset + length && i < oaiRecords.size(); i++) {
+            for (int i = 0; i < length && i < oaiRecords.size(); i++) {
                 OAIRecord record = oaiRecords.get(i);
                 xoaiItems.add(new XOAIItem(record));
             }
-            boolean hasMore = offset + length < oaiRecords.size();
+            boolean hasMore = oaiRecords.size() > length;
             ListItemIdentifiersResult result = new ListItemIdentifiersResult(hasMore, xoaiItems);
             logger.fine("returning result with " + xoaiItems.size() + " items.");
             return result;
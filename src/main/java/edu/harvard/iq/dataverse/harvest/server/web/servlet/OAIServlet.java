@@ -25,9 +25,17 @@ import com.lyncode.xoai.dataprovider.repository.ItemRepository;
 import com.lyncode.xoai.dataprovider.repository.SetRepository;
 import com.lyncode.xoai.exceptions.InvalidResumptionTokenException;
 import com.lyncode.xoai.model.oaipmh.DeletedRecord;
+import com.lyncode.xoai.model.oaipmh.Error;
 import com.lyncode.xoai.model.oaipmh.GetRecord;
 import com.lyncode.xoai.model.oaipmh.Granularity;
+import com.lyncode.xoai.model.oaipmh.Header;
+import com.lyncode.xoai.model.oaipmh.ListRecords;
 import com.lyncode.xoai.model.oaipmh.OAIPMH;
+import com.lyncode.xoai.model.oaipmh.Record;
+import com.lyncode.xoai.model.oaipmh.Request;
+import com.lyncode.xoai.model.oaipmh.ResumptionToken;
+import com.lyncode.xoai.model.oaipmh.Verb;
+import com.lyncode.xoai.services.impl.UTCDateProvider;
 
 import com.lyncode.xoai.xml.XmlWriter;
 import edu.harvard.iq.dataverse.Dataset;
@@ -36,13 +44,16 @@ import edu.harvard.iq.dataverse.DataverseServiceBean;
 import edu.harvard.iq.dataverse.export.ExportException;
 import edu.harvard.iq.dataverse.export.ExportService;
 import edu.harvard.iq.dataverse.export.spi.Exporter;
+import edu.harvard.iq.dataverse.harvest.server.OAIRecord;
 import edu.harvard.iq.dataverse.harvest.server.OAIRecordServiceBean;
 import edu.harvard.iq.dataverse.harvest.server.OAISetServiceBean;
+import edu.harvard.iq.dataverse.harvest.server.web.KeysetResumptionToken;
 import edu.harvard.iq.dataverse.harvest.server.web.XOAIItemRepository;
 import edu.harvard.iq.dataverse.harvest.server.web.XOAISetRepository;
 import edu.harvard.iq.dataverse.harvest.server.web.xMetadata;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import edu.harvard.iq.dataverse.util.SystemConfig;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 
@@ -51,8 +62,15 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPOutputStream;
@@ -94,6 +112,8 @@ public class OAIServlet extends HttpServlet {
     private static final String DATAVERSE_EXTENDED_METADATA_INFO = "Custom Dataverse metadata in JSON format (Dataverse4 to Dataverse4 harvesting only)";
     private static final String DATAVERSE_EXTENDED_METADATA_SCHEMA = "JSON schema pending";
     private static final String DATAVERSE_EXTENDED_METADATA_API = "/api/datasets/export";
+    private static final int MAX_LIST_RECORDS = 100;
+    private static final Set<String> LIST_RECORDS_ARGUMENTS = new HashSet<>(Arrays.asList("verb", "metadataPrefix", "set", "from", "until", "resumptionToken"));
      
     
     private Context xoaiContext;
@@ -192,7 +212,7 @@ public class OAIServlet extends HttpServlet {
                 .withDeleteMethod(DeletedRecord.TRANSIENT)
                 .withGranularity(Granularity.Second)
                 .withMaxListIdentifiers(100)
-                .withMaxListRecords(100)
+                .withMaxListRecords(MAX_LIST_RECORDS)
                 .withMaxListSets(100)
                 .withEarliestDate(new Date());
         
@@ -221,6 +241,15 @@ public class OAIServlet extends HttpServlet {
                 return;
             }
             
+            if (isListRecords(request)) {
+                // served here rather than by XOAI, so that the records can be
+                // paged through with keyset resumption tokens, and their 
+                // cached exports streamed into the response:
+                response.setContentType("text/xml;charset=UTF-8");
+                writeListRecords(request, response);
+                return;
+            }
+            
             OAIRequestParametersBuilder parametersBuilder = newXoaiRequest();
             
             for (Object p : request.getParameterMap().keySet()) {
@@ -320,6 +349,235 @@ public class OAIServlet extends HttpServlet {
         
     }
     
+    private void writeListRecords(HttpServletRequest request, HttpServletResponse response) throws IOException, XmlWriteException, XMLStreamException {
+        Request oaiRequest = new Request(systemConfig.getDataverseSiteUrl()+"/oai").withVerbType(Verb.Type.ListRecords);
+        OAIPMH handle = new OAIPMH().withResponseDate(new Date()).withRequest(oaiRequest);
+        
+        KeysetResumptionToken token;
+        try {
+            token = parseListRecordsRequest(request, oaiRequest);
+        } catch (InvalidResumptionTokenException ex) {
+            writeListRecordsResponse(response, handle.withError(new Error("The resumption token is invalid").withCode(Error.Code.BAD_RESUMPTION_TOKEN)), null, null, null);
+            return;
+        } catch (BadArgumentException ex) {
+            writeListRecordsResponse(response, handle.withError(new Error(ex.getMessage()).withCode(Error.Code.BAD_ARGUMENT)), null, null, null);
+            return;
+        }
+        
+        String formatName = token.getMetadataPrefix();
+        if (xoaiContext.formatForPrefix(formatName) == null) {
+            writeListRecordsResponse(response, handle.withError(new Error("This metadata format is not supported").withCode(Error.Code.CANNOT_DISSEMINATE_FORMAT)), null, null, null);
+            return;
+        }
+        if (token.hasSetSpec() && !setRepository.exists(token.getSetSpec())) {
+            writeListRecordsResponse(response, handle.withError(new Error("This set does not exist").withCode(Error.Code.NO_RECORDS_MATCH)), null, null, null);
+            return;
+        }
+        
+        // One more record than fits on the page, to tell if there are more:
+        List<OAIRecord> oaiRecords = recordService.findOaiRecordsBySetName(
+                token.getSetSpec(), token.getFrom(), token.getUntil(),
+                token.getLastUpdateTime(), token.getLastId(), MAX_LIST_RECORDS + 1);
+        if (oaiRecords == null) {
+            throw new IOException("Failed to look up the OAI records");
+        }
+        if (oaiRecords.isEmpty() && token.getLastId() == null) {
+            writeListRecordsResponse(response, handle.withError(new Error("No records match the request").withCode(Error.Code.NO_RECORDS_MATCH)), null, null, null);
+            return;
+        }
+        
+        boolean hasMore = oaiRecords.size() > MAX_LIST_RECORDS;
+        if (hasMore) {
+            oaiRecords = oaiRecords.subList(0, MAX_LIST_RECORDS);
+        }
+        
+        // The datasets of the page, with one query:
+        boolean extendedMode = isExtendedDataverseMetadataMode(formatName);
+        Map<String, Dataset> datasets = new HashMap<>();
+        if (!extendedMode) {
+            List<String> globalIds = new ArrayList<>();
+            for (OAIRecord oaiRecord : oaiRecords) {
+                if (!oaiRecord.isRemoved()) {
+                    globalIds.add(oaiRecord.getGlobalId());
+                }
+            }
+            if (!globalIds.isEmpty()) {
+                datasets = datasetService.findByGlobalIds(globalIds);
+            }
+        }
+        
+        ListRecords listRecords = new ListRecords();
+        List<OAIRecord> recordsWithMetadata = new ArrayList<>();
+        List<InputStream> exports = new ArrayList<>();
+        try {
+            for (OAIRecord oaiRecord : oaiRecords) {
+                Header header = new Header().withIdentifier(oaiRecord.getGlobalId()).withDatestamp(oaiRecord.getLastUpdateTime());
+                if (oaiRecord.getSetName() != null) {
+                    header.withSetSpec(oaiRecord.getSetName());
+                }
+                Record record = new Record().withHeader(header);
+                if (oaiRecord.isRemoved()) {
+                    header.withStatus(Header.Status.DELETED);
+                } else {
+                    if (!extendedMode) {
+                        // (opened before anything is written, since a record
+                        // must have its metadata once it's in the list)
+                        InputStream export = openExport(datasets.get(oaiRecord.getGlobalId()), formatName);
+                        if (export == null) {
+                            logger.warning("No " + formatName + " export for " + oaiRecord.getGlobalId() + "; leaving it out of the list");
+                            continue;
+                        }
+                        exports.add(export);
+                    }
+                    // an empty placeholder; the metadata is streamed in below 
+                    record.withMetadata(new xMetadata((String)null));
+                    recordsWithMetadata.add(oaiRecord);
+                }
+                listRecords.withRecord(record);
+            }
+            
+            if (hasMore) {
+                listRecords.withResumptionToken(new ResumptionToken(token.next(oaiRecords.get(oaiRecords.size() - 1), oaiRecords.size()))
+                        .withCursor(token.hasOffset() ? token.getOffset() : 0));
+            } else if (token.getLastId() != null) {
+                // the last page of a list that was resumed gets an empty token:
+                listRecords.withResumptionToken(new ResumptionToken().withCursor(token.getOffset()));
+            }
+            
+            writeListRecordsResponse(response, handle.withVerb(listRecords), formatName, recordsWithMetadata, exports);
+        } finally {
+            for (InputStream export : exports) {
+                try {
+                    export.close();
+                } catch (IOException ex) {
+                    // (nothing to do about it)
+                }
+            }
+        }
+    }
+    
+    private InputStream openExport(Dataset dataset, String formatName) {
+        if (dataset == null) {
+            return null;
+        }
+        try {
+            return ExportService.getInstance().getExport(dataset, formatName);
+        } catch (ExportException ex) {
+            return null;
+        }
+    }
+    
+    private KeysetResumptionToken parseListRecordsRequest(HttpServletRequest request, Request oaiRequest) throws BadArgumentException, InvalidResumptionTokenException {
+        for (Object p : request.getParameterMap().keySet()) {
+            String parameterName = (String) p;
+            if (request.getParameterValues(parameterName).length > 1) {
+                throw new BadArgumentException("Repeated argument: " + parameterName);
+            }
+            if (!LIST_RECORDS_ARGUMENTS.contains(parameterName)) {
+                throw new BadArgumentException("Illegal argument: " + parameterName);
+            }
+        }
+        
+        String resumptionToken = request.getParameter("resumptionToken");
+        if (resumptionToken != null) {
+            if (request.getParameterMap().size() > 2) {
+                throw new BadArgumentException("The resumptionToken argument is exclusive");
+            }
+            oaiRequest.withResumptionToken(resumptionToken);
+            return KeysetResumptionToken.parse(resumptionToken);
+        }
+        
+        KeysetResumptionToken token = new KeysetResumptionToken();
+        String metadataPrefix = request.getParameter("metadataPrefix");
+        if (StringUtils.isEmpty(metadataPrefix)) {
+            throw new BadArgumentException("Missing required argument: metadataPrefix");
+        }
+        oaiRequest.withMetadataPrefix(metadataPrefix);
+        token.withMetadataPrefix(metadataPrefix);
+        
+        String setSpec = request.getParameter("set");
+        if (!StringUtils.isEmpty(setSpec)) {
+            oaiRequest.withSet(setSpec);
+            token.withSetSpec(setSpec);
+        }
+        
+        String from = request.getParameter("from");
+        String until = request.getParameter("until");
+        if (from != null && until != null && from.length() != until.length()) {
+            throw new BadArgumentException("The from and until arguments must have the same granularity");
+        }
+        if (from != null) {
+            oaiRequest.withFrom(from);
+            token.withFrom(parseDateArgument(from, false));
+        }
+        if (until != null) {
+            oaiRequest.withUntil(until);
+            token.withUntil(parseDateArgument(until, true));
+        }
+        if (token.hasFrom() && token.hasUntil() && token.getFrom().after(token.getUntil())) {
+            throw new BadArgumentException("The from argument must not be after the until argument");
+        }
+        
+        return token;
+    }
+    
+    private Date parseDateArgument(String value, boolean isUntil) throws BadArgumentException {
+        try {
+            if (value.length() == "yyyy-MM-dd".length()) {
+                Date date = new UTCDateProvider().parse(value, Granularity.Day);
+                // a day-granularity "until" includes the whole day:
+                return isUntil ? new Date(date.getTime() + 24 * 60 * 60 * 1000L - 1) : date;
+            }
+            Date date = new UTCDateProvider().parse(value, Granularity.Second);
+            return isUntil ? new Date(date.getTime() + 999) : date;
+        } catch (ParseException ex) {
+            throw new BadArgumentException("Illegal date: " + value);
+        }
+    }
+    
+    /**
+     * Writes a ListRecords response: the envelope as XOAI writes it, with the
+     * cached export of each record streamed in place of its (empty) metadata
+     * element, as {@link #writeGetRecord} does for a single record.
+     * 
+     * @param exports the opened exports of the records with metadata, in the
+     * same order; not used in the extended metadata mode.
+     */
+    private void writeListRecordsResponse(HttpServletResponse response, OAIPMH handle, String formatName, List<OAIRecord> recordsWithMetadata, List<InputStream> exports) throws IOException, XmlWriteException, XMLStreamException {
+        ByteArrayOutputStream envelope = new ByteArrayOutputStream();
+        XmlWriter xmlWriter = new XmlWriter(envelope, new XmlWriter.WriterContext(Granularity.Second, new KeysetResumptionToken.Format()));
+        xmlWriter.write(handle);
+        xmlWriter.flush();
+        xmlWriter.close();
+        
+        OutputStream outputStream = response.getOutputStream();
+        if (recordsWithMetadata == null || recordsWithMetadata.isEmpty()) {
+            envelope.writeTo(outputStream);
+            outputStream.close();
+            return;
+        }
+        
+        String[] parts = envelope.toString("UTF-8").split("<metadata/>", -1);
+        if (parts.length != recordsWithMetadata.size() + 1) {
+            throw new IOException("Unexpected ListRecords envelope: " + (parts.length - 1) + " metadata placeholders for " + recordsWithMetadata.size() + " records");
+        }
+        
+        for (int i = 0; i < recordsWithMetadata.size(); i++) {
+            outputStream.write(parts[i].getBytes("UTF-8"));
+            if (isExtendedDataverseMetadataMode(formatName)) {
+                String identifier = recordsWithMetadata.get(i).getGlobalId();
+                outputStream.write(("<metadata" + customMetadataExtensionAttribute(identifier) + "></metadata>").getBytes("UTF-8"));
+                continue;
+            }
+            outputStream.write("<metadata>".getBytes("UTF-8"));
+            writeMetadataStream(exports.get(i), outputStream);
+            outputStream.write("</metadata>".getBytes("UTF-8"));
+        }
+        outputStream.write(parts[parts.length - 1].getBytes("UTF-8"));
+        outputStream.flush();
+        outputStream.close();
+    }
+    
     private String customMetadataExtensionAttribute(String identifier) {
         String ret = " directApiCall=\"" 
                 + systemConfig.getDataverseSiteUrl() 
@@ -350,6 +608,10 @@ public class OAIServlet extends HttpServlet {
         
     }
 
+    private boolean isListRecords(HttpServletRequest request) {
+        return "ListRecords".equals(request.getParameter("verb"));
+    }
+
 
     private boolean isExtendedDataverseMetadataMode(String formatName) {
         return DATAVERSE_EXTENDED_METADATA_FORMAT.equals(formatName);
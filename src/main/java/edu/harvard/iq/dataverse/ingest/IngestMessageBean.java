@@ -58,6 +58,7 @@ public class IngestMessageBean implements MessageListener {
     @EJB DatasetServiceBean datasetService;
     @EJB DataFileServiceBean datafileService;
     @EJB IngestServiceBean ingestService; 
+    @EJB IngestScheduler ingestScheduler;
 
    
     public IngestMessageBean() {
@@ -67,89 +68,39 @@ public class IngestMessageBean implements MessageListener {
     public void onMessage(Message message) {
         IngestMessage ingestMessage = null;
 
-        Long datafile_id = null; 
-        
         try {
             ObjectMessage om = (ObjectMessage) message;
             ingestMessage = (IngestMessage) om.getObject();
 
-            Iterator iter = ingestMessage.getFileIds().iterator();
-            datafile_id = null; 
-            // TODO: 
-            // is it going to work if multiple files are submitted for ingest? 
-            // -- L.A. Aug. 13 2014
-            while (iter.hasNext()) {
-                datafile_id = (Long) iter.next();
-
-                logger.info("Start ingest job;");
-                try {
-                    if (ingestService.ingestAsTabular(datafile_id)) {
-                        //Thread.sleep(10000);
-                        logger.info("Finished ingest job;");
-                    } else {
-                        logger.info("Error occurred during ingest job!");
-                    }
-                } catch (Exception ex) {
-                    //ex.printStackTrace();
-                    // TODO: 
-                    // this solution is working - but it would be cleaner to instead
-                    // make sure that all the exceptions are interrupted and appropriate
-                    // action taken still on the ingest service side. 
-                    // -- L.A. Aug. 13 2014; 
-                    logger.info("Unknown exception occurred  during ingest (supressed stack trace); re-setting ingest status.");
-                    if (datafile_id != null) {
-                        logger.info("looking up datafile for id " + datafile_id);
-                        DataFile datafile = datafileService.find(datafile_id);
-                        if (datafile != null) {
-                            datafile.SetIngestProblem();
-                            IngestReport errorReport = new IngestReport();
-                            errorReport.setFailure();
-                            if (ex.getMessage() != null) {
-                                errorReport.setReport("Ingest succeeded, but failed to save the ingested tabular data in the database: " + ex.getMessage());
-                            } else {
-                                errorReport.setReport("Ingest succeeded, but failed to save the ingested tabular data in the database; no further information is available");
-                            }
-                            errorReport.setDataFile(datafile);
-                            datafile.setIngestReport(errorReport);
-                            datafile.setDataTables(null);
-
-                            logger.info("trying to save datafile " + datafile_id);
-                            datafile = datafileService.save(datafile);
-
-                            Dataset dataset = datafile.getOwner();
-                            if (dataset != null && dataset.getId() != null) {
-                                //logger.info("attempting to remove dataset lock for dataset " + dataset.getId());
-                                //datasetService.removeDatasetLock(dataset.getId());
-                                ingestService.sendFailNotification(dataset.getId());
-                            }
-                        }
-                    }
-                }
-            }
-            
-            // Remove the dataset lock: 
+            // The files are ingested one by one, by the workers of the 
+            // ingest scheduler, in parallel with each other and with the 
+            // files of the other datasets; the scheduler removes the 
+            // dataset lock once the last of them is done. 
             // (note that the assumption here is that all of the datafiles
             // packed into this IngestMessage belong to the same dataset) 
-            if (datafile_id != null) {
+            Long datasetId = ingestMessage.getDatasetId();
+            List<IngestQueue.Job> jobs = new ArrayList<>();
+            for (Long datafile_id : ingestMessage.getFileIds()) {
                 DataFile datafile = datafileService.find(datafile_id);
-                if (datafile != null) {
-                    Dataset dataset = datafile.getOwner();
-                    if (dataset != null && dataset.getId() != null) {
-                        datasetService.removeDatasetLock(dataset.getId());
-                    }
-                } 
-            } 
+                if (datafile == null) {
+                    logger.warning("Datafile " + datafile_id + " scheduled for ingest no longer exists.");
+                    continue;
+                }
+                if (datasetId == null && datafile.getOwner() != null) {
+                    datasetId = datafile.getOwner().getId();
+                }
+                jobs.add(new IngestQueue.Job(datafile_id, datasetId, datafile.getFilesize(), datafile.getContentType()));
+            }
+            if (datasetId != null) {
+                ingestScheduler.ingestAndWait(datasetId, jobs);
+            }
 
         } catch (JMSException ex) {
             ex.printStackTrace(); // error in getting object from message; can't send e-mail
 
-        } finally {
-            // when we're done, go ahead and remove the lock (not yet)
-            try {
-                //datasetService.removeDatasetLock( ingestMessage.getDatasetId() );
-            } catch (Exception ex) {
-                ex.printStackTrace(); // application was unable to remove the datasetLock
-            }
+        } catch (InterruptedException ex) {
+            logger.info("Interrupted waiting for the ingest of dataset " + (ingestMessage == null ? null : ingestMessage.getDatasetId()));
+            Thread.currentThread().interrupt();
         }
     }
  
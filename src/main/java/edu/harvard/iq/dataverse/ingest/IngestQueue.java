@@ -0,0 +1,166 @@
+package edu.harvard.iq.dataverse.ingest;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * The files waiting to be ingested, across all the datasets, in the order
+ * they are to be ingested in - see {@link Policy}.
+ *
+ * @see IngestScheduler
+ */
+public class IngestQueue {
+
+    public enum Policy {
+        /**
+         * The smallest file first, whatever the dataset: a big file does not
+         * hold up the small ones, of its dataset or any other. But a file
+         * that has waited longer than the longest wait is taken first (the
+         * one that came first, first), so that a big file is not held up for
+         * good by the small ones that keep coming.
+         */
+        SmallestFirst,
+        /**
+         * One file from each dataset in turn, the smallest first within each
+         * dataset: a dataset with many files does not hold up the others.
+         */
+        Fair
+    }
+
+    /**
+     * A file to ingest.
+     */
+    public static class Job {
+
+        private static final AtomicLong sequence = new AtomicLong();
+
+        final Long fileId;
+        final Long datasetId;
+        final long size;
+        final String contentType;
+        final long seq = sequence.incrementAndGet();
+        long queuedAt;
+
+        public Job(Long fileId, Long datasetId, long size, String contentType) {
+            this.fileId = fileId;
+            this.datasetId = datasetId;
+            this.size = size;
+            this.contentType = contentType;
+        }
+
+        public Long getFileId() {
+            return fileId;
+        }
+
+        public Long getDatasetId() {
+            return datasetId;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+    }
+
+    private static final Comparator<Job> SMALLEST_FIRST = (j1, j2) -> {
+        int bySize = Long.compare(j1.size, j2.size);
+        return bySize != 0 ? bySize : Long.compare(j1.seq, j2.seq);
+    };
+
+    private static final Comparator<Job> FIRST_COME = (j1, j2) -> Long.compare(j1.seq, j2.seq);
+
+    private final Policy policy;
+    private final long maxWaitNanos;
+    private final LongSupplier nanoClock;
+    private final TreeSet<Job> jobs = new TreeSet<>(SMALLEST_FIRST);
+    /**
+     * For {@link Policy#SmallestFirst}: the same jobs, in the order they
+     * came in.
+     */
+    private final TreeSet<Job> jobsByArrival = new TreeSet<>(FIRST_COME);
+    /**
+     * For {@link Policy#Fair}: the jobs of each dataset, in the order the
+     * datasets get their turn.
+     */
+    private final Map<Long, PriorityQueue<Job>> jobsByDataset = new LinkedHashMap<>();
+    private int size = 0;
+
+    /**
+     * @param policy the order to take the files in.
+     * @param maxWaitMillis for {@link Policy#SmallestFirst}, how long a file
+     * waits at most before it is taken ahead of smaller ones; 0 for no limit.
+     */
+    public IngestQueue(Policy policy, long maxWaitMillis) {
+        this(policy, maxWaitMillis, System::nanoTime);
+    }
+
+    IngestQueue(Policy policy, long maxWaitMillis, LongSupplier nanoClock) {
+        this.policy = policy;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.nanoClock = nanoClock;
+    }
+
+    public synchronized void add(Job job) {
+        job.queuedAt = nanoClock.getAsLong();
+        if (policy == Policy.Fair) {
+            jobsByDataset.computeIfAbsent(job.datasetId, id -> new PriorityQueue<>(SMALLEST_FIRST)).add(job);
+        } else {
+            jobs.add(job);
+            jobsByArrival.add(job);
+        }
+        size++;
+    }
+
+    /**
+     * @return the next file to ingest, or {@code null} if there is none.
+     */
+    public synchronized Job poll() {
+        if (size == 0) {
+            return null;
+        }
+        size--;
+        if (policy != Policy.Fair) {
+            Job oldest = jobsByArrival.first();
+            if (maxWaitNanos > 0 && nanoClock.getAsLong() - oldest.queuedAt >= maxWaitNanos) {
+                jobsByArrival.pollFirst();
+                jobs.remove(oldest);
+                return oldest;
+            }
+            Job smallest = jobs.pollFirst();
+            jobsByArrival.remove(smallest);
+            return smallest;
+        }
+        Iterator<Map.Entry<Long, PriorityQueue<Job>>> turns = jobsByDataset.entrySet().iterator();
+        Map.Entry<Long, PriorityQueue<Job>> turn = turns.next();
+        Job job = turn.getValue().poll();
+        // the dataset goes to the back of the line, if it has more files
+        turns.remove();
+        if (!turn.getValue().isEmpty()) {
+            jobsByDataset.put(turn.getKey(), turn.getValue());
+        }
+        return job;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+}
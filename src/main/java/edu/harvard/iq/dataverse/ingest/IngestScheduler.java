@@ -0,0 +1,234 @@
+package edu.harvard.iq.dataverse.ingest;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.DataFileServiceBean;
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.DatasetServiceBean;
+import edu.harvard.iq.dataverse.util.SystemConfig;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Ingests the tabular data files one file at a time, on a bounded pool of
+ * workers (see {@link SystemConfig#getIngestWorkers()}), so that the files of
+ * a dataset are ingested in parallel, and a big file holds up no more than one
+ * worker. The files of all the datasets being ingested wait in one
+ * {@link IngestQueue}, and are taken in the order of
+ * {@link SystemConfig#getIngestSchedulingPolicy()}. Once the last file of a
+ * dataset is ingested, the UNF of its version is recalculated, from those of
+ * all its files, and the lock on the dataset is removed.
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class IngestScheduler {
+
+    private static final Logger logger = Logger.getLogger(IngestScheduler.class.getCanonicalName());
+
+    public static final IngestStats stats = new IngestStats();
+
+    @EJB
+    IngestServiceBean ingestService;
+    @EJB
+    DatasetServiceBean datasetService;
+    @EJB
+    DataFileServiceBean datafileService;
+    @EJB
+    SystemConfig systemConfig;
+    @Resource
+    ManagedExecutorService executor;
+
+    private IngestQueue queue;
+    private Semaphore workerSlots;
+    private int workers;
+    private final AtomicInteger inProgress = new AtomicInteger();
+
+    /**
+     * The datasets whose files are being ingested, by the jobs of their files.
+     */
+    private final Map<IngestQueue.Job, DatasetIngest> datasetIngests = new ConcurrentHashMap<>();
+
+    private static class DatasetIngest {
+        final Long datasetId;
+        final AtomicInteger filesLeft;
+        final CountDownLatch done = new CountDownLatch(1);
+
+        DatasetIngest(Long datasetId, int files) {
+            this.datasetId = datasetId;
+            this.filesLeft = new AtomicInteger(files);
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        workers = Math.max(1, systemConfig.getIngestWorkers());
+        workerSlots = new Semaphore(workers);
+        queue = new IngestQueue(systemConfig.getIngestSchedulingPolicy(), 1000 * systemConfig.getIngestMaxWaitSeconds());
+    }
+
+    /**
+     * Ingests the files of a dataset, and removes the lock on the dataset
+     * once they are all done.
+     *
+     * @param datasetId the dataset.
+     * @param jobs the files to ingest, all in the dataset.
+     * @throws InterruptedException if the thread was interrupted waiting for
+     * the files to be ingested (which goes on regardless).
+     */
+    public void ingestAndWait(Long datasetId, List<IngestQueue.Job> jobs) throws InterruptedException {
+        if (jobs.isEmpty()) {
+            datasetService.removeDatasetLock(datasetId);
+            return;
+        }
+        DatasetIngest datasetIngest = new DatasetIngest(datasetId, jobs.size());
+        for (IngestQueue.Job job : jobs) {
+            datasetIngests.put(job, datasetIngest);
+            queue.add(job);
+        }
+        dispatch();
+        datasetIngest.done.await();
+    }
+
+    /**
+     * Hands the waiting files to the free workers, if any. If the executor
+     * will not take one, it is ingested on this thread, before going on
+     * with the others.
+     */
+    private void dispatch() {
+        while (workerSlots.tryAcquire()) {
+            IngestQueue.Job job = queue.poll();
+            if (job == null) {
+                workerSlots.release();
+                if (queue.isEmpty()) {
+                    return;
+                }
+                // a file came in while this worker's slot was taken
+                continue;
+            }
+            try {
+                executor.submit(() -> work(job));
+            } catch (RejectedExecutionException ex) {
+                logger.log(Level.WARNING, "Could not hand the ingest of file " + job.fileId + " to a worker; ingesting it here", ex);
+                // (not work(): this loop goes on with the files waiting)
+                ingestAndRelease(job);
+            }
+        }
+    }
+
+    private void work(IngestQueue.Job job) {
+        ingestAndRelease(job);
+        dispatch();
+    }
+
+    /**
+     * Ingests the file, and gives up its worker's slot.
+     */
+    private void ingestAndRelease(IngestQueue.Job job) {
+        inProgress.incrementAndGet();
+        try {
+            long start = System.nanoTime();
+            boolean succeeded = ingest(job.fileId);
+            stats.ingested(job.contentType, job.size, System.nanoTime() - start, succeeded);
+        } finally {
+            inProgress.decrementAndGet();
+            workerSlots.release();
+            finished(job);
+        }
+    }
+
+    private void finished(IngestQueue.Job job) {
+        DatasetIngest datasetIngest = datasetIngests.remove(job);
+        if (datasetIngest != null && datasetIngest.filesLeft.decrementAndGet() == 0) {
+            try {
+                // once, with all the files ingested, rather than after each 
+                // (which, with the files ingested at the same time, could 
+                // each leave out the others)
+                ingestService.recalculateDatasetVersionUNFInNewTransaction(datasetIngest.datasetId);
+            } catch (RuntimeException ex) {
+                logger.log(Level.WARNING, "Could not recalculate the UNF of dataset " + datasetIngest.datasetId, ex);
+            }
+            try {
+                datasetService.removeDatasetLock(datasetIngest.datasetId);
+            } catch (RuntimeException ex) {
+                logger.log(Level.WARNING, "Could not remove the lock on dataset " + datasetIngest.datasetId, ex);
+            } finally {
+                datasetIngest.done.countDown();
+            }
+        }
+    }
+
+    private boolean ingest(Long datafile_id) {
+        logger.info("Start ingest job;");
+        try {
+            if (ingestService.ingestAsTabular(datafile_id)) {
+                logger.info("Finished ingest job;");
+                return true;
+            } else {
+                logger.info("Error occurred during ingest job!");
+                return false;
+            }
+        } catch (Exception ex) {
+            // TODO:
+            // this solution is working - but it would be cleaner to instead
+            // make sure that all the exceptions are interrupted and appropriate
+            // action taken still on the ingest service side.
+            // -- L.A. Aug. 13 2014;
+            logger.info("Unknown exception occurred  during ingest (supressed stack trace); re-setting ingest status.");
+            logger.info("looking up datafile for id " + datafile_id);
+            DataFile datafile = datafileService.find(datafile_id);
+            if (datafile != null) {
+                datafile.SetIngestProblem();
+                IngestReport errorReport = new IngestReport();
+                errorReport.setFailure();
+                if (ex.getMessage() != null) {
+                    errorReport.setReport("Ingest succeeded, but failed to save the ingested tabular data in the database: " + ex.getMessage());
+                } else {
+                    errorReport.setReport("Ingest succeeded, but failed to save the ingested tabular data in the database; no further information is available");
+                }
+                errorReport.setDataFile(datafile);
+                datafile.setIngestReport(errorReport);
+                datafile.setDataTables(null);
+
+                logger.info("trying to save datafile " + datafile_id);
+                datafile = datafileService.save(datafile);
+
+                Dataset dataset = datafile.getOwner();
+                if (dataset != null && dataset.getId() != null) {
+                    ingestService.sendFailNotification(dataset.getId());
+                }
+            }
+            return false;
+        }
+    }
+
+    public JsonObjectBuilder getStatus() {
+        return Json.createObjectBuilder()
+                .add("policy", queue.getPolicy().name())
+                .add("workers", workers)
+                .add("queued", queue.size())
+                .add("inProgress", inProgress.get())
+                .add("datasets", datasetIngests.values().stream().distinct().count())
+                .add("formats", stats.toJson());
+    }
+
+}
@@ -36,9 +36,9 @@ import edu.harvard.iq.dataverse.DatasetVersion;
 import edu.harvard.iq.dataverse.FileMetadata;
 import edu.harvard.iq.dataverse.MetadataBlock;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.dataaccess.DataAccess;
 import edu.harvard.iq.dataverse.dataaccess.DataFileIO;
 import edu.harvard.iq.dataverse.dataaccess.DataAccessOption;
-import edu.harvard.iq.dataverse.dataaccess.FileAccessIO;
 import edu.harvard.iq.dataverse.dataaccess.ImageThumbConverter;
 import edu.harvard.iq.dataverse.dataaccess.TabularSubsetGenerator;
 import edu.harvard.iq.dataverse.datavariable.SummaryStatistic;
@@ -61,10 +61,9 @@ import edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins.sav.SAVFileReade
 import edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins.sav.SAVFileReaderSpi;
 import edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins.por.PORFileReader;
 import edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins.por.PORFileReaderSpi;
+import edu.harvard.iq.dataverse.util.ChecksummingCopy;
 import edu.harvard.iq.dataverse.util.FileUtil;
-import edu.harvard.iq.dataverse.util.MD5Checksum;
 import edu.harvard.iq.dataverse.util.ShapefileHandler;
-import edu.harvard.iq.dataverse.util.SumStatCalculator;
 import edu.harvard.iq.dataverse.util.SystemConfig;
 //import edu.harvard.iq.dvn.unf.*;
 import org.dataverse.unf.*;
@@ -86,11 +85,11 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.sql.Timestamp;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Iterator;
@@ -99,10 +98,17 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.ejb.EJB;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
 import javax.inject.Named;
 import javax.jms.Queue;
 import javax.jms.QueueConnectionFactory;
@@ -117,7 +123,7 @@ import javax.faces.application.FacesMessage;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 import javax.annotation.PostConstruct;
 import javax.ejb.EJBException;
 import javax.ejb.Singleton;
@@ -153,6 +159,8 @@ public class IngestServiceBean {
     Queue queue;
     @Resource(mappedName = "jms/IngestQueueConnectionFactory")
     QueueConnectionFactory factory;
+    @Resource
+    ManagedExecutorService executor;
     
     // TODO: [in process!]
     // move all the type-related lookups into the file service (L.A.)
@@ -180,8 +188,6 @@ public class IngestServiceBean {
     private static final String SAVED_ORIGINAL_FILENAME_EXTENSION = "orig";
     
     private static String timeFormat_hmsS = "HH:mm:ss.SSS";
-    private static String dateTimeFormat_ymdhmsS = "yyyy-MM-dd HH:mm:ss.SSS";
-    private static String dateFormat_ymd = "yyyy-MM-dd";
     
    
     /* 
@@ -246,7 +252,9 @@ public class IngestServiceBean {
         
         // save the file, in the temporary location for now: 
         Path tempFile = null; 
-        
+        // (the MD5 and the first bytes of the file are taken as it is saved,
+        // so that it does not have to be read again for them)
+        ChecksummingCopy upload = null;
         
         if (getFilesTempDirectory() != null) {
             tempFile = Files.createTempFile(Paths.get(getFilesTempDirectory()), "tmp", "upload");
@@ -255,7 +263,7 @@ public class IngestServiceBean {
             // temp files will always be stored on the local filesystem. 
             //          -- L.A. Jul. 2014
             logger.fine("Will attempt to save the file as: " + tempFile.toString());
-            Files.copy(inputStream, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            upload = ChecksummingCopy.copy(inputStream, tempFile);
         } else {
             throw new IOException ("Temp directory is not configured.");
         }
@@ -270,7 +278,7 @@ public class IngestServiceBean {
         String recognizedType = null;
         String finalType = null; 
         try {
-            recognizedType = FileUtil.determineFileType(tempFile.toFile(), fileName);
+            recognizedType = FileUtil.determineFileType(tempFile.toFile(), fileName, upload.getHead());
             logger.fine("File utility recognized the file as " + recognizedType);
             if (recognizedType != null && !recognizedType.equals("")) {
                 // is it any better than the type that was supplied to us,
@@ -367,49 +375,38 @@ public class IngestServiceBean {
         // DataFile objects from its contents:
           } else if (finalType.equals("application/zip")) {   
             
-            ZipInputStream unZippedIn = null; 
             ZipEntry zipEntry = null; 
             
             int fileNumberLimit = systemConfig.getZipUploadFilesLimit();
             
-            try {
-                Charset charset = null;
+            // (random access to the entries, so that they can be unpacked in 
+            // parallel)
+            try (ZipFile zipFile = new ZipFile(tempFile.toFile())) {
                 /*
                 TODO: (?)
                 We may want to investigate somehow letting the user specify 
                 the charset for the filenames in the zip file...
-                - otherwise, ZipInputStream bails out if it encounteres a file 
+                - otherwise, ZipFile bails out if it encounteres a file 
                 name that's not valid in the current charest (i.e., UTF-8, in 
                 our case). It would be a bit trickier than what we're doing for 
                 SPSS tabular ingests - with the lang. encoding pulldown menu - 
                 because this encoding needs to be specified *before* we upload and
                 attempt to unzip the file. 
                         -- L.A. 4.0 beta12
-                logger.info("default charset is "+Charset.defaultCharset().name());
-                if (Charset.isSupported("US-ASCII")) {
-                    logger.info("charset US-ASCII is supported.");
-                    charset = Charset.forName("US-ASCII");
-                    if (charset != null) {
-                        logger.info("was able to obtain charset for US-ASCII");
-                    }
-                    
-                }
                 */
                 
-                if (charset != null) {
-                    unZippedIn = new ZipInputStream(new FileInputStream(tempFile.toFile()), charset);
-                } else {
-                    unZippedIn = new ZipInputStream(new FileInputStream(tempFile.toFile()));
-                } 
-                                                                
+                // First, in the order of the entries in the archive, pick the 
+                // files to unpack and create the DataFiles for them; then 
+                // unpack them all, in parallel (see ZipUploadUnpacker).
+                List<ZipUploadUnpacker.Entry> uploadEntries = new ArrayList<>();
+                Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+                
                 while (true) { 
                     try {
-                        zipEntry = unZippedIn.getNextEntry();
+                        zipEntry = zipEntries.hasMoreElements() ? zipEntries.nextElement() : null;
                     } catch (IllegalArgumentException iaex) {
                         // Note: 
-                        // ZipInputStream documentation doesn't even mention that 
-                        // getNextEntry() throws an IllegalArgumentException!
-                        // but that's what happens if the file name of the next
+                        // this is what happens if the file name of the next
                         // entry is not valid in the current CharSet. 
                         //      -- L.A.
                         warningMessage = "Failed to unpack Zip file. (Unknown Character Set used in a file name?) Saving the file as is.";
@@ -424,7 +421,7 @@ public class IngestServiceBean {
                     // simply skip them:
                     
                     if (!zipEntry.isDirectory()) {
-                        if (datafiles.size() > fileNumberLimit) {
+                        if (uploadEntries.size() > fileNumberLimit) {
                             logger.warning("Zip upload - too many files.");
                             warningMessage = "The number of files in the zip archive is over the limit (" + fileNumberLimit + 
                                 "); please upload a zip archive with fewer files, if you want them to be ingested " +
@@ -443,10 +440,12 @@ public class IngestServiceBean {
                             // created for a MacOS X filesystem element: (these 
                             // start with "._")
                             if (!shortName.startsWith("._") && !shortName.startsWith(".DS_Store") && !"".equals(shortName)) {
-                                // OK, this seems like an OK file entry - we'll try 
-                                // to read it and create a DataFile with it:
+                                // OK, this seems like an OK file entry - we'll 
+                                // create a DataFile for it, with the mime type 
+                                // "unknown" for now: 
 
-                                DataFile datafile = createSingleDataFile(version, unZippedIn, shortName, MIME_TYPE_UNDETERMINED_DEFAULT, false);
+                                DataFile datafile = createSingleDataFile(version, null, shortName, MIME_TYPE_UNDETERMINED_DEFAULT, false);
+                                fileService.generateStorageIdentifier(datafile);
 
                                 if (!fileEntryName.equals(shortName)) {
                                     String categoryName = fileEntryName.replaceFirst("[\\/][^\\/]*$", "");
@@ -457,32 +456,16 @@ public class IngestServiceBean {
                                     }
                                 }
                                 
-                                if (datafile != null) {
-                                    // We have created this datafile with the mime type "unknown";
-                                    // Now that we have it saved in a temporary location, 
-                                    // let's try and determine its real type:
-                                    
-                                    String tempFileName = getFilesTempDirectory() + "/" + datafile.getStorageIdentifier();
-                                    
-                                    try {
-                                        recognizedType = FileUtil.determineFileType(new File(tempFileName), shortName);
-                                        logger.fine("File utility recognized unzipped file as " + recognizedType);
-                                        if (recognizedType != null && !recognizedType.equals("")) {
-                                             datafile.setContentType(recognizedType);
-                                        }
-                                    } catch (Exception ex) {
-                                        logger.warning("Failed to run the file utility mime type check on file " + fileName);
-                                    }
-                                    
-                                    datafiles.add(datafile);
-                                }
+                                uploadEntries.add(new ZipUploadUnpacker.Entry(zipEntry, shortName, datafile));
                             }
                         }
                     } 
-                    unZippedIn.closeEntry(); 
-                    
                 }
                 
+                // (the files that could not be unpacked are left out)
+                ZipUploadUnpacker unpacker = new ZipUploadUnpacker(executor, systemConfig.getZipUploadWorkers(), Paths.get(getFilesTempDirectory()));
+                datafiles.addAll(unpacker.unpack(zipFile, uploadEntries));
+                
             } catch (IOException ioex) {
                 // just clear the datafiles list and let 
                 // ingest default to creating a single DataFile out
@@ -493,10 +476,6 @@ public class IngestServiceBean {
                 }
                 
                 datafiles.clear();
-            } finally {
-                if (unZippedIn != null) {
-                    try {unZippedIn.close();} catch (Exception zEx) {}
-                }
             }
             if (datafiles.size() > 0) {
                 // link the data files to the dataset/version: 
@@ -601,13 +580,8 @@ public class IngestServiceBean {
                 return null; 
             }
             
-            // MD5:
-            MD5Checksum md5Checksum = new MD5Checksum();
-            try {
-                datafile.setmd5(md5Checksum.CalculateMD5(getFilesTempDirectory() + "/" + datafile.getStorageIdentifier()));
-            } catch (Exception md5ex) {
-                logger.warning("Could not calculate MD5 signature for new file " + fileName);
-            }
+            // MD5 (calculated as the file was saved):
+            datafile.setmd5(upload.getMd5());
         
             if (warningMessage != null) {
                 createIngestFailureReport(datafile, warningMessage);
@@ -827,41 +801,19 @@ public class IngestServiceBean {
         if (inputStream != null) {
         
             fileService.generateStorageIdentifier(datafile);
-            BufferedOutputStream outputStream = null;
 
             // Once again, at this point we are dealing with *temp*
             // files only; these are always stored on the local filesystem, 
-            // so we are using FileInput/Output Streams to read and write
-            // these directly, instead of going through the Data Access 
-            // framework. 
+            // so we are writing them directly, instead of going through 
+            // the Data Access framework. 
             //      -- L.A.
+            // (the MD5 is calculated as the file is written)
             
             try {
-                outputStream = new BufferedOutputStream(new FileOutputStream(getFilesTempDirectory() + "/" + datafile.getStorageIdentifier()));
-
-                byte[] dataBuffer = new byte[8192];
-                int i = 0;
-
-                while ((i = inputStream.read(dataBuffer)) > 0) {
-                    outputStream.write(dataBuffer, 0, i);
-                    outputStream.flush();
-                }
+                ChecksummingCopy copy = ChecksummingCopy.copy(inputStream, Paths.get(getFilesTempDirectory(), datafile.getStorageIdentifier()));
+                datafile.setmd5(copy.getMd5());
             } catch (IOException ioex) {
                 datafile = null; 
-            } finally {
-                try {
-                    outputStream.close();
-                } catch (IOException ioex) {}
-            }
-            
-            // MD5:
-            if (datafile != null) {
-                MD5Checksum md5Checksum = new MD5Checksum();
-                try {
-                    datafile.setmd5(md5Checksum.CalculateMD5(getFilesTempDirectory() + "/" + datafile.getStorageIdentifier()));
-                } catch (Exception md5ex) {
-                    logger.warning("Could not calculate MD5 signature for new file " + fileName);
-                }
             }
         }
         
@@ -946,6 +898,10 @@ public class IngestServiceBean {
                     
                     
                     Path tempLocationPath = Paths.get(getFilesTempDirectory() + "/" + storageId);
+                    
+                    // (the file goes to the storage driver configured for 
+                    // new files - the local filesystem, by default)
+                    dataFile.setStorageIdentifier(DataAccess.getNewFileStorageIdentifier(storageId));
                     WritableByteChannel writeChannel = null;
                     FileChannel readChannel = null;
                     
@@ -983,7 +939,9 @@ public class IngestServiceBean {
                             Files.copy(tempLocationPath, dataAccess.getFileSystemLocation(), StandardCopyOption.REPLACE_EXISTING);
                         */
                         
-                        dataAccess.copyPath(tempLocationPath);
+                        // (the temp file is moved, rather than copied, when 
+                        // the permanent location is on the same filesystem)
+                        dataAccess.movePath(tempLocationPath);
 
                         // Set filesize in bytes
                         // 
@@ -1003,7 +961,7 @@ public class IngestServiceBean {
                         // (TODO: probably not a very good style, that the size of the thumbnail 
                         // is hard-coded here; it may change in the future...)
                         Path tempThumbnailPath = Paths.get(tempLocationPath.toString() + ".thumb64");
-                        Files.delete(tempLocationPath);
+                        Files.deleteIfExists(tempLocationPath);
                         if (tempThumbnailPath.toFile().exists()) {
                             Files.delete(tempThumbnailPath);
                         }
@@ -1139,6 +1097,7 @@ public class IngestServiceBean {
             });
             
             ingestMessage = new IngestMessage(IngestMessage.INGEST_MESAGE_LEVEL_INFO);
+            ingestMessage.setDatasetId(dataset.getId());
             
             for (int i = 0; i < count; i++) {
                 ingestMessage.addFileId(scheduledFilesArray[i].getId());
@@ -1184,106 +1143,130 @@ public class IngestServiceBean {
         }
     }
     
+    /**
+     * Calculates the summary statistics and UNFs of all the variables of a 
+     * tabular file, and then the UNFs of the file and of its dataset version. 
+     * 
+     * The variables are independent of each other, so they are processed in 
+     * parallel (see {@link VariableStatisticsTask}), by up to 
+     * {@link SystemConfig#getIngestStatisticsWorkers()} threads at a time, 
+     * and only as many at a time as fit in 
+     * {@link SystemConfig#getIngestStatisticsMemoryBudget()}. The results are 
+     * then assigned to the variables here, on the calling thread.
+     * 
+     * (At this point it's still not clear what kinds of summary stats we
+     * want for character types; so only UNFs are calculated for those. 
+     * -- L.A. Jul. 2014)
+     * 
+     * @param dataFile an ingested tabular file, stored locally.
+     * @throws IOException if the tab file can't be read. 
+     */
     public void produceSummaryStatistics(DataFile dataFile) throws IOException {
         /*
         logger.info("Skipping summary statistics and UNF.");
          */
-        produceDiscreteNumericSummaryStatistics(dataFile); 
-        produceContinuousSummaryStatistics(dataFile);
-        produceCharacterSummaryStatistics(dataFile);
-        
-        recalculateDataFileUNF(dataFile);
-        recalculateDatasetVersionUNF(dataFile.getFileMetadata().getDatasetVersion());
-    }
-    
-    public void produceContinuousSummaryStatistics(DataFile dataFile) throws IOException {
-
-        // quick, but memory-inefficient way:
-        // - this method just loads the entire file-worth of continuous vectors 
-        // into a Double[][] matrix. 
-        //Double[][] variableVectors = subsetContinuousVectors(dataFile);
-        //calculateContinuousSummaryStatistics(dataFile, variableVectors);
-        
-        // A more sophisticated way: this subsets one column at a time, using 
-        // the new optimized subsetting that does not have to read any extra 
-        // bytes from the file to extract the column:
+        DataFileIO dataAccess = dataFile.getAccessObject();
+        File tabfile = dataAccess.getLocalCopy().toFile();
+        int varcount = dataFile.getDataTable().getVarQuantity().intValue();
+        int casecount = dataFile.getDataTable().getCaseQuantity().intValue();
+        boolean compatmode = new TabularSubsetGenerator().isCompatibilityModeFile(dataFile);
+        List<DataVariable> variables = dataFile.getDataTable().getDataVariables();
+        
+        List<VariableStatisticsTask> tasks = new ArrayList<>();
+        for (int i = 0; i < varcount; i++) {
+            VariableStatisticsTask task = VariableStatisticsTask.forVariable(variables.get(i), i, tabfile, varcount, casecount, compatmode);
+            if (task != null) {
+                tasks.add(task);
+            }
+        }
         
-        TabularSubsetGenerator subsetGenerator = new TabularSubsetGenerator();
+        runStatisticsTasks(tasks);
         
-        for (int i = 0; i < dataFile.getDataTable().getVarQuantity(); i++) {
-            if (dataFile.getDataTable().getDataVariables().get(i).isIntervalContinuous()) {
-                logger.fine("subsetting continuous vector");
-                if ("float".equals(dataFile.getDataTable().getDataVariables().get(i).getFormat())) {
-                    Float[] variableVector = subsetGenerator.subsetFloatVector(dataFile, i);
-                    logger.fine("Calculating summary statistics on a Float vector;");
-                    calculateContinuousSummaryStatistics(dataFile, i, variableVector);
-                    // calculate the UNF while we are at it:
-                    logger.fine("Calculating UNF on a Float vector;");
-                    calculateUNF(dataFile, i, variableVector);
-                    variableVector = null; 
-                } else {
-                    Double[] variableVector = subsetGenerator.subsetDoubleVector(dataFile, i);
-                    logger.fine("Calculating summary statistics on a Double vector;");
-                    calculateContinuousSummaryStatistics(dataFile, i, variableVector);
-                    // calculate the UNF while we are at it:
-                    logger.fine("Calculating UNF on a Double vector;");
-                    calculateUNF(dataFile, i, variableVector);
-                    variableVector = null; 
-                }
-                logger.fine("Done! (continuous);");
+        for (VariableStatisticsTask task : tasks) {
+            DataVariable variable = variables.get(task.getVarnum());
+            if (task.getSummaryStatistics() != null) {
+                assignContinuousSummaryStatistics(variable, task.getSummaryStatistics());
+            }
+            if (task.getUnf() != null) {
+                variable.setUnf(task.getUnf());
+            } else {
+                logger.warning("failed to calculate UNF signature for variable " + task.getVarnum());
             }
         }
+        
+        // (the UNF of the version is recalculated by IngestScheduler, once 
+        // all the files of the dataset are ingested)
+        recalculateDataFileUNF(dataFile);
     }
     
-    public void produceDiscreteNumericSummaryStatistics(DataFile dataFile) throws IOException {
+    private void runStatisticsTasks(List<VariableStatisticsTask> tasks) throws IOException {
+        int workers = systemConfig.getIngestStatisticsWorkers();
         
-        TabularSubsetGenerator subsetGenerator = new TabularSubsetGenerator();
-        
-        for (int i = 0; i < dataFile.getDataTable().getVarQuantity(); i++) {
-            if (dataFile.getDataTable().getDataVariables().get(i).isIntervalDiscrete()
-                    && dataFile.getDataTable().getDataVariables().get(i).isTypeNumeric()) {
-                logger.fine("subsetting discrete-numeric vector");
-                //Double[] variableVector = subsetGenerator.subsetDoubleVector(dataFile, i);
-                Long[] variableVector = subsetGenerator.subsetLongVector(dataFile, i);
-                // We are discussing calculating the same summary stats for 
-                // all numerics (the same kind of sumstats that we've been calculating
-                // for numeric continuous type)  -- L.A. Jul. 2014
-                calculateContinuousSummaryStatistics(dataFile, i, variableVector);
-                // calculate the UNF while we are at it:
-                logger.fine("Calculating UNF on a Long (Double, really...) vector");
-                calculateUNF(dataFile, i, variableVector);
-                logger.fine("Done! (discrete numeric)");
-                variableVector = null; 
+        if (executor == null || workers < 2 || tasks.size() < 2) {
+            for (VariableStatisticsTask task : tasks) {
+                task.call();
             }
+            return;
         }
-    }
-    
-    public void produceCharacterSummaryStatistics(DataFile dataFile) throws IOException {
-
-        /* 
-            At this point it's still not clear what kinds of summary stats we
-            want for character types. Though we are pretty confident we don't 
-            want to keep doing what we used to do in the past, i.e. simply 
-            store the total counts for all the unique values; even if it's a 
-            very long vector, and *every* value in it is unique. (As a result 
-            of this, our Categorical Variable Value table is the single 
-            largest in the production database. With no evidence whatsoever, 
-            that this information is at all useful. 
-                -- L.A. Jul. 2014 
-        */
         
-        TabularSubsetGenerator subsetGenerator = new TabularSubsetGenerator();
+        // the memory budget is counted in megabytes: 
+        int budget = (int) Math.max(1, Math.min(Integer.MAX_VALUE, systemConfig.getIngestStatisticsMemoryBudget() / (1024 * 1024)));
+        Semaphore memory = new Semaphore(budget);
+        Semaphore slots = new Semaphore(workers);
         
-        for (int i = 0; i < dataFile.getDataTable().getVarQuantity(); i++) {
-            if (dataFile.getDataTable().getDataVariables().get(i).isTypeCharacter()) {
-                logger.fine("subsetting character vector");
-                String[] variableVector = subsetGenerator.subsetStringVector(dataFile, i);
-                //calculateCharacterSummaryStatistics(dataFile, i, variableVector);
-                // calculate the UNF while we are at it:
-                logger.fine("Calculating UNF on a String vector");
-                calculateUNF(dataFile, i, variableVector);
-                logger.fine("Done! (character)");
-                variableVector = null; 
+        logger.fine("Calculating statistics for " + tasks.size() + " variables; " + workers + " workers, " + budget + " MB");
+        
+        List<Future<VariableStatisticsTask>> futures = new ArrayList<>();
+        try {
+            for (VariableStatisticsTask task : tasks) {
+                // a variable larger than the whole budget still gets to run, 
+                // on its own: 
+                int cost = (int) Math.min(budget, Math.max(1, task.estimateMemory() / (1024 * 1024)));
+                slots.acquire();
+                try {
+                    memory.acquire(cost);
+                } catch (InterruptedException ex) {
+                    slots.release();
+                    throw ex;
+                }
+                try {
+                    futures.add(executor.submit(() -> {
+                        try {
+                            return task.call();
+                        } finally {
+                            memory.release(cost);
+                            slots.release();
+                        }
+                    }));
+                } catch (RejectedExecutionException ex) {
+                    memory.release(cost);
+                    slots.release();
+                    throw new IOException("Could not schedule statistics for variable " + task.getVarnum(), ex);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while calculating summary statistics", ex);
+        } finally {
+            // Whatever happens, wait for the submitted tasks; they're 
+            // reading the tab file:
+            IOException failure = null;
+            for (Future<VariableStatisticsTask> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    if (failure == null) {
+                        failure = (ex.getCause() instanceof IOException) ? (IOException) ex.getCause() : new IOException(ex.getCause());
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    if (failure == null) {
+                        failure = new IOException("Interrupted while calculating summary statistics", ex);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
             }
         }
     }
@@ -1298,7 +1281,9 @@ public class IngestServiceBean {
         }
         
         try {
-            fileUnfValue = UNFUtil.calculateUNF(unfValues);
+            synchronized (VariableStatisticsTask.UNF_LOCK) {
+                fileUnfValue = UNFUtil.calculateUNF(unfValues);
+            }
         } catch (IOException ex) {
             logger.warning("Failed to recalculate the UNF for the datafile id="+dataFile.getId());
         } catch (UnfException uex) {
@@ -1310,6 +1295,20 @@ public class IngestServiceBean {
         }
     }
     
+    /**
+     * Recalculates the UNF of the latest version of the dataset, from those
+     * of its files as they are in the database; and saves it.
+     * 
+     * @param datasetId the dataset.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void recalculateDatasetVersionUNFInNewTransaction(Long datasetId) {
+        Dataset dataset = datasetService.find(datasetId);
+        if (dataset != null && dataset.getLatestVersion() != null) {
+            recalculateDatasetVersionUNF(dataset.getLatestVersion());
+        }
+    }
+    
     public void recalculateDatasetVersionUNF(DatasetVersion version) {
         String[] unfValues = new String[0];
         String datasetUnfValue = null; 
@@ -1333,7 +1332,9 @@ public class IngestServiceBean {
         
             logger.fine("Attempting to calculate new UNF from total of " + unfValueList.size() + " file-level signatures.");
             try {
-                datasetUnfValue = UNFUtil.calculateUNF(unfValues);
+                synchronized (VariableStatisticsTask.UNF_LOCK) {
+                    datasetUnfValue = UNFUtil.calculateUNF(unfValues);
+                }
             } catch (IOException ex) {
                 logger.warning("IO Exception: Failed to recalculate the UNF for the dataset version id="+version.getId());
             } catch (UnfException uex) {
@@ -1475,8 +1476,9 @@ public class IngestServiceBean {
                         tabDataIngest.getDataTable().setOriginalFileFormat(dataFile.getContentType());
                     }
 
+                    // (not opened: neither saving the original nor replacing 
+                    // the file needs it read)
                     DataFileIO dataAccess = dataFile.getAccessObject();
-                    dataAccess.open();
                     
                     // and we want to save the original of the ingested file: 
                     try {
@@ -2043,22 +2045,54 @@ public class IngestServiceBean {
          * At this point (4.0 beta) the only ingest "post-processing task" performed 
          * is pre-generation of image thumbnails in a couple of popular sizes. 
          * -- L.A. 
+         * This is now done in the background, so that uploading a batch of 
+         * images doesn't wait on the thumbnails; the "preview image available"
+         * flag then gets set the first time the thumbnail is looked up (which
+         * is cheap, once it's been generated). PDFs get their thumbnails 
+         * pre-generated too. 
          */
-        if (dataFile != null && dataFile.isImage()) {
-            DataFileIO thumbnailDataAccess = null;
+        if (dataFile != null && (dataFile.isImage() || "application/pdf".equalsIgnoreCase(dataFile.getContentType()))) {
+            final DataFileIO dataAccess;
             try {
-                DataFileIO dataAccess = dataFile.getAccessObject();
-                if (dataAccess != null && dataAccess.isLocalFile()) {
-                    dataAccess.open();
-
-                    thumbnailDataAccess = ImageThumbConverter.getImageThumb((FileAccessIO) dataAccess, ImageThumbConverter.DEFAULT_PREVIEW_SIZE);
+                dataAccess = dataFile.getAccessObject();
+                if (dataAccess == null) {
+                    return;
                 }
             } catch (IOException ioEx) {
-                thumbnailDataAccess = null;
+                return;
             }
-            if (thumbnailDataAccess != null) {
-                dataFile.setPreviewImageAvailable(true);
+            final boolean isPDF = !dataFile.isImage();
+            
+            Runnable thumbnailGeneration = () -> {
+                // (a file that is not stored locally is downloaded into the 
+                // local cache for this)
+                String fileLocation;
+                try {
+                    fileLocation = ImageThumbConverter.getThumbnailSourceLocation(dataAccess, ImageThumbConverter.DEFAULT_PREVIEW_SIZE,
+                            isPDF ? ImageThumbConverter.getThumbnailSizeLimitPDF() : ImageThumbConverter.getThumbnailSizeLimitImage());
+                } catch (IOException ioEx) {
+                    logger.fine("Could not get the file " + dataFile.getStorageIdentifier() + " to make its thumbnails: " + ioEx.getMessage());
+                    return;
+                }
+                if (fileLocation == null) {
+                    return;
+                }
+                if (isPDF) {
+                    ImageThumbConverter.generatePDFThumb(fileLocation, ImageThumbConverter.DEFAULT_PREVIEW_SIZE);
+                } else {
+                    ImageThumbConverter.generateImageThumb(fileLocation, ImageThumbConverter.DEFAULT_PREVIEW_SIZE);
+                }
+            };
+            
+            if (executor != null) {
+                try {
+                    executor.submit(thumbnailGeneration);
+                    return;
+                } catch (RejectedExecutionException rex) {
+                    logger.fine("Thumbnail pre-generation rejected by the executor; generating in the current thread.");
+                }
             }
+            thumbnailGeneration.run();
         }
     }
     
@@ -2085,11 +2119,6 @@ public class IngestServiceBean {
         return contVarFields;
     }
     
-    private void calculateContinuousSummaryStatistics(DataFile dataFile, int varnum, Number[] dataVector) throws IOException {
-        double[] sumStats = SumStatCalculator.calculateSummaryStatistics(dataVector);
-        assignContinuousSummaryStatistics(dataFile.getDataTable().getDataVariables().get(varnum), sumStats);
-    }
-    
     private void assignContinuousSummaryStatistics(DataVariable variable, double[] sumStats) throws IOException {
         if (sumStats == null || sumStats.length != variableService.summaryStatisticTypes.length) {
             throw new IOException ("Wrong number of summary statistics types calculated! ("+sumStats.length+")");
@@ -2109,140 +2138,6 @@ public class IngestServiceBean {
 
     }
     
-    private void calculateUNF(DataFile dataFile, int varnum, Double[] dataVector) {
-        String unf = null;
-        try {
-            unf = UNFUtil.calculateUNF(dataVector);
-        } catch (IOException iex) {
-            logger.warning("exception thrown when attempted to calculate UNF signature for (numeric, continuous) variable " + varnum);
-        } catch (UnfException uex) {
-            logger.warning("UNF Exception: thrown when attempted to calculate UNF signature for (numeric, continuous) variable " + varnum);
-        }
-        
-        if (unf != null) {
-            dataFile.getDataTable().getDataVariables().get(varnum).setUnf(unf);
-        } else {
-            logger.warning("failed to calculate UNF signature for variable " + varnum);
-        }
-    }
-    
-    private void calculateUNF(DataFile dataFile, int varnum, Long[] dataVector) {
-        String unf = null;
-        try {
-            unf = UNFUtil.calculateUNF(dataVector);
-        } catch (IOException iex) {
-            logger.warning("exception thrown when attempted to calculate UNF signature for (numeric, discrete) variable " + varnum);
-        }  catch (UnfException uex) {
-            logger.warning("UNF Exception: thrown when attempted to calculate UNF signature for (numeric, discrete) variable " + varnum);
-        }
-        
-        if (unf != null) {
-            dataFile.getDataTable().getDataVariables().get(varnum).setUnf(unf);
-        } else {
-            logger.warning("failed to calculate UNF signature for variable " + varnum);
-        }
-    }
-    
-    private void calculateUNF(DataFile dataFile, int varnum, String[] dataVector) throws IOException {
-        String unf = null;
-        
-        String[] dateFormats = null; 
-        
-        // Special handling for Character strings that encode dates and times:
-        
-        if ("time".equals(dataFile.getDataTable().getDataVariables().get(varnum).getFormatCategory())) {
-            dateFormats = new String[dataVector.length];
-            String savedDateTimeFormat = dataFile.getDataTable().getDataVariables().get(varnum).getFormat();
-            String timeFormat = null;
-            if (savedDateTimeFormat != null && !savedDateTimeFormat.equals("")) {
-                timeFormat = savedDateTimeFormat;
-            } else {
-                timeFormat = dateTimeFormat_ymdhmsS;
-            }
-            
-            /* What follows is special handling of a special case of time values
-             * non-uniform precision; specifically, when some have if some have 
-             * milliseconds, and some don't. (and that in turn is only 
-             * n issue when the timezone is present... without the timezone
-             * the time string would still evaluate to the end, even if the 
-             * format has the .SSS part and the string does not.
-             * This case will be properly handled internally, once we permanently
-             * switch to UNF6.
-             * -- L.A. 4.0 beta 8
-             */
-            String simplifiedFormat = null;
-            SimpleDateFormat fullFormatParser = null;
-            SimpleDateFormat simplifiedFormatParser = null;
-            
-            if (timeFormat.matches(".*\\.SSS z$")) {
-                simplifiedFormat = timeFormat.replace(".SSS", "");
-                
-                fullFormatParser = new SimpleDateFormat(timeFormat);
-                simplifiedFormatParser = new SimpleDateFormat(simplifiedFormat);
-            } 
-            
-            for (int i = 0; i < dataVector.length; i++) {
-                if (dataVector[i] != null) {
-                    
-                    if (simplifiedFormatParser != null) {
-                        // first, try to parse the value against the "full" 
-                        // format (with the milliseconds part):
-                        fullFormatParser.setLenient(false);
-                    
-                        try {
-                            logger.fine("trying the \"full\" time format, with milliseconds: "+timeFormat+", "+dataVector[i]);
-                            fullFormatParser.parse(dataVector[i]);
-                         } catch (ParseException ex) {
-                            // try the simplified (no time zone) format instead:
-                            logger.fine("trying the simplified format: "+simplifiedFormat+", "+dataVector[i]);
-                            simplifiedFormatParser.setLenient(false);
-                            try {
-                                simplifiedFormatParser.parse(dataVector[i]);
-                                timeFormat = simplifiedFormat;
-                            } catch (ParseException ex1) {
-                                logger.warning("no parseable format found for time value "+i+" - "+dataVector[i]);
-                                throw new IOException("no parseable format found for time value "+i+" - "+dataVector[i]);
-                            }
-                        }
-
-                    } 
-                    dateFormats[i] = timeFormat;
-                }
-            }
-        } else if ("date".equals(dataFile.getDataTable().getDataVariables().get(varnum).getFormatCategory())) {
-            dateFormats = new String[dataVector.length];
-            String savedDateFormat = dataFile.getDataTable().getDataVariables().get(varnum).getFormat();
-            for (int i = 0; i < dataVector.length; i++) {
-                if (dataVector[i] != null) {
-                    if (savedDateFormat != null && !savedDateFormat.equals("")) {
-                        dateFormats[i] = savedDateFormat;
-                    } else {
-                        dateFormats[i] = dateFormat_ymd;
-                    }
-                }
-            }
-        }
-                
-        try {
-            if (dateFormats == null) {
-                logger.fine("calculating the UNF value for string vector; first value: "+dataVector[0]);
-                unf = UNFUtil.calculateUNF(dataVector);
-            } else {
-                unf = UNFUtil.calculateUNF(dataVector, dateFormats);
-            }
-        } catch (IOException iex) {
-            logger.warning("IO exception thrown when attempted to calculate UNF signature for (character) variable " + varnum);
-        } catch (UnfException uex) {
-            logger.warning("UNF Exception: thrown when attempted to calculate UNF signature for (character) variable " + varnum);
-        }
-        
-        if (unf != null) {
-            dataFile.getDataTable().getDataVariables().get(varnum).setUnf(unf);
-        } else {
-            logger.warning("failed to calculate UNF signature for variable " + varnum);
-        }
-    }
-    
     // Calculating UNFs from *floats*, not *doubles* - this is to test dataverse
     // 4.0 Ingest against DVN 3.*; because of the nature of the UNF bug, reading
     // the tab file entry with 7+ digits of precision as a Double will result
@@ -2251,23 +2146,6 @@ public class IngestServiceBean {
     // TODO: remove this from the final production 4.0!
     // -- L.A., Jul 2014
     
-    private void calculateUNF(DataFile dataFile, int varnum, Float[] dataVector) {
-        String unf = null;
-        try {
-            unf = UNFUtil.calculateUNF(dataVector);
-        } catch (IOException iex) {
-            logger.warning("exception thrown when attempted to calculate UNF signature for numeric, \"continuous\" (float) variable " + varnum);
-        } catch (UnfException uex) {
-            logger.warning("UNF Exception: thrown when attempted to calculate UNF signature for numeric, \"continuous\" (float) variable" + varnum);
-        }
-        
-        if (unf != null) {
-            dataFile.getDataTable().getDataVariables().get(varnum).setUnf(unf);
-        } else {
-            logger.warning("failed to calculate UNF signature for variable " + varnum);
-        }
-    }
-    
     public static void main(String[] args) {
         
         String file = args[0];
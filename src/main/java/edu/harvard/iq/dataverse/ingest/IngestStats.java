@@ -0,0 +1,61 @@
+package edu.harvard.iq.dataverse.ingest;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * How many files of each format (content type) were ingested on this server,
+ * how big they were, and how long that took.
+ */
+public class IngestStats {
+
+    private static final class FormatStats {
+        final AtomicLong files = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+    }
+
+    private final Map<String, FormatStats> byFormat = new ConcurrentHashMap<>();
+
+    /**
+     * @param contentType the format of the file.
+     * @param size the size of the file, in bytes.
+     * @param nanos how long the ingest took.
+     * @param succeeded whether the file was ingested.
+     */
+    public void ingested(String contentType, long size, long nanos, boolean succeeded) {
+        FormatStats stats = byFormat.computeIfAbsent(contentType == null ? "unknown" : contentType, type -> new FormatStats());
+        stats.files.incrementAndGet();
+        if (!succeeded) {
+            stats.failures.incrementAndGet();
+        }
+        stats.bytes.addAndGet(size);
+        stats.nanos.addAndGet(nanos);
+    }
+
+    public void reset() {
+        byFormat.clear();
+    }
+
+    public JsonObjectBuilder toJson() {
+        JsonObjectBuilder job = Json.createObjectBuilder();
+        for (Map.Entry<String, FormatStats> entry : new TreeMap<>(byFormat).entrySet()) {
+            FormatStats stats = entry.getValue();
+            long files = stats.files.get();
+            double seconds = stats.nanos.get() / 1e9;
+            job.add(entry.getKey(), Json.createObjectBuilder()
+                    .add("files", files)
+                    .add("failures", stats.failures.get())
+                    .add("bytes", stats.bytes.get())
+                    .add("meanSeconds", files == 0 ? 0 : seconds / files)
+                    .add("bytesPerSecond", seconds == 0 ? 0 : stats.bytes.get() / seconds));
+        }
+        return job;
+    }
+
+}
@@ -61,7 +61,7 @@ public class IngestableDataChecker implements java.io.Serializable {
     public static String SAS_XPT_HEADER_11 = "SAS     SAS";
     public static int POR_MARK_POSITION_DEFAULT = 461;
     public static String POR_MARK = "SPSSPORT";
-    private static int DEFAULT_BUFFER_SIZE = 500;
+    private static final int DEFAULT_BUFFER_SIZE = 500;
     private static String regex = "^test(\\w+)format$";
 
     // static initialization block
@@ -143,7 +143,7 @@ public class IngestableDataChecker implements java.io.Serializable {
      *
      *
      */
-    public String testSAVformat(MappedByteBuffer buff) {
+    public String testSAVformat(ByteBuffer buff) {
         String result = null;
         buff.rewind();
         boolean DEBUG = false;
@@ -186,7 +186,7 @@ public class IngestableDataChecker implements java.io.Serializable {
      * test this byte buffer against STATA DTA spec
      *
      */
-    public String testDTAformat(MappedByteBuffer buff) {
+    public String testDTAformat(ByteBuffer buff) {
         String result = null;
         buff.rewind();
         boolean DEBUG = false;
@@ -267,7 +267,7 @@ public class IngestableDataChecker implements java.io.Serializable {
      * test this byte buffer against SAS Transport(XPT) spec
      *
      */
-    public String testXPTformat(MappedByteBuffer buff) {
+    public String testXPTformat(ByteBuffer buff) {
         String result = null;
         buff.rewind();
         boolean DEBUG = false;
@@ -315,7 +315,7 @@ public class IngestableDataChecker implements java.io.Serializable {
      * test this byte buffer against SPSS Portable (POR) spec
      *
      */
-    public String testPORformat(MappedByteBuffer buff) {
+    public String testPORformat(ByteBuffer buff) {
         String result = null;
         buff.rewind();
         boolean DEBUG = false;
@@ -481,7 +481,7 @@ public class IngestableDataChecker implements java.io.Serializable {
      * test this byte buffer against R data file
      *
      */
-    public String testRDAformat(MappedByteBuffer buff) {
+    public String testRDAformat(ByteBuffer buff) {
         String result = null;
         buff.rewind();
         
@@ -564,69 +564,18 @@ public class IngestableDataChecker implements java.io.Serializable {
 
     // public instance methods ------------------------------------------------
     public String detectTabularDataFormat(File fh) {
-        boolean DEBUG = false;
-        String readableFormatType = null;
         try {
             int buffer_size = this.getBufferSize(fh);
             dbgLog.info("buffer_size: " + buffer_size);
         
-            // set-up a FileChannel instance for a given file object
-            FileChannel srcChannel = new FileInputStream(fh).getChannel();
-
-            // create a read-only MappedByteBuffer
-            MappedByteBuffer buff = srcChannel.map(FileChannel.MapMode.READ_ONLY, 0, buffer_size);
-
-            //this.printHexDump(buff, "hex dump of the byte-buffer");
-
-            //for (String fmt : defaultFormatSet){
-            buff.rewind();
-            dbgLog.fine("before the for loop");
-            for (String fmt : this.getTestFormatSet()) {
-                
-                // get a test method
-                Method mthd = testMethods.get(fmt);
-                //dbgLog.info("mthd: " + mthd.getName());
-
-                try {
-                    // invoke this method
-                    Object retobj = mthd.invoke(this, buff);
-                    String result = (String) retobj;
-
-                    if (result != null) {
-                        dbgLog.fine("result for (" + fmt + ")=" + result);
-                        if (DEBUG) {
-                            out.println("result for (" + fmt + ")=" + result);
-                        }
-                        if (readableFileTypes.contains(result)) {
-                            readableFormatType = result;
-                        }
-                        dbgLog.fine("readableFormatType=" + readableFormatType);
-                        return readableFormatType;
-                    } else {
-                        dbgLog.fine("null was returned for " + fmt + " test");
-                        if (DEBUG) {
-                            out.println("null was returned for " + fmt + " test");
-                        }
-                    }
-                } catch (InvocationTargetException e) {
-                    Throwable cause = e.getCause();
-                    // added null check because of "homemade.zip" from https://redmine.hmdc.harvard.edu/issues/3273
-                    if (cause.getMessage() != null) {
-                        err.format(cause.getMessage());
-                        e.printStackTrace();
-                    } else {
-                        dbgLog.info("cause.getMessage() was null for " + e);
-                        e.printStackTrace();
-                    }
-                } catch (IllegalAccessException e) {
-                    e.printStackTrace();
-                } catch (BufferUnderflowException e){
-                    dbgLog.info("BufferUnderflowException " + e);
-                    e.printStackTrace();
+            // read the beginning of the file; that's all the tests look at
+            ByteBuffer buff = ByteBuffer.allocate(buffer_size);
+            try (FileChannel srcChannel = new FileInputStream(fh).getChannel()) {
+                while (buff.hasRemaining() && srcChannel.read(buff) != -1) {
                 }
             }
-
-            return readableFormatType;
+            buff.flip();
+            return detectTabularDataFormat(buff.slice());
 
         } catch (FileNotFoundException fe) {
             dbgLog.fine("exception detected: file was not foud");
@@ -635,6 +584,74 @@ public class IngestableDataChecker implements java.io.Serializable {
             dbgLog.fine("other io exception detected");
             ie.printStackTrace();
         }
+        return null;
+    }
+
+    /**
+     * Same as {@link #detectTabularDataFormat(File)}, for the first bytes of
+     * the file, already read into memory.
+     *
+     * @param head the beginning of the file (at least the first
+     * {@value #DEFAULT_BUFFER_SIZE} bytes, unless the file is shorter).
+     * @return the format, or {@code null} if not recognized.
+     */
+    public String detectTabularDataFormat(byte[] head) {
+        return detectTabularDataFormat(ByteBuffer.wrap(head, 0, Math.min(head.length, DEFAULT_BUFFER_SIZE)).slice());
+    }
+
+    private String detectTabularDataFormat(ByteBuffer buff) {
+        boolean DEBUG = false;
+        String readableFormatType = null;
+        //this.printHexDump(buff, "hex dump of the byte-buffer");
+
+        //for (String fmt : defaultFormatSet){
+        buff.rewind();
+        dbgLog.fine("before the for loop");
+        for (String fmt : this.getTestFormatSet()) {
+            
+            // get a test method
+            Method mthd = testMethods.get(fmt);
+            //dbgLog.info("mthd: " + mthd.getName());
+
+            try {
+                // invoke this method
+                Object retobj = mthd.invoke(this, buff);
+                String result = (String) retobj;
+
+                if (result != null) {
+                    dbgLog.fine("result for (" + fmt + ")=" + result);
+                    if (DEBUG) {
+                        out.println("result for (" + fmt + ")=" + result);
+                    }
+                    if (readableFileTypes.contains(result)) {
+                        readableFormatType = result;
+                    }
+                    dbgLog.fine("readableFormatType=" + readableFormatType);
+                    return readableFormatType;
+                } else {
+                    dbgLog.fine("null was returned for " + fmt + " test");
+                    if (DEBUG) {
+                        out.println("null was returned for " + fmt + " test");
+                    }
+                }
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                // added null check because of "homemade.zip" from https://redmine.hmdc.harvard.edu/issues/3273
+                if (cause.getMessage() != null) {
+                    err.format(cause.getMessage());
+                    e.printStackTrace();
+                } else {
+                    dbgLog.info("cause.getMessage() was null for " + e);
+                    e.printStackTrace();
+                }
+            } catch (IllegalAccessException e) {
+                e.printStackTrace();
+            } catch (BufferUnderflowException e){
+                dbgLog.info("BufferUnderflowException " + e);
+                e.printStackTrace();
+            }
+        }
+
         return readableFormatType;
     }
 
@@ -680,7 +697,7 @@ public class IngestableDataChecker implements java.io.Serializable {
         return BUFFER_SIZE;
     }
 
-    private int getGzipBufferSize(MappedByteBuffer buff) {
+    private int getGzipBufferSize(ByteBuffer buff) {
         int GZIP_BUFFER_SIZE = 120;
         /*
         note:
@@ -701,7 +718,7 @@ public class IngestableDataChecker implements java.io.Serializable {
      * dump the data buffer in HEX
      *
      */
-    public void printHexDump(MappedByteBuffer buff, String hdr) {
+    public void printHexDump(ByteBuffer buff, String hdr) {
         int counter = 0;
         if (hdr != null) {
             out.println(hdr);
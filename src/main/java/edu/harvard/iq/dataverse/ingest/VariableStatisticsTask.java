@@ -0,0 +1,263 @@
+package edu.harvard.iq.dataverse.ingest;
+
+import edu.harvard.iq.dataverse.dataaccess.NumericVector;
+import edu.harvard.iq.dataverse.dataaccess.TabularSubsetGenerator;
+import edu.harvard.iq.dataverse.datavariable.DataVariable;
+import edu.harvard.iq.dataverse.util.SumStatCalculator;
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+import org.dataverse.unf.UNFUtil;
+import org.dataverse.unf.UnfException;
+
+/**
+ * Calculates the summary statistics and the UNF of one variable of an
+ * ingested tabular file.
+ *
+ * The task works on the tab file only, and takes everything it needs to know
+ * about the variable when it is created; so tasks for the different variables
+ * of a file can run in parallel, outside of the ingest transaction.
+ * {@link IngestServiceBean} then assigns the results to the variables.
+ *
+ * @see IngestServiceBean#produceSummaryStatistics(edu.harvard.iq.dataverse.DataFile)
+ */
+public class VariableStatisticsTask implements Callable<VariableStatisticsTask> {
+
+    private static final Logger logger = Logger.getLogger(VariableStatisticsTask.class.getCanonicalName());
+
+    private static final String dateTimeFormat_ymdhmsS = "yyyy-MM-dd HH:mm:ss.SSS";
+    private static final String dateFormat_ymd = "yyyy-MM-dd";
+
+    /**
+     * The UNF calculator keeps the signature it is working on in static
+     * fields, so UNF calculations must not overlap, here or anywhere else
+     * (see {@link IngestServiceBean#recalculateDataFileUNF}).
+     * (Subsetting the columns and calculating the summary statistics still
+     * run in parallel.)
+     */
+    static final Object UNF_LOCK = new Object();
+
+    enum VariableKind {
+        DISCRETE_NUMERIC, CONTINUOUS, CONTINUOUS_FLOAT, CHARACTER
+    }
+
+    private final int varnum;
+    private final VariableKind kind;
+    private final String formatCategory;
+    private final String format;
+    private final File tabfile;
+    private final int varcount;
+    private final int casecount;
+    private final boolean compatmode;
+
+    private double[] summaryStatistics;
+    private String unf;
+
+    VariableStatisticsTask(int varnum, VariableKind kind, String formatCategory, String format, File tabfile, int varcount, int casecount, boolean compatmode) {
+        this.varnum = varnum;
+        this.kind = kind;
+        this.formatCategory = formatCategory;
+        this.format = format;
+        this.tabfile = tabfile;
+        this.varcount = varcount;
+        this.casecount = casecount;
+        this.compatmode = compatmode;
+    }
+
+    /**
+     * @return the task for {@code variable}, or {@code null} if no statistics
+     * are calculated for variables of its type.
+     */
+    static VariableStatisticsTask forVariable(DataVariable variable, int varnum, File tabfile, int varcount, int casecount, boolean compatmode) {
+        VariableKind kind;
+        if (variable.isIntervalDiscrete() && variable.isTypeNumeric()) {
+            kind = VariableKind.DISCRETE_NUMERIC;
+        } else if (variable.isIntervalContinuous()) {
+            kind = "float".equals(variable.getFormat()) ? VariableKind.CONTINUOUS_FLOAT : VariableKind.CONTINUOUS;
+        } else if (variable.isTypeCharacter()) {
+            kind = VariableKind.CHARACTER;
+        } else {
+            return null;
+        }
+        return new VariableStatisticsTask(varnum, kind, variable.getFormatCategory(), variable.getFormat(), tabfile, varcount, casecount, compatmode);
+    }
+
+    /**
+     * @return A rough estimate of the memory the task needs at its peak, in
+     * bytes: the column vector, plus the copies made for the median and for
+     * the UNF calculator.
+     */
+    long estimateMemory() {
+        return (long) casecount * (kind == VariableKind.CHARACTER ? 160 : 64);
+    }
+
+    @Override
+    public VariableStatisticsTask call() throws IOException {
+        TabularSubsetGenerator subsetGenerator = new TabularSubsetGenerator();
+
+        if (kind == VariableKind.CHARACTER) {
+            logger.fine("subsetting character vector " + varnum);
+            String[] variableVector = subsetGenerator.subsetStringVector(tabfile, varnum, varcount, casecount, compatmode);
+            unf = calculateUNF(variableVector);
+            return this;
+        }
+
+        NumericVector variableVector;
+        if (kind == VariableKind.DISCRETE_NUMERIC) {
+            logger.fine("subsetting discrete-numeric vector " + varnum);
+            variableVector = subsetGenerator.subsetLongValues(tabfile, varnum, varcount, casecount);
+        } else if (kind == VariableKind.CONTINUOUS_FLOAT) {
+            logger.fine("subsetting continuous (float) vector " + varnum);
+            variableVector = subsetGenerator.subsetFloatValues(tabfile, varnum, varcount, casecount);
+        } else {
+            logger.fine("subsetting continuous vector " + varnum);
+            variableVector = subsetGenerator.subsetDoubleValues(tabfile, varnum, varcount, casecount);
+        }
+        // We are discussing calculating the same summary stats for
+        // all numerics (the same kind of sumstats that we've been calculating
+        // for numeric continuous type)  -- L.A. Jul. 2014
+        summaryStatistics = SumStatCalculator.calculateSummaryStatistics(variableVector.getValues(), variableVector.getMissing());
+        unf = calculateUNF(variableVector);
+        return this;
+    }
+
+    private String calculateUNF(NumericVector dataVector) {
+        try {
+            // The UNF calculator only takes missing values as nulls in a
+            // boxed vector; when there aren't any, the primitive values give
+            // the same signature, without the extra boxed copy:
+            if (dataVector.hasMissingValues()) {
+                Double[] boxedVector = dataVector.toBoxedVector();
+                synchronized (UNF_LOCK) {
+                    return UNFUtil.calculateUNF(boxedVector);
+                }
+            } else {
+                synchronized (UNF_LOCK) {
+                    return UNFUtil.calculateUNF(dataVector.getValues());
+                }
+            }
+        } catch (IOException iex) {
+            logger.warning("exception thrown when attempted to calculate UNF signature for numeric variable " + varnum);
+        } catch (UnfException uex) {
+            logger.warning("UNF Exception: thrown when attempted to calculate UNF signature for numeric variable " + varnum);
+        }
+        return null;
+    }
+
+    private String calculateUNF(String[] dataVector) throws IOException {
+        String[] dateFormats = null;
+
+        // Special handling for Character strings that encode dates and times:
+
+        if ("time".equals(formatCategory)) {
+            dateFormats = new String[dataVector.length];
+            String timeFormat = null;
+            if (format != null && !format.equals("")) {
+                timeFormat = format;
+            } else {
+                timeFormat = dateTimeFormat_ymdhmsS;
+            }
+
+            /* What follows is special handling of a special case of time values
+             * non-uniform precision; specifically, when some have if some have
+             * milliseconds, and some don't. (and that in turn is only
+             * n issue when the timezone is present... without the timezone
+             * the time string would still evaluate to the end, even if the
+             * format has the .SSS part and the string does not.
+             * This case will be properly handled internally, once we permanently
+             * switch to UNF6.
+             * -- L.A. 4.0 beta 8
+             */
+            String simplifiedFormat = null;
+            SimpleDateFormat fullFormatParser = null;
+            SimpleDateFormat simplifiedFormatParser = null;
+
+            if (timeFormat.matches(".*\\.SSS z$")) {
+                simplifiedFormat = timeFormat.replace(".SSS", "");
+
+                fullFormatParser = new SimpleDateFormat(timeFormat);
+                simplifiedFormatParser = new SimpleDateFormat(simplifiedFormat);
+            }
+
+            for (int i = 0; i < dataVector.length; i++) {
+                if (dataVector[i] != null) {
+
+                    if (simplifiedFormatParser != null) {
+                        // first, try to parse the value against the "full"
+                        // format (with the milliseconds part):
+                        fullFormatParser.setLenient(false);
+
+                        try {
+                            logger.fine("trying the \"full\" time format, with milliseconds: "+timeFormat+", "+dataVector[i]);
+                            fullFormatParser.parse(dataVector[i]);
+                         } catch (ParseException ex) {
+                            // try the simplified (no time zone) format instead:
+                            logger.fine("trying the simplified format: "+simplifiedFormat+", "+dataVector[i]);
+                            simplifiedFormatParser.setLenient(false);
+                            try {
+                                simplifiedFormatParser.parse(dataVector[i]);
+                                timeFormat = simplifiedFormat;
+                            } catch (ParseException ex1) {
+                                logger.warning("no parseable format found for time value "+i+" - "+dataVector[i]);
+                                throw new IOException("no parseable format found for time value "+i+" - "+dataVector[i]);
+                            }
+                        }
+
+                    }
+                    dateFormats[i] = timeFormat;
+                }
+            }
+        } else if ("date".equals(formatCategory)) {
+            dateFormats = new String[dataVector.length];
+            for (int i = 0; i < dataVector.length; i++) {
+                if (dataVector[i] != null) {
+                    if (format != null && !format.equals("")) {
+                        dateFormats[i] = format;
+                    } else {
+                        dateFormats[i] = dateFormat_ymd;
+                    }
+                }
+            }
+        }
+
+        try {
+            synchronized (UNF_LOCK) {
+                if (dateFormats == null) {
+                    logger.fine("calculating the UNF value for string vector; first value: "+dataVector[0]);
+                    return UNFUtil.calculateUNF(dataVector);
+                } else {
+                    return UNFUtil.calculateUNF(dataVector, dateFormats);
+                }
+            }
+        } catch (IOException iex) {
+            logger.warning("IO exception thrown when attempted to calculate UNF signature for (character) variable " + varnum);
+        } catch (UnfException uex) {
+            logger.warning("UNF Exception: thrown when attempted to calculate UNF signature for (character) variable " + varnum);
+        }
+        return null;
+    }
+
+    public int getVarnum() {
+        return varnum;
+    }
+
+    /**
+     * @return the summary statistics, for numeric variables; {@code null}
+     * otherwise.
+     */
+    public double[] getSummaryStatistics() {
+        return summaryStatistics;
+    }
+
+    /**
+     * @return the UNF of the variable, or {@code null} if it could not be
+     * calculated.
+     */
+    public String getUnf() {
+        return unf;
+    }
+
+}
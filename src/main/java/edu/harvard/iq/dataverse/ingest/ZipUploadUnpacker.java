@@ -0,0 +1,196 @@
+package edu.harvard.iq.dataverse.ingest;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.util.ChecksummingCopy;
+import edu.harvard.iq.dataverse.util.FileUtil;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Unpacks the files of an uploaded zip archive into their temp locations
+ * (named after the storage identifiers of their DataFiles), with their MD5s,
+ * and determines their types - on up to {@code workers} threads at a time.
+ *
+ * The DataFiles are created beforehand, in the order of the entries in the
+ * archive (see {@link IngestServiceBean#createDataFiles}); and the ones
+ * unpacked are returned in that same order, whichever finished first.
+ */
+public class ZipUploadUnpacker {
+
+    private static final Logger logger = Logger.getLogger(ZipUploadUnpacker.class.getCanonicalName());
+
+    /**
+     * A file in an uploaded zip archive, and the DataFile created for it.
+     */
+    static class Entry {
+
+        final ZipEntry zipEntry;
+        final String shortName;
+        final DataFile datafile;
+        volatile boolean unpacked = false;
+
+        Entry(ZipEntry zipEntry, String shortName, DataFile datafile) {
+            this.zipEntry = zipEntry;
+            this.shortName = shortName;
+            this.datafile = datafile;
+        }
+    }
+
+    private final ExecutorService executor;
+    private final int workers;
+    private final Path tempDirectory;
+
+    /**
+     * @param executor where to unpack the entries; {@code null} to unpack
+     * them on the calling thread.
+     * @param workers how many entries to unpack at a time, at most.
+     * @param tempDirectory where to unpack them.
+     */
+    ZipUploadUnpacker(ExecutorService executor, int workers, Path tempDirectory) {
+        this.executor = executor;
+        this.workers = workers;
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * @param zipFile the archive.
+     * @param entries the files to unpack from it, in the order of the
+     * archive.
+     * @return the DataFiles of the files that could be unpacked, in the same
+     * order. The ones that could not be are left out, and nothing of them is
+     * left in the temp directory.
+     * @throws IOException if the thread was interrupted; nothing unpacked is
+     * left in the temp directory then.
+     */
+    List<DataFile> unpack(ZipFile zipFile, List<Entry> entries) throws IOException {
+        if (executor == null || workers < 2 || entries.size() < 2) {
+            for (Entry entry : entries) {
+                unpackEntry(zipFile, entry);
+            }
+        } else {
+            unpackInParallel(zipFile, entries);
+        }
+
+        List<DataFile> unpacked = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.unpacked) {
+                unpacked.add(entry.datafile);
+            }
+        }
+        return unpacked;
+    }
+
+    private void unpackInParallel(ZipFile zipFile, List<Entry> entries) throws IOException {
+        logger.fine("Unpacking " + entries.size() + " files; " + workers + " workers");
+        Semaphore slots = new Semaphore(workers);
+
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (Entry entry : entries) {
+                slots.acquire();
+                try {
+                    futures.add(executor.submit(() -> {
+                        try {
+                            unpackEntry(zipFile, entry);
+                        } finally {
+                            slots.release();
+                        }
+                    }));
+                } catch (RejectedExecutionException ex) {
+                    slots.release();
+                    unpackEntry(zipFile, entry);
+                }
+            }
+        } catch (InterruptedException ex) {
+            waitFor(futures);
+            for (Entry entry : entries) {
+                deleteTempFile(entry);
+            }
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while unpacking the zip file", ex);
+        }
+        // (the tasks are reading the zip file, which the caller closes)
+        waitFor(futures);
+    }
+
+    private void waitFor(List<Future<?>> futures) {
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (ExecutionException ex) {
+                    logger.log(Level.WARNING, "Failed to unpack a file from the zip archive", ex.getCause());
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void unpackEntry(ZipFile zipFile, Entry entry) {
+        Path tempLocation = tempLocation(entry);
+
+        ChecksummingCopy copy;
+        try (InputStream unZippedIn = zipFile.getInputStream(entry.zipEntry)) {
+            copy = ChecksummingCopy.copy(unZippedIn, tempLocation);
+        } catch (IOException ioex) {
+            logger.warning("Failed to unpack the file " + entry.zipEntry.getName() + " from the zip archive: " + ioex.getMessage());
+            // (whatever part of it was written)
+            deleteTempFile(entry);
+            return;
+        }
+        entry.datafile.setmd5(copy.getMd5());
+
+        // We have created this datafile with the mime type "unknown";
+        // Now that we have it saved in a temporary location,
+        // let's try and determine its real type:
+        try {
+            String recognizedType = determineFileType(tempLocation, entry.shortName, copy.getHead());
+            logger.fine("File utility recognized unzipped file as " + recognizedType);
+            if (recognizedType != null && !recognizedType.equals("")) {
+                entry.datafile.setContentType(recognizedType);
+            }
+        } catch (Exception ex) {
+            logger.warning("Failed to run the file utility mime type check on file " + entry.shortName);
+        }
+        entry.unpacked = true;
+    }
+
+    String determineFileType(Path file, String fileName, byte[] head) throws IOException {
+        return FileUtil.determineFileType(file.toFile(), fileName, head);
+    }
+
+    private Path tempLocation(Entry entry) {
+        return tempDirectory.resolve(entry.datafile.getStorageIdentifier());
+    }
+
+    private void deleteTempFile(Entry entry) {
+        entry.unpacked = false;
+        try {
+            Files.deleteIfExists(tempLocation(entry));
+        } catch (IOException ex) {
+            // do nothing - it's just a temp file.
+            logger.warning("Could not remove temp file " + tempLocation(entry));
+        }
+    }
+
+}
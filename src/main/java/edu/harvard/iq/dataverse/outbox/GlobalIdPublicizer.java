@@ -0,0 +1,18 @@
+package edu.harvard.iq.dataverse.outbox;
+
+import edu.harvard.iq.dataverse.Dataset;
+
+/**
+ * Makes the registered persistent identifier of a published dataset public,
+ * at the DOI provider. Run by the {@link OutboxTask.Stage#PUBLICIZE_IDENTIFIER}
+ * stage, which retries it on failure.
+ */
+public interface GlobalIdPublicizer {
+
+    /**
+     * @param dataset the published dataset.
+     * @throws Exception if the provider could not be reached, or refused.
+     */
+    void publicizeIdentifier(Dataset dataset) throws Exception;
+
+}
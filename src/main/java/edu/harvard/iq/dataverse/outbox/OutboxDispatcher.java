@@ -0,0 +1,135 @@
+package edu.harvard.iq.dataverse.outbox;
+
+import edu.harvard.iq.dataverse.util.SystemConfig;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.Timer;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.enterprise.concurrent.ManagedExecutorService;
+
+/**
+ * Runs the {@link OutboxTask}s on a bounded pool of workers (see
+ * {@link SystemConfig#getPostPublishWorkers()}). Tasks are looked for as soon
+ * as a transaction that recorded some commits, whenever a worker is done with
+ * one, and every {@link #SWEEP_INTERVAL_MILLIS} in any case - for the tasks
+ * due to be retried, and those left over by a server that went down.
+ *
+ * Every server runs its own dispatcher; a task is only ever run by one, as
+ * workers claim the tasks in the database before running them.
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class OutboxDispatcher {
+
+    private static final Logger logger = Logger.getLogger(OutboxDispatcher.class.getCanonicalName());
+
+    static final long SWEEP_INTERVAL_MILLIS = 60 * 1000;
+
+    @EJB
+    OutboxServiceBean outboxService;
+    @EJB
+    SystemConfig systemConfig;
+    @Resource
+    ManagedExecutorService executor;
+    @Resource
+    TimerService timerService;
+
+    private Semaphore workerSlots;
+
+    @PostConstruct
+    public void init() {
+        workerSlots = new Semaphore(Math.max(1, systemConfig.getPostPublishWorkers()));
+        // (not persistent: each server has its own)
+        timerService.createIntervalTimer(SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS, new TimerConfig(null, false));
+    }
+
+    @Timeout
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void sweep(Timer timer) {
+        dispatch();
+    }
+
+    /**
+     * Hands the tasks that are due to the free workers, if any.
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void dispatch() {
+        int free = workerSlots.availablePermits();
+        if (free == 0) {
+            return;
+        }
+        for (Long taskId : outboxService.findDueTaskIds(free)) {
+            if (!workerSlots.tryAcquire()) {
+                return;
+            }
+            boolean claimed = false;
+            boolean submitted = false;
+            try {
+                claimed = outboxService.claimInNewTransaction(taskId);
+                if (claimed) {
+                    executor.submit(() -> {
+                        try {
+                            run(taskId);
+                        } finally {
+                            workerSlots.release();
+                        }
+                        // there may be more where that came from:
+                        dispatch();
+                    });
+                    submitted = true;
+                }
+            } catch (RuntimeException ex) {
+                logger.log(Level.WARNING, "Could not hand post-publish task " + taskId + " to a worker", ex);
+            } finally {
+                if (!submitted) {
+                    workerSlots.release();
+                }
+            }
+            if (claimed && !submitted) {
+                releaseClaim(taskId);
+            }
+        }
+    }
+
+    private void releaseClaim(Long taskId) {
+        try {
+            outboxService.releaseClaimInNewTransaction(taskId);
+        } catch (RuntimeException ex) {
+            // (the claim runs out in any case)
+            logger.log(Level.WARNING, "Could not give up post-publish task " + taskId, ex);
+        }
+    }
+
+    private void run(Long taskId) {
+        long start = System.nanoTime();
+        try {
+            OutboxTask.Stage stage = outboxService.runInNewTransaction(taskId);
+            if (stage != null) {
+                OutboxServiceBean.stats.succeeded(stage, System.nanoTime() - start);
+            }
+        } catch (RuntimeException ex) {
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            OutboxTask task = outboxService.recordFailureInNewTransaction(taskId, cause);
+            if (task != null) {
+                boolean retrying = task.getState() == OutboxTask.State.PENDING;
+                OutboxServiceBean.stats.failed(task.getStage(), retrying);
+                logger.log(retrying ? Level.INFO : Level.WARNING, "Post-publish task " + task
+                        + (retrying ? " failed; will try again at " + task.getNextAttemptTime() : " failed; giving up") + ": " + cause);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,383 @@
+package edu.harvard.iq.dataverse.outbox;
+
+import edu.harvard.iq.dataverse.DOIDataCiteServiceBean;
+import edu.harvard.iq.dataverse.DOIEZIdServiceBean;
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.Dataverse;
+import edu.harvard.iq.dataverse.DataverseRoleServiceBean;
+import edu.harvard.iq.dataverse.DataverseServiceBean;
+import edu.harvard.iq.dataverse.DvObject;
+import edu.harvard.iq.dataverse.RoleAssignment;
+import edu.harvard.iq.dataverse.RoleAssigneeServiceBean;
+import edu.harvard.iq.dataverse.UserNotification;
+import edu.harvard.iq.dataverse.UserNotificationServiceBean;
+import edu.harvard.iq.dataverse.authorization.Permission;
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.export.ExportService;
+import edu.harvard.iq.dataverse.harvest.server.OAIRecordServiceBean;
+import edu.harvard.iq.dataverse.search.IndexServiceBean;
+import edu.harvard.iq.dataverse.util.TransactionCallbacks;
+import java.io.StringReader;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.ejb.EJBException;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * The post-publish "outbox": publishing a dataset records its side effects
+ * here, as {@link OutboxTask}s in the publishing transaction; they are then
+ * carried out - each in a transaction of its own - by the workers of
+ * {@link OutboxDispatcher}, as soon as that transaction commits.
+ */
+@Stateless
+public class OutboxServiceBean {
+
+    private static final Logger logger = Logger.getLogger(OutboxServiceBean.class.getCanonicalName());
+
+    /**
+     * How long a worker has a task for, before another may take it over.
+     */
+    static final long CLAIM_MILLIS = 15 * 60 * 1000;
+
+    /**
+     * Durations and failures of the tasks run on this server, by stage.
+     */
+    public static final OutboxStats stats = new OutboxStats();
+
+    @PersistenceContext(unitName = "VDCNet-ejbPU")
+    EntityManager em;
+
+    @EJB
+    OutboxDispatcher dispatcher;
+    @EJB
+    DOIEZIdServiceBean doiEZId;
+    @EJB
+    DOIDataCiteServiceBean doiDataCite;
+    @EJB
+    IndexServiceBean indexService;
+    @EJB
+    DataverseServiceBean dataverseService;
+    @EJB
+    OAIRecordServiceBean oaiRecordService;
+    @EJB
+    DataverseRoleServiceBean roleService;
+    @EJB
+    RoleAssigneeServiceBean roleAssigneeService;
+    @EJB
+    UserNotificationServiceBean notificationService;
+
+    @Resource
+    ManagedExecutorService executor;
+    @Resource
+    TransactionSynchronizationRegistry transactionRegistry;
+
+    /**
+     * Records the side effects of publishing a dataset, in the publishing
+     * transaction.
+     *
+     * @param dataset the dataset just published (and merged).
+     * @param doiProvider the DOI provider whose identifier is to be made
+     * public, or {@code null} if there is none.
+     * @param firstPublication whether this was the first version published.
+     * @param newlyPublishedFiles the files published for the first time.
+     * @param changedDataverses the dataverses whose subjects changed, to be
+     * re-indexed.
+     */
+    public void enqueuePostPublish(Dataset dataset, String doiProvider, boolean firstPublication,
+            Collection<DataFile> newlyPublishedFiles, Collection<? extends DvObject> changedDataverses) {
+        if (doiProvider != null) {
+            enqueue(OutboxTask.Stage.PUBLICIZE_IDENTIFIER, dataset, Json.createObjectBuilder().add("doiProvider", doiProvider));
+        }
+        enqueue(OutboxTask.Stage.EXPORT, dataset, null);
+        enqueue(OutboxTask.Stage.INDEX, dataset, Json.createObjectBuilder().add("dataverseIds", ids(changedDataverses)));
+        if (firstPublication || !newlyPublishedFiles.isEmpty()) {
+            enqueue(OutboxTask.Stage.NOTIFY, dataset, Json.createObjectBuilder()
+                    .add("firstPublication", firstPublication)
+                    .add("fileIds", ids(newlyPublishedFiles)));
+        }
+    }
+
+    private static JsonArrayBuilder ids(Collection<? extends DvObject> dvObjects) {
+        JsonArrayBuilder ids = Json.createArrayBuilder();
+        for (DvObject dvObject : dvObjects) {
+            ids.add(dvObject.getId());
+        }
+        return ids;
+    }
+
+    private void enqueue(OutboxTask.Stage stage, Dataset dataset, JsonObjectBuilder payload) {
+        em.persist(new OutboxTask(stage, dataset.getId(), payload == null ? null : payload.build().toString()));
+        dispatchAfterCommit();
+    }
+
+    /**
+     * Has the workers look for tasks once the current transaction commits
+     * (and not before: they would not see the tasks yet).
+     */
+    private void dispatchAfterCommit() {
+        if (transactionRegistry.getResource(OutboxServiceBean.class) != null) {
+            return; // already arranged for, in this transaction
+        }
+        transactionRegistry.putResource(OutboxServiceBean.class, Boolean.TRUE);
+        transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    try {
+                        executor.submit(() -> dispatcher.dispatch());
+                    } catch (RuntimeException ex) {
+                        // the periodic sweep will get to the tasks
+                        logger.log(Level.WARNING, "Could not start the post-publish workers", ex);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @param max the most ids to return.
+     * @return ids of pending tasks due to be run, and not being run.
+     */
+    public List<Long> findDueTaskIds(int max) {
+        return em.createNamedQuery("OutboxTask.findDueIds", Long.class)
+                .setParameter("state", OutboxTask.State.PENDING)
+                .setParameter("now", new Date())
+                .setMaxResults(max)
+                .getResultList();
+    }
+
+    /**
+     * Takes a task for this worker - unless another worker, on this or
+     * another server, already has it.
+     *
+     * @param taskId id of the task.
+     * @return whether the task was taken.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public boolean claimInNewTransaction(Long taskId) {
+        Date now = new Date();
+        return em.createNamedQuery("OutboxTask.claim")
+                .setParameter("until", new Date(now.getTime() + CLAIM_MILLIS))
+                .setParameter("id", taskId)
+                .setParameter("state", OutboxTask.State.PENDING)
+                .setParameter("now", now)
+                .executeUpdate() == 1;
+    }
+
+    /**
+     * Runs a task, and deletes it if done.
+     *
+     * @param taskId id of the task.
+     * @return the stage run, or {@code null} if the task, or its dataset,
+     * no longer exists.
+     * @throws EJBException if the task failed; the transaction is rolled back.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public OutboxTask.Stage runInNewTransaction(Long taskId) {
+        OutboxTask task = em.find(OutboxTask.class, taskId);
+        if (task == null) {
+            return null;
+        }
+        Dataset dataset = em.find(Dataset.class, task.getDatasetId());
+        if (dataset != null) {
+            try {
+                run(task, dataset);
+            } catch (Exception ex) {
+                // (a checked exception would not roll back the transaction)
+                throw new EJBException(ex);
+            }
+        }
+        em.remove(task);
+        return task.getStage();
+    }
+
+    private void run(OutboxTask task, Dataset dataset) throws Exception {
+        JsonObject payload = task.getPayload() == null ? null : Json.createReader(new StringReader(task.getPayload())).readObject();
+        switch (task.getStage()) {
+            case PUBLICIZE_IDENTIFIER:
+                getPublicizer(payload.getString("doiProvider")).publicizeIdentifier(dataset);
+                break;
+            case EXPORT:
+                ExportService.getInstance().exportAllFormats(dataset);
+                // bring the OAI records that already exist for the dataset up to date
+                // (new ones are created by the next scheduled update of the OAI sets):
+                oaiRecordService.updateOaiRecordsForDataset(dataset);
+                break;
+            case INDEX:
+                List<Dataverse> changedDataverses = new ArrayList<>();
+                for (JsonNumber dataverseId : payload.getJsonArray("dataverseIds").getValuesAs(JsonNumber.class)) {
+                    Dataverse dataverse = dataverseService.find(dataverseId.longValue());
+                    if (dataverse != null) {
+                        changedDataverses.add(dataverse);
+                    }
+                }
+                // (throws if Solr could not be reached, for the task to be retried)
+                indexService.indexPublishedDataset(dataset, changedDataverses);
+                break;
+            case NOTIFY:
+                notifyUsers(dataset, payload);
+                break;
+        }
+    }
+
+    /**
+     * Gives up a task claimed, but that could not be handed to a worker; so
+     * that it can be taken again right away, rather than once the claim runs
+     * out.
+     *
+     * @param taskId id of the task.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void releaseClaimInNewTransaction(Long taskId) {
+        OutboxTask task = em.find(OutboxTask.class, taskId);
+        if (task != null) {
+            task.releaseClaim();
+        }
+    }
+
+    /**
+     * Records that a task failed.
+     *
+     * @param taskId id of the task.
+     * @param error what went wrong.
+     * @return the task, as updated; or {@code null} if it no longer exists.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public OutboxTask recordFailureInNewTransaction(Long taskId, Throwable error) {
+        OutboxTask task = em.find(OutboxTask.class, taskId);
+        if (task != null) {
+            task.recordFailure(String.valueOf(error), System.currentTimeMillis());
+        }
+        return task;
+    }
+
+    GlobalIdPublicizer getPublicizer(String doiProvider) {
+        if (StubGlobalIdPublicizer.isEnabled()) {
+            return StubGlobalIdPublicizer.getInstance();
+        }
+        if ("EZID".equals(doiProvider)) {
+            return dataset -> {
+                if (!doiEZId.publicizeIdentifier(dataset)) {
+                    throw new Exception("EZID failed to make " + dataset.getGlobalId() + " public");
+                }
+            };
+        }
+        if ("DataCite".equals(doiProvider)) {
+            return dataset -> doiDataCite.publicizeIdentifier(dataset);
+        }
+        throw new IllegalArgumentException("Unsupported DOI provider: " + doiProvider);
+    }
+
+    /**
+     * Notifies the users who can download the files: of the whole dataset
+     * if it was published for the first time, or of each file published for
+     * the first time.
+     *
+     * The notifications are saved in the transaction of the task, which
+     * deletes it - so they are only ever saved once, however many times the
+     * task is tried. Emails can't be taken back, so they are only sent once 
+     * that has committed: a failure after that loses an email, rather than 
+     * sending it twice.
+     */
+    private void notifyUsers(Dataset dataset, JsonObject payload) {
+        final List<UserNotification> notifications = new ArrayList<>();
+        if (payload.getBoolean("firstPublication")) {
+            notifyUsers(dataset, dataset, UserNotification.Type.ASSIGNROLE, notifications);
+        }
+        for (JsonNumber fileId : payload.getJsonArray("fileIds").getValuesAs(JsonNumber.class)) {
+            DataFile dataFile = em.find(DataFile.class, fileId.longValue());
+            if (dataFile != null) {
+                notifyUsers(dataset, dataFile, UserNotification.Type.GRANTFILEACCESS, notifications);
+            }
+        }
+        if (notifications.isEmpty()) {
+            return;
+        }
+        TransactionCallbacks.afterCommit(transactionRegistry, () -> {
+            List<Long> notificationIds = new ArrayList<>();
+            for (UserNotification notification : notifications) {
+                notificationIds.add(notification.getId());
+            }
+            executor.submit(() -> {
+                for (Long notificationId : notificationIds) {
+                    notificationService.sendEmail(notificationId);
+                }
+            });
+        });
+    }
+
+    private void notifyUsers(Dataset dataset, DvObject definitionPoint, UserNotification.Type type, List<UserNotification> notifications) {
+        for (RoleAssignment ra : roleService.directRoleAssignments(definitionPoint)) {
+            if (ra.getRole().permissions().contains(Permission.DownloadFile)) {
+                for (AuthenticatedUser au : roleAssigneeService.getExplicitUsers(roleAssigneeService.getRoleAssignee(ra.getAssigneeIdentifier()))) {
+                    UserNotification notification = new UserNotification();
+                    notification.setUser(au);
+                    notification.setSendDate(new Timestamp(new Date().getTime()));
+                    notification.setType(type);
+                    notification.setObjectId(dataset.getId());
+                    em.persist(notification);
+                    notifications.add(notification);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of tasks, by state and stage.
+     */
+    public JsonObjectBuilder getTaskCounts() {
+        JsonObjectBuilder counts = Json.createObjectBuilder();
+        for (Object[] row : em.createNamedQuery("OutboxTask.countByState", Object[].class).getResultList()) {
+            counts.add(row[0] + "/" + row[1], ((Number) row[2]).longValue());
+        }
+        return counts;
+    }
+
+    public List<OutboxTask> findFailedTasks() {
+        return em.createNamedQuery("OutboxTask.findFailed", OutboxTask.class)
+                .setParameter("state", OutboxTask.State.FAILED)
+                .getResultList();
+    }
+
+    /**
+     * Puts all the failed tasks back in line.
+     *
+     * @return the number of tasks.
+     */
+    public int retryFailedTasks() {
+        List<OutboxTask> failed = findFailedTasks();
+        for (OutboxTask task : failed) {
+            task.retry();
+        }
+        if (!failed.isEmpty()) {
+            dispatchAfterCommit();
+        }
+        return failed.size();
+    }
+
+}
@@ -0,0 +1,64 @@
+package edu.harvard.iq.dataverse.outbox;
+
+import edu.harvard.iq.dataverse.util.LatencyHistogram;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * How the post-publish tasks run on this server have fared, by stage: how
+ * long the successful runs took, and how many runs failed.
+ */
+public class OutboxStats {
+
+    private static final class StageStats {
+        final LatencyHistogram durations = new LatencyHistogram();
+        final AtomicLong retried = new AtomicLong();
+        final AtomicLong abandoned = new AtomicLong();
+    }
+
+    private final Map<OutboxTask.Stage, StageStats> byStage = new EnumMap<>(OutboxTask.Stage.class);
+
+    public OutboxStats() {
+        for (OutboxTask.Stage stage : OutboxTask.Stage.values()) {
+            byStage.put(stage, new StageStats());
+        }
+    }
+
+    public void succeeded(OutboxTask.Stage stage, long nanos) {
+        byStage.get(stage).durations.record(nanos);
+    }
+
+    /**
+     * @param stage the stage of the task.
+     * @param retrying whether the task will be tried again.
+     */
+    public void failed(OutboxTask.Stage stage, boolean retrying) {
+        (retrying ? byStage.get(stage).retried : byStage.get(stage).abandoned).incrementAndGet();
+    }
+
+    public LatencyHistogram getDurations(OutboxTask.Stage stage) {
+        return byStage.get(stage).durations;
+    }
+
+    public void reset() {
+        for (StageStats stats : byStage.values()) {
+            stats.durations.reset();
+            stats.retried.set(0);
+            stats.abandoned.set(0);
+        }
+    }
+
+    public JsonObjectBuilder toJson() {
+        JsonObjectBuilder job = Json.createObjectBuilder();
+        for (Map.Entry<OutboxTask.Stage, StageStats> entry : byStage.entrySet()) {
+            job.add(entry.getKey().name(), entry.getValue().durations.toJson()
+                    .add("failedWillRetry", entry.getValue().retried.get())
+                    .add("failedGaveUp", entry.getValue().abandoned.get()));
+        }
+        return job;
+    }
+
+}
@@ -0,0 +1,212 @@
+package edu.harvard.iq.dataverse.outbox;
+
+import java.io.Serializable;
+import java.util.Date;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * A side effect of publishing a dataset - registering the DOI as public,
+ * exporting the metadata, indexing, sending notifications - recorded in the
+ * same transaction as the publication itself, and carried out afterwards by
+ * {@link OutboxDispatcher}. The row is deleted once the task is done; a task
+ * that keeps failing is retried with a growing delay, and after
+ * {@link #MAX_ATTEMPTS} left {@link State#FAILED}, for an admin to look into.
+ *
+ * @see OutboxServiceBean
+ */
+@NamedQueries({
+    @NamedQuery(name = "OutboxTask.findDueIds",
+            query = "SELECT t.id FROM OutboxTask t WHERE t.state = :state AND t.nextAttemptTime <= :now"
+                    + " AND (t.claimedUntil IS NULL OR t.claimedUntil < :now) ORDER BY t.id"),
+    @NamedQuery(name = "OutboxTask.claim",
+            query = "UPDATE OutboxTask t SET t.claimedUntil = :until WHERE t.id = :id AND t.state = :state"
+                    + " AND (t.claimedUntil IS NULL OR t.claimedUntil < :now)"),
+    @NamedQuery(name = "OutboxTask.countByState",
+            query = "SELECT t.state, t.stage, COUNT(t) FROM OutboxTask t GROUP BY t.state, t.stage"),
+    @NamedQuery(name = "OutboxTask.findFailed",
+            query = "SELECT t FROM OutboxTask t WHERE t.state = :state ORDER BY t.id")
+})
+@Entity
+@Table(indexes = {@Index(columnList = "state, nextAttemptTime")})
+public class OutboxTask implements Serializable {
+
+    public enum Stage {
+        /** Make the (already registered) DOI of the dataset public. */
+        PUBLICIZE_IDENTIFIER,
+        /** Export the metadata in all the formats, and update the OAI records. */
+        EXPORT,
+        /** Index the dataset, its permissions, and dataverses whose subjects changed. */
+        INDEX,
+        /** Notify the users who can now download the dataset or its new files. */
+        NOTIFY
+    }
+
+    public enum State {
+        PENDING, FAILED
+    }
+
+    public static final int MAX_ATTEMPTS = 10;
+    static final long FIRST_RETRY_DELAY_MILLIS = 30 * 1000;
+    static final long MAX_RETRY_DELAY_MILLIS = 60 * 60 * 1000;
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Stage stage;
+
+    @Column(nullable = false)
+    private Long datasetId;
+
+    /**
+     * Whatever else the stage needs to know, as JSON.
+     */
+    @Column(columnDefinition = "TEXT")
+    private String payload;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private State state;
+
+    private int attempts;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date createTime;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date nextAttemptTime;
+
+    /**
+     * Until when a worker (possibly on another server) has the task; so that
+     * one that died with it does not hold it forever.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date claimedUntil;
+
+    @Column(columnDefinition = "TEXT")
+    private String lastError;
+
+    public OutboxTask() {
+    }
+
+    public OutboxTask(Stage stage, Long datasetId, String payload) {
+        this.stage = stage;
+        this.datasetId = datasetId;
+        this.payload = payload;
+        this.state = State.PENDING;
+        this.createTime = new Date();
+        this.nextAttemptTime = createTime;
+    }
+
+    /**
+     * Records a failed attempt, and when to try again.
+     *
+     * @param error what went wrong.
+     * @param now the current time, in milliseconds.
+     * @return whether the task will be tried again.
+     */
+    public boolean recordFailure(String error, long now) {
+        attempts++;
+        lastError = error;
+        claimedUntil = null;
+        if (attempts >= MAX_ATTEMPTS) {
+            state = State.FAILED;
+            return false;
+        }
+        nextAttemptTime = new Date(now + retryDelayMillis(attempts));
+        return true;
+    }
+
+    /**
+     * @param attempts the number of attempts made so far.
+     * @return how long to wait before the next attempt: doubling with each
+     * attempt, up to an hour.
+     */
+    static long retryDelayMillis(int attempts) {
+        long delay = FIRST_RETRY_DELAY_MILLIS << Math.min(attempts - 1, 20);
+        return Math.min(delay, MAX_RETRY_DELAY_MILLIS);
+    }
+
+    /**
+     * Lets other workers take the task again, right away.
+     */
+    public void releaseClaim() {
+        claimedUntil = null;
+    }
+
+    /**
+     * Puts a {@link State#FAILED} task back in line, as if new.
+     */
+    public void retry() {
+        state = State.PENDING;
+        attempts = 0;
+        claimedUntil = null;
+        nextAttemptTime = new Date();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Stage getStage() {
+        return stage;
+    }
+
+    public Long getDatasetId() {
+        return datasetId;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public Date getCreateTime() {
+        return createTime;
+    }
+
+    public Date getNextAttemptTime() {
+        return nextAttemptTime;
+    }
+
+    public Date getClaimedUntil() {
+        return claimedUntil;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    @Override
+    public String toString() {
+        return "[OutboxTask id:" + id + " stage:" + stage + " dataset:" + datasetId + " attempts:" + attempts + "]";
+    }
+
+}
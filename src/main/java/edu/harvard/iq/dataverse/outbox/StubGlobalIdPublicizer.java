@@ -0,0 +1,60 @@
+package edu.harvard.iq.dataverse.outbox;
+
+import edu.harvard.iq.dataverse.Dataset;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+/**
+ * Stands in for the DOI provider, on test servers that can not reach one:
+ * remembers the identifiers it was asked to reserve or make public, and does
+ * nothing else. Used instead of EZID or DataCite when the JVM option
+ * {@value #JVM_OPTION} is {@code true}; for reserving, by
+ * {@link edu.harvard.iq.dataverse.DOIEZIdServiceBean} and
+ * {@link edu.harvard.iq.dataverse.DOIDataCiteServiceBean} themselves.
+ */
+public class StubGlobalIdPublicizer implements GlobalIdPublicizer {
+
+    public static final String JVM_OPTION = "dataverse.doi.stubProvider";
+
+    private static final Logger logger = Logger.getLogger(StubGlobalIdPublicizer.class.getCanonicalName());
+
+    private static final StubGlobalIdPublicizer instance = new StubGlobalIdPublicizer();
+
+    private final List<String> created = new CopyOnWriteArrayList<>();
+    private final List<String> publicized = new CopyOnWriteArrayList<>();
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(JVM_OPTION);
+    }
+
+    public static StubGlobalIdPublicizer getInstance() {
+        return instance;
+    }
+
+    /**
+     * Reserves nothing, but answers as the providers do when they did.
+     *
+     * @return a message with the global id of the dataset in it.
+     */
+    public String createIdentifier(Dataset dataset) {
+        logger.info("Not reserving " + dataset.getGlobalId() + " (stub DOI provider)");
+        created.add(dataset.getGlobalId());
+        return "success: " + dataset.getGlobalId();
+    }
+
+    @Override
+    public void publicizeIdentifier(Dataset dataset) {
+        logger.info("Not publicizing " + dataset.getGlobalId() + " (stub DOI provider)");
+        publicized.add(dataset.getGlobalId());
+    }
+
+    public List<String> getCreated() {
+        return created;
+    }
+
+    public List<String> getPublicized() {
+        return publicized;
+    }
+
+}
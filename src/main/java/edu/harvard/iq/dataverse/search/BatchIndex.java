@@ -8,35 +8,238 @@ package edu.harvard.iq.dataverse.search;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
 
 /**
+ * A shared, thread-safe writer that collects Solr documents from any number of
+ * indexing threads and sends them to Solr in batches.
+ *
+ * A batch is flushed when it reaches either the configured number of documents
+ * or the configured (estimated) size in bytes. Batches are sent with
+ * "commitWithin" so Solr decides when to make them visible, rather than
+ * issuing a hard commit per object. A single hard commit is issued by
+ * {@link #finish()}.
+ *
+ * Only a limited number of batches may be in flight at once; when Solr is
+ * slow, callers of {@link #add(SolrInputDocument)} block until a flush slot
+ * is free, which throttles the indexing threads.
+ *
+ * Documents may be added as part of a {@link Group} (the documents of one
+ * object, say), which is told whether they all made it to Solr once they have
+ * been sent; anything that must only be recorded once the documents are
+ * indexed - index times, progress - is recorded from there, and not when the
+ * documents are handed over.
  *
  * @author roberttreacy
  */
 public class BatchIndex {
 private static final Logger logger = Logger.getLogger(BatchIndex.class.getCanonicalName());
+
+    /**
+     * Documents whose fate is reported together: {@code onSuccess} runs once
+     * all of them have been sent to Solr, {@code onFailure} once any of them
+     * failed to be (or the group was closed as failed) and the rest have been
+     * dealt with. A group stays open - it doesn't complete, even with all its
+     * documents sent - until it is {@link #close(boolean) closed}. A group may
+     * belong to another one, which then doesn't complete before it does, and
+     * fails if it fails.
+     */
+    public static final class Group {
+        private final Group parent;
+        private final Runnable onSuccess;
+        private final Runnable onFailure;
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private volatile boolean failed = false;
+
+        public Group(Runnable onSuccess, Runnable onFailure) {
+            this(null, onSuccess, onFailure);
+        }
+
+        Group(Group parent, Runnable onSuccess, Runnable onFailure) {
+            this.parent = parent;
+            this.onSuccess = onSuccess;
+            this.onFailure = onFailure;
+            if (parent != null) {
+                parent.pending.incrementAndGet();
+            }
+        }
+
+        /**
+         * @param succeeded whether whoever added the documents got them all
+         * added.
+         */
+        public void close(boolean succeeded) {
+            done(succeeded);
+        }
+
+        private void added() {
+            pending.incrementAndGet();
+        }
+
+        private void done(boolean succeeded) {
+            if (!succeeded) {
+                failed = true;
+            }
+            if (pending.decrementAndGet() != 0) {
+                return;
+            }
+            boolean ok = !failed;
+            try {
+                Runnable completion = ok ? onSuccess : onFailure;
+                if (completion != null) {
+                    completion.run();
+                }
+            } catch (RuntimeException ex) {
+                logger.warning("Failed to record the outcome of a batch index group: " + ex);
+                ok = false;
+            }
+            if (parent != null) {
+                parent.done(ok);
+            }
+        }
+    }
+
+    /**
+     * The batch index the documents go to (this one, unless this is a view of
+     * another for a group), and the group they are added to.
+     */
+    private final BatchIndex target;
+    private final Group group;
+
     private Collection<SolrInputDocument> docs;
+    private List<Group> groups;
     long batchsize;
     private SolrServer server;
 
-    
+    private final long maxBytes;
+    private final int commitWithinMs;
+    private final int maxConcurrentFlushes;
+    private final Semaphore flushPermits;
+    private long pendingBytes = 0;
+
+    private final AtomicLong docsAdded = new AtomicLong();
+    private final AtomicLong docsFlushed = new AtomicLong();
+    private final AtomicLong docsFailed = new AtomicLong();
+    private final AtomicLong bytesFlushed = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushTimeMillis = new AtomicLong();
+    private final AtomicLong backpressureWaitMillis = new AtomicLong();
+    private volatile String lastError;
+
     public BatchIndex(long size, SolrServer serv){
+        this(size, 0, 0, 1, serv);
+    }
+
+    /**
+     * @param size Flush once this many documents are pending.
+     * @param maxBytes Flush once the pending documents are estimated to be this
+     * large. 0 or less disables the size threshold.
+     * @param commitWithinMs Passed to Solr as "commitWithin" for each batch. 0
+     * or less leaves committing to Solr's autoCommit settings.
+     * @param maxConcurrentFlushes How many batches may be sent to Solr at the
+     * same time before callers are made to wait.
+     * @param serv The Solr server to send the batches to.
+     */
+    public BatchIndex(long size, long maxBytes, int commitWithinMs, int maxConcurrentFlushes, SolrServer serv) {
+        target = this;
+        group = null;
         batchsize = size;
         docs = new ArrayList<>();
+        groups = new ArrayList<>();
         server = serv;
+        this.maxBytes = maxBytes;
+        this.commitWithinMs = commitWithinMs;
+        this.maxConcurrentFlushes = Math.max(1, maxConcurrentFlushes);
+        this.flushPermits = new Semaphore(this.maxConcurrentFlushes, true);
+    }
+
+    private BatchIndex(BatchIndex target, Group group) {
+        this.target = target;
+        this.group = group;
+        this.maxBytes = target.maxBytes;
+        this.commitWithinMs = target.commitWithinMs;
+        this.maxConcurrentFlushes = target.maxConcurrentFlushes;
+        this.flushPermits = target.flushPermits;
+        this.server = target.server;
+        this.batchsize = target.batchsize;
     }
-    
+
+    /**
+     * @return a view of this batch index that adds the documents given to it
+     * to the {@code group}.
+     */
+    public BatchIndex forGroup(Group group) {
+        return new BatchIndex(target, group);
+    }
+
     public void add(SolrInputDocument doc){
-        docs.add(doc);
-        if (docs.size()== batchsize){
-            indexDocs(getDocs());
+        target.add(doc, group);
+    }
+
+    /**
+     * Records that not all the documents of the group of this view could be
+     * made, so that the group fails, whatever happens to those that were.
+     */
+    public void fail() {
+        if (group != null) {
+            group.failed = true;
         }
     }
-    
+
+    private void add(SolrInputDocument doc, Group docGroup) {
+        Collection<SolrInputDocument> full = null;
+        List<Group> fullGroups = null;
+        synchronized (this) {
+            docs.add(doc);
+            groups.add(docGroup);
+            if (docGroup != null) {
+                docGroup.added();
+            }
+            pendingBytes += estimateSize(doc);
+            docsAdded.incrementAndGet();
+            if (isFull()) {
+                fullGroups = groups;
+                full = takePending();
+            }
+        }
+        if (full != null) {
+            flush(full, fullGroups);
+        }
+    }
+
+    public void add(Collection<SolrInputDocument> newDocs) {
+        for (SolrInputDocument doc : newDocs) {
+            add(doc);
+        }
+    }
+
+    /**
+     * Adds the documents, and runs {@code onIndexed} once they have all been
+     * sent to Solr; it is not run if any of them could not be.
+     */
+    public void add(Collection<SolrInputDocument> newDocs, Runnable onIndexed) {
+        Group docGroup = new Group(group, onIndexed, null);
+        boolean added = false;
+        try {
+            for (SolrInputDocument doc : newDocs) {
+                target.add(doc, docGroup);
+            }
+            added = true;
+        } finally {
+            docGroup.close(added);
+        }
+    }
+
     public String indexDocs(Collection<SolrInputDocument> docs) {
         logger.info("Starting BATCHindex of "+docs.size()+" documents");
         try {
@@ -53,23 +256,175 @@ private static final Logger logger = Logger.getLogger(BatchIndex.class.getCanoni
         return "indexed " + batchsize + "documents";
 
     }
-    
+
+    /**
+     * Sends whatever is still pending and makes everything sent so far
+     * visible with a single hard commit.
+     */
     public String finish(){
-        return indexDocs(docs);
+        if (target != this) {
+            return target.finish();
+        }
+        Collection<SolrInputDocument> remaining;
+        List<Group> remainingGroups;
+        synchronized (this) {
+            remainingGroups = groups;
+            remaining = takePending();
+        }
+        flush(remaining, remainingGroups);
+        // wait for any flushes still running on other threads
+        try {
+            flushPermits.acquire(maxConcurrentFlushes);
+            flushPermits.release(maxConcurrentFlushes);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            getServer().commit();
+        } catch (SolrServerException | IOException ex) {
+            lastError = ex.toString();
+            return ex.toString();
+        }
+        return "indexed " + docsFlushed.get() + " documents in " + flushCount.get() + " batches; " + docsFailed.get() + " failed";
+    }
+
+    private boolean isFull() {
+        if (batchsize > 0 && docs.size() >= batchsize) {
+            return true;
+        }
+        return maxBytes > 0 && pendingBytes >= maxBytes;
+    }
+
+    private Collection<SolrInputDocument> takePending() {
+        Collection<SolrInputDocument> pending = docs;
+        docs = new ArrayList<>();
+        groups = new ArrayList<>();
+        pendingBytes = 0;
+        return pending;
+    }
+
+    private void flush(Collection<SolrInputDocument> batch, List<Group> batchGroups) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        boolean sent = false;
+        long waitStart = System.currentTimeMillis();
+        try {
+            flushPermits.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            docsFailed.addAndGet(batch.size());
+            lastError = ex.toString();
+            report(batchGroups, false);
+            return;
+        }
+        long flushStart = System.currentTimeMillis();
+        backpressureWaitMillis.addAndGet(flushStart - waitStart);
+        try {
+            logger.fine("Starting BATCHindex of " + batch.size() + " documents");
+            if (commitWithinMs > 0) {
+                getServer().add(batch, commitWithinMs);
+            } else {
+                getServer().add(batch);
+            }
+            docsFlushed.addAndGet(batch.size());
+            long bytes = 0;
+            for (SolrInputDocument doc : batch) {
+                bytes += estimateSize(doc);
+            }
+            bytesFlushed.addAndGet(bytes);
+            sent = true;
+        } catch (SolrServerException | IOException | RuntimeException ex) {
+            logger.warning("Failed to send batch of " + batch.size() + " documents to Solr: " + ex);
+            docsFailed.addAndGet(batch.size());
+            lastError = ex.toString();
+        } finally {
+            flushCount.incrementAndGet();
+            flushTimeMillis.addAndGet(System.currentTimeMillis() - flushStart);
+            flushPermits.release();
+        }
+        // (outside of the flush slot: the groups may have database work to do)
+        report(batchGroups, sent);
+    }
+
+    private static void report(List<Group> batchGroups, boolean sent) {
+        for (Group docGroup : batchGroups) {
+            if (docGroup != null) {
+                docGroup.done(sent);
+            }
+        }
+    }
+
+    /**
+     * A rough estimate of how many bytes a document will take on the wire,
+     * good enough to keep batches from growing without bound when documents
+     * are large (e.g. datasets with many files or long descriptions).
+     */
+    static long estimateSize(SolrInputDocument doc) {
+        long size = 0;
+        for (SolrInputField field : doc) {
+            int nameLength = field.getName().length();
+            for (Object value : field.getValues()) {
+                size += nameLength + (value == null ? 0 : value.toString().length());
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the statistics of the batch index (of the whole of it, for a
+     * view).
+     */
+    public JsonObjectBuilder getStats() {
+        if (target != this) {
+            return target.getStats();
+        }
+        JsonObjectBuilder stats = Json.createObjectBuilder()
+                .add("docsAdded", docsAdded.get())
+                .add("docsFlushed", docsFlushed.get())
+                .add("docsFailed", docsFailed.get())
+                .add("bytesFlushed", bytesFlushed.get())
+                .add("batches", flushCount.get())
+                .add("flushTimeMillis", flushTimeMillis.get())
+                .add("backpressureWaitMillis", backpressureWaitMillis.get());
+        if (lastError != null) {
+            stats.add("lastError", lastError);
+        }
+        return stats;
+    }
+
+    public long getDocsFailed() {
+        return target.docsFailed.get();
     }
 
     /**
-     * @return the docs
+     * @return what went wrong last, sending documents or committing them;
+     * {@code null} if nothing did.
+     */
+    public String getLastError() {
+        return target.lastError;
+    }
+
+    /**
+     * @return the docs (pending in the batch index, for a view)
      */
     public Collection<SolrInputDocument> getDocs() {
-        return docs;
+        return target.docs;
     }
 
     /**
-     * @param docs the docs to set
+     * @param docs the docs to set (in the batch index, for a view)
      */
     public void setDocs(Collection<SolrInputDocument> docs) {
+        if (target != this) {
+            target.setDocs(docs);
+            return;
+        }
         this.docs = docs;
+        this.groups = new ArrayList<>();
+        for (int i = 0; i < docs.size(); i++) {
+            groups.add(null);
+        }
     }
 
     /**
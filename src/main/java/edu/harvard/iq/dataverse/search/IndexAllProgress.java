@@ -0,0 +1,125 @@
+package edu.harvard.iq.dataverse.search;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Live progress of an "index all" run, updated by the worker threads and read
+ * by the {@code admin/index/progress} API endpoint.
+ */
+public class IndexAllProgress {
+
+    private final long startTime = System.currentTimeMillis();
+    private final long partitionId;
+    private final long numPartitions;
+    private final int workers;
+    private final long dataversesTotal;
+    private final long datasetsTotal;
+    private final BatchIndex batchIndex;
+
+    private final AtomicLong dataversesDone = new AtomicLong();
+    private final AtomicLong datasetsDone = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong inFlight = new AtomicLong();
+    private volatile long endTime = 0;
+    private volatile String result;
+
+    public IndexAllProgress(long numPartitions, long partitionId, int workers, long dataversesTotal, long datasetsTotal, BatchIndex batchIndex) {
+        this.numPartitions = numPartitions;
+        this.partitionId = partitionId;
+        this.workers = workers;
+        this.dataversesTotal = dataversesTotal;
+        this.datasetsTotal = datasetsTotal;
+        this.batchIndex = batchIndex;
+    }
+
+    public void started() {
+        inFlight.incrementAndGet();
+    }
+
+    public void dataverseDone() {
+        dataversesDone.incrementAndGet();
+        inFlight.decrementAndGet();
+    }
+
+    public void datasetDone() {
+        datasetsDone.incrementAndGet();
+        inFlight.decrementAndGet();
+    }
+
+    public void failed() {
+        failures.incrementAndGet();
+        inFlight.decrementAndGet();
+    }
+
+    public void finished(String result) {
+        this.result = result;
+        endTime = System.currentTimeMillis();
+    }
+
+    public boolean isFinished() {
+        return endTime != 0;
+    }
+
+    public long getDone() {
+        return dataversesDone.get() + datasetsDone.get();
+    }
+
+    public long getTotal() {
+        return dataversesTotal + datasetsTotal;
+    }
+
+    public long getElapsedMillis() {
+        return (isFinished() ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    /**
+     * @return Objects (dataverses and datasets) indexed per second so far.
+     */
+    public double getThroughput() {
+        long elapsed = getElapsedMillis();
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return getDone() * 1000.0 / elapsed;
+    }
+
+    /**
+     * @return Estimated milliseconds until the run completes, based on the
+     * throughput so far, or -1 if nothing has been indexed yet.
+     */
+    public long getEtaMillis() {
+        if (isFinished()) {
+            return 0;
+        }
+        double throughput = getThroughput();
+        if (throughput <= 0) {
+            return -1;
+        }
+        return (long) ((getTotal() - getDone() - failures.get()) * 1000 / throughput);
+    }
+
+    public JsonObjectBuilder toJson() {
+        JsonObjectBuilder progress = Json.createObjectBuilder()
+                .add("numPartitions", numPartitions)
+                .add("partitionId", partitionId)
+                .add("workers", workers)
+                .add("finished", isFinished())
+                .add("dataversesIndexed", dataversesDone.get())
+                .add("dataversesTotal", dataversesTotal)
+                .add("datasetsIndexed", datasetsDone.get())
+                .add("datasetsTotal", datasetsTotal)
+                .add("failures", failures.get())
+                .add("inFlight", inFlight.get())
+                .add("elapsedMillis", getElapsedMillis())
+                .add("objectsPerSecond", getThroughput())
+                .add("etaMillis", getEtaMillis())
+                .add("solrBatches", batchIndex.getStats());
+        if (result != null) {
+            progress.add("result", result);
+        }
+        return progress;
+    }
+
+}
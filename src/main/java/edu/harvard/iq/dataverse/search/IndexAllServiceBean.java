@@ -7,13 +7,18 @@ import edu.harvard.iq.dataverse.DataverseServiceBean;
 import edu.harvard.iq.dataverse.DvObjectServiceBean;
 import edu.harvard.iq.dataverse.util.SystemConfig;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
+import javax.annotation.Resource;
 import javax.ejb.AsyncResult;
 import javax.ejb.Asynchronous;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.inject.Named;
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
@@ -39,6 +44,17 @@ public class IndexAllServiceBean {
     DvObjectServiceBean dvObjectService;
     @EJB
     SystemConfig systemConfig;
+    @Resource
+    ManagedExecutorService executor;
+
+    /**
+     * Progress of the most recent "index all" run on this server, if any.
+     */
+    private static volatile IndexAllProgress currentProgress;
+
+    public IndexAllProgress getProgress() {
+        return currentProgress;
+    }
 
     @Asynchronous
     public Future<JsonObjectBuilder> indexAllOrSubset(long numPartitions, long partitionId, boolean skipIndexed, boolean previewOnly) {
@@ -105,21 +121,54 @@ public class IndexAllServiceBean {
             resultOfClearingIndexTimes = "Solr index was not cleared before indexing.";
         }
 
-        List<Dataverse> dataverses = dataverseService.findAllOrSubset(numPartitions, partitionId, skipIndexed);
+        List<Long> dataverseIds = new ArrayList<>();
+        for (Dataverse dataverse : dataverseService.findAllOrSubset(numPartitions, partitionId, skipIndexed)) {
+            dataverseIds.add(dataverse.getId());
+        }
+        List<Long> datasetIds = new ArrayList<>();
+        for (Dataset dataset : datasetService.findAllOrSubset(numPartitions, partitionId, skipIndexed)) {
+            datasetIds.add(dataset.getId());
+        }
+
+        /**
+         * Dataverses and datasets are indexed by a bounded pool of workers,
+         * each in its own transaction. All Solr documents go through one
+         * shared BatchIndex so Solr sees a few large batches and no
+         * per-object commits. The semaphore keeps at most "workers" objects
+         * in flight, so a slow Solr (which blocks the BatchIndex) also
+         * throttles how fast work is handed out here. Only half as many
+         * batches as there are workers may be sent at once: as each worker
+         * sends the batches it fills itself, any more would never make one
+         * wait.
+         *
+         * An object only counts as indexed (and gets its index times) once
+         * all its documents have been sent to Solr.
+         */
+        int workers = Math.max(1, systemConfig.getIndexAllWorkers());
+        BatchIndex batchIndex = indexService.createBatchIndex(Math.max(1, workers / 2));
+        IndexAllProgress progress = new IndexAllProgress(numPartitions, partitionId, workers, dataverseIds.size(), datasetIds.size(), batchIndex);
+        currentProgress = progress;
+        Semaphore workerSlots = new Semaphore(workers);
+
         int dataverseIndexCount = 0;
-        for (Dataverse dataverse : dataverses) {
+        for (Long dataverseId : dataverseIds) {
             dataverseIndexCount++;
-            logger.info("indexing dataverse " + dataverseIndexCount + " of " + dataverses.size() + " (id=" + dataverse.getId() + ", persistentId=" + dataverse.getAlias() + ")");
-            Future<String> result = indexService.indexDataverseInNewTransaction(dataverse);
+            logger.fine("indexing dataverse " + dataverseIndexCount + " of " + dataverseIds.size() + " (id=" + dataverseId + ")");
+            submit(workerSlots, progress, new BatchIndex.Group(progress::dataverseDone, progress::failed),
+                    group -> indexService.indexDataverseInNewTransaction(dataverseId, batchIndex.forGroup(group)));
         }
 
         int datasetIndexCount = 0;
-        List<Dataset> datasets = datasetService.findAllOrSubset(numPartitions, partitionId, skipIndexed);
-        for (Dataset dataset : datasets) {
+        for (Long datasetId : datasetIds) {
             datasetIndexCount++;
-            logger.info("indexing dataset " + datasetIndexCount + " of " + datasets.size() + " (id=" + dataset.getId() + ", persistentId=" + dataset.getGlobalId() + ")");
-            Future<String> result = indexService.indexDatasetInNewTransaction(dataset);
+            logger.fine("indexing dataset " + datasetIndexCount + " of " + datasetIds.size() + " (id=" + datasetId + ")");
+            submit(workerSlots, progress, new BatchIndex.Group(progress::datasetDone, progress::failed),
+                    group -> indexService.indexDatasetInNewTransaction(datasetId, batchIndex.forGroup(group)));
         }
+        // wait for the last workers to finish
+        workerSlots.acquireUninterruptibly(workers);
+        workerSlots.release(workers);
+        String resultOfBatchIndex = batchIndex.finish();
 //        logger.info("advanced search fields: " + advancedSearchFields);
 //        logger.info("not advanced search fields: " + notAdvancedSearchFields);
         logger.info("done iterating through all datasets");
@@ -127,9 +176,38 @@ public class IndexAllServiceBean {
         long indexAllTimeEnd = System.currentTimeMillis();
         String timeElapsed = "index all took " + (indexAllTimeEnd - indexAllTimeBegin) + " milliseconds";
         logger.info(timeElapsed);
-        status = dataverseIndexCount + " dataverses and " + datasetIndexCount + " datasets indexed. " + timeElapsed + ". " + resultOfClearingIndexTimes + "\n";
+        status = dataverseIndexCount + " dataverses and " + datasetIndexCount + " datasets indexed. " + timeElapsed + ". " + resultOfClearingIndexTimes + " Solr: " + resultOfBatchIndex + "\n";
         logger.info(status);
+        progress.finished(status);
         return new AsyncResult<>(status);
     }
 
+    /**
+     * Has a worker index an object, into the {@code group}: which reports the
+     * object as indexed (or not) to the progress once its documents have been
+     * sent.
+     */
+    private void submit(Semaphore workerSlots, IndexAllProgress progress, BatchIndex.Group group, Consumer<BatchIndex.Group> work) {
+        workerSlots.acquireUninterruptibly();
+        progress.started();
+        try {
+            executor.submit(() -> {
+                boolean indexed = false;
+                try {
+                    work.accept(group);
+                    indexed = true;
+                } catch (RuntimeException ex) {
+                    logger.warning("index all worker failed: " + ex);
+                } finally {
+                    group.close(indexed);
+                    workerSlots.release();
+                }
+            });
+        } catch (RuntimeException ex) {
+            logger.warning("could not hand work to index all worker: " + ex);
+            group.close(false);
+            workerSlots.release();
+        }
+    }
+
 }
@@ -40,6 +40,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -129,17 +130,36 @@ public class IndexServiceBean {
         return indexDataverse(dataverse);
     }
 
+    /**
+     * Used by "index all": the dataverse is looked up again in this new
+     * transaction (so that worker threads never share managed entities) and
+     * its Solr documents are handed to the shared {@link BatchIndex} instead
+     * of being committed one by one.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public Future<String> indexDataverseInNewTransaction(Long dataverseId, BatchIndex batchIndex) {
+        Dataverse dataverse = dataverseService.find(dataverseId);
+        if (dataverse == null) {
+            return notIndexed("unable to index dataverse. could not find id " + dataverseId, batchIndex);
+        }
+        return indexDataverse(dataverse, batchIndex);
+    }
+
     public Future<String> indexDataverse(Dataverse dataverse) {
+        return indexDataverse(dataverse, null);
+    }
+
+    private Future<String> indexDataverse(Dataverse dataverse, BatchIndex batchIndex) {
         logger.fine("indexDataverse called on dataverse id " + dataverse.getId() + "(" + dataverse.getAlias() + ")");
         if (dataverse.getId() == null) {
             String msg = "unable to index dataverse. id was null (alias: " + dataverse.getAlias() + ")";
             logger.info(msg);
-            return new AsyncResult<>(msg);
+            return notIndexed(msg, batchIndex);
         }
         Dataverse rootDataverse = findRootDataverseCached();
         if (rootDataverse == null) {
             String msg = "Could not find root dataverse and the root dataverse should not be indexed. Returning.";
-            return new AsyncResult<>(msg);
+            return notIndexed(msg, batchIndex);
         } else if (dataverse.getId() == rootDataverse.getId()) {
             String msg = "The root dataverse should not be indexed. Returning.";
             return new AsyncResult<>(msg);
@@ -225,28 +245,13 @@ public class IndexServiceBean {
         solrInputDocument.addField(SearchFields.SUBTREE, dataversePaths);
         docs.add(solrInputDocument);
 
-        String status;
-        try {
-            if (dataverse.getId() != null) {
-                solrServer.add(docs);
-            } else {
-                logger.info("WARNING: indexing of a dataverse with no id attempted");
-            }
-        } catch (SolrServerException | IOException ex) {
-            status = ex.toString();
-            logger.info(status);
-            return new AsyncResult<>(status);
-        }
-        try {
-            solrServer.commit();
-        } catch (SolrServerException | IOException ex) {
-            status = ex.toString();
+        String status = writeDocs(docs, batchIndex, dataverse);
+        if (status != null) {
             logger.info(status);
             return new AsyncResult<>(status);
         }
 
-        dvObjectService.updateContentIndexTime(dataverse);
-        IndexResponse indexResponse = solrIndexService.indexPermissionsForOneDvObject(dataverse);
+        IndexResponse indexResponse = solrIndexService.indexPermissionsForOneDvObject(dataverse, batchIndex);
         String msg = "indexed dataverse " + dataverse.getId() + ":" + dataverse.getAlias() + ". Response from permission indexing: " + indexResponse.getMessage();
         return new AsyncResult<>(msg);
 
@@ -258,7 +263,56 @@ public class IndexServiceBean {
         return indexDataset(dataset, doNormalSolrDocCleanUp);
     }
 
+    /**
+     * Used by "index all"; see
+     * {@link #indexDataverseInNewTransaction(java.lang.Long, edu.harvard.iq.dataverse.search.BatchIndex)}.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public Future<String> indexDatasetInNewTransaction(Long datasetId, BatchIndex batchIndex) {
+        Dataset dataset = datasetService.find(datasetId);
+        if (dataset == null) {
+            return notIndexed("unable to index dataset. could not find id " + datasetId, batchIndex);
+        }
+        boolean doNormalSolrDocCleanUp = false;
+        return indexDataset(dataset, doNormalSolrDocCleanUp, batchIndex);
+    }
+
     public Future<String> indexDataset(Dataset dataset, boolean doNormalSolrDocCleanUp) {
+        return indexDataset(dataset, doNormalSolrDocCleanUp, null);
+    }
+
+    /**
+     * Indexes a dataset just published, its permissions, and the dataverses
+     * given - and, unlike the other methods here, which only describe what
+     * went wrong in the result they return, throws if any of the documents
+     * could not be made or sent to Solr; so that the caller can try again.
+     *
+     * @throws IOException if not everything was indexed.
+     */
+    public void indexPublishedDataset(Dataset dataset, Collection<Dataverse> changedDataverses) throws IOException {
+        BatchIndex batchIndex = createBatchIndex(1);
+        final AtomicBoolean indexed = new AtomicBoolean();
+        BatchIndex.Group group = new BatchIndex.Group(() -> indexed.set(true), null);
+        BatchIndex groupIndex = batchIndex.forGroup(group);
+        boolean made = false;
+        try {
+            for (Dataverse dataverse : changedDataverses) {
+                indexDataverse(dataverse, groupIndex);
+            }
+            boolean doNormalSolrDocCleanUp = true;
+            indexDataset(dataset, doNormalSolrDocCleanUp, groupIndex);
+            solrIndexService.indexPermissionsForOneDvObject(dataset, groupIndex);
+            made = true;
+        } finally {
+            group.close(made);
+        }
+        String result = batchIndex.finish();
+        if (!indexed.get() || batchIndex.getLastError() != null) {
+            throw new IOException("Failed to index dataset " + dataset.getId() + ": " + result);
+        }
+    }
+
+    private Future<String> indexDataset(Dataset dataset, boolean doNormalSolrDocCleanUp, BatchIndex batchIndex) {
         logger.fine("indexing dataset " + dataset.getId());
         /**
          * @todo should we use solrDocIdentifierDataset or
@@ -365,7 +419,7 @@ public class IndexServiceBean {
 
                 desiredCards.put(DatasetVersion.VersionState.DRAFT, true);
                 IndexableDataset indexableDraftVersion = new IndexableDataset(latestVersion);
-                String indexDraftResult = addOrUpdateDataset(indexableDraftVersion);
+                String indexDraftResult = addOrUpdateDataset(indexableDraftVersion, batchIndex);
                 results.append("The latest version is a working copy (latestVersionState: ")
                         .append(latestVersionStateString).append(") and indexing was attempted for ")
                         .append(solrIdDraftDataset).append(" (limited discoverability). Result: ")
@@ -414,13 +468,13 @@ public class IndexServiceBean {
                  */
                 String result = getDesiredCardState(desiredCards) + results.toString() + debug.toString();
                 logger.fine(result);
-                indexDatasetPermissions(dataset);
+                indexDatasetPermissions(dataset, batchIndex);
                 return new AsyncResult<>(result);
             } else if (latestVersionState.equals(DatasetVersion.VersionState.DEACCESSIONED)) {
 
                 desiredCards.put(DatasetVersion.VersionState.DEACCESSIONED, true);
                 IndexableDataset indexableDeaccessionedVersion = new IndexableDataset(latestVersion);
-                String indexDeaccessionedVersionResult = addOrUpdateDataset(indexableDeaccessionedVersion);
+                String indexDeaccessionedVersionResult = addOrUpdateDataset(indexableDeaccessionedVersion, batchIndex);
                 results.append("No draft version. Attempting to index as deaccessioned. Result: ").append(indexDeaccessionedVersionResult).append("\n");
 
                 desiredCards.put(DatasetVersion.VersionState.RELEASED, false);
@@ -462,12 +516,12 @@ public class IndexServiceBean {
                  */
                 String result = getDesiredCardState(desiredCards) + results.toString() + debug.toString();
                 logger.fine(result);
-                indexDatasetPermissions(dataset);
+                indexDatasetPermissions(dataset, batchIndex);
                 return new AsyncResult<>(result);
             } else {
                 String result = "No-op. Unexpected condition reached: No released version and latest version is neither draft nor deaccessioned";
                 logger.fine(result);
-                return new AsyncResult<>(result);
+                return notIndexed(result, batchIndex);
             }
         } else if (atLeastOnePublishedVersion == true) {
             results.append("Published versions found. ")
@@ -477,7 +531,7 @@ public class IndexServiceBean {
 
                 desiredCards.put(DatasetVersion.VersionState.RELEASED, true);
                 IndexableDataset indexableReleasedVersion = new IndexableDataset(releasedVersion);
-                String indexReleasedVersionResult = addOrUpdateDataset(indexableReleasedVersion);
+                String indexReleasedVersionResult = addOrUpdateDataset(indexableReleasedVersion, batchIndex);
                 results.append("Attempted to index " + solrIdPublished).append(". Result: ").append(indexReleasedVersionResult).append("\n");
 
                 desiredCards.put(DatasetVersion.VersionState.DRAFT, false);
@@ -519,20 +573,20 @@ public class IndexServiceBean {
                  */
                 String result = getDesiredCardState(desiredCards) + results.toString() + debug.toString();
                 logger.fine(result);
-                indexDatasetPermissions(dataset);
+                indexDatasetPermissions(dataset, batchIndex);
                 return new AsyncResult<>(result);
             } else if (latestVersionState.equals(DatasetVersion.VersionState.DRAFT)) {
 
                 IndexableDataset indexableDraftVersion = new IndexableDataset(latestVersion);
                 desiredCards.put(DatasetVersion.VersionState.DRAFT, true);
-                String indexDraftResult = addOrUpdateDataset(indexableDraftVersion);
+                String indexDraftResult = addOrUpdateDataset(indexableDraftVersion, batchIndex);
                 results.append("The latest version is a working copy (latestVersionState: ")
                         .append(latestVersionStateString).append(") and will be indexed as ")
                         .append(solrIdDraftDataset).append(" (limited visibility). Result: ").append(indexDraftResult).append("\n");
 
                 desiredCards.put(DatasetVersion.VersionState.RELEASED, true);
                 IndexableDataset indexableReleasedVersion = new IndexableDataset(releasedVersion);
-                String indexReleasedVersionResult = addOrUpdateDataset(indexableReleasedVersion);
+                String indexReleasedVersionResult = addOrUpdateDataset(indexableReleasedVersion, batchIndex);
                 results.append("There is a published version we will attempt to index. Result: ").append(indexReleasedVersionResult).append("\n");
 
                 desiredCards.put(DatasetVersion.VersionState.DEACCESSIONED, false);
@@ -567,17 +621,17 @@ public class IndexServiceBean {
                  */
                 String result = getDesiredCardState(desiredCards) + results.toString() + debug.toString();
                 logger.fine(result);
-                indexDatasetPermissions(dataset);
+                indexDatasetPermissions(dataset, batchIndex);
                 return new AsyncResult<>(result);
             } else {
                 String result = "No-op. Unexpected condition reached: There is at least one published version but the latest version is neither published nor draft";
                 logger.fine(result);
-                return new AsyncResult<>(result);
+                return notIndexed(result, batchIndex);
             }
         } else {
             String result = "No-op. Unexpected condition reached: Has a version been published or not?";
             logger.fine(result);
-            return new AsyncResult<>(result);
+            return notIndexed(result, batchIndex);
         }
     }
 
@@ -588,7 +642,7 @@ public class IndexServiceBean {
         return deleteDraftFilesResults;
     }
 
-    private IndexResponse indexDatasetPermissions(Dataset dataset) {
+    private IndexResponse indexDatasetPermissions(Dataset dataset, BatchIndex batchIndex) {
         boolean disabledForDebugging = false;
         if (disabledForDebugging) {
             /**
@@ -598,11 +652,11 @@ public class IndexServiceBean {
              */
             return new IndexResponse("permissions indexing disabled for debugging");
         }
-        IndexResponse indexResponse = solrIndexService.indexPermissionsOnSelfAndChildren(dataset);
+        IndexResponse indexResponse = solrIndexService.indexPermissionsOnSelfAndChildren(dataset, batchIndex);
         return indexResponse;
     }
 
-    private String addOrUpdateDataset(IndexableDataset indexableDataset) {
+    private String addOrUpdateDataset(IndexableDataset indexableDataset, BatchIndex batchIndex) {
         IndexableDataset.DatasetState state = indexableDataset.getDatasetState();
         Dataset dataset = indexableDataset.getDatasetVersion().getDataset();
         logger.fine("adding or updating Solr document for dataset id " + dataset.getId());
@@ -1001,6 +1055,29 @@ public class IndexServiceBean {
             }
         }
 
+        String status = writeDocs(docs, batchIndex, dataset);
+        if (status != null) {
+            return status;
+        }
+
+//        return "indexed dataset " + dataset.getId() + " as " + solrDocId + "\nindexFilesResults for " + solrDocId + ":" + fileInfo.toString();
+        return "indexed dataset " + dataset.getId() + " as " + datasetSolrDocId + ". filesIndexed: " + filesIndexed;
+    }
+
+    /**
+     * Sends the documents of the {@code dvObject} to Solr and commits, and
+     * updates its content index time; or, when a {@link BatchIndex} is given,
+     * leaves it to the batch to send and commit them, and updates the index
+     * time once (and if) it has sent them.
+     *
+     * @return null on success, otherwise a description of the problem.
+     */
+    private String writeDocs(Collection<SolrInputDocument> docs, BatchIndex batchIndex, DvObject dvObject) {
+        if (batchIndex != null) {
+            final Long dvObjectId = dvObject.getId();
+            batchIndex.add(docs, () -> dvObjectService.updateContentIndexTimeInNewTransaction(dvObjectId));
+            return null;
+        }
         try {
             solrServer.add(docs);
         } catch (SolrServerException | IOException ex) {
@@ -1011,11 +1088,27 @@ public class IndexServiceBean {
         } catch (SolrServerException | IOException ex) {
             return ex.toString();
         }
+        dvObjectService.updateContentIndexTime(dvObject);
+        return null;
+    }
 
-        dvObjectService.updateContentIndexTime(dataset);
+    /**
+     * For the objects that could not be indexed: when indexing into a
+     * {@link BatchIndex}, it is told so.
+     */
+    private Future<String> notIndexed(String msg, BatchIndex batchIndex) {
+        if (batchIndex != null) {
+            batchIndex.fail();
+        }
+        return new AsyncResult<>(msg);
+    }
 
-//        return "indexed dataset " + dataset.getId() + " as " + solrDocId + "\nindexFilesResults for " + solrDocId + ":" + fileInfo.toString();
-        return "indexed dataset " + dataset.getId() + " as " + datasetSolrDocId + ". filesIndexed: " + filesIndexed;
+    /**
+     * A {@link BatchIndex} writing to the same Solr server as this bean,
+     * configured from the "index all" settings.
+     */
+    public BatchIndex createBatchIndex(int maxConcurrentFlushes) {
+        return new BatchIndex(systemConfig.getSolrBatchSize(), systemConfig.getSolrBatchMaxBytes(), systemConfig.getSolrCommitWithinMs(), maxConcurrentFlushes, solrServer);
     }
 
     /**
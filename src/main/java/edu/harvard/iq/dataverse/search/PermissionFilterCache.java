@@ -0,0 +1,116 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.PermissionCache;
+import edu.harvard.iq.dataverse.util.LruCache;
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Application-wide cache of the permission filter queries of
+ * {@link SearchServiceBean}, by authenticated user id.
+ *
+ * Building a user's filter means finding all the groups they are in, which is
+ * expensive; and the groups are listed in a canonical (sorted) order, so that
+ * the same user always sends the same filter, which Solr can then serve from
+ * its filter cache.
+ *
+ * An entry is only used while the generation of the
+ * {@link PermissionCache} (bumped whenever group memberships or
+ * role assignments change) is the one it was built in. The generation is
+ * bumped again once the changing transaction is over (and after the explicit
+ * group memberships have been updated), so a filter built from the old
+ * groups in the meantime is not used past the commit. Entries are also
+ * dropped after {@link #MAX_AGE_MILLIS}, for changes the generation does not
+ * track (e.g. made on another server of a cluster).
+ */
+public class PermissionFilterCache {
+
+    static final long MAX_AGE_MILLIS = 60 * 1000;
+
+    private static final class Entry {
+        final String filterQuery;
+        final long generation;
+        final long buildTime;
+
+        Entry(String filterQuery, long generation, long buildTime) {
+            this.filterQuery = filterQuery;
+            this.generation = generation;
+            this.buildTime = buildTime;
+        }
+    }
+
+    private final LruCache<Long, Entry> byUserId = new LruCache<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public PermissionFilterCache() {
+        byUserId.setMaxSize(10000);
+    }
+
+    /**
+     * @param userId id of the authenticated user.
+     * @param generation the current generation.
+     * @return the user's filter query, or {@code null} if not cached or stale.
+     */
+    public String get(Long userId, long generation) {
+        Entry entry = byUserId.get(userId);
+        if (entry == null || entry.generation != generation
+                || System.currentTimeMillis() - entry.buildTime > MAX_AGE_MILLIS) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.filterQuery;
+    }
+
+    /**
+     * @param userId id of the authenticated user.
+     * @param filterQuery the filter query.
+     * @param generationAtBuild the generation read <em>before</em> the user's
+     * groups were looked up.
+     * @return {@code filterQuery}.
+     */
+    public String put(Long userId, String filterQuery, long generationAtBuild) {
+        byUserId.put(userId, new Entry(filterQuery, generationAtBuild, System.currentTimeMillis()));
+        return filterQuery;
+    }
+
+    public void invalidateAll() {
+        byUserId.invalidate();
+    }
+
+    /**
+     * Builds the filter that lets a user find the content that is public,
+     * or that they - or any of their groups - can see.
+     *
+     * @param userId id of the authenticated user.
+     * @param groupAliases aliases of all the user's groups, in any order.
+     * @return the filter query; the same for the same groups, whatever their
+     * order.
+     */
+    public static String buildFilterQuery(Long userId, Collection<String> groupAliases) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{!join from=").append(SearchFields.DEFINITION_POINT).append(" to=id}")
+                .append(SearchFields.DISCOVERABLE_BY).append(":(")
+                .append(IndexServiceBean.getPublicGroupString())
+                .append(" OR ").append(IndexServiceBean.getGroupPerUserPrefix()).append(userId);
+        for (String groupAlias : new TreeSet<>(groupAliases)) {
+            // i.e. group_builtIn/all-users, group_builtIn/authenticated-users, group_1-explictGroup1, group_shib/2
+            sb.append(" OR ").append(IndexServiceBean.getGroupPrefix()).append(groupAlias);
+        }
+        return sb.append(")").toString();
+    }
+
+    public JsonObjectBuilder getStats() {
+        return Json.createObjectBuilder()
+                .add("usersCached", byUserId.size())
+                .add("maxUsers", byUserId.getMaxSize())
+                .add("hits", hits.get())
+                .add("misses", misses.get());
+    }
+
+}
@@ -349,6 +349,11 @@ public class SearchIncludeFragment implements java.io.Serializable {
              * solrSearchResult.setCitation method but only the dataset card in
              * the UI (currently) shows this "citation" field.
              */
+            // The cards are populated by type, a page at a time, rather than
+            // with a few queries per card:
+            List<SolrSearchResult> dataverseCards = new ArrayList<>();
+            List<SolrSearchResult> datasetCards = new ArrayList<>();
+            List<SolrSearchResult> fileCards = new ArrayList<>();
             for (SolrSearchResult solrSearchResult : searchResults) {
                 if (solrSearchResult.getEntityId() == null) {
                     // avoiding EJBException a la https://redmine.hmdc.harvard.edu/issues/3809
@@ -361,8 +366,7 @@ public class SearchIncludeFragment implements java.io.Serializable {
                 // (we'll review this later!)
                 
                 if (solrSearchResult.getType().equals("dataverses")) {
-                    //logger.info("XXRESULT: dataverse: "+solrSearchResult.getEntityId());
-                    dataverseService.populateDvSearchCard(solrSearchResult);
+                    dataverseCards.add(solrSearchResult);
                     
                     /*
                     Datasets cannot be harvested yet.
@@ -371,8 +375,7 @@ public class SearchIncludeFragment implements java.io.Serializable {
                     }*/
 
                 } else if (solrSearchResult.getType().equals("datasets")) {
-                    //logger.info("XXRESULT: dataset: "+solrSearchResult.getEntityId());
-                    datasetVersionService.populateDatasetSearchCard(solrSearchResult);
+                    datasetCards.add(solrSearchResult);
 
                     // @todo - the 3 lines below, should they be moved inside
                     // searchServiceBean.search()?
@@ -382,14 +385,16 @@ public class SearchIncludeFragment implements java.io.Serializable {
                     }
                     
                 } else if (solrSearchResult.getType().equals("files")) {
-                    //logger.info("XXRESULT: datafile: "+solrSearchResult.getEntityId());
-                    dataFileService.populateFileSearchCard(solrSearchResult);
+                    fileCards.add(solrSearchResult);
 
                     /**
                      * @todo: show DataTable variables
                      */
                 }
             }
+            dataverseService.populateDvSearchCards(dataverseCards);
+            datasetVersionService.populateDatasetSearchCards(datasetCards);
+            dataFileService.populateFileSearchCards(fileCards);
 
             // populate preview counts: https://redmine.hmdc.harvard.edu/issues/3560
             previewCountbyType.put("dataverses", 0L);
@@ -0,0 +1,60 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.authorization.users.User;
+import edu.harvard.iq.dataverse.util.LatencyHistogram;
+import java.util.EnumMap;
+import java.util.Map;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Latency histograms of the searches made through {@link SearchServiceBean},
+ * by the class of the user searching - as these get very different permission
+ * filters, they tend to perform differently too.
+ */
+public class SearchLatency {
+
+    public enum UserClass {
+        guest, authenticated, superuser;
+
+        public static UserClass of(User user) {
+            if (user instanceof AuthenticatedUser) {
+                return ((AuthenticatedUser) user).isSuperuser() ? superuser : authenticated;
+            }
+            // including private URL users, who search as guests
+            return guest;
+        }
+    }
+
+    private final Map<UserClass, LatencyHistogram> histograms = new EnumMap<>(UserClass.class);
+
+    public SearchLatency() {
+        for (UserClass userClass : UserClass.values()) {
+            histograms.put(userClass, new LatencyHistogram());
+        }
+    }
+
+    public void record(User user, long nanos) {
+        histograms.get(UserClass.of(user)).record(nanos);
+    }
+
+    public LatencyHistogram get(UserClass userClass) {
+        return histograms.get(userClass);
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    public JsonObjectBuilder toJson() {
+        JsonObjectBuilder job = Json.createObjectBuilder();
+        for (Map.Entry<UserClass, LatencyHistogram> entry : histograms.entrySet()) {
+            job.add(entry.getKey().name(), entry.getValue().toJson());
+        }
+        return job;
+    }
+
+}
@@ -11,6 +11,7 @@ import edu.harvard.iq.dataverse.DataverseFacet;
 import edu.harvard.iq.dataverse.DataverseServiceBean;
 import edu.harvard.iq.dataverse.DvObject;
 import edu.harvard.iq.dataverse.DvObjectServiceBean;
+import edu.harvard.iq.dataverse.PermissionCache;
 import edu.harvard.iq.dataverse.authorization.groups.Group;
 import edu.harvard.iq.dataverse.authorization.groups.GroupServiceBean;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
@@ -26,6 +27,7 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
@@ -83,10 +85,23 @@ public class SearchServiceBean {
     GroupServiceBean groupService;
     @EJB
     SystemConfig systemConfig;
+    @EJB
+    PermissionCache permissionCache;
 
     public static final JsfHelper JH = new JsfHelper();
     private SolrServer solrServer;
     
+    /**
+     * Permission filter queries of authenticated users, so that their groups
+     * needn't be looked up on every search.
+     */
+    public static final PermissionFilterCache permissionFilterCache = new PermissionFilterCache();
+    
+    /**
+     * How long searches take, by class of user.
+     */
+    public static final SearchLatency latency = new SearchLatency();
+    
     @PostConstruct
     public void init(){
         solrServer = new HttpSolrServer("http://" + systemConfig.getSolrHostColonPort() + "/solr");
@@ -146,6 +161,15 @@ public class SearchServiceBean {
      * @throws SearchException
      */
     public SolrQueryResponse search(User user, Dataverse dataverse, String query, List<String> filterQueries, String sortField, String sortOrder, int paginationStart, boolean onlyDatatRelatedToMe, int numResultsPerPage, boolean retrieveEntities) throws SearchException {
+        long start = System.nanoTime();
+        try {
+            return doSearch(user, dataverse, query, filterQueries, sortField, sortOrder, paginationStart, onlyDatatRelatedToMe, numResultsPerPage, retrieveEntities);
+        } finally {
+            latency.record(user, System.nanoTime() - start);
+        }
+    }
+
+    private SolrQueryResponse doSearch(User user, Dataverse dataverse, String query, List<String> filterQueries, String sortField, String sortOrder, int paginationStart, boolean onlyDatatRelatedToMe, int numResultsPerPage, boolean retrieveEntities) throws SearchException {
 
         if (paginationStart < 0) {
             throw new IllegalArgumentException("paginationStart must be 0 or greater");
@@ -429,9 +453,6 @@ public class SearchServiceBean {
 //            logger.info(id + ": " + description);
             solrSearchResult.setId(id);
             solrSearchResult.setEntityId(entityid);
-            if (retrieveEntities) {
-                solrSearchResult.setEntity(dvObjectService.findDvObject(entityid));
-            }
             solrSearchResult.setIdentifier(identifier);
             solrSearchResult.setPersistentUrl(persistentUrl);
             solrSearchResult.setType(type);
@@ -548,6 +569,19 @@ public class SearchServiceBean {
             solrSearchResult.setParent(parent);
             solrSearchResults.add(solrSearchResult);
         }
+        if (retrieveEntities) {
+            // all the entities of the page, in a single query
+            Set<Long> entityIds = new HashSet<>();
+            for (SolrSearchResult solrSearchResult : solrSearchResults) {
+                if (solrSearchResult.getEntityId() != null) {
+                    entityIds.add(solrSearchResult.getEntityId());
+                }
+            }
+            Map<Long, DvObject> entities = dvObjectService.findDvObjects(entityIds);
+            for (SolrSearchResult solrSearchResult : solrSearchResults) {
+                solrSearchResult.setEntity(entities.get(solrSearchResult.getEntityId()));
+            }
+        }
         Map<String, List<String>> spellingSuggestionsByToken = new HashMap<>();
         SpellCheckResponse spellCheckResponse = queryResponse.getSpellCheckResponse();
         if (spellCheckResponse != null) {
@@ -853,28 +887,27 @@ public class SearchServiceBean {
          * A JOIN on "permission documents" will determine if the user can find
          * a given "content document" (dataset version, etc) in Solr.
          */
-        String groupsFromProviders = "";
+        long generation = permissionCache.getGeneration();
+        String cached = permissionFilterCache.get(au.getId(), generation);
+        if (cached != null) {
+            return cached;
+        }
+        
         Set<Group> groups = groupService.groupsFor(au);
-        StringBuilder sb = new StringBuilder();
+        List<String> groupAliases = new ArrayList<>();
         for (Group group : groups) {
             logger.fine("found group " + group.getIdentifier() + " with alias " + group.getAlias());
             String groupAlias = group.getAlias();
             if (groupAlias != null && !groupAlias.isEmpty()) {
-                sb.append(" OR ");
-                // i.e. group_builtIn/all-users, group_builtIn/authenticated-users, group_1-explictGroup1, group_shib/2
-                sb.append(IndexServiceBean.getGroupPrefix() + groupAlias);
+                groupAliases.add(groupAlias);
             }
         }
-        groupsFromProviders = sb.toString();
 
-        logger.fine(groupsFromProviders);
-        if (true) {
-            /**
-             * @todo get rid of "experimental" in name
-             */
-            String experimentalJoin = "{!join from=" + SearchFields.DEFINITION_POINT + " to=id}" + SearchFields.DISCOVERABLE_BY + ":(" + IndexServiceBean.getPublicGroupString() + " OR " + IndexServiceBean.getGroupPerUserPrefix() + au.getId() + groupsFromProviders + ")";
-            publicPlusUserPrivateGroup = experimentalJoin;
-        }
+        /**
+         * The groups are sorted, so the filter is the same on every search
+         * (as long as the groups are) and Solr can cache it.
+         */
+        publicPlusUserPrivateGroup = permissionFilterCache.put(au.getId(), PermissionFilterCache.buildFilterQuery(au.getId(), groupAliases), generation);
 
         //permissionFilterQuery = publicPlusUserPrivateGroup;
         logger.fine(publicPlusUserPrivateGroup);
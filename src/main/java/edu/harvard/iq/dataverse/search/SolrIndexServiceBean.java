@@ -337,6 +337,14 @@ public class SolrIndexServiceBean {
     }
 
     public IndexResponse indexPermissionsForOneDvObject(DvObject dvObject) {
+        return indexPermissionsForOneDvObject(dvObject, null);
+    }
+
+    /**
+     * @param batchIndex When not null, the permission documents are handed to
+     * this batch rather than being sent and committed immediately.
+     */
+    public IndexResponse indexPermissionsForOneDvObject(DvObject dvObject, BatchIndex batchIndex) {
         if (dvObject == null) {
             return new IndexResponse("problem indexing... null DvObject passed in");
         }
@@ -349,6 +357,11 @@ public class SolrIndexServiceBean {
             SolrInputDocument solrInputDocument = SearchUtil.createSolrDoc(dvObjectSolrDoc);
             docs.add(solrInputDocument);
         }
+        if (batchIndex != null) {
+            // (the permission index time is updated once the documents are sent)
+            batchIndex.add(docs, () -> dvObjectService.updatePermissionIndexTimeInNewTransaction(dvObjectId));
+            return new IndexResponse("handed the permissions of DvObject " + dvObjectId + " to the batch index");
+        }
         try {
             persistToSolr(docs);
             boolean updatePermissionTimeSuccessful = false;
@@ -366,6 +379,10 @@ public class SolrIndexServiceBean {
     }
 
     private void persistToSolr(Collection<SolrInputDocument> docs) throws SolrServerException, IOException {
+        persistToSolr(docs, null);
+    }
+
+    private void persistToSolr(Collection<SolrInputDocument> docs, BatchIndex batchIndex) throws SolrServerException, IOException {
         if (docs.isEmpty()) {
             /**
              * @todo Throw an exception here? "DvObject id 9999 does not exist."
@@ -373,6 +390,10 @@ public class SolrIndexServiceBean {
             logger.info("nothing to persist");
             return;
         }
+        if (batchIndex != null) {
+            batchIndex.add(docs);
+            return;
+        }
         logger.fine("persisting to Solr...");
         /**
          * @todo Do something with these responses from Solr.
@@ -386,6 +407,10 @@ public class SolrIndexServiceBean {
      * inheritance
      */
     public IndexResponse indexPermissionsOnSelfAndChildren(DvObject definitionPoint) {
+        return indexPermissionsOnSelfAndChildren(definitionPoint, null);
+    }
+
+    public IndexResponse indexPermissionsOnSelfAndChildren(DvObject definitionPoint, BatchIndex batchIndex) {
         List<DvObject> dvObjectsToReindexPermissionsFor = new ArrayList<>();
         List<DataFile> filesToReindexAsBatch = new ArrayList<>();
         /**
@@ -409,7 +434,7 @@ public class SolrIndexServiceBean {
             }
         } else if (definitionPoint.isInstanceofDataset()) {
             // index the dataset itself
-            indexPermissionsForOneDvObject(definitionPoint);
+            indexPermissionsForOneDvObject(definitionPoint, batchIndex);
             dvObjectsToReindexPermissionsFor.add(definitionPoint);
             // index files
             Dataset dataset = (Dataset) definitionPoint;
@@ -426,18 +451,20 @@ public class SolrIndexServiceBean {
          * @todo Should update timestamps, probably, even thought these are
          * files, see https://github.com/IQSS/dataverse/issues/2421
          */
-        String response = reindexFilesInBatches(filesToReindexAsBatch);
+        String response = reindexFilesInBatches(filesToReindexAsBatch, batchIndex);
 
         List<String> updatePermissionTimeSuccessStatus = new ArrayList<>();
         for (DvObject dvObject : dvObjectsToReindexPermissionsFor) {
             /**
              * @todo do something with this response
              */
-            IndexResponse indexResponse = indexPermissionsForOneDvObject(dvObject);
-            DvObject managedDefinitionPoint = dvObjectService.updatePermissionIndexTime(definitionPoint);
+            IndexResponse indexResponse = indexPermissionsForOneDvObject(dvObject, batchIndex);
             boolean updatePermissionTimeSuccessful = false;
-            if (managedDefinitionPoint != null) {
-                updatePermissionTimeSuccessful = true;
+            if (batchIndex == null) {
+                DvObject managedDefinitionPoint = dvObjectService.updatePermissionIndexTime(definitionPoint);
+                if (managedDefinitionPoint != null) {
+                    updatePermissionTimeSuccessful = true;
+                }
             }
             updatePermissionTimeSuccessStatus.add(dvObject + ":" + updatePermissionTimeSuccessful);
         }
@@ -447,7 +474,7 @@ public class SolrIndexServiceBean {
         );
     }
 
-    private String reindexFilesInBatches(List<DataFile> filesToReindexPermissionsFor) {
+    private String reindexFilesInBatches(List<DataFile> filesToReindexPermissionsFor, BatchIndex batchIndex) {
         List<SolrInputDocument> docs = new ArrayList<>();
         Map<Long, List<Long>> byParentId = new HashMap<>();
         Map<Long, List<String>> permStringByDatasetVersion = new HashMap<>();
@@ -491,7 +518,7 @@ public class SolrIndexServiceBean {
             }
         }
         try {
-            persistToSolr(docs);
+            persistToSolr(docs, batchIndex);
             return " " + filesToReindexPermissionsFor.size() + " files indexed across " + docs.size() + " Solr documents ";
         } catch (SolrServerException | IOException ex) {
             return " tried to reindex " + filesToReindexPermissionsFor.size() + " files indexed across " + docs.size() + " Solr documents but caught exception: " + ex;
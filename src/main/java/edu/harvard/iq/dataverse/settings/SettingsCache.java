@@ -0,0 +1,149 @@
+package edu.harvard.iq.dataverse.settings;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Application-wide snapshot of all the settings, used by
+ * {@link SettingsServiceBean} so that reading a setting does not touch the
+ * persistence context.
+ *
+ * The snapshot is immutable; once a change made through the service bean has
+ * committed, a copy with the change applied is swapped in. Each change also
+ * stamps a new version (the internal {@link SettingsServiceBean#VERSION_SETTING}
+ * setting) in the database. The stamp is polled every
+ * {@link #POLL_INTERVAL_MILLIS}, and the snapshot reloaded when it differs -
+ * which is how changes made on another server of a cluster are picked up.
+ * Snapshots are also reloaded after {@link #MAX_AGE_MILLIS}, should a poll
+ * have been missed.
+ *
+ * Like the {@link edu.harvard.iq.dataverse.PermissionCache}, the cache keeps a
+ * generation counter, bumped by every local change; a snapshot loaded while a
+ * change was made is not installed.
+ */
+public class SettingsCache {
+
+    static final long POLL_INTERVAL_MILLIS = 5 * 1000;
+    static final long MAX_AGE_MILLIS = 60 * 1000;
+
+    static final class Snapshot {
+        final Map<String, String> values;
+        final String version;
+        final long loadTime;
+
+        Snapshot(Map<String, String> values, String version, long loadTime) {
+            this.values = Collections.unmodifiableMap(values);
+            this.version = version;
+            this.loadTime = loadTime;
+        }
+
+        Snapshot with(String name, String content, String newVersion) {
+            Map<String, String> copy = new HashMap<>(values);
+            if (content == null) {
+                copy.remove(name);
+            } else {
+                copy.put(name, content);
+            }
+            return new Snapshot(copy, newVersion, loadTime);
+        }
+    }
+
+    private volatile Snapshot snapshot;
+    private final AtomicLong lastPollTime = new AtomicLong();
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong changes = new AtomicLong();
+
+    /**
+     * @return the current snapshot, or {@code null} if there is none, or it
+     * is too old to be used.
+     */
+    Snapshot get() {
+        Snapshot current = snapshot;
+        if (current == null || System.currentTimeMillis() - current.loadTime > MAX_AGE_MILLIS) {
+            return null;
+        }
+        return current;
+    }
+
+    /**
+     * @return whether the calling thread should poll the version stamp in the
+     * database. At most one thread per {@link #POLL_INTERVAL_MILLIS} is told
+     * to.
+     */
+    boolean shouldPoll() {
+        long now = System.currentTimeMillis();
+        long last = lastPollTime.get();
+        if (now - last < POLL_INTERVAL_MILLIS) {
+            return false;
+        }
+        if (lastPollTime.compareAndSet(last, now)) {
+            polls.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param values all the settings, as loaded from the database.
+     * @param version the version stamp, as loaded with them.
+     * @param generationAtLoad the generation read <em>before</em> the
+     * settings were loaded; if it has changed since, the snapshot is not
+     * installed.
+     * @return the snapshot of {@code values}.
+     */
+    Snapshot install(Map<String, String> values, String version, long generationAtLoad) {
+        Snapshot loaded = new Snapshot(values, version, System.currentTimeMillis());
+        loads.incrementAndGet();
+        if (generation.get() == generationAtLoad) {
+            snapshot = loaded;
+            lastPollTime.set(loaded.loadTime);
+        }
+        return loaded;
+    }
+
+    /**
+     * A setting was set or - if {@code content} is {@code null} - deleted
+     * on this server, and the change has committed.
+     */
+    synchronized void changed(String name, String content, String newVersion) {
+        generation.incrementAndGet();
+        changes.incrementAndGet();
+        Snapshot current = snapshot;
+        if (current != null) {
+            snapshot = current.with(name, content, newVersion);
+        }
+    }
+
+    long getGeneration() {
+        return generation.get();
+    }
+
+    public void invalidate() {
+        generation.incrementAndGet();
+        snapshot = null;
+    }
+
+    public JsonObjectBuilder getStats() {
+        Snapshot current = snapshot;
+        JsonObjectBuilder job = Json.createObjectBuilder()
+                .add("loads", loads.get())
+                .add("versionPolls", polls.get())
+                .add("localChanges", changes.get());
+        if (current != null) {
+            job.add("settingsCached", current.values.size())
+                    .add("ageMillis", System.currentTimeMillis() - current.loadTime);
+            if (current.version != null) {
+                job.add("version", current.version);
+            }
+        }
+        return job;
+    }
+
+}
@@ -2,19 +2,27 @@ package edu.harvard.iq.dataverse.settings;
 
 import edu.harvard.iq.dataverse.actionlogging.ActionLogRecord;
 import edu.harvard.iq.dataverse.actionlogging.ActionLogServiceBean;
+import edu.harvard.iq.dataverse.util.TransactionCallbacks;
 //import edu.harvard.iq.dataverse.api.ApiBlockingFilter;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.Resource;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 /**
  * Service bean accessing a persistent hash map, used as settings in the application.
@@ -153,6 +161,8 @@ public class SettingsServiceBean {
         ZipDownloadLimit,
         /* zip upload number of files limit */
         ZipUploadFilesLimit,
+        /* number of files of an uploaded zip unpacked at the same time */
+        ZipUploadWorkers,
         /* Size limits for generating thumbnails on the fly */
         /* (i.e., we'll attempt to generate a thumbnail on the fly if the 
          * size of the file is less than this)
@@ -221,7 +231,93 @@ public class SettingsServiceBean {
         /*
         Whether Harvesting (OAI) service is enabled
         */
-        OAIServerEnabled;
+        OAIServerEnabled,
+        /*
+        Number of worker threads used by "index all"
+        */
+        IndexAllWorkers,
+        /*
+        Number of Solr documents sent to Solr in one batch during "index all"
+        */
+        SolrBatchSize,
+        /*
+        Estimated size in bytes at which a Solr batch is sent even if
+        SolrBatchSize has not been reached
+        */
+        SolrBatchMaxBytes,
+        /*
+        "commitWithin" (in milliseconds) passed to Solr with each batch;
+        0 leaves committing to the Solr autoCommit configuration
+        */
+        SolrCommitWithinMs,
+        /*
+        Number of variables of an ingested tabular file whose summary
+        statistics and UNFs are calculated in parallel
+        */
+        IngestStatisticsWorkers,
+        /*
+        Memory (in MB) that the variables being processed in parallel
+        may take up during ingest
+        */
+        IngestStatisticsMemoryMB,
+        /*
+        Number of tabular data files ingested at the same time
+        */
+        IngestWorkers,
+        /*
+        The order the tabular files of all the datasets are ingested in: 
+        SmallestFirst, or Fair (one file from each dataset in turn)
+        */
+        IngestSchedulingPolicy,
+        /*
+        How long (in seconds) a tabular file may wait to be ingested before 
+        it is taken ahead of smaller ones, under the SmallestFirst policy
+        */
+        IngestMaxWaitSeconds,
+        /*
+        How much file data (in MB, rounded to whole compression blocks) a 
+        zipped multi-file download may have in memory while it's being 
+        compressed
+        */
+        ZipDownloadWindowMB,
+        /*
+        Number of worker threads used by "export all" and "re-export all"
+        */
+        ExportAllWorkers,
+        /*
+        Number of worker threads that carry out the side effects of 
+        publishing datasets (DOI, export, indexing, notifications)
+        */
+        PostPublishWorkers,
+        /*
+        How many action log records may wait to be written to the database; 
+        0 to write each one as it comes
+        */
+        ActionLogQueueSize,
+        /*
+        Largest number of action log records written in one batch
+        */
+        ActionLogBatchSize,
+        /*
+        Longest time, in milliseconds, an action log record waits to be written
+        */
+        ActionLogFlushInterval,
+        /*
+        How much disk space (in MB) the files derived from the data files 
+        (thumbnails, format conversions, local copies...) may take up; 
+        0 for no limit
+        */
+        DerivativeCacheSizeMB,
+        /*
+        Which derived files are deleted first when they take up too much 
+        space: LRU (least recently used) or LFU (least frequently used)
+        */
+        DerivativeCachePolicy,
+        /*
+        Every how many days each OAI set is updated in full, rather than 
+        only for the datasets exported since its last update
+        */
+        OAISetFullUpdateDays;
         
         @Override
         public String toString() {
@@ -229,12 +325,27 @@ public class SettingsServiceBean {
         }
     }
     
+    /**
+     * Internal setting, changed whenever any other setting is, so that the 
+     * other servers of a cluster know to reload their cached settings. Not 
+     * listed, and can't be set or deleted by name.
+     */
+    static final String VERSION_SETTING = ":SettingsVersion";
+    
     @PersistenceContext
     EntityManager em;
     
+    @Resource
+    TransactionSynchronizationRegistry transactionRegistry;
+    
     @EJB
     ActionLogServiceBean actionLogSvc;
     
+    /**
+     * The settings, cached for all the instances of the bean.
+     */
+    public static final SettingsCache cache = new SettingsCache();
+    
     /**
      * Values that are considered as "true".
      * @see #isTrue(java.lang.String, boolean) 
@@ -248,8 +359,59 @@ public class SettingsServiceBean {
      * @return the actual setting, or {@code null}.
      */
     public String get( String name ) {
-        Setting s = em.find( Setting.class, name );
-        return (s!=null) ? s.getContent() : null;
+        return snapshot().values.get(name);
+    }
+    
+    /**
+     * The cached snapshot of the settings; reloaded when it's missing, too 
+     * old, or the version stamp in the database says they were changed 
+     * elsewhere. Both queries are native, so that they bypass the shared 
+     * cache of the persistence provider.
+     */
+    private SettingsCache.Snapshot snapshot() {
+        SettingsCache.Snapshot snapshot = cache.get();
+        if (snapshot != null && cache.shouldPoll()) {
+            List<?> version = em.createNativeQuery("SELECT content FROM setting WHERE name = ?1")
+                    .setParameter(1, VERSION_SETTING)
+                    .getResultList();
+            if (!Objects.equals(snapshot.version, version.isEmpty() ? null : version.get(0))) {
+                logger.fine("Settings were changed on another server; reloading.");
+                snapshot = null;
+            }
+        }
+        if (snapshot == null) {
+            long generation = cache.getGeneration();
+            Map<String, String> values = new HashMap<>();
+            String version = null;
+            for (Object row : em.createNativeQuery("SELECT name, content FROM setting").getResultList()) {
+                Object[] nameAndContent = (Object[]) row;
+                if (VERSION_SETTING.equals(nameAndContent[0])) {
+                    version = (String) nameAndContent[1];
+                } else if (nameAndContent[1] != null) {
+                    values.put((String) nameAndContent[0], (String) nameAndContent[1]);
+                }
+            }
+            snapshot = cache.install(values, version, generation);
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Stamps a new settings version, for the other servers to notice, and 
+     * swaps the change into the cached settings once it has committed.
+     */
+    private void changed( final String name, final String content ) {
+        final String version = UUID.randomUUID().toString();
+        em.merge(new Setting(VERSION_SETTING, version));
+        TransactionCallbacks.afterCommit(transactionRegistry, () -> cache.changed(name, content, version));
+    }
+    
+    /**
+     * @return whether the setting is internal, rather than one to be listed,
+     * set or deleted.
+     */
+    public static boolean isInternal( String name ) {
+        return VERSION_SETTING.equals(name);
     }
     
     /**
@@ -308,8 +470,12 @@ public class SettingsServiceBean {
     }
      
     public Setting set( String name, String content ) {
+        if ( isInternal(name) ) {
+            throw new IllegalArgumentException("Setting " + name + " is internal");
+        }
         Setting s = new Setting( name, content );
         s = em.merge(s);
+        changed(name, content);
         actionLogSvc.log( new ActionLogRecord(ActionLogRecord.ActionType.Setting, "set")
                             .setInfo(name + ": " + content));
         return s;
@@ -340,15 +506,25 @@ public class SettingsServiceBean {
     }
     
     public void delete( String name ) {
+        if ( isInternal(name) ) {
+            throw new IllegalArgumentException("Setting " + name + " is internal");
+        }
         actionLogSvc.log( new ActionLogRecord(ActionLogRecord.ActionType.Setting, "delete")
                             .setInfo(name));
         em.createNamedQuery("Setting.deleteByName")
                 .setParameter("name", name)
                 .executeUpdate();
+        changed(name, null);
     }
     
     public Set<Setting> listAll() {
-        return new HashSet<>(em.createNamedQuery("Setting.findAll", Setting.class).getResultList());
+        Set<Setting> settings = new HashSet<>();
+        for ( Setting s : em.createNamedQuery("Setting.findAll", Setting.class).getResultList() ) {
+            if ( !isInternal(s.getName()) ) {
+                settings.add(s);
+            }
+        }
+        return settings;
     }
     
     
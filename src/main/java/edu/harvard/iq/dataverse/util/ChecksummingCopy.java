@@ -0,0 +1,89 @@
+package edu.harvard.iq.dataverse.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Saves an uploaded stream in a (temp) file, calculating its MD5 as it goes,
+ * and keeping a copy of its first {@link #HEAD_SIZE} bytes - enough to
+ * recognize the format of the file by (see
+ * {@link FileUtil#determineFileType(java.io.File, String, byte[])}); so that
+ * the file does not have to be read again for either.
+ */
+public class ChecksummingCopy {
+
+    static final int BUFFER_SIZE = 256 * 1024;
+    public static final int HEAD_SIZE = 64 * 1024;
+
+    private final String md5;
+    private final byte[] head;
+    private final long size;
+
+    private ChecksummingCopy(String md5, byte[] head, long size) {
+        this.md5 = md5;
+        this.head = head;
+        this.size = size;
+    }
+
+    /**
+     * Copies the stream into the file, replacing it if it exists. The stream
+     * is read to the end, but not closed.
+     *
+     * @param in the stream to save.
+     * @param target the file to save it in.
+     * @return the MD5, head and size of what was saved.
+     * @throws IOException if the stream can not be read, or the file written.
+     */
+    public static ChecksummingCopy copy(InputStream in, Path target) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        DigestInputStream digestIn = new DigestInputStream(in, md);
+
+        byte[] head = new byte[HEAD_SIZE];
+        int headLength = 0;
+        long size = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (OutputStream out = Files.newOutputStream(target)) {
+            int n;
+            while ((n = digestIn.read(buffer)) != -1) {
+                if (headLength < HEAD_SIZE) {
+                    int toHead = Math.min(n, HEAD_SIZE - headLength);
+                    System.arraycopy(buffer, 0, head, headLength, toHead);
+                    headLength += toHead;
+                }
+                out.write(buffer, 0, n);
+                size += n;
+            }
+        }
+        return new ChecksummingCopy(MD5Checksum.toHexString(md.digest()),
+                headLength < HEAD_SIZE ? Arrays.copyOf(head, headLength) : head, size);
+    }
+
+    public String getMd5() {
+        return md5;
+    }
+
+    /**
+     * @return the first {@link #HEAD_SIZE} bytes of the file (all of it, if
+     * shorter).
+     */
+    public byte[] getHead() {
+        return head;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+}
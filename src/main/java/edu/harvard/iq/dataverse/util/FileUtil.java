@@ -23,6 +23,7 @@ package edu.harvard.iq.dataverse.util;
 import edu.harvard.iq.dataverse.DataFile;
 import edu.harvard.iq.dataverse.ingest.IngestableDataChecker;
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -184,6 +185,22 @@ public class FileUtil implements java.io.Serializable  {
     }
     
     public static String determineFileType(File f, String fileName) throws IOException{
+        return determineFileType(f, fileName, null);
+    }
+    
+    /**
+     * Same as {@link #determineFileType(File, String)}; but the checks that
+     * only look at the beginning of the file look at {@code head} instead of
+     * reading the file again.
+     * 
+     * @param f the file.
+     * @param fileName the name of the file, as uploaded.
+     * @param head the first bytes of the file (see 
+     * {@link ChecksummingCopy#getHead()}), or {@code null}.
+     * @return the content type.
+     * @throws IOException if the file can not be read.
+     */
+    public static String determineFileType(File f, String fileName, byte[] head) throws IOException{
         String fileType = null;
         String fileExtension = getFileExtension(fileName);
 
@@ -196,7 +213,7 @@ public class FileUtil implements java.io.Serializable  {
         logger.fine("Attempting to identify potential tabular data files;");
         IngestableDataChecker tabChk = new IngestableDataChecker(TABULAR_DATA_FORMAT_SET);
         
-        fileType = tabChk.detectTabularDataFormat(f);
+        fileType = head != null ? tabChk.detectTabularDataFormat(head) : tabChk.detectTabularDataFormat(f);
         
         logger.fine("determineFileType: tabular data checker found "+fileType);
                 
@@ -211,7 +228,7 @@ public class FileUtil implements java.io.Serializable  {
             // the ".fits" extension and the header check;
             // in 4.0, we'll accept either the extension, or the valid 
             // magic header:
-            if (isFITSFile(f) || (fileExtension != null
+            if ((head != null ? isFITSFile(new ByteArrayInputStream(head)) : isFITSFile(f)) || (fileExtension != null
                     && fileExtension.equalsIgnoreCase("fits"))) {
                 fileType = "application/fits";
             }
@@ -0,0 +1,124 @@
+package edu.harvard.iq.dataverse.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * A thread-safe histogram of durations, from which percentiles can be read.
+ *
+ * Durations are counted in log-linear buckets: each power of two (in
+ * microseconds) is split into {@value #SUB_BUCKETS} buckets, so a reported
+ * percentile is within 1/{@value #SUB_BUCKETS} of the actual value. Recording
+ * is lock free and does not allocate, so it's fine to do on every request.
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BUCKETS = 8;
+    private static final int SUB_BUCKET_BITS = 3;
+    /** Durations up to this (in microseconds) get a bucket of their own. */
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+    /** Enough powers of two for about 12 days. */
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKET_COUNT = LINEAR_LIMIT + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * Records a duration.
+     * @param nanos the duration, in nanoseconds (as measured with {@link System#nanoTime()}).
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(bucketOf(micros));
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        long max = maxMicros.get();
+        while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+            max = maxMicros.get();
+        }
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < LINEAR_LIMIT) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the highest duration (in microseconds) that falls in the bucket.
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        int subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (subBucket + 1) * width - 1;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return the duration (in microseconds) that {@code percentile} percent
+     * of the recorded durations do not exceed, or 0 if nothing was recorded.
+     */
+    public long getPercentileMicros(double percentile) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        totalMicros.set(0);
+        maxMicros.set(0);
+    }
+
+    /**
+     * @return count, mean, p50, p95, p99 and max, the durations in milliseconds.
+     */
+    public JsonObjectBuilder toJson() {
+        long n = count.get();
+        return Json.createObjectBuilder()
+                .add("count", n)
+                .add("meanMs", n == 0 ? 0 : totalMicros.get() / 1000.0 / n)
+                .add("p50Ms", getPercentileMicros(50) / 1000.0)
+                .add("p95Ms", getPercentileMicros(95) / 1000.0)
+                .add("p99Ms", getPercentileMicros(99) / 1000.0)
+                .add("maxMs", maxMicros.get() / 1000.0);
+    }
+
+}
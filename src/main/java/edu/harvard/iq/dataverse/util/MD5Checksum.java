@@ -19,10 +19,12 @@ import java.security.NoSuchAlgorithmException;
  */
 public class MD5Checksum implements java.io.Serializable {
     
+    static final int BUFFER_SIZE = 64 * 1024;
+    
     public MD5Checksum() {
     }
     
-    public synchronized String CalculateMD5 (String datafile) {
+    public String CalculateMD5 (String datafile) {
 
         FileInputStream fis = null;
         try {
@@ -53,7 +55,7 @@ public class MD5Checksum implements java.io.Serializable {
         */
     }
     
-    public synchronized String CalculateMD5 (InputStream in) {
+    public String CalculateMD5 (InputStream in) {
         MessageDigest md = null;
         try {
             md = MessageDigest.getInstance("MD5");
@@ -61,7 +63,7 @@ public class MD5Checksum implements java.io.Serializable {
             throw new RuntimeException(e);
         }
 
-        byte[] dataBytes = new byte[1024];
+        byte[] dataBytes = new byte[BUFFER_SIZE];
 
         int nread; 
         try {
@@ -74,7 +76,14 @@ public class MD5Checksum implements java.io.Serializable {
             try {in.close();} catch (Exception e) {}
         }
 
-        byte[] mdbytes = md.digest();
+        return toHexString(md.digest());
+    }
+    
+    /**
+     * @param mdbytes a message digest.
+     * @return the digest as a string of hex digits.
+     */
+    public static String toHexString(byte[] mdbytes) {
         StringBuilder sb = new StringBuilder("");
         for (int i = 0; i < mdbytes.length; i++) {
             sb.append(Integer.toString((mdbytes[i] & 0xff) + 0x100, 16).substring(1));
@@ -76,6 +76,151 @@ public class SumStatCalculator {
         return nx;
     }  
 
+    /**
+     * Calculates the same summary statistics as 
+     * {@link #calculateSummaryStatistics(java.lang.Number[])}, on a primitive 
+     * vector, without boxing or sorting it. 
+     * 
+     * Mean, standard deviation, min and max are all accumulated in a single 
+     * pass (the variance using Welford's method); the valid values are 
+     * copied only once, for finding the median by selection.
+     * 
+     * @param x the values. 
+     * @param missing the indices of the missing values in {@code x}; may be 
+     * {@code null} if there are none. 
+     * @return the summary statistics: 
+     * ("mean", "medn", "mode", "vald", "invd", "min", "max", "stdev")
+     */
+    public static double[] calculateSummaryStatistics(double[] x, java.util.BitSet missing) {
+        logger.fine("entering calculate summary statistics ("+x.length+" double values);");
+        
+        double[] valid = new double[x.length];
+        int n = 0;
+        double mean = 0.0;
+        double m2 = 0.0;
+        double min = Double.NaN;
+        double max = Double.NaN;
+        
+        for (int i = 0; i < x.length; i++) {
+            double xvalue = x[i];
+            if ((missing != null && missing.get(i)) || Double.isNaN(xvalue)) {
+                continue;
+            }
+            valid[n++] = xvalue;
+            
+            double delta = xvalue - mean;
+            mean += delta / n;
+            m2 += delta * (xvalue - mean);
+            
+            if (n == 1) {
+                min = xvalue;
+                max = xvalue;
+            } else {
+                if (xvalue < min) {
+                    min = xvalue;
+                }
+                if (xvalue > max) {
+                    max = xvalue;
+                }
+            }
+        }
+        
+        double[] nx = new double[8];
+        nx[0] = n > 0 ? mean : Double.NaN;
+        nx[1] = calculateMedianBySelection(valid, n);
+        // the mode is not calculated (or stored) for numeric variables: 
+        nx[2] = 0.0;
+        nx[3] = n;
+        nx[4] = x.length - n;
+        nx[5] = min;
+        nx[6] = max;
+        if (n == 0) {
+            nx[7] = Double.NaN;
+        } else if (n == 1) {
+            nx[7] = 0.0;
+        } else {
+            nx[7] = Math.sqrt(m2 / (n - 1));
+        }
+        logger.fine("calculated summary statistics: mean "+nx[0]+", medn "+nx[1]+", min "+nx[5]+", max "+nx[6]+", stdev "+nx[7]);
+        return nx;
+    }
+    
+    /**
+     * The median of the first {@code n} values, found by selection 
+     * (quickselect) rather than by sorting; {@code values} is reordered in 
+     * the process. Same definition of the median as in 
+     * {@link #calculateMedian(double[])}.
+     */
+    static double calculateMedianBySelection(double[] values, int n) {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        if (n == 1) {
+            return values[0];
+        }
+        int k = (n - 1) / 2;
+        double lower = select(values, 0, n - 1, k);
+        if (n % 2 == 1) {
+            return lower;
+        }
+        // after the selection, everything past k is >= lower; the upper 
+        // middle value is the smallest of those: 
+        double upper = values[k + 1];
+        for (int i = k + 2; i < n; i++) {
+            if (values[i] < upper) {
+                upper = values[i];
+            }
+        }
+        return lower + 0.5 * (upper - lower);
+    }
+    
+    private static double select(double[] values, int left, int right, int k) {
+        while (left < right) {
+            // median of three, to avoid the worst case on sorted input: 
+            int middle = (left + right) >>> 1;
+            if (values[middle] < values[left]) {
+                swap(values, left, middle);
+            }
+            if (values[right] < values[left]) {
+                swap(values, left, right);
+            }
+            if (values[right] < values[middle]) {
+                swap(values, middle, right);
+            }
+            double pivot = values[middle];
+            
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(values, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return values[k];
+            }
+        }
+        return values[k];
+    }
+    
+    private static void swap(double[] values, int i, int j) {
+        double tmp = values[i];
+        values[i] = values[j];
+        values[j] = tmp;
+    }
+
     private static double[] prepareForSummaryStats(Number[] x) {
         Double[] z = numberToDouble(x);
         return removeInvalidValues(z);
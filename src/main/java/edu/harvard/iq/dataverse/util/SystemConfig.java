@@ -1,6 +1,9 @@
 package edu.harvard.iq.dataverse.util;
 
 import com.ocpsoft.pretty.PrettyContext;
+import edu.harvard.iq.dataverse.dataaccess.DataFileZipper;
+import edu.harvard.iq.dataverse.dataaccess.DerivativeCache;
+import edu.harvard.iq.dataverse.ingest.IngestQueue;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -66,6 +69,33 @@ public class SystemConfig {
      */
     private static final int defaultZipUploadFilesLimit = 1000; 
 
+    /**
+     * Defaults for the "index all" pipeline: worker threads, documents per
+     * Solr batch, estimated bytes per Solr batch and Solr "commitWithin".
+     */
+    private static final long defaultIndexAllWorkers = 4;
+    private static final long defaultSolrBatchSize = 500;
+    private static final long defaultSolrBatchMaxBytes = 8 * 1024 * 1024;
+    private static final long defaultSolrCommitWithinMs = 10000;
+
+    /**
+     * Default number of worker threads of "export all".
+     */
+    private static final long defaultExportAllWorkers = 4;
+
+    /**
+     * Default number of worker threads of the post-publish tasks.
+     */
+    private static final long defaultPostPublishWorkers = 4;
+
+    /**
+     * Defaults of the action log writer: records waiting, at most; records
+     * written at once, at most; and milliseconds a record waits, at most.
+     */
+    private static final long defaultActionLogQueueSize = 10000;
+    private static final long defaultActionLogBatchSize = 500;
+    private static final long defaultActionLogFlushInterval = 1000;
+
     private static String appVersionString = null; 
     private static String buildNumberString = null; 
     
@@ -290,8 +320,8 @@ public class SystemConfig {
     /**
      * Download-as-zip size limit.
      * returns 0 if not specified; 
-     * (the file zipper will then use the default value)
-     * set to -1 to disable zip downloads. 
+     * (no limit is applied then - the zipped files are streamed out as 
+     * they are compressed)
      */
     
     public long getZipDownloadLimit() {
@@ -313,6 +343,14 @@ public class SystemConfig {
         return 0L; 
     }
     
+    /**
+     * @return How many MB of file data a zipped multi-file download may read 
+     * and compress ahead of what it has sent to the client. 
+     */
+    public int getZipDownloadWindowMB() {
+        return (int) getLongSetting(SettingsServiceBean.Key.ZipDownloadWindowMB, DataFileZipper.DEFAULT_WINDOW_BLOCKS);
+    }
+    
     public int getZipUploadFilesLimit() {
         String limitOption = settingsService.getValueForKey(SettingsServiceBean.Key.ZipUploadFilesLimit);
         Integer limit = null; 
@@ -332,6 +370,15 @@ public class SystemConfig {
         return defaultZipUploadFilesLimit; 
     }
 
+    /**
+     * @return How many files of an uploaded zip archive are unpacked (and 
+     * have their types determined) at the same time; by default, one per 
+     * available processor.
+     */
+    public int getZipUploadWorkers() {
+        return (int) getLongSetting(SettingsServiceBean.Key.ZipUploadWorkers, Runtime.getRuntime().availableProcessors());
+    }
+
     // TODO: (?)
     // create sensible defaults for these things? -- 4.2.2
     public long getThumbnailSizeLimitImage() {
@@ -489,6 +536,126 @@ public class SystemConfig {
         return getTabularIngestSizeLimit();        
     }
 
+    public int getIndexAllWorkers() {
+        return (int) getLongSetting(SettingsServiceBean.Key.IndexAllWorkers, defaultIndexAllWorkers);
+    }
+
+    public long getSolrBatchSize() {
+        return getLongSetting(SettingsServiceBean.Key.SolrBatchSize, defaultSolrBatchSize);
+    }
+
+    public long getSolrBatchMaxBytes() {
+        return getLongSetting(SettingsServiceBean.Key.SolrBatchMaxBytes, defaultSolrBatchMaxBytes);
+    }
+
+    public int getSolrCommitWithinMs() {
+        return (int) getLongSetting(SettingsServiceBean.Key.SolrCommitWithinMs, defaultSolrCommitWithinMs);
+    }
+
+    public int getExportAllWorkers() {
+        return (int) getLongSetting(SettingsServiceBean.Key.ExportAllWorkers, defaultExportAllWorkers);
+    }
+
+    public int getPostPublishWorkers() {
+        return (int) getLongSetting(SettingsServiceBean.Key.PostPublishWorkers, defaultPostPublishWorkers);
+    }
+
+    public int getActionLogQueueSize() {
+        return (int) getLongSetting(SettingsServiceBean.Key.ActionLogQueueSize, defaultActionLogQueueSize);
+    }
+
+    public int getActionLogBatchSize() {
+        return (int) getLongSetting(SettingsServiceBean.Key.ActionLogBatchSize, defaultActionLogBatchSize);
+    }
+
+    public long getActionLogFlushInterval() {
+        return getLongSetting(SettingsServiceBean.Key.ActionLogFlushInterval, defaultActionLogFlushInterval);
+    }
+
+    /**
+     * @return How many variables of an ingested file are processed in
+     * parallel; by default, one per available processor.
+     */
+    public int getIngestStatisticsWorkers() {
+        return (int) getLongSetting(SettingsServiceBean.Key.IngestStatisticsWorkers, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return How much memory, in bytes, the variables processed in parallel
+     * during ingest may take up; by default, a quarter of the maximum heap.
+     */
+    public long getIngestStatisticsMemoryBudget() {
+        long megabytes = getLongSetting(SettingsServiceBean.Key.IngestStatisticsMemoryMB, Runtime.getRuntime().maxMemory() / 4 / (1024 * 1024));
+        return megabytes * 1024 * 1024;
+    }
+
+    /**
+     * @return How many tabular data files are ingested at the same time; by
+     * default, one per available processor.
+     */
+    public int getIngestWorkers() {
+        return (int) getLongSetting(SettingsServiceBean.Key.IngestWorkers, Runtime.getRuntime().availableProcessors());
+    }
+
+    public IngestQueue.Policy getIngestSchedulingPolicy() {
+        String policy = settingsService.getValueForKey(SettingsServiceBean.Key.IngestSchedulingPolicy);
+        if (policy != null) {
+            for (IngestQueue.Policy value : IngestQueue.Policy.values()) {
+                if (value.name().equalsIgnoreCase(policy.trim())) {
+                    return value;
+                }
+            }
+            logger.warning("Unknown ingest scheduling policy: " + policy + "; using " + IngestQueue.Policy.SmallestFirst);
+        }
+        return IngestQueue.Policy.SmallestFirst;
+    }
+
+    /**
+     * @return How long, in seconds, a tabular data file waits at most to be
+     * ingested before it is taken ahead of smaller files; by default, 10
+     * minutes. 0 for no limit.
+     */
+    public long getIngestMaxWaitSeconds() {
+        return Math.max(0, getLongSetting(SettingsServiceBean.Key.IngestMaxWaitSeconds, 600));
+    }
+
+    /**
+     * @return How much disk space, in bytes, the files derived from the data
+     * files may take up; 0 (the default) for no limit.
+     */
+    public long getDerivativeCacheSize() {
+        return getLongSetting(SettingsServiceBean.Key.DerivativeCacheSizeMB, 0) * 1024 * 1024;
+    }
+
+    public DerivativeCache.Policy getDerivativeCachePolicy() {
+        String policy = settingsService.getValueForKey(SettingsServiceBean.Key.DerivativeCachePolicy);
+        if (policy != null) {
+            for (DerivativeCache.Policy value : DerivativeCache.Policy.values()) {
+                if (value.name().equalsIgnoreCase(policy.trim())) {
+                    return value;
+                }
+            }
+            logger.warning("Unknown derivative cache policy: " + policy + "; using " + DerivativeCache.Policy.LRU);
+        }
+        return DerivativeCache.Policy.LRU;
+    }
+
+    /**
+     * @return Every how many days the OAI sets are updated in full, rather
+     * than incrementally; 7 by default, 1 for every time.
+     */
+    public long getOaiSetFullUpdateDays() {
+        return Math.max(1, getLongSetting(SettingsServiceBean.Key.OAISetFullUpdateDays, 7));
+    }
+
+    private long getLongSetting(SettingsServiceBean.Key key, long defaultValue) {
+        Long value = settingsService.getValueForKeyAsLong(key);
+        if (value == null || value < 0) {
+            return defaultValue;
+        }
+        return value;
+    }
+
     public boolean isOAIServerEnabled() {
         boolean defaultResponse = false;
         return settingsService.isTrueForKey(SettingsServiceBean.Key.OAIServerEnabled, defaultResponse);
@@ -0,0 +1,72 @@
+package edu.harvard.iq.dataverse.util;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * Defers work on in-memory state (caches, indexes) until the transaction that
+ * changed the underlying rows is over. Done earlier, another thread could
+ * reload the old rows, which are still the committed ones, and keep them.
+ *
+ * With no transaction (or no registry, as in unit tests) the work is done
+ * right away.
+ */
+public class TransactionCallbacks {
+
+    private static final Logger logger = Logger.getLogger(TransactionCallbacks.class.getCanonicalName());
+
+    private TransactionCallbacks() {
+    }
+
+    /**
+     * Runs {@code action} once the current transaction has committed. If it
+     * rolls back, {@code action} is not run.
+     */
+    public static void afterCommit(TransactionSynchronizationRegistry registry, Runnable action) {
+        register(registry, action, true);
+    }
+
+    /**
+     * Runs {@code action} once the current transaction is over, whether it
+     * committed or rolled back.
+     */
+    public static void afterCompletion(TransactionSynchronizationRegistry registry, Runnable action) {
+        register(registry, action, false);
+    }
+
+    private static void register(TransactionSynchronizationRegistry registry, final Runnable action, final boolean onlyOnCommit) {
+        int status = (registry == null) ? Status.STATUS_NO_TRANSACTION : registry.getTransactionStatus();
+        if (status == Status.STATUS_MARKED_ROLLBACK) {
+            if (!onlyOnCommit) {
+                action.run();
+            }
+            return;
+        }
+        if (status != Status.STATUS_ACTIVE) {
+            action.run();
+            return;
+        }
+        registry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (onlyOnCommit && status != Status.STATUS_COMMITTED) {
+                    return;
+                }
+                try {
+                    action.run();
+                } catch (RuntimeException ex) {
+                    // the transaction is over; all we can do is tell
+                    logger.log(Level.WARNING, "Could not run an after-transaction action", ex);
+                }
+            }
+        });
+    }
+
+}
@@ -0,0 +1,114 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.authorization.DataverseRole;
+import edu.harvard.iq.dataverse.authorization.Permission;
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import static edu.harvard.iq.dataverse.mocks.MocksFactory.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class PermissionCacheTest {
+
+    PermissionCache sut;
+    Dataverse dv;
+    AuthenticatedUser user;
+
+    @Before
+    public void setUp() {
+        sut = new PermissionCache();
+        dv = makeDataverse();
+        user = makeAuthenticatedUser("Jane", "Doe");
+    }
+
+    @Test
+    public void testPutAndGet() {
+        assertNull(sut.get(dv.getId()));
+        DataverseRole curator = makeRole("curator");
+        DataverseRole viewer = new DataverseRole();
+        viewer.addPermission(Permission.DownloadFile);
+        sut.put(dv.getId(), Arrays.asList(
+                new RoleAssignment(curator, user, dv, null),
+                new RoleAssignment(viewer, user, dv, null)), sut.getGeneration());
+
+        Map<String, Set<Permission>> granted = sut.get(dv.getId());
+        assertNotNull(granted);
+        Set<Permission> expected = EnumSet.copyOf(curator.permissions());
+        expected.add(Permission.DownloadFile);
+        assertEquals(expected, granted.get(user.getIdentifier()));
+        assertNull(granted.get("@someoneElse"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        sut.put(dv.getId(), Collections.<RoleAssignment>emptyList(), sut.getGeneration());
+        long generation = sut.getGeneration();
+        sut.invalidate(dv.getId());
+        assertNull(sut.get(dv.getId()));
+        assertTrue(sut.getGeneration() > generation);
+    }
+
+    @Test
+    public void testStaleLoadIsNotCached() {
+        long generation = sut.getGeneration();
+        // an assignment is changed while the old assignments are being loaded
+        sut.invalidate(dv.getId());
+        sut.put(dv.getId(), Collections.<RoleAssignment>emptyList(), generation);
+        assertNull(sut.get(dv.getId()));
+    }
+
+    @Test
+    public void testMemoClearedOnMembershipChange() {
+        PermissionMemo memo = new PermissionMemo();
+        long generation = sut.getGeneration();
+        assertNull(memo.get(user.getIdentifier(), dv.getId(), generation));
+        memo.put(user.getIdentifier(), dv.getId(), EnumSet.of(Permission.EditDataset), generation);
+        assertEquals(EnumSet.of(Permission.EditDataset), memo.get(user.getIdentifier(), dv.getId(), generation));
+
+        sut.membershipChanged();
+        assertNull(memo.get(user.getIdentifier(), dv.getId(), sut.getGeneration()));
+    }
+
+    @Test
+    public void testLoadDuringTransactionIsDroppedOnCommit() {
+        sut.transactionRegistry = mock(TransactionSynchronizationRegistry.class);
+        when(sut.transactionRegistry.getTransactionStatus()).thenReturn(Status.STATUS_ACTIVE);
+        sut.invalidate(dv.getId());
+        ArgumentCaptor<Synchronization> afterCommit = ArgumentCaptor.forClass(Synchronization.class);
+        verify(sut.transactionRegistry).registerInterposedSynchronization(afterCommit.capture());
+
+        // another request loads the old (still committed) assignments
+        sut.put(dv.getId(), Collections.<RoleAssignment>emptyList(), sut.getGeneration());
+        assertNotNull(sut.get(dv.getId()));
+        long generation = sut.getGeneration();
+
+        afterCommit.getValue().afterCompletion(Status.STATUS_COMMITTED);
+        assertNull(sut.get(dv.getId()));
+        assertTrue(sut.getGeneration() > generation);
+    }
+
+    @Test
+    public void testGenerationMovesOnAgainWhenMembershipChangeCommits() {
+        sut.transactionRegistry = mock(TransactionSynchronizationRegistry.class);
+        when(sut.transactionRegistry.getTransactionStatus()).thenReturn(Status.STATUS_ACTIVE);
+        sut.membershipChanged();
+        ArgumentCaptor<Synchronization> afterCommit = ArgumentCaptor.forClass(Synchronization.class);
+        verify(sut.transactionRegistry).registerInterposedSynchronization(afterCommit.capture());
+
+        // e.g. a search filter, built from the groups as they were before the commit:
+        long generationAtBuild = sut.getGeneration();
+        afterCommit.getValue().afterCompletion(Status.STATUS_COMMITTED);
+        assertTrue(sut.getGeneration() > generationAtBuild);
+    }
+
+}
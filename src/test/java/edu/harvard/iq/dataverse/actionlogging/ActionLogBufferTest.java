@@ -0,0 +1,96 @@
+package edu.harvard.iq.dataverse.actionlogging;
+
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ActionLogBufferTest {
+
+    ActionLogBuffer sut;
+
+    @Before
+    public void setUp() {
+        sut = new ActionLogBuffer(3);
+    }
+
+    private static ActionLogRecord record(String subType) {
+        return new ActionLogRecord(ActionLogRecord.ActionType.Command, subType);
+    }
+
+    @Test
+    public void testOfferRefusesWhenFull() {
+        assertTrue(sut.offer(record("a")));
+        assertTrue(sut.offer(record("b")));
+        assertTrue(sut.offer(record("c")));
+        assertFalse(sut.offer(record("d")));
+        assertEquals(3, sut.getBacklog());
+        assertEquals(3, sut.toJson().build().getInt("queued"));
+        assertEquals(3, sut.toJson().build().getInt("maxBacklog"));
+    }
+
+    @Test
+    public void testNextBatchStopsAtMaxSize() throws InterruptedException {
+        sut.offer(record("a"));
+        sut.offer(record("b"));
+        sut.offer(record("c"));
+        List<ActionLogRecord> batch = sut.nextBatch(2, 1000);
+        assertEquals(2, batch.size());
+        assertEquals("a", batch.get(0).getActionSubType());
+        assertEquals(1, sut.getBacklog());
+    }
+
+    @Test
+    public void testNextBatchReturnsAfterMaxWait() throws InterruptedException {
+        sut.offer(record("a"));
+        long start = System.currentTimeMillis();
+        List<ActionLogRecord> batch = sut.nextBatch(10, 50);
+        assertEquals(1, batch.size());
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    @Test
+    public void testNextBatchKeepsWhatItTookWhenInterrupted() throws InterruptedException {
+        sut.offer(record("a"));
+        final Thread taker = Thread.currentThread();
+        Thread interrupter = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ie) {
+                return;
+            }
+            taker.interrupt();
+        });
+        interrupter.start();
+        try {
+            List<ActionLogRecord> batch = sut.nextBatch(10, 5000);
+            assertEquals(1, batch.size());
+            assertTrue("the interrupt is passed on", Thread.interrupted());
+        } finally {
+            interrupter.join();
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void testNextBatchEmptyWhenNothingComes() throws InterruptedException {
+        assertTrue(sut.nextBatch(10, 10).isEmpty());
+    }
+
+    @Test
+    public void testDrainAndCounts() {
+        sut.offer(record("a"));
+        sut.offer(record("b"));
+        assertEquals(2, sut.drain().size());
+        assertEquals(0, sut.getBacklog());
+
+        sut.written(2);
+        sut.writtenByCaller();
+        sut.dropped();
+        assertEquals(2, sut.getWritten());
+        assertEquals(1, sut.getWrittenByCaller());
+        assertEquals(1, sut.getDropped());
+        assertEquals(1, sut.toJson().build().getInt("batches"));
+    }
+
+}
@@ -0,0 +1,40 @@
+package edu.harvard.iq.dataverse.api;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.DataTable;
+import edu.harvard.iq.dataverse.datavariable.DataVariable;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AccessTest {
+
+    private DataFile tabularFile(String... variableNames) {
+        List<DataVariable> variables = new ArrayList<>();
+        for (String name : variableNames) {
+            DataVariable variable = new DataVariable();
+            variable.setName(name);
+            variables.add(variable);
+        }
+        DataTable dataTable = new DataTable();
+        dataTable.setUnf("UNF:6:abcdefghijklmnopqrstuv==");
+        dataTable.setDataVariables(variables);
+        DataFile df = new DataFile("text/tab-separated-values");
+        df.setDataTable(dataTable);
+        df.setFilesize(1000);
+        return df;
+    }
+
+    @Test
+    public void testTabularEntityTagIsThatOfWhatIsServed() {
+        String etag = Access.tabularEntityTag(tabularFile("x", "y"));
+        // the size of the header ("x\ty\n") and of the tab file:
+        assertTrue(etag, etag.startsWith("UNF:6:abcdefghijklmnopqrstuv==-1004-"));
+        assertEquals(etag, Access.tabularEntityTag(tabularFile("x", "y")));
+
+        // a renamed variable changes the header, but not its size:
+        assertFalse(etag.equals(Access.tabularEntityTag(tabularFile("x", "z"))));
+    }
+
+}
@@ -0,0 +1,68 @@
+package edu.harvard.iq.dataverse.api;
+
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ByteRangeTest {
+
+    @Test
+    public void testParseSingleRanges() {
+        assertRange(ByteRange.parse("bytes=0-499", 1000), 0, 499);
+        assertRange(ByteRange.parse("bytes=500-", 1000), 500, 999);
+        assertRange(ByteRange.parse("bytes=-100", 1000), 900, 999);
+        // ranges past the end are truncated:
+        assertRange(ByteRange.parse("bytes=900-2000", 1000), 900, 999);
+        assertRange(ByteRange.parse("bytes=-5000", 1000), 0, 999);
+        assertRange(ByteRange.parse("Bytes=10-10", 1000), 10, 10);
+    }
+
+    @Test
+    public void testParseMultipleRanges() {
+        List<ByteRange> ranges = ByteRange.parse("bytes=0-9, 5000-6000, -10", 1000);
+        assertEquals(2, ranges.size());
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(10, ranges.get(0).getLength());
+        assertEquals("bytes 990-999/1000", ranges.get(1).toContentRange(1000));
+    }
+
+    @Test
+    public void testOverlappingAndAdjacentRangesAreCoalesced() {
+        List<ByteRange> ranges = ByteRange.parse("bytes=500-599, 0-99, 50-149, 150-199, 598-700, 800-", 1000);
+        assertEquals(3, ranges.size());
+        assertEquals("bytes 0-199/1000", ranges.get(0).toContentRange(1000));
+        assertEquals("bytes 500-700/1000", ranges.get(1).toContentRange(1000));
+        assertEquals("bytes 800-999/1000", ranges.get(2).toContentRange(1000));
+
+        assertRange(ByteRange.parse("bytes=0-10, -995", 1000), 0, 999);
+    }
+
+    @Test
+    public void testUnsatisfiableRanges() {
+        assertTrue(ByteRange.parse("bytes=1000-", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-0", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=0-", 0).isEmpty());
+    }
+
+    @Test
+    public void testInvalidRangesAreIgnored() {
+        assertNull(ByteRange.parse(null, 1000));
+        assertNull(ByteRange.parse("items=0-10", 1000));
+        assertNull(ByteRange.parse("bytes=10-5", 1000));
+        assertNull(ByteRange.parse("bytes=abc", 1000));
+        assertNull(ByteRange.parse("bytes=1-x", 1000));
+
+        StringBuilder tooMany = new StringBuilder("bytes=0-0");
+        for (int i = 1; i <= ByteRange.MAX_RANGES; i++) {
+            tooMany.append(',').append(i).append('-').append(i);
+        }
+        assertNull(ByteRange.parse(tooMany.toString(), 1000));
+    }
+
+    private static void assertRange(List<ByteRange> ranges, long start, long end) {
+        assertEquals(1, ranges.size());
+        assertEquals(start, ranges.get(0).getStart());
+        assertEquals(end, ranges.get(0).getEnd());
+    }
+
+}
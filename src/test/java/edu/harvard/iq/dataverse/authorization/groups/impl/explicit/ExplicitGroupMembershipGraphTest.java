@@ -0,0 +1,111 @@
+package edu.harvard.iq.dataverse.authorization.groups.impl.explicit;
+
+import edu.harvard.iq.dataverse.Dataverse;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ExplicitGroupMembershipGraphTest {
+
+    Dataverse root;
+    Dataverse child;
+    Dataverse sibling;
+    ExplicitGroupMembershipGraph sut;
+
+    @Before
+    public void setUp() {
+        root = dataverse(1L, null);
+        child = dataverse(2L, root);
+        sibling = dataverse(3L, root);
+        sut = new ExplicitGroupMembershipGraph();
+    }
+
+    @Test
+    public void testDirectGroupsInContext() {
+        sut.putGroup(10L, 1L, "&explicit/1-rootGroup", set("@alice"));
+        sut.putGroup(20L, 2L, "&explicit/2-childGroup", set("@alice", "@bob"));
+        sut.putGroup(30L, 3L, "&explicit/3-siblingGroup", set("@alice"));
+
+        assertEquals(ids(10L, 20L), sut.findDirectGroupIds("@alice", child));
+        assertEquals(ids(10L), sut.findDirectGroupIds("@alice", root));
+        assertEquals(ids(10L, 30L), sut.findDirectGroupIds("@alice", sibling));
+        assertEquals(ids(), sut.findDirectGroupIds("@bob", sibling));
+        assertEquals(ids(), sut.findDirectGroupIds("@carol", child));
+    }
+
+    @Test
+    public void testNestedGroups() {
+        sut.putGroup(10L, 1L, "&explicit/1-outer", set("&explicit/2-middle"));
+        sut.putGroup(20L, 2L, "&explicit/2-middle", set("&explicit/2-inner", ":authenticated-users"));
+        sut.putGroup(30L, 2L, "&explicit/2-inner", set("@alice"));
+
+        assertEquals(ids(30L), sut.findDirectGroupIds("@alice", child));
+        assertEquals(ids(10L, 20L, 30L), sut.findGroupIds("@alice", child));
+        assertEquals(ids(10L, 20L), sut.findGroupIds(":authenticated-users", child));
+        // the inner groups are not available at the root, so the outer one
+        // isn't reachable there either:
+        assertEquals(ids(), sut.findGroupIds("@alice", root));
+    }
+
+    @Test
+    public void testIncrementalUpdates() {
+        sut.putGroup(10L, 1L, "&explicit/1-outer", set("&explicit/1-inner"));
+        sut.putGroup(20L, 1L, "&explicit/1-inner", set("@alice"));
+        assertEquals(ids(10L, 20L), sut.findGroupIds("@alice", child));
+
+        // members removed
+        sut.putGroup(20L, 1L, "&explicit/1-inner", set("@bob"));
+        assertEquals(ids(), sut.findGroupIds("@alice", child));
+        assertEquals(ids(10L, 20L), sut.findGroupIds("@bob", child));
+
+        // group removed
+        sut.removeGroup(10L);
+        assertEquals(ids(20L), sut.findGroupIds("@bob", child));
+    }
+
+    @Test
+    public void testCyclesTerminate() {
+        sut.putGroup(10L, 1L, "&explicit/1-a", set("&explicit/1-b", "@alice"));
+        sut.putGroup(20L, 1L, "&explicit/1-b", set("&explicit/1-a"));
+        assertEquals(ids(10L, 20L), sut.findGroupIds("@alice", root));
+    }
+
+    @Test
+    public void testReplaceWith() {
+        assertTrue(sut.isStale());
+        ExplicitGroupMembershipGraph loaded = new ExplicitGroupMembershipGraph();
+        loaded.putGroup(10L, 1L, "&explicit/1-a", Collections.<String>emptySet());
+        loaded.addMember(10L, "@alice");
+
+        long modifications = sut.getModifications();
+        assertTrue(sut.replaceWith(loaded, modifications));
+        assertFalse(sut.isStale());
+        assertEquals(ids(10L), sut.findGroupIds("@alice", root));
+
+        // a change made while loading means the loaded graph may be outdated
+        modifications = sut.getModifications();
+        sut.removeGroup(10L);
+        assertFalse(sut.replaceWith(loaded, modifications));
+        assertEquals(ids(), sut.findGroupIds("@alice", root));
+    }
+
+    private static Dataverse dataverse(Long id, Dataverse owner) {
+        Dataverse dv = new Dataverse();
+        dv.setId(id);
+        dv.setOwner(owner);
+        return dv;
+    }
+
+    private static Set<String> set(String... identifiers) {
+        return new HashSet<>(Arrays.asList(identifiers));
+    }
+
+    private static Set<Long> ids(Long... ids) {
+        return new HashSet<>(Arrays.asList(ids));
+    }
+
+}
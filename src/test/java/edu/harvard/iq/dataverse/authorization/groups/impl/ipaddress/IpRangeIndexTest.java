@@ -0,0 +1,150 @@
+package edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress;
+
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv4Address;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv4Range;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv6Address;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv6Range;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class IpRangeIndexTest {
+
+    @Test
+    public void testOverlappingIPv4Ranges() {
+        IpGroup wide = group(v4("10.0.0.0", "10.255.255.255"));
+        IpGroup narrow = group(v4("10.0.1.0", "10.0.1.255"), v4("10.0.3.0", "10.0.3.255"));
+        IpGroup single = group(v4("10.0.1.255", "10.0.1.255"));
+        IpRangeIndex sut = IpRangeIndex.build(Arrays.asList(wide, narrow, single));
+
+        assertEquals(4, sut.getRangeCount());
+        assertEquals(set(), sut.groupsContaining(IPv4Address.valueOf("9.255.255.255")));
+        assertEquals(set(wide), sut.groupsContaining(IPv4Address.valueOf("10.0.0.0")));
+        assertEquals(set(wide, narrow), sut.groupsContaining(IPv4Address.valueOf("10.0.1.0")));
+        assertEquals(set(wide, narrow, single), sut.groupsContaining(IPv4Address.valueOf("10.0.1.255")));
+        assertEquals(set(wide), sut.groupsContaining(IPv4Address.valueOf("10.0.2.0")));
+        assertEquals(set(wide, narrow), sut.groupsContaining(IPv4Address.valueOf("10.0.3.128")));
+        assertEquals(set(wide), sut.groupsContaining(IPv4Address.valueOf("10.255.255.255")));
+        assertEquals(set(), sut.groupsContaining(IPv4Address.valueOf("11.0.0.0")));
+    }
+
+    @Test
+    public void testIPv4UpperHalfAndEdges() {
+        IpGroup upper = group(v4("100.0.0.0", "200.0.0.0"));
+        IpGroup all = group(v4("0.0.0.0", "255.255.255.255"));
+        IpRangeIndex sut = IpRangeIndex.build(Arrays.asList(upper, all));
+
+        assertEquals(set(all), sut.groupsContaining(IPv4Address.valueOf("0.0.0.0")));
+        assertEquals(set(upper, all), sut.groupsContaining(IPv4Address.valueOf("128.0.0.1")));
+        assertEquals(set(upper, all), sut.groupsContaining(IPv4Address.valueOf("200.0.0.0")));
+        assertEquals(set(all), sut.groupsContaining(IPv4Address.valueOf("200.0.0.1")));
+        assertEquals(set(all), sut.groupsContaining(IPv4Address.valueOf("255.255.255.255")));
+    }
+
+    @Test
+    public void testIPv6Ranges() {
+        IpGroup low = group(v6("::10", "::1:1"));
+        IpGroup crossing = group(v6("::ffff:ffff:ffff:ffff", "0:0:0:1::1"));
+        IpGroup top = group(v6("ffff::", "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff"));
+        IpRangeIndex sut = IpRangeIndex.build(Arrays.asList(low, crossing, top));
+
+        assertEquals(set(), sut.groupsContaining(IPv6Address.valueOf("::f")));
+        assertEquals(set(low), sut.groupsContaining(IPv6Address.valueOf("::10")));
+        assertEquals(set(low), sut.groupsContaining(IPv6Address.valueOf("::1:1")));
+        assertEquals(set(), sut.groupsContaining(IPv6Address.valueOf("::1:2")));
+        assertEquals(set(crossing), sut.groupsContaining(IPv6Address.valueOf("::ffff:ffff:ffff:ffff")));
+        assertEquals(set(crossing), sut.groupsContaining(IPv6Address.valueOf("0:0:0:1::")));
+        assertEquals(set(), sut.groupsContaining(IPv6Address.valueOf("0:0:0:1::2")));
+        assertEquals(set(top), sut.groupsContaining(IPv6Address.valueOf("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff")));
+        assertEquals(set(), sut.groupsContaining(IPv6Address.valueOf("fffe:ffff:ffff:ffff:ffff:ffff:ffff:ffff")));
+    }
+
+    @Test
+    public void testIPv4AndIPv6AreSeparate() {
+        IpGroup group = group(v4("0.0.0.0", "0.0.0.255"));
+        IpRangeIndex sut = IpRangeIndex.build(Collections.singletonList(group));
+        assertEquals(set(group), sut.groupsContaining(IPv4Address.valueOf("0.0.0.1")));
+        assertEquals(set(), sut.groupsContaining(IPv6Address.valueOf("::1")));
+    }
+
+    @Test
+    public void testMatchesGroupContains() {
+        Random random = new Random(11);
+        List<IpGroup> groups = new ArrayList<>();
+        for (int g = 0; g < 50; g++) {
+            List<IPv4Range> ranges = new ArrayList<>();
+            for (int r = 0; r < 1 + random.nextInt(5); r++) {
+                IPv4Address a = randomV4(random);
+                IPv4Address b = randomV4(random);
+                ranges.add(a.compareTo(b) <= 0 ? new IPv4Range(a, b) : new IPv4Range(b, a));
+            }
+            groups.add(group(ranges.toArray(new IPv4Range[ranges.size()])));
+        }
+        IpRangeIndex sut = IpRangeIndex.build(groups);
+
+        for (int i = 0; i < 2000; i++) {
+            IPv4Address address = randomV4(random);
+            Set<IpGroup> expected = new HashSet<>();
+            for (IpGroup group : groups) {
+                if (contains(group, address)) {
+                    expected.add(group);
+                }
+            }
+            assertEquals(address.toString(), expected, sut.groupsContaining(address));
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testResultIsUnmodifiable() {
+        IpGroup group = group(v4("1.2.3.0", "1.2.3.255"));
+        IpRangeIndex.build(Collections.singletonList(group)).groupsContaining(IPv4Address.valueOf("1.2.3.4")).clear();
+    }
+
+    private static boolean contains(IpGroup group, IpAddress address) {
+        for (IPv4Range range : group.getIpv4Ranges()) {
+            if (range.contains(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static IPv4Address randomV4(Random random) {
+        // concentrated on a few /8s, so that ranges overlap a lot
+        return new IPv4Address(120 + random.nextInt(16), random.nextInt(256), random.nextInt(256), random.nextInt(256));
+    }
+
+    private static IPv4Range v4(String bottom, String top) {
+        return new IPv4Range(IPv4Address.valueOf(bottom), IPv4Address.valueOf(top));
+    }
+
+    private static IPv6Range v6(String bottom, String top) {
+        return new IPv6Range(IPv6Address.valueOf(bottom), IPv6Address.valueOf(top));
+    }
+
+    private static IpGroup group(IPv4Range... ranges) {
+        IpGroup group = new IpGroup();
+        group.setIpv4Ranges(new HashSet<>(Arrays.asList(ranges)));
+        group.setIpv6Ranges(new HashSet<>());
+        return group;
+    }
+
+    private static IpGroup group(IPv6Range... ranges) {
+        IpGroup group = new IpGroup();
+        group.setIpv4Ranges(new HashSet<>());
+        group.setIpv6Ranges(new HashSet<>(Arrays.asList(ranges)));
+        return group;
+    }
+
+    private static Set<IpGroup> set(IpGroup... groups) {
+        return new HashSet<>(Arrays.asList(groups));
+    }
+
+}
@@ -0,0 +1,226 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.json.JsonObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class DerivativeCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path root;
+    DerivativeCache cache;
+
+    @Before
+    public void setUp() {
+        root = folder.getRoot().toPath();
+        cache = new DerivativeCache(root.resolve(DerivativeCache.INDEX_FILE_NAME), 0, DerivativeCache.Policy.LRU, 0);
+    }
+
+    @Test
+    public void testFileIsMadeOnceForConcurrentRequests() throws Exception {
+        final Path derived = root.resolve("file.RData");
+        final AtomicInteger generations = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Path>> requests = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                requests.add(executor.submit(() -> cache.get(derived, () -> {
+                    generations.incrementAndGet();
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ie) {
+                        throw new IOException(ie);
+                    }
+                    Files.write(derived, new byte[10]);
+                })));
+            }
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            // (give the other requests the time to find it in progress)
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<Path> request : requests) {
+                assertEquals(derived, request.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, generations.get());
+
+        JsonObject stats = cache.toJson().build();
+        assertEquals(1, stats.getInt("files"));
+        assertEquals(10, stats.getInt("size"));
+        assertEquals(1, stats.getInt("misses"));
+    }
+
+    @Test
+    public void testFailedGenerationIsTriedAgain() throws IOException {
+        final Path derived = root.resolve("file.90d");
+        try {
+            cache.get(derived, () -> {
+                throw new IOException("no tab file");
+            });
+            fail("the generation should have failed");
+        } catch (IOException expected) {
+        }
+        try {
+            cache.get(derived, () -> {
+            });
+            fail("a generation that makes nothing should fail");
+        } catch (IOException expected) {
+        }
+        assertEquals(derived, cache.get(derived, () -> Files.write(derived, new byte[1])));
+        assertEquals(derived, cache.get(derived, () -> fail("already there")));
+
+        JsonObject stats = cache.toJson().build();
+        assertEquals(1, stats.getInt("hits"));
+        assertEquals(1, stats.getInt("misses"));
+        assertEquals(0.5, stats.getJsonNumber("hitRatio").doubleValue(), 0.0001);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedFilesAreEvicted() throws IOException {
+        Path oldest = derived("a.thumb64", 100, 1000);
+        Path older = derived("b.thumb64", 100, 2000);
+        Path newer = derived("c.thumb64", 100, 3000);
+        Path newest = derived("d.thumb64", 100, 4000);
+        assertEquals(4, cache.scan(root));
+
+        cache.configure(450, DerivativeCache.Policy.LRU);
+        assertEquals(0, cache.evict());
+        Path added = root.resolve("e.RData");
+        cache.get(added, () -> Files.write(added, new byte[100]));
+
+        // down to 90% of the budget:
+        assertFalse(Files.exists(oldest));
+        assertTrue(Files.exists(older));
+        assertTrue(Files.exists(newer));
+        assertTrue(Files.exists(newest));
+        assertTrue(Files.exists(added));
+
+        JsonObject stats = cache.toJson().build();
+        assertEquals(400, stats.getInt("size"));
+        assertEquals(1, stats.getInt("evictions"));
+        assertEquals(100, stats.getInt("evictedBytes"));
+
+        cache.configure(250, DerivativeCache.Policy.LRU);
+        assertEquals(2, cache.evict());
+        assertFalse(Files.exists(older));
+        assertFalse(Files.exists(newer));
+        assertTrue(Files.exists(newest));
+    }
+
+    @Test
+    public void testLeastFrequentlyUsedFilesAreEvicted() throws IOException {
+        Path rarelyUsed = derived("a.90d", 100, 4000);
+        Path oftenUsed = derived("b.90d", 100, 1000);
+        Path neverUsed = derived("c.90d", 100, 2000);
+        cache.scan(root);
+        cache.used(oftenUsed);
+        cache.used(oftenUsed);
+        cache.used(rarelyUsed);
+
+        cache.configure(250, DerivativeCache.Policy.LFU);
+        assertEquals(1, cache.evict());
+        assertFalse(Files.exists(neverUsed));
+        cache.configure(150, DerivativeCache.Policy.LFU);
+        assertEquals(1, cache.evict());
+        assertFalse(Files.exists(rarelyUsed));
+        assertTrue(Files.exists(oftenUsed));
+    }
+
+    @Test
+    public void testEvictedRotatedImageIsDroppedFromTheImageCache() throws IOException {
+        // (one column, ending right after the offset header)
+        Path rotated = Files.write(root.resolve("a.tab.90d"), new byte[]{0, 0, 0, 0, 0, 0, 0, 8});
+        Files.setLastModifiedTime(rotated, FileTime.fromMillis(1000));
+        RotatedImage.open(rotated.toFile(), 1);
+        assertTrue(RotatedImage.isCached(rotated.toFile()));
+        cache.scan(root);
+
+        cache.configure(1, DerivativeCache.Policy.LRU);
+        assertEquals(1, cache.evict());
+        assertFalse(Files.exists(rotated));
+        assertFalse(RotatedImage.isCached(rotated.toFile()));
+    }
+
+    @Test
+    public void testRecentlyUsedFilesAreNotEvicted() throws IOException {
+        cache = new DerivativeCache(root.resolve(DerivativeCache.INDEX_FILE_NAME), 100, DerivativeCache.Policy.LRU, 60 * 1000);
+        Path derived = root.resolve("a.tab");
+        cache.get(derived, () -> Files.write(derived, new byte[200]));
+
+        assertEquals(0, cache.evict());
+        assertTrue(Files.exists(derived));
+    }
+
+    @Test
+    public void testIndexIsSavedAndRead() throws IOException {
+        Path first = derived("a.thumb400", 10, 1000);
+        derived("b.prep", 20, 2000);
+        cache.scan(root);
+        cache.used(first);
+        cache.save();
+
+        DerivativeCache restarted = new DerivativeCache(root.resolve(DerivativeCache.INDEX_FILE_NAME), 15, DerivativeCache.Policy.LFU, 0);
+        assertTrue(restarted.load());
+        JsonObject stats = restarted.toJson().build();
+        assertEquals(2, stats.getInt("files"));
+        assertEquals(30, stats.getInt("size"));
+
+        // the one that was used stays:
+        restarted.evict();
+        assertTrue(Files.exists(first));
+        assertFalse(Files.exists(root.resolve("b.prep")));
+
+        assertFalse(new DerivativeCache(root.resolve("none"), 0, DerivativeCache.Policy.LRU, 0).load());
+    }
+
+    @Test
+    public void testScanOnlyFindsDerivedFiles() throws IOException {
+        derived("15a1b2c3d4e-0123456789ab", 10, 1000);
+        derived("15a1b2c3d4e-0123456789ab.orig", 10, 1000);
+        derived("15a1b2c3d4e-0123456789ab.img", 10, 1000);
+        derived("15a1b2c3d4e-0123456789ab.img.thumb48", 10, 1000);
+        derived("15a1b2c3d4e-0123456789ab.90d", 10, 1000);
+
+        assertEquals(2, cache.scan(root));
+        assertEquals(0, cache.scan(root));
+    }
+
+    @Test
+    public void testForgottenFilesAreNotCounted() throws IOException {
+        Path derived = derived("a.RData", 50, 1000);
+        cache.scan(root);
+        Files.delete(derived);
+        cache.forget(derived);
+
+        assertEquals(0, cache.toJson().build().getInt("size"));
+    }
+
+    private Path derived(String name, int size, long lastModified) throws IOException {
+        Path file = Files.write(root.resolve(name), new byte[size]);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified));
+        return file;
+    }
+
+}
@@ -0,0 +1,69 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.Dataset;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class FileAccessIOTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    DataFile dataFile;
+    String filesDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        filesDirectory = System.getProperty("dataverse.files.directory");
+        System.setProperty("dataverse.files.directory", folder.getRoot().toString());
+
+        Dataset dataset = new Dataset();
+        dataset.setAuthority("10.5072/FK2");
+        dataset.setIdentifier("ABCDEF");
+        Files.createDirectories(dataset.getFileSystemDirectory());
+        dataFile = new DataFile("text/plain");
+        dataFile.setOwner(dataset);
+        dataFile.setStorageIdentifier("15a1b2c3d4e-0123456789ab");
+    }
+
+    @After
+    public void tearDown() {
+        if (filesDirectory == null) {
+            System.clearProperty("dataverse.files.directory");
+        } else {
+            System.setProperty("dataverse.files.directory", filesDirectory);
+        }
+    }
+
+    @Test
+    public void testMovedFileGetsTheDefaultPermissions() throws IOException {
+        Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+
+        // (an upload, saved in the temp directory)
+        Path tempFile = Files.createTempFile(folder.newFolder("temp").toPath(), "tmp", "upload");
+        Files.write(tempFile, "uploaded".getBytes(StandardCharsets.UTF_8));
+        Path created = Files.createFile(folder.getRoot().toPath().resolve("created"));
+
+        DataFileIO dataAccess = DataAccess.createDataAccessObject(dataFile);
+        dataAccess.movePath(tempFile);
+
+        Path stored = dataAccess.getFileSystemPath();
+        assertFalse(Files.exists(tempFile));
+        assertEquals("uploaded", new String(Files.readAllBytes(stored), StandardCharsets.UTF_8));
+        assertEquals(8, dataAccess.getSize());
+        assertEquals(Files.getPosixFilePermissions(created), Files.getPosixFilePermissions(stored));
+        assertEquals(1, stored.getParent().toFile().list().length);
+    }
+
+}
@@ -0,0 +1,110 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class FileTransferTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        content = new byte[3 * FileTransfer.BUFFER_SIZE + 123];
+        new Random(7).nextBytes(content);
+        file = folder.newFile("data.bin");
+        Files.write(file.toPath(), content);
+    }
+
+    @Test
+    public void testTransferToStream() throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertNull(FileTransfer.getTargetChannel(out));
+
+            assertEquals(content.length, FileTransfer.transfer(channel, 0, content.length, out));
+            assertArrayEquals(content, out.toByteArray());
+
+            out.reset();
+            FileTransfer.transfer(channel, 1000, 70000, out);
+            assertArrayEquals(Arrays.copyOfRange(content, 1000, 71000), out.toByteArray());
+            // positional reads leave the channel where it was:
+            assertEquals(0, channel.position());
+        }
+    }
+
+    @Test
+    public void testTransferToFile() throws IOException {
+        File copy = folder.newFile("copy.bin");
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                FileOutputStream out = new FileOutputStream(copy)) {
+            assertNotNull(FileTransfer.getTargetChannel(out));
+            out.write(content, 0, 10);
+            FileTransfer.transfer(channel, 10, content.length - 10, out);
+        }
+        assertArrayEquals(content, Files.readAllBytes(copy.toPath()));
+    }
+
+    @Test(timeout = 10000)
+    public void testTransferToChannelThatTakesNothing() throws IOException {
+        // takes nothing from FileChannel.transferTo(), but takes whatever
+        // is written otherwise:
+        class StubbornChannel extends OutputStream implements WritableByteChannel {
+            final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+            @Override
+            public int write(ByteBuffer src) {
+                for (StackTraceElement caller : new Throwable().getStackTrace()) {
+                    if (caller.getMethodName().equals("transferTo")) {
+                        return 0;
+                    }
+                }
+                int length = src.remaining();
+                written.write(src.array(), src.arrayOffset() + src.position(), length);
+                src.position(src.limit());
+                return length;
+            }
+
+            @Override
+            public void write(int b) {
+                written.write(b);
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+        }
+        StubbornChannel out = new StubbornChannel();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            assertEquals(content.length - 5, FileTransfer.transfer(channel, 5, content.length - 5, out));
+        }
+        assertArrayEquals(Arrays.copyOfRange(content, 5, content.length), out.written.toByteArray());
+    }
+
+    @Test(expected = IOException.class)
+    public void testTransferPastEndOfFile() throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            FileTransfer.transfer(channel, content.length - 10, 20, new ByteArrayOutputStream());
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class ImageThumbConverterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File createImage(String name, int width, int height) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.BLUE);
+        g.fillRect(0, 0, width / 2, height);
+        g.dispose();
+        File imageFile = folder.newFile(name);
+        ImageIO.write(image, "png", imageFile);
+        return imageFile;
+    }
+
+    @Test
+    public void testReadSubsampledImage() throws Exception {
+        File imageFile = createImage("large.png", 4000, 2000);
+
+        BufferedImage subsampled = ImageThumbConverter.readSubsampledImage(imageFile, 400);
+        // subsampled by 5, but no further than twice the target size:
+        assertEquals(800, subsampled.getWidth());
+        assertEquals(400, subsampled.getHeight());
+
+        BufferedImage small = ImageThumbConverter.readSubsampledImage(imageFile, 4000);
+        assertEquals(4000, small.getWidth());
+
+        assertNull(ImageThumbConverter.readSubsampledImage(folder.newFile("not-an-image.png"), 400));
+    }
+
+    @Test
+    public void testConcurrentThumbnailRequests() throws Exception {
+        final String fileLocation = createImage("photo.png", 1200, 900).getAbsolutePath();
+
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 12; i++) {
+                final int size = new int[]{48, 64, 400}[i % 3];
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return ImageThumbConverter.generateImageThumb(fileLocation, size);
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                int size = new int[]{48, 64, 400}[i % 3];
+                assertEquals(fileLocation + ".thumb" + size, results.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        BufferedImage thumbnail = ImageIO.read(new File(fileLocation + ".thumb64"));
+        assertEquals(64, thumbnail.getWidth());
+        assertEquals(48, thumbnail.getHeight());
+
+        // a failed generation is remembered, too:
+        String notAnImage = folder.newFile("broken.png").getAbsolutePath();
+        assertNull(ImageThumbConverter.generateImageThumb(notAnImage, 64));
+        assertNull(ImageThumbConverter.generateImageThumb(notAnImage, 64));
+        ImageThumbConverter.invalidateThumbnails(notAnImage);
+    }
+
+}
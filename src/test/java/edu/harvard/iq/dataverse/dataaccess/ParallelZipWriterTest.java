@@ -0,0 +1,150 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class ParallelZipWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testEntriesReadBack() throws IOException {
+        byte[] text = new byte[3 * ParallelZipWriter.BLOCK_SIZE + 1000];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (byte) ('a' + (i * 7 + i / 1000) % 26);
+        }
+        byte[] random = new byte[ParallelZipWriter.BLOCK_SIZE + 17];
+        new Random(3).nextBytes(random);
+        byte[] exactBlock = Arrays.copyOf(text, ParallelZipWriter.BLOCK_SIZE);
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        ParallelZipWriter writer = new ParallelZipWriter(archive, executor, 2);
+        assertEquals(text.length, writer.addEntry("text.txt", new ByteArrayInputStream(text), true, text.length));
+        writer.addEntry("random.bin", new ByteArrayInputStream(random), false, -1);
+        writer.addEntry("empty.txt", new ByteArrayInputStream(new byte[0]), true, 0);
+        writer.addEntry("block.txt", new ByteArrayInputStream(exactBlock), true, -1);
+        writer.addEntry("déjà vu.txt", new ByteArrayInputStream("x".getBytes(StandardCharsets.UTF_8)), true, 1);
+        writer.finish();
+
+        byte[][] expected = {text, random, new byte[0], exactBlock, "x".getBytes(StandardCharsets.UTF_8)};
+        String[] names = {"text.txt", "random.bin", "empty.txt", "block.txt", "déjà vu.txt"};
+
+        // sequentially, by the local headers and data descriptors:
+        try (ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()))) {
+            for (int i = 0; i < names.length; i++) {
+                ZipEntry entry = zin.getNextEntry();
+                assertEquals(names[i], entry.getName());
+                assertArrayEquals(expected[i], readAll(zin));
+            }
+            assertNull(zin.getNextEntry());
+        }
+
+        // and by the central directory:
+        File zipFile = folder.newFile("archive.zip");
+        Files.write(zipFile.toPath(), archive.toByteArray());
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            assertEquals(names.length, zip.size());
+            for (int i = 0; i < names.length; i++) {
+                ZipEntry entry = zip.getEntry(names[i]);
+                assertEquals(expected[i].length, entry.getSize());
+                try (InputStream in = zip.getInputStream(entry)) {
+                    assertArrayEquals(expected[i], readAll(in));
+                }
+            }
+        }
+
+        // the text compresses about as well as it would in one piece:
+        assertTrue(archive.size() < text.length / 4 + random.length + exactBlock.length);
+    }
+
+    @Test
+    public void testZip64EntryCount() throws IOException {
+        int count = 0x10000 + 10;
+        File zipFile = folder.newFile("many.zip");
+        try (java.io.OutputStream out = Files.newOutputStream(zipFile.toPath())) {
+            ParallelZipWriter writer = new ParallelZipWriter(out, null, 4);
+            for (int i = 0; i < count; i++) {
+                byte[] content = String.valueOf(i).getBytes(StandardCharsets.UTF_8);
+                writer.addEntry("file" + i, new ByteArrayInputStream(content), false, content.length);
+            }
+            writer.finish();
+        }
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            assertEquals(count, zip.size());
+            try (InputStream in = zip.getInputStream(zip.getEntry("file" + (count - 1)))) {
+                assertEquals(String.valueOf(count - 1), new String(readAll(in), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void testCompressionSlotsAreGivenBack() throws Exception {
+        int slots = ParallelZipWriter.COMPRESSION_SLOTS.availablePermits();
+        byte[] content = new byte[4 * ParallelZipWriter.BLOCK_SIZE];
+        new Random(5).nextBytes(content);
+
+        ParallelZipWriter writer = new ParallelZipWriter(new ByteArrayOutputStream(), executor, 8);
+        writer.addEntry("finished.bin", new ByteArrayInputStream(content), true, content.length);
+        writer.finish();
+        writer = new ParallelZipWriter(new ByteArrayOutputStream(), executor, 8);
+        writer.addEntry("aborted.bin", new ByteArrayInputStream(content), true, -1);
+        writer.abort();
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(slots, ParallelZipWriter.COMPRESSION_SLOTS.availablePermits());
+    }
+
+    @Test
+    public void testCompressedFormats() {
+        assertTrue(DataFileZipper.isCompressedFormat("application/zip"));
+        assertTrue(DataFileZipper.isCompressedFormat("image/JPEG"));
+        assertTrue(DataFileZipper.isCompressedFormat("video/mp4"));
+        assertFalse(DataFileZipper.isCompressedFormat("text/tab-separated-values; charset=UTF-8"));
+        assertFalse(DataFileZipper.isCompressedFormat("audio/x-wav"));
+        assertFalse(DataFileZipper.isCompressedFormat(null));
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int bytes;
+        while ((bytes = in.read(buffer)) != -1) {
+            out.write(buffer, 0, bytes);
+        }
+        return out.toByteArray();
+    }
+
+}
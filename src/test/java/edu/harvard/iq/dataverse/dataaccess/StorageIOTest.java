@@ -0,0 +1,156 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.Dataset;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class StorageIOTest {
+
+    private static final String KEY = "10.5072/FK2/ABCDEF/15a1b2c3d4e-0123456789ab";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    S3Stub s3;
+    DataFile dataFile;
+    String filesDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        s3 = new S3Stub();
+        DataAccess.registerStorageDriver(s3.newDriver(1024));
+        filesDirectory = System.getProperty("dataverse.files.directory");
+        System.setProperty("dataverse.files.directory", folder.getRoot().toString());
+
+        Dataset dataset = new Dataset();
+        dataset.setAuthority("10.5072/FK2");
+        dataset.setIdentifier("ABCDEF");
+        dataFile = new DataFile("text/plain");
+        dataFile.setOwner(dataset);
+        dataFile.setStorageIdentifier("s3://15a1b2c3d4e-0123456789ab");
+    }
+
+    @After
+    public void tearDown() {
+        s3.stop();
+        if (filesDirectory == null) {
+            System.clearProperty("dataverse.files.directory");
+        } else {
+            System.setProperty("dataverse.files.directory", filesDirectory);
+        }
+    }
+
+    @Test
+    public void testOpenAndReadRange() throws IOException {
+        s3.objects.put(KEY, "0123456789".getBytes(StandardCharsets.UTF_8));
+
+        DataFileIO dataAccess = DataAccess.createDataAccessObject(dataFile);
+        assertTrue(dataAccess instanceof StorageIO);
+        assertFalse(dataAccess.isLocalFile());
+        assertEquals("s3://" + KEY, dataAccess.getStorageLocation());
+
+        dataAccess.open();
+        assertEquals(10, dataAccess.getSize());
+        assertEquals("0123456789", read(dataAccess.getInputStream()));
+        assertEquals("345", read(dataAccess.openRange(3, 3)));
+    }
+
+    @Test
+    public void testObjectIsOnlyRequestedWhenRead() throws IOException {
+        s3.objects.put(KEY, "0123456789".getBytes(StandardCharsets.UTF_8));
+
+        DataFileIO dataAccess = DataAccess.createDataAccessObject(dataFile);
+        s3.requests.clear();
+        dataAccess.open();
+        assertEquals(10, dataAccess.getSize());
+        assertFalse(s3.requests.contains("GET "));
+
+        assertEquals("0123456789", read(Channels.newInputStream(dataAccess.getReadChannel())));
+        assertEquals(1, s3.requests.stream().filter("GET "::equals).count());
+
+        // opened, and closed, without reading:
+        s3.requests.clear();
+        dataAccess = DataAccess.createDataAccessObject(dataFile);
+        dataAccess.open();
+        dataAccess.closeInputStream();
+        assertFalse(s3.requests.contains("GET "));
+    }
+
+    @Test
+    public void testReplaceWithBackupAsAux() throws IOException {
+        s3.objects.put(KEY, "original".getBytes(StandardCharsets.UTF_8));
+        Path tabFile = folder.newFile("ingested.tab").toPath();
+        Files.write(tabFile, "tab\tdata\n".getBytes(StandardCharsets.UTF_8));
+
+        // (what the ingest does with the file)
+        DataFileIO dataAccess = DataAccess.createDataAccessObject(dataFile);
+        dataAccess.backupAsAux("orig");
+        dataAccess.copyPath(tabFile);
+
+        assertEquals("tab\tdata\n", new String(s3.objects.get(KEY), StandardCharsets.UTF_8));
+        assertTrue(dataAccess.isAuxObjectCached("orig"));
+        assertEquals(8, dataAccess.getAuxObjectSize("orig"));
+        assertEquals("original", read(Channels.newInputStream((ReadableByteChannel) dataAccess.openAuxChannel("orig"))));
+    }
+
+    @Test
+    public void testWriteAuxObject() throws IOException {
+        DataFileIO dataAccess = DataAccess.createDataAccessObject(dataFile);
+        assertFalse(dataAccess.isAuxObjectCached("RData"));
+
+        try (WritableByteChannel out = (WritableByteChannel) dataAccess.openAuxChannel("RData", DataAccessOption.WRITE_ACCESS)) {
+            out.write(ByteBuffer.wrap("converted".getBytes(StandardCharsets.UTF_8)));
+        }
+        assertEquals("converted", new String(s3.objects.get(KEY + ".RData"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testLocalCopyAndDelete() throws IOException {
+        s3.objects.put(KEY, "0123456789".getBytes(StandardCharsets.UTF_8));
+        s3.objects.put(KEY + ".orig", "original".getBytes(StandardCharsets.UTF_8));
+
+        DataFileIO dataAccess = DataAccess.createDataAccessObject(dataFile);
+        Path localCopy = dataAccess.getLocalCopy();
+        assertEquals(folder.getRoot().toPath().resolve("cache/s3/" + KEY), localCopy);
+        assertEquals("0123456789", new String(Files.readAllBytes(localCopy), StandardCharsets.UTF_8));
+
+        // downloaded once:
+        s3.requests.clear();
+        assertEquals(localCopy, dataAccess.getLocalCopy());
+        assertFalse(s3.requests.contains("GET "));
+
+        Path thumbnail = Files.write(localCopy.resolveSibling(localCopy.getFileName() + ".thumb64"), new byte[1]);
+        dataAccess.delete();
+
+        assertTrue(s3.objects.isEmpty());
+        assertFalse(Files.exists(localCopy));
+        assertFalse(Files.exists(thumbnail));
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            StringBuilder read = new StringBuilder();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = stream.read(buffer)) != -1) {
+                read.append(new String(buffer, 0, n, StandardCharsets.UTF_8));
+            }
+            return read.toString();
+        }
+    }
+
+}
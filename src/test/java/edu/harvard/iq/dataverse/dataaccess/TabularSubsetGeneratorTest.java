@@ -0,0 +1,83 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class TabularSubsetGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File tabfile;
+
+    @Before
+    public void setUp() throws IOException {
+        tabfile = folder.newFile("data.tab");
+        String content = "1\t1.5\t\"abc\"\n"
+                + "2\t\t\"déjà vu\"\n"
+                + "\tinf\t\n"
+                + "4\t-2.25\t\"a\\tb\"\n";
+        Files.write(tabfile.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testSubsetVectors() throws IOException {
+        TabularSubsetGenerator generator = new TabularSubsetGenerator();
+
+        assertArrayEquals(new Long[]{1L, 2L, null, 4L}, generator.subsetLongVector(tabfile, 0, 3, 4));
+        assertArrayEquals(new Double[]{1.5, null, Double.POSITIVE_INFINITY, -2.25}, generator.subsetDoubleVector(tabfile, 1, 3, 4));
+        assertArrayEquals(new String[]{"abc", "déjà vu", null, "a\tb"}, generator.subsetStringVector(tabfile, 2, 3, 4));
+    }
+
+    @Test
+    public void testPrimitiveVectorsMatchBoxedVectors() throws IOException {
+        TabularSubsetGenerator generator = new TabularSubsetGenerator();
+
+        NumericVector longs = generator.subsetLongValues(tabfile, 0, 3, 4);
+        assertArrayEquals(new Double[]{1.0, 2.0, null, 4.0}, longs.toBoxedVector());
+        assertTrue(longs.getMissing().get(2));
+
+        NumericVector doubles = generator.subsetDoubleValues(tabfile, 1, 3, 4);
+        assertArrayEquals(generator.subsetDoubleVector(tabfile, 1, 3, 4), doubles.toBoxedVector());
+        assertEquals(1, doubles.getMissing().cardinality());
+
+        NumericVector floats = generator.subsetFloatValues(tabfile, 1, 3, 4);
+        Float[] boxedFloats = generator.subsetFloatVector(tabfile, 1, 3, 4);
+        for (int i = 0; i < boxedFloats.length; i++) {
+            assertEquals(boxedFloats[i] == null ? null : boxedFloats[i].doubleValue(), floats.toBoxedVector()[i]);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testWrongCaseCount() throws IOException {
+        TabularSubsetGenerator generator = new TabularSubsetGenerator();
+        generator.subsetLongVector(tabfile, 0, 3, 4);
+        generator.subsetLongVector(tabfile, 0, 3, 3);
+    }
+
+    @Test
+    public void testRotatedImageIsCached() throws IOException {
+        new TabularSubsetGenerator().subsetLongVector(tabfile, 0, 3, 4);
+        File rotatedImageFile = new File(tabfile.getAbsolutePath() + ".90d");
+        assertTrue(rotatedImageFile.exists());
+
+        RotatedImage image = RotatedImage.open(rotatedImageFile, 3);
+        assertSame(image, RotatedImage.open(rotatedImageFile, 3));
+
+        ByteBuffer column = image.getColumn(1);
+        byte[] columnBytes = new byte[column.remaining()];
+        column.get(columnBytes);
+        assertEquals("1.5\n\ninf\n-2.25\n", new String(columnBytes, StandardCharsets.UTF_8));
+        // each reader gets its own view of the column:
+        assertEquals(columnBytes.length, image.getColumn(1).remaining());
+    }
+
+}
@@ -7,6 +7,8 @@ import edu.harvard.iq.dataverse.authorization.groups.impl.explicit.ExplicitGroup
 import edu.harvard.iq.dataverse.engine.command.CommandContext;
 import edu.harvard.iq.dataverse.ingest.IngestServiceBean;
 import edu.harvard.iq.dataverse.privateurl.PrivateUrlServiceBean;
+import edu.harvard.iq.dataverse.harvest.server.OAIRecordServiceBean;
+import edu.harvard.iq.dataverse.outbox.OutboxServiceBean;
 import edu.harvard.iq.dataverse.search.IndexServiceBean;
 import edu.harvard.iq.dataverse.search.SearchServiceBean;
 import edu.harvard.iq.dataverse.search.SolrIndexServiceBean;
@@ -181,5 +183,15 @@ public class TestCommandContext implements CommandContext {
     public PrivateUrlServiceBean privateUrl() {
         return null;
     }
+
+    @Override
+    public OAIRecordServiceBean oaiRecords() {
+        return null;
+    }
+
+    @Override
+    public OutboxServiceBean outbox() {
+        return null;
+    }
 	
 }
@@ -0,0 +1,95 @@
+package edu.harvard.iq.dataverse.export;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.json.JsonObject;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ExportAllProgressTest {
+
+    @Test
+    public void testCounts() {
+        ExportAllProgress progress = new ExportAllProgress(true, 4, 10);
+        for (int i = 0; i < 4; i++) {
+            progress.started();
+        }
+        progress.exported();
+        progress.exported();
+        progress.skipped();
+
+        assertEquals(2, progress.getExported());
+        assertEquals(1, progress.getSkipped());
+        assertEquals(0, progress.getFailures());
+        assertEquals(3, progress.getDone());
+
+        JsonObject json = progress.toJson().build();
+        assertTrue(json.getBoolean("forceReExport"));
+        assertEquals(4, json.getInt("workers"));
+        assertEquals(10, json.getInt("datasetsTotal"));
+        assertEquals(1, json.getInt("inFlight"));
+        assertFalse(json.getBoolean("finished"));
+
+        progress.failed();
+        assertEquals(1, progress.getFailures());
+        assertEquals(0, progress.toJson().build().getInt("inFlight"));
+    }
+
+    @Test
+    public void testEta() throws InterruptedException {
+        ExportAllProgress progress = new ExportAllProgress(false, 1, 4);
+        assertEquals("nothing done yet, nothing to go by", -1, progress.getEtaMillis());
+
+        progress.started();
+        progress.exported();
+        Thread.sleep(20);
+        assertTrue(progress.getThroughput() > 0);
+        // one done in (at least) 20ms; three to go:
+        long eta = progress.getEtaMillis();
+        assertTrue("eta: " + eta, eta >= 3 * 20 - 5);
+
+        progress.finished();
+        assertTrue(progress.isFinished());
+        assertEquals(0, progress.getEtaMillis());
+        long elapsed = progress.getElapsedMillis();
+        Thread.sleep(10);
+        assertEquals("the clock stops when the run is finished", elapsed, progress.getElapsedMillis());
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        final ExportAllProgress progress = new ExportAllProgress(false, 8, 8000);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int w = 0; w < 8; w++) {
+                workers.add(executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        progress.started();
+                        if (i % 10 == 0) {
+                            progress.failed();
+                        } else if (i % 2 == 0) {
+                            progress.skipped();
+                        } else {
+                            progress.exported();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(8000, progress.getDone());
+        assertEquals(8 * 100, progress.getFailures());
+        assertEquals(8 * 400, progress.getSkipped());
+        assertEquals(8 * 500, progress.getExported());
+        assertEquals(0, progress.toJson().build().getInt("inFlight"));
+    }
+
+}
@@ -0,0 +1,252 @@
+package edu.harvard.iq.dataverse.export;
+
+import edu.harvard.iq.dataverse.DatasetVersion;
+import edu.harvard.iq.dataverse.export.spi.Exporter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.json.Json;
+import javax.json.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class ExportServiceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path exportDirectory;
+    ExecutorService executor;
+    JsonObject json;
+
+    @Before
+    public void setUp() {
+        exportDirectory = folder.getRoot().toPath().resolve("10.5072/FK2/ABCDEF");
+        executor = Executors.newFixedThreadPool(4);
+        json = Json.createObjectBuilder().add("title", "Darwin's Finches").build();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testJsonOnlyExportersRunConcurrently() throws Exception {
+        // each of them waits for the others to have started:
+        final CountDownLatch allStarted = new CountDownLatch(3);
+        final Thread caller = Thread.currentThread();
+        List<Exporter> exporters = Arrays.asList(
+                new WaitingExporter("a", allStarted),
+                new WaitingExporter("b", allStarted),
+                new WaitingExporter("c", allStarted),
+                new TestExporter("ddi", true) {
+                    @Override
+                    void write(DatasetVersion version, JsonObject json, OutputStream outputStream) throws IOException {
+                        assertSame("the entity exporters run on the calling thread", caller, Thread.currentThread());
+                        super.write(version, json, outputStream);
+                    }
+                });
+
+        new ExportService(executor).runExports(exportDirectory, null, json, exporters);
+
+        for (String format : new String[]{"a", "b", "c", "ddi"}) {
+            assertEquals(format + ": Darwin's Finches", cached(format));
+        }
+        assertNoTempFiles();
+    }
+
+    @Test
+    public void testExportersRunOnTheCallingThreadWithoutAnExecutor() throws Exception {
+        final Thread caller = Thread.currentThread();
+        new ExportService(null).runExports(exportDirectory, null, json, Arrays.asList(new TestExporter("a", false) {
+            @Override
+            void write(DatasetVersion version, JsonObject json, OutputStream outputStream) throws IOException {
+                assertSame(caller, Thread.currentThread());
+                super.write(version, json, outputStream);
+            }
+        }));
+        assertEquals("a: Darwin's Finches", cached("a"));
+    }
+
+    @Test
+    public void testFailureOfAConcurrentExportIsReported() throws Exception {
+        List<Exporter> exporters = Arrays.asList(
+                new TestExporter("a", false),
+                new TestExporter("b", false) {
+                    @Override
+                    void write(DatasetVersion version, JsonObject json, OutputStream outputStream) throws IOException {
+                        throw new IOException("disk full");
+                    }
+                });
+        try {
+            new ExportService(executor).runExports(exportDirectory, null, json, exporters);
+            fail("the failed export should have been reported");
+        } catch (ExportException expected) {
+        }
+        assertFalse(Files.exists(exportDirectory.resolve("export_b.cached")));
+        assertNoTempFiles();
+    }
+
+    @Test
+    public void testCachedExportIsReplacedInOneStep() throws Exception {
+        Files.createDirectories(exportDirectory);
+        final Path cachedFile = Files.write(exportDirectory.resolve("export_a.cached"), "old".getBytes(StandardCharsets.UTF_8));
+
+        ExportService.cacheExport(exportDirectory, null, "a", json, new TestExporter("a", false) {
+            @Override
+            void write(DatasetVersion version, JsonObject json, OutputStream outputStream) throws IOException {
+                outputStream.write("new, ".getBytes(StandardCharsets.UTF_8));
+                outputStream.flush();
+                // half written - and the old one is still there, whole:
+                assertEquals("old", new String(Files.readAllBytes(cachedFile), StandardCharsets.UTF_8));
+                outputStream.write("all of it".getBytes(StandardCharsets.UTF_8));
+            }
+        });
+
+        assertEquals("new, all of it", cached("a"));
+        assertNoTempFiles();
+    }
+
+    @Test
+    public void testFailedExportLeavesTheCachedOneAlone() throws Exception {
+        Files.createDirectories(exportDirectory);
+        Files.write(exportDirectory.resolve("export_a.cached"), "old".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            ExportService.cacheExport(exportDirectory, null, "a", json, new TestExporter("a", false) {
+                @Override
+                void write(DatasetVersion version, JsonObject json, OutputStream outputStream) throws IOException {
+                    outputStream.write("half".getBytes(StandardCharsets.UTF_8));
+                    throw new IOException("disk full");
+                }
+            });
+            fail("the failed export should have been reported");
+        } catch (ExportException expected) {
+        }
+
+        assertEquals("old", cached("a"));
+        assertNoTempFiles();
+    }
+
+    private String cached(String format) throws IOException {
+        return new String(Files.readAllBytes(exportDirectory.resolve("export_" + format + ".cached")), StandardCharsets.UTF_8);
+    }
+
+    private void assertNoTempFiles() throws IOException {
+        try (Stream<Path> files = Files.list(exportDirectory)) {
+            List<Path> tempFiles = files.filter(p -> p.toString().endsWith(".tmp")).collect(Collectors.toList());
+            assertTrue("temporary files left: " + tempFiles, tempFiles.isEmpty());
+        }
+    }
+
+    static class TestExporter implements Exporter {
+
+        final String format;
+        final boolean requiresDatasetVersion;
+
+        TestExporter(String format, boolean requiresDatasetVersion) {
+            this.format = format;
+            this.requiresDatasetVersion = requiresDatasetVersion;
+        }
+
+        void write(DatasetVersion version, JsonObject json, OutputStream outputStream) throws IOException {
+            outputStream.write((format + ": " + json.getString("title")).getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void exportDataset(DatasetVersion version, JsonObject json, OutputStream outputStream) throws ExportException {
+            try {
+                write(version, json, outputStream);
+                outputStream.flush();
+            } catch (IOException ex) {
+                throw new ExportException(ex.getMessage());
+            }
+        }
+
+        @Override
+        public Boolean requiresDatasetVersion() {
+            return requiresDatasetVersion;
+        }
+
+        @Override
+        public String getProviderName() {
+            return format;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return format;
+        }
+
+        @Override
+        public Boolean isXMLFormat() {
+            return false;
+        }
+
+        @Override
+        public Boolean isHarvestable() {
+            return false;
+        }
+
+        @Override
+        public Boolean isAvailableToUsers() {
+            return true;
+        }
+
+        @Override
+        public String getXMLNameSpace() throws ExportException {
+            throw new ExportException("not an XML format");
+        }
+
+        @Override
+        public String getXMLSchemaLocation() throws ExportException {
+            throw new ExportException("not an XML format");
+        }
+
+        @Override
+        public String getXMLSchemaVersion() throws ExportException {
+            throw new ExportException("not an XML format");
+        }
+
+        @Override
+        public void setParam(String name, Object value) {
+        }
+    }
+
+    static class WaitingExporter extends TestExporter {
+
+        final CountDownLatch allStarted;
+
+        WaitingExporter(String format, CountDownLatch allStarted) {
+            super(format, false);
+            this.allStarted = allStarted;
+        }
+
+        @Override
+        void write(DatasetVersion version, JsonObject json, OutputStream outputStream) throws IOException {
+            allStarted.countDown();
+            try {
+                assertTrue("the exporters should run at the same time", allStarted.await(5, TimeUnit.SECONDS));
+            } catch (InterruptedException ie) {
+                throw new IOException(ie);
+            }
+            super.write(version, json, outputStream);
+        }
+    }
+
+}
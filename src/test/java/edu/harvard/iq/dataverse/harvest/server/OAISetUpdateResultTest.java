@@ -0,0 +1,43 @@
+package edu.harvard.iq.dataverse.harvest.server;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class OAISetUpdateResultTest {
+
+    @Test
+    public void testOnlyCommittedChunksAreCounted() {
+        OAISetUpdateResult result = new OAISetUpdateResult("set", null);
+
+        OAISetUpdateResult committed = new OAISetUpdateResult("set", null);
+        committed.datasetExamined();
+        committed.recordCreated();
+        committed.inSet("doi:10.5072/FK2/A");
+        result.add(committed);
+
+        // (a chunk that failed is not added)
+        OAISetUpdateResult rolledBack = new OAISetUpdateResult("set", null);
+        rolledBack.datasetExamined();
+        rolledBack.recordUpdated();
+        rolledBack.inSet("doi:10.5072/FK2/B");
+        result.chunkFailed();
+
+        assertEquals(1, result.getDatasetsExamined());
+        assertEquals(1, result.getCreated());
+        assertEquals(0, result.getUpdated());
+        assertTrue(result.getGlobalIdsInSet().contains("doi:10.5072/FK2/A"));
+        assertFalse(result.getGlobalIdsInSet().contains("doi:10.5072/FK2/B"));
+        assertTrue(result.hasFailures());
+        assertEquals(1, result.getFailedChunks());
+        assertTrue(result.toString(), result.toString().contains("1 chunks of datasets FAILED"));
+    }
+
+    @Test
+    public void testNoFailures() {
+        OAISetUpdateResult result = new OAISetUpdateResult("set", null);
+        result.add(new OAISetUpdateResult("set", null));
+        assertFalse(result.hasFailures());
+        assertFalse(result.toString().contains("FAILED"));
+    }
+
+}
@@ -0,0 +1,93 @@
+package edu.harvard.iq.dataverse.harvest.server.web;
+
+import com.lyncode.xoai.exceptions.InvalidResumptionTokenException;
+import com.lyncode.xoai.model.oaipmh.Granularity;
+import com.lyncode.xoai.model.oaipmh.Header;
+import com.lyncode.xoai.model.oaipmh.ListRecords;
+import com.lyncode.xoai.model.oaipmh.OAIPMH;
+import com.lyncode.xoai.model.oaipmh.Record;
+import com.lyncode.xoai.model.oaipmh.Request;
+import com.lyncode.xoai.model.oaipmh.ResumptionToken;
+import com.lyncode.xoai.model.oaipmh.Verb;
+import com.lyncode.xoai.xml.XmlWriter;
+import edu.harvard.iq.dataverse.harvest.server.OAIRecord;
+import java.io.ByteArrayOutputStream;
+import java.sql.Timestamp;
+import java.util.Date;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class KeysetResumptionTokenTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        KeysetResumptionToken first = new KeysetResumptionToken();
+        first.withMetadataPrefix("oai_dc");
+        first.withSetSpec("a set & more|stuff");
+        first.withFrom(new Date(1000000000000L));
+        first.withUntil(new Date(1500000000000L));
+
+        Timestamp lastUpdateTime = new Timestamp(1400000000123L);
+        lastUpdateTime.setNanos(123456789);
+        KeysetResumptionToken next = first.next(record(42L, lastUpdateTime), 100);
+
+        KeysetResumptionToken parsed = KeysetResumptionToken.parse(next.format());
+        assertEquals("oai_dc", parsed.getMetadataPrefix());
+        assertEquals("a set & more|stuff", parsed.getSetSpec());
+        assertEquals(first.getFrom(), parsed.getFrom());
+        assertEquals(first.getUntil(), parsed.getUntil());
+        assertEquals(Long.valueOf(100), parsed.getOffset());
+        assertEquals(Long.valueOf(42), parsed.getLastId());
+        // to the nanosecond, so that the last record is not sent again:
+        assertEquals(lastUpdateTime, parsed.getLastUpdateTime());
+
+        KeysetResumptionToken third = parsed.next(record(43L, new Date(1400000000200L)), 100);
+        assertEquals(Long.valueOf(200), KeysetResumptionToken.parse(third.format()).getOffset());
+    }
+
+    @Test(expected = InvalidResumptionTokenException.class)
+    public void testGarbage() throws Exception {
+        KeysetResumptionToken.parse("not a token!");
+    }
+
+    @Test(expected = InvalidResumptionTokenException.class)
+    public void testIncomplete() throws Exception {
+        KeysetResumptionToken token = new KeysetResumptionToken();
+        token.withMetadataPrefix("oai_dc");
+        KeysetResumptionToken.parse(token.format());
+    }
+
+    @Test
+    public void testWrittenByXoai() throws Exception {
+        KeysetResumptionToken token = new KeysetResumptionToken();
+        token.withMetadataPrefix("oai_dc");
+        token = token.next(record(7L, new Date()), 1);
+
+        ListRecords listRecords = new ListRecords()
+                .withRecord(new Record()
+                        .withHeader(new Header().withIdentifier("doi:10.5072/FK2/ABC").withDatestamp(new Date()))
+                        .withMetadata(new xMetadata((String) null)))
+                .withResumptionToken(new ResumptionToken(token).withCursor(0));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XmlWriter xmlWriter = new XmlWriter(out, new XmlWriter.WriterContext(Granularity.Second, new KeysetResumptionToken.Format()));
+        xmlWriter.write(new OAIPMH()
+                .withResponseDate(new Date())
+                .withRequest(new Request("http://localhost/oai").withVerbType(Verb.Type.ListRecords))
+                .withVerb(listRecords));
+        xmlWriter.flush();
+        xmlWriter.close();
+        String xml = out.toString("UTF-8");
+
+        // the placeholder the servlet streams the exported metadata into:
+        assertEquals(1, xml.split("<metadata/>", -1).length - 1);
+        assertTrue(xml, xml.contains(">" + token.format() + "</resumptionToken>"));
+    }
+
+    private static OAIRecord record(Long id, Date lastUpdateTime) {
+        OAIRecord record = new OAIRecord("", "doi:10.5072/FK2/" + id, lastUpdateTime);
+        record.setId(id);
+        return record;
+    }
+
+}
@@ -0,0 +1,93 @@
+package edu.harvard.iq.dataverse.ingest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.json.JsonObject;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class IngestQueueTest {
+
+    private static IngestQueue.Job job(long fileId, long datasetId, long size) {
+        return new IngestQueue.Job(fileId, datasetId, size, "text/tab-separated-values");
+    }
+
+    @Test
+    public void testSmallestFirstAcrossDatasets() {
+        IngestQueue sut = new IngestQueue(IngestQueue.Policy.SmallestFirst, 0);
+        sut.add(job(1, 10, 5000));
+        sut.add(job(2, 10, 100));
+        sut.add(job(3, 20, 300));
+        sut.add(job(4, 20, 100));
+        assertEquals(4, sut.size());
+
+        assertEquals(Long.valueOf(2), sut.poll().getFileId());
+        // same size: first come, first served
+        assertEquals(Long.valueOf(4), sut.poll().getFileId());
+        assertEquals(Long.valueOf(3), sut.poll().getFileId());
+        assertEquals(Long.valueOf(1), sut.poll().getFileId());
+        assertNull(sut.poll());
+        assertTrue(sut.isEmpty());
+    }
+
+    @Test
+    public void testFileThatWaitedTooLongGoesFirst() {
+        final AtomicLong now = new AtomicLong();
+        IngestQueue sut = new IngestQueue(IngestQueue.Policy.SmallestFirst, 1000, () -> now.get());
+        sut.add(job(1, 10, 5000));
+        sut.add(job(2, 10, 6000));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        sut.add(job(3, 20, 100));
+        assertEquals(Long.valueOf(3), sut.poll().getFileId());
+
+        sut.add(job(4, 20, 100));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        sut.add(job(5, 20, 100));
+        // both big files have waited long enough; the one that came first goes first
+        assertEquals(Long.valueOf(1), sut.poll().getFileId());
+        assertEquals(Long.valueOf(2), sut.poll().getFileId());
+        assertEquals(Long.valueOf(4), sut.poll().getFileId());
+        assertEquals(Long.valueOf(5), sut.poll().getFileId());
+        assertNull(sut.poll());
+    }
+
+    @Test
+    public void testFairTakesDatasetsInTurn() {
+        IngestQueue sut = new IngestQueue(IngestQueue.Policy.Fair, 0);
+        sut.add(job(1, 10, 300));
+        sut.add(job(2, 10, 100));
+        sut.add(job(3, 10, 200));
+        sut.add(job(4, 20, 5000));
+        sut.add(job(5, 30, 50));
+
+        assertEquals(Long.valueOf(2), sut.poll().getFileId());
+        assertEquals(Long.valueOf(4), sut.poll().getFileId());
+        assertEquals(Long.valueOf(5), sut.poll().getFileId());
+        assertEquals(Long.valueOf(3), sut.poll().getFileId());
+
+        // a dataset that comes in now waits for its turn
+        sut.add(job(6, 40, 10));
+        assertEquals(Long.valueOf(1), sut.poll().getFileId());
+        assertEquals(Long.valueOf(6), sut.poll().getFileId());
+        assertNull(sut.poll());
+        assertEquals(0, sut.size());
+    }
+
+    @Test
+    public void testStats() {
+        IngestStats stats = new IngestStats();
+        stats.ingested("application/x-stata", 2000, 2000000000L, true);
+        stats.ingested("application/x-stata", 0, 0, false);
+        stats.ingested(null, 10, 1000, true);
+
+        JsonObject json = stats.toJson().build();
+        assertEquals(2, json.getJsonObject("application/x-stata").getInt("files"));
+        assertEquals(1, json.getJsonObject("application/x-stata").getInt("failures"));
+        assertEquals(1000.0, json.getJsonObject("application/x-stata").getJsonNumber("bytesPerSecond").doubleValue(), 0.001);
+        assertEquals(1, json.getJsonObject("unknown").getInt("files"));
+
+        stats.reset();
+        assertTrue(stats.toJson().build().isEmpty());
+    }
+
+}
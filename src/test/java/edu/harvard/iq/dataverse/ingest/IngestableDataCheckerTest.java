@@ -10,6 +10,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -181,6 +182,25 @@ public class IngestableDataCheckerTest {
 
     }
 
+    /**
+     * Test of detectTabularDataFormat method, of class IngestableDataChecker,
+     * given the first bytes of the file rather than the file.
+     */
+    @Test
+    public void testDetectTabularDataFormatFromHead() throws IOException {
+        msgt("(2d) detectTabularDataFormat, from the head of the file");
+
+        IngestableDataChecker instance = new IngestableDataChecker();
+        assertEquals("application/x-spss-sav", instance.detectTabularDataFormat("$FL2".getBytes()));
+
+        File file = File.createTempFile("testSAV", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "$FL2".getBytes());
+        assertEquals("application/x-spss-sav", instance.detectTabularDataFormat(file));
+
+        assertEquals(null, instance.detectTabularDataFormat("i-am-not-a-x-spss-sav-file".getBytes()));
+    }
+
     /**
      * Test of testXPTformat method, of class IngestableDataChecker.
      */
@@ -0,0 +1,71 @@
+package edu.harvard.iq.dataverse.ingest;
+
+import edu.harvard.iq.dataverse.ingest.VariableStatisticsTask.VariableKind;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.dataverse.unf.UNFUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class VariableStatisticsTaskTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testParallelTasksMatchSequentialUNFs() throws Exception {
+        File tabfile = folder.newFile("data.tab");
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            content.append(i % 13 == 0 ? "" : String.valueOf(i)).append('\t')
+                    .append(i * 0.25).append('\t')
+                    .append('"').append("value ").append(i % 5).append("\"\n");
+        }
+        Files.write(tabfile.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+
+        Double[] expectedLongs = new Double[200];
+        double[] expectedDoubles = new double[200];
+        String[] expectedStrings = new String[200];
+        for (int i = 0; i < 200; i++) {
+            expectedLongs[i] = i % 13 == 0 ? null : (double) i;
+            expectedDoubles[i] = i * 0.25;
+            expectedStrings[i] = "value " + (i % 5);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<VariableStatisticsTask>> futures = new ArrayList<>();
+            for (int round = 0; round < 10; round++) {
+                futures.add(executor.submit(new VariableStatisticsTask(0, VariableKind.DISCRETE_NUMERIC, null, null, tabfile, 3, 200, false)));
+                futures.add(executor.submit(new VariableStatisticsTask(1, VariableKind.CONTINUOUS, null, null, tabfile, 3, 200, false)));
+                futures.add(executor.submit(new VariableStatisticsTask(2, VariableKind.CHARACTER, null, null, tabfile, 3, 200, false)));
+            }
+
+            String[] expectedUnfs = {
+                UNFUtil.calculateUNF(expectedLongs),
+                UNFUtil.calculateUNF(expectedDoubles),
+                UNFUtil.calculateUNF(expectedStrings)
+            };
+            for (Future<VariableStatisticsTask> future : futures) {
+                VariableStatisticsTask task = future.get();
+                assertEquals(expectedUnfs[task.getVarnum()], task.getUnf());
+                if (task.getVarnum() == 2) {
+                    assertNull(task.getSummaryStatistics());
+                } else {
+                    assertNotNull(task.getSummaryStatistics());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,198 @@
+package edu.harvard.iq.dataverse.ingest;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.util.MD5Checksum;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class ZipUploadUnpackerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path tempDirectory;
+    ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDirectory = folder.newFolder("temp").toPath();
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testAllEntriesAreUnpacked() throws Exception {
+        File zip = zip("a.txt", "b.txt", "c.txt", "d.txt", "e.txt");
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            List<ZipUploadUnpacker.Entry> entries = entries(zipFile);
+            List<DataFile> unpacked = unpacker(executor).unpack(zipFile, entries);
+
+            assertEquals(5, unpacked.size());
+            for (ZipUploadUnpacker.Entry entry : entries) {
+                assertTrue(entry.unpacked);
+                byte[] content = Files.readAllBytes(tempDirectory.resolve(entry.datafile.getStorageIdentifier()));
+                assertEquals(content(entry.shortName), new String(content, StandardCharsets.UTF_8));
+                assertEquals(md5(content), entry.datafile.getmd5());
+                assertEquals("text/plain", entry.datafile.getContentType());
+            }
+        }
+    }
+
+    @Test
+    public void testSameResultOnTheCallingThread() throws Exception {
+        File zip = zip("a.txt", "b.txt");
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            List<ZipUploadUnpacker.Entry> entries = entries(zipFile);
+            List<DataFile> unpacked = unpacker(null).unpack(zipFile, entries);
+            assertEquals(Arrays.asList(entries.get(0).datafile, entries.get(1).datafile), unpacked);
+        }
+    }
+
+    @Test
+    public void testFailedEntryIsLeftOutAndRemoved() throws Exception {
+        File zip = zip("a.txt", "bad.txt", "c.txt");
+        // fails half way through the entry, once some of it is written:
+        try (ZipFile zipFile = new ZipFile(zip) {
+            @Override
+            public InputStream getInputStream(ZipEntry entry) throws IOException {
+                InputStream in = super.getInputStream(entry);
+                if (!entry.getName().equals("dir/bad.txt")) {
+                    return in;
+                }
+                return new FilterInputStream(in) {
+                    int reads = 0;
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        if (reads++ > 0) {
+                            throw new IOException("corrupt entry");
+                        }
+                        return super.read(b, off, Math.min(len, 10));
+                    }
+                };
+            }
+        }) {
+            List<ZipUploadUnpacker.Entry> entries = entries(zipFile);
+            List<DataFile> unpacked = unpacker(executor).unpack(zipFile, entries);
+
+            assertEquals(Arrays.asList(entries.get(0).datafile, entries.get(2).datafile), unpacked);
+            assertFalse(entries.get(1).unpacked);
+            assertFalse("the part written is removed",
+                    Files.exists(tempDirectory.resolve(entries.get(1).datafile.getStorageIdentifier())));
+            assertEquals(2, tempDirectory.toFile().list().length);
+        }
+    }
+
+    @Test
+    public void testFilesAreReturnedInArchiveOrder() throws Exception {
+        File zip = zip("a.txt", "b.txt", "c.txt", "d.txt");
+        final CountDownLatch othersDone = new CountDownLatch(3);
+        // the first entry is held up until the others are done:
+        try (ZipFile zipFile = new ZipFile(zip) {
+            @Override
+            public InputStream getInputStream(ZipEntry entry) throws IOException {
+                if (entry.getName().equals("dir/a.txt")) {
+                    try {
+                        assertTrue(othersDone.await(5, TimeUnit.SECONDS));
+                    } catch (InterruptedException ie) {
+                        throw new IOException(ie);
+                    }
+                    return super.getInputStream(entry);
+                }
+                return new FilterInputStream(super.getInputStream(entry)) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        othersDone.countDown();
+                    }
+                };
+            }
+        }) {
+            List<ZipUploadUnpacker.Entry> entries = entries(zipFile);
+            List<DataFile> unpacked = unpacker(executor).unpack(zipFile, entries);
+
+            List<DataFile> expected = new ArrayList<>();
+            for (ZipUploadUnpacker.Entry entry : entries) {
+                expected.add(entry.datafile);
+            }
+            assertEquals(expected, unpacked);
+        }
+    }
+
+    /**
+     * (with the file types made up: Jhove is not set up for the tests)
+     */
+    private ZipUploadUnpacker unpacker(ExecutorService executor) {
+        return new ZipUploadUnpacker(executor, 4, tempDirectory) {
+            @Override
+            String determineFileType(Path file, String fileName, byte[] head) {
+                return "text/plain";
+            }
+        };
+    }
+
+    private File zip(String... names) throws IOException {
+        File zip = folder.newFile("upload.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip.toPath()))) {
+            for (String name : names) {
+                out.putNextEntry(new ZipEntry("dir/" + name));
+                out.write(content(name).getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        return zip;
+    }
+
+    private static String content(String name) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append(name).append(' ').append(i).append('\n');
+        }
+        return content.toString();
+    }
+
+    private static List<ZipUploadUnpacker.Entry> entries(ZipFile zipFile) {
+        List<ZipUploadUnpacker.Entry> entries = new ArrayList<>();
+        Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+        while (zipEntries.hasMoreElements()) {
+            ZipEntry zipEntry = zipEntries.nextElement();
+            String shortName = zipEntry.getName().replaceFirst("^.*[\\/]", "");
+            DataFile datafile = new DataFile("application/octet-stream");
+            datafile.setStorageIdentifier("file-" + shortName);
+            entries.add(new ZipUploadUnpacker.Entry(zipEntry, shortName, datafile));
+        }
+        return entries;
+    }
+
+    private static String md5(byte[] content) throws Exception {
+        return MD5Checksum.toHexString(MessageDigest.getInstance("MD5").digest(content));
+    }
+
+}
@@ -0,0 +1,74 @@
+package edu.harvard.iq.dataverse.outbox;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class OutboxTaskTest {
+
+    OutboxTask sut;
+
+    @Before
+    public void setUp() {
+        sut = new OutboxTask(OutboxTask.Stage.EXPORT, 42L, null);
+    }
+
+    @Test
+    public void testNewTaskIsDueNow() {
+        assertEquals(OutboxTask.State.PENDING, sut.getState());
+        assertEquals(0, sut.getAttempts());
+        assertFalse(sut.getNextAttemptTime().after(sut.getCreateTime()));
+    }
+
+    @Test
+    public void testRetryDelayDoubles() {
+        assertEquals(OutboxTask.FIRST_RETRY_DELAY_MILLIS, OutboxTask.retryDelayMillis(1));
+        assertEquals(2 * OutboxTask.FIRST_RETRY_DELAY_MILLIS, OutboxTask.retryDelayMillis(2));
+        assertEquals(4 * OutboxTask.FIRST_RETRY_DELAY_MILLIS, OutboxTask.retryDelayMillis(3));
+    }
+
+    @Test
+    public void testRetryDelayIsCapped() {
+        assertEquals(OutboxTask.MAX_RETRY_DELAY_MILLIS, OutboxTask.retryDelayMillis(8));
+        assertEquals(OutboxTask.MAX_RETRY_DELAY_MILLIS, OutboxTask.retryDelayMillis(1000));
+    }
+
+    @Test
+    public void testRecordFailure() {
+        long now = 1000000L;
+        assertTrue(sut.recordFailure("boom", now));
+        assertEquals(1, sut.getAttempts());
+        assertEquals("boom", sut.getLastError());
+        assertEquals(OutboxTask.State.PENDING, sut.getState());
+        assertEquals(now + OutboxTask.FIRST_RETRY_DELAY_MILLIS, sut.getNextAttemptTime().getTime());
+        assertNull(sut.getClaimedUntil());
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts() {
+        for (int i = 1; i < OutboxTask.MAX_ATTEMPTS; i++) {
+            assertTrue(sut.recordFailure("boom", 0));
+        }
+        assertFalse(sut.recordFailure("boom", 0));
+        assertEquals(OutboxTask.State.FAILED, sut.getState());
+
+        sut.retry();
+        assertEquals(OutboxTask.State.PENDING, sut.getState());
+        assertEquals(0, sut.getAttempts());
+    }
+
+    @Test
+    public void testStats() {
+        OutboxStats stats = new OutboxStats();
+        stats.succeeded(OutboxTask.Stage.INDEX, 5000000L);
+        stats.failed(OutboxTask.Stage.INDEX, true);
+        stats.failed(OutboxTask.Stage.NOTIFY, false);
+        assertEquals(1, stats.getDurations(OutboxTask.Stage.INDEX).toJson().build().getInt("count"));
+        assertEquals(1, stats.toJson().build().getJsonObject("INDEX").getInt("failedWillRetry"));
+        assertEquals(1, stats.toJson().build().getJsonObject("NOTIFY").getInt("failedGaveUp"));
+
+        stats.reset();
+        assertEquals(0, stats.toJson().build().getJsonObject("NOTIFY").getInt("failedGaveUp"));
+    }
+
+}
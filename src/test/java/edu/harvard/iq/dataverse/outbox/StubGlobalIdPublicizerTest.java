@@ -0,0 +1,53 @@
+package edu.harvard.iq.dataverse.outbox;
+
+import edu.harvard.iq.dataverse.DOIDataCiteServiceBean;
+import edu.harvard.iq.dataverse.DOIEZIdServiceBean;
+import edu.harvard.iq.dataverse.Dataset;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class StubGlobalIdPublicizerTest {
+
+    Dataset dataset;
+
+    @Before
+    public void setUp() {
+        System.setProperty(StubGlobalIdPublicizer.JVM_OPTION, "true");
+        dataset = new Dataset();
+        dataset.setProtocol("doi");
+        dataset.setAuthority("10.5072/FK2");
+        dataset.setDoiSeparator("/");
+        dataset.setIdentifier("STUB" + System.nanoTime());
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(StubGlobalIdPublicizer.JVM_OPTION);
+    }
+
+    @Test
+    public void testIdentifiersAreCreatedWithoutAProvider() throws Exception {
+        // (neither has the services it would need to reach EZID or DataCite)
+        String ezidRetString = new DOIEZIdServiceBean().createIdentifier(dataset);
+        assertTrue(ezidRetString, ezidRetString.contains(dataset.getIdentifier()));
+
+        DOIDataCiteServiceBean dataCite = new DOIDataCiteServiceBean();
+        assertFalse(dataCite.alreadyExists(dataset));
+        assertTrue(dataCite.createIdentifier(dataset).contains(dataset.getIdentifier()));
+
+        assertEquals(2, StubGlobalIdPublicizer.getInstance().getCreated().stream()
+                .filter(dataset.getGlobalId()::equals).count());
+    }
+
+    @Test
+    public void testIdentifiersArePublicizedWithoutAProvider() throws Exception {
+        GlobalIdPublicizer publicizer = new OutboxServiceBean().getPublicizer("EZID");
+        assertSame(StubGlobalIdPublicizer.getInstance(), publicizer);
+
+        publicizer.publicizeIdentifier(dataset);
+        assertTrue(StubGlobalIdPublicizer.getInstance().getPublicized().contains(dataset.getGlobalId()));
+    }
+
+}
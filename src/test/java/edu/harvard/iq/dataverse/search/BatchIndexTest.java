@@ -0,0 +1,143 @@
+package edu.harvard.iq.dataverse.search;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class BatchIndexTest {
+
+    private SolrServer solrServer;
+
+    @Before
+    public void setUp() {
+        solrServer = mock(SolrServer.class);
+    }
+
+    private SolrInputDocument doc(String id, String description) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(SearchFields.ID, id);
+        doc.addField(SearchFields.DESCRIPTION, description);
+        return doc;
+    }
+
+    @Test
+    public void testFlushesByDocCountWithoutCommitting() throws Exception {
+        BatchIndex batchIndex = new BatchIndex(2, 0, 5000, 1, solrServer);
+        batchIndex.add(doc("dataset_1", "one"));
+        verify(solrServer, never()).add(anyCollectionOf(SolrInputDocument.class), anyInt());
+        batchIndex.add(doc("dataset_2", "two"));
+        verify(solrServer, times(1)).add(anyCollectionOf(SolrInputDocument.class), anyInt());
+        verify(solrServer, never()).commit();
+    }
+
+    @Test
+    public void testFlushesBySize() throws Exception {
+        BatchIndex batchIndex = new BatchIndex(1000, 100, 5000, 1, solrServer);
+        StringBuilder longDescription = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            longDescription.append("x");
+        }
+        batchIndex.add(doc("dataset_1", longDescription.toString()));
+        verify(solrServer, times(1)).add(anyCollectionOf(SolrInputDocument.class), anyInt());
+    }
+
+    @Test
+    public void testFinishSendsRemainderAndCommitsOnce() throws Exception {
+        BatchIndex batchIndex = new BatchIndex(10, 0, 0, 1, solrServer);
+        batchIndex.add(doc("dataset_1", "one"));
+        batchIndex.add(doc("dataset_2", "two"));
+        batchIndex.add(doc("dataset_3", "three"));
+        batchIndex.finish();
+        verify(solrServer, times(1)).add(anyCollectionOf(SolrInputDocument.class));
+        verify(solrServer, times(1)).commit();
+        assertEquals(0, batchIndex.getDocsFailed());
+        assertTrue(batchIndex.getDocs().isEmpty());
+    }
+
+    @Test
+    public void testDocsCountAsIndexedOnlyOnceSent() throws Exception {
+        BatchIndex batchIndex = new BatchIndex(3, 0, 5000, 1, solrServer);
+        AtomicInteger indexed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        BatchIndex.Group group = new BatchIndex.Group(indexed::incrementAndGet, failed::incrementAndGet);
+        AtomicInteger stamped = new AtomicInteger();
+
+        batchIndex.forGroup(group).add(Arrays.asList(doc("dataset_1", "one"), doc("datafile_2", "two")), stamped::incrementAndGet);
+        group.close(true);
+        assertEquals(0, stamped.get());
+        assertEquals(0, indexed.get());
+
+        batchIndex.add(doc("dataset_3", "three"));
+        verify(solrServer, times(1)).add(anyCollectionOf(SolrInputDocument.class), anyInt());
+        assertEquals(1, stamped.get());
+        assertEquals(1, indexed.get());
+        assertEquals(0, failed.get());
+    }
+
+    @Test
+    public void testDocsThatFailToBeSentDoNotCountAsIndexed() throws Exception {
+        doThrow(new SolrServerException("down")).when(solrServer).add(anyCollectionOf(SolrInputDocument.class), anyInt());
+        BatchIndex batchIndex = new BatchIndex(10, 0, 5000, 1, solrServer);
+        AtomicInteger indexed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        BatchIndex.Group group = new BatchIndex.Group(indexed::incrementAndGet, failed::incrementAndGet);
+        AtomicInteger stamped = new AtomicInteger();
+
+        batchIndex.forGroup(group).add(Arrays.asList(doc("dataset_1", "one")), stamped::incrementAndGet);
+        group.close(true);
+        batchIndex.finish();
+
+        assertEquals(0, stamped.get());
+        assertEquals(0, indexed.get());
+        assertEquals(1, failed.get());
+        assertEquals(1, batchIndex.getDocsFailed());
+    }
+
+    @Test
+    public void testFailedGroupWithNoDocs() {
+        BatchIndex batchIndex = new BatchIndex(10, 0, 5000, 1, solrServer);
+        AtomicInteger indexed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        BatchIndex.Group group = new BatchIndex.Group(indexed::incrementAndGet, failed::incrementAndGet);
+
+        batchIndex.forGroup(group).fail();
+        group.close(true);
+
+        assertEquals(0, indexed.get());
+        assertEquals(1, failed.get());
+    }
+
+    @Test
+    public void testViewReportsOnTheWholeBatchIndex() {
+        BatchIndex batchIndex = new BatchIndex(10, 0, 5000, 1, solrServer);
+        BatchIndex view = batchIndex.forGroup(new BatchIndex.Group(null, null));
+        batchIndex.add(doc("dataset_1", "one"));
+        view.add(doc("dataset_2", "two"));
+
+        assertEquals(2, view.getDocs().size());
+        assertEquals(2, view.getStats().build().getInt("docsAdded"));
+
+        view.setDocs(Arrays.asList(doc("dataset_3", "three")));
+        assertEquals(1, batchIndex.getDocs().size());
+    }
+
+    @Test
+    public void testEstimateSize() {
+        SolrInputDocument doc = doc("dataset_1", "abc");
+        long expected = SearchFields.ID.length() + "dataset_1".length() + SearchFields.DESCRIPTION.length() + "abc".length();
+        assertEquals(expected, BatchIndex.estimateSize(doc));
+    }
+
+}
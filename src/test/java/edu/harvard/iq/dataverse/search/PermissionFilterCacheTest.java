@@ -0,0 +1,32 @@
+package edu.harvard.iq.dataverse.search;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PermissionFilterCacheTest {
+
+    @Test
+    public void testFilterQueryIsCanonical() {
+        String filter = PermissionFilterCache.buildFilterQuery(7L, Arrays.asList("shib/2", "builtIn/authenticated-users", "1-explicitGroup1"));
+        assertEquals("{!join from=definitionPointDocId to=id}discoverableBy:(group_public OR group_user7"
+                + " OR group_1-explicitGroup1 OR group_builtIn/authenticated-users OR group_shib/2)", filter);
+        assertEquals(filter, PermissionFilterCache.buildFilterQuery(7L, Arrays.asList("1-explicitGroup1", "shib/2", "builtIn/authenticated-users", "shib/2")));
+        assertEquals("{!join from=definitionPointDocId to=id}discoverableBy:(group_public OR group_user7)",
+                PermissionFilterCache.buildFilterQuery(7L, Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void testGeneration() {
+        PermissionFilterCache sut = new PermissionFilterCache();
+        assertNull(sut.get(1L, 5));
+        sut.put(1L, "filter", 5);
+        assertEquals("filter", sut.get(1L, 5));
+        assertNull(sut.get(1L, 6));
+        assertNull(sut.get(2L, 5));
+        sut.invalidateAll();
+        assertNull(sut.get(1L, 5));
+    }
+
+}
@@ -0,0 +1,72 @@
+package edu.harvard.iq.dataverse.settings;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SettingsCacheTest {
+
+    SettingsCache sut;
+    Map<String, String> values;
+
+    @Before
+    public void setUp() {
+        sut = new SettingsCache();
+        values = new HashMap<>();
+        values.put(":SystemEmail", "support@example.edu");
+    }
+
+    @Test
+    public void testInstallAndGet() {
+        assertNull(sut.get());
+        sut.install(values, "v1", sut.getGeneration());
+
+        SettingsCache.Snapshot snapshot = sut.get();
+        assertNotNull(snapshot);
+        assertEquals("support@example.edu", snapshot.values.get(":SystemEmail"));
+        assertEquals("v1", snapshot.version);
+        // just loaded - no need to check the version yet:
+        assertFalse(sut.shouldPoll());
+    }
+
+    @Test
+    public void testChangesAreSwappedIn() {
+        sut.install(values, "v1", sut.getGeneration());
+        SettingsCache.Snapshot before = sut.get();
+
+        sut.changed(":SystemEmail", "help@example.edu", "v2");
+        sut.changed(":Shoulder", "FK2/", "v3");
+        assertEquals("help@example.edu", sut.get().values.get(":SystemEmail"));
+        assertEquals("FK2/", sut.get().values.get(":Shoulder"));
+        assertEquals("v3", sut.get().version);
+
+        sut.changed(":SystemEmail", null, "v4");
+        assertFalse(sut.get().values.containsKey(":SystemEmail"));
+
+        assertFalse(sut.get().values.containsKey(SettingsServiceBean.VERSION_SETTING));
+
+        // snapshots already handed out do not change
+        assertEquals("support@example.edu", before.values.get(":SystemEmail"));
+        assertEquals("v1", before.version);
+    }
+
+    @Test
+    public void testStaleLoadNotInstalled() {
+        long generation = sut.getGeneration();
+        sut.changed(":SystemEmail", "help@example.edu", "v2");
+
+        SettingsCache.Snapshot loaded = sut.install(values, "v1", generation);
+        assertEquals("support@example.edu", loaded.values.get(":SystemEmail"));
+        assertNull(sut.get());
+    }
+
+    @Test
+    public void testInvalidate() {
+        sut.install(values, "v1", sut.getGeneration());
+        sut.invalidate();
+        assertNull(sut.get());
+    }
+
+}
@@ -0,0 +1,61 @@
+package edu.harvard.iq.dataverse.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ChecksummingCopyTest {
+
+    Path target;
+
+    @Before
+    public void setUp() throws IOException {
+        target = Files.createTempFile("checksummingcopy", ".tmp");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(target);
+    }
+
+    @Test
+    public void testCopyOfLargeStream() throws IOException {
+        byte[] data = new byte[ChecksummingCopy.BUFFER_SIZE * 3 + 17];
+        new Random(42).nextBytes(data);
+
+        ChecksummingCopy copy = ChecksummingCopy.copy(new ByteArrayInputStream(data), target);
+
+        assertArrayEquals(data, Files.readAllBytes(target));
+        assertEquals(data.length, copy.getSize());
+        assertEquals(new MD5Checksum().CalculateMD5(target.toString()), copy.getMd5());
+        assertArrayEquals(Arrays.copyOf(data, ChecksummingCopy.HEAD_SIZE), copy.getHead());
+    }
+
+    @Test
+    public void testCopyOfShortStream() throws IOException {
+        byte[] data = "$FL2 not much of a file".getBytes("UTF-8");
+
+        ChecksummingCopy copy = ChecksummingCopy.copy(new ByteArrayInputStream(data), target);
+
+        assertArrayEquals(data, copy.getHead());
+        assertEquals(data.length, Files.size(target));
+        assertEquals(new MD5Checksum().CalculateMD5(new ByteArrayInputStream(data)), copy.getMd5());
+    }
+
+    @Test
+    public void testCopyOfEmptyStream() throws IOException {
+        ChecksummingCopy copy = ChecksummingCopy.copy(new ByteArrayInputStream(new byte[0]), target);
+
+        assertEquals(0, copy.getHead().length);
+        assertEquals(0, copy.getSize());
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", copy.getMd5());
+    }
+
+}
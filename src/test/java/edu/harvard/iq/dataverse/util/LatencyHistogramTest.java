@@ -0,0 +1,46 @@
+package edu.harvard.iq.dataverse.util;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsAreContiguous() {
+        for (long micros = 0; micros < 1000000; micros++) {
+            int bucket = LatencyHistogram.bucketOf(micros);
+            assertTrue("value " + micros, micros <= LatencyHistogram.upperBoundOf(bucket));
+            if (bucket > 0) {
+                assertTrue("value " + micros, micros > LatencyHistogram.upperBoundOf(bucket - 1));
+            }
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram sut = new LatencyHistogram();
+        assertEquals(0, sut.getPercentileMicros(50));
+
+        // 1ms to 100ms, one of each
+        for (int ms = 1; ms <= 100; ms++) {
+            sut.record(TimeUnit.MILLISECONDS.toNanos(ms));
+        }
+        assertEquals(100, sut.getCount());
+        assertWithinBucket(50000, sut.getPercentileMicros(50));
+        assertWithinBucket(95000, sut.getPercentileMicros(95));
+        assertWithinBucket(99000, sut.getPercentileMicros(99));
+        assertEquals(100000, sut.getPercentileMicros(100));
+
+        sut.reset();
+        assertEquals(0, sut.getCount());
+        assertEquals(0, sut.getPercentileMicros(99));
+    }
+
+    private static void assertWithinBucket(long expectedMicros, long actualMicros) {
+        assertTrue(actualMicros + " for " + expectedMicros, actualMicros >= expectedMicros);
+        assertTrue(actualMicros + " for " + expectedMicros, actualMicros <= expectedMicros * (1 + 1.0 / LatencyHistogram.SUB_BUCKETS));
+    }
+
+}
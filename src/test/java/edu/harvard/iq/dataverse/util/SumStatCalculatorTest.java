@@ -0,0 +1,57 @@
+package edu.harvard.iq.dataverse.util;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SumStatCalculatorTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void testPrimitiveMatchesBoxed() {
+        Random random = new Random(42);
+        for (int size : new int[]{0, 1, 2, 3, 10, 1001}) {
+            double[] values = new double[size];
+            Double[] boxed = new Double[size];
+            BitSet missing = new BitSet();
+            for (int i = 0; i < size; i++) {
+                values[i] = Math.round(random.nextGaussian() * 1000) / 10.0;
+                boxed[i] = values[i];
+                if (i % 7 == 3) {
+                    missing.set(i);
+                    boxed[i] = null;
+                } else if (i % 11 == 5) {
+                    values[i] = Double.NaN;
+                    boxed[i] = Double.NaN;
+                }
+            }
+
+            double[] expected = SumStatCalculator.calculateSummaryStatistics(boxed);
+            double[] actual = SumStatCalculator.calculateSummaryStatistics(values, missing);
+            assertEquals(expected.length, actual.length);
+            for (int j = 0; j < expected.length; j++) {
+                assertEquals("statistic " + j + ", " + size + " values", expected[j], actual[j], DELTA * Math.max(1, Math.abs(expected[j])));
+            }
+        }
+    }
+
+    @Test
+    public void testMedianBySelection() {
+        assertEquals(3.0, SumStatCalculator.calculateMedianBySelection(new double[]{5, 1, 3}, 3), 0);
+        assertEquals(2.5, SumStatCalculator.calculateMedianBySelection(new double[]{4, 1, 3, 2}, 4), 0);
+        assertEquals(7.0, SumStatCalculator.calculateMedianBySelection(new double[]{7, 7, 7, 7, 7, 7}, 6), 0);
+        // only the first n values count:
+        assertEquals(1.5, SumStatCalculator.calculateMedianBySelection(new double[]{2, 1, 100, 100}, 2), 0);
+        assertTrue(Double.isNaN(SumStatCalculator.calculateMedianBySelection(new double[0], 0)));
+
+        double[] sorted = new double[1000];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = i;
+        }
+        assertEquals(499.5, SumStatCalculator.calculateMedianBySelection(Arrays.copyOf(sorted, sorted.length), sorted.length), 0);
+    }
+
+}